@@ -0,0 +1,6 @@
+#/bin/bash
+bash_cmd="mvn compile exec:java -Dexec.mainClass=edu.cmu.lti.oaqa.knn4qa.apps.ConvertSparseEmbeddings -Dexec.args='$@'"
+bash -c "$bash_cmd"
+if [ "$?" != "0" ] ; then
+  exit 1
+fi
@@ -50,6 +50,10 @@ if [ "$MAX_WORD_QTY" = "" ] ; then
   exit 1
 fi
 
+# Optional extra flags of the translation-table filter, e.g., to also save a binary table:
+# "-save_bin -flip_tran_table -prob_self_tran 0.05"
+EXTRA_TRAN_FLAGS="$7"
+
 function check {
   f="$?"
   name=$1
@@ -96,18 +100,16 @@ function do_filter() {
   echo "Filtering vocabularies : '$dirSrc' -> '$dirDst'"
   SOURCE_VCB_FILE=`get_file_name "$dirSrc/source.vcb"`
   echo "Source vocabulary file: $SOURCE_VCB_FILE"
-  scripts/giza/run_filter_voc.sh -i "$SOURCE_VCB_FILE"  -o  "$dirDst/source.vcb"  -memindex "$FILTER_DIR/$FIELD" -max_word_qty $MAX_WORD_QTY
-  check "filter_voc source"
-
   TARGET_VCB_FILE=`get_file_name "$dirSrc/target.vcb"`
   echo "Target vocabulary file: $TARGET_VCB_FILE"
-  scripts/giza/run_filter_voc.sh -i "$TARGET_VCB_FILE" -o  "$dirDst/target.vcb"  -memindex "$FILTER_DIR/$FIELD" -max_word_qty $MAX_WORD_QTY
-  check "filter_voc target"
+  # Both vocabularies are filtered in parallel
+  scripts/giza/run_filter_voc.sh -i "$SOURCE_VCB_FILE,$TARGET_VCB_FILE"  -o  "$dirDst/source.vcb,$dirDst/target.vcb"  -memindex "$FILTER_DIR/$FIELD" -max_word_qty $MAX_WORD_QTY
+  check "filter_voc"
 
   echo "Filtering translation tables : '$dirSrc' -> '$dirDst'"
 
   echo "Translation table file: $TRAN_TABLE_FILE"
-  scripts/giza/run_filter_tran_table.sh -o  "$dirDst/output.t1.${ITER_QTY}" -giza_root_dir "$dirSrc" -giza_iter_qty $ITER_QTY -min_prob "$MIN_PROB" -memindex "$FILTER_DIR/$FIELD"  -max_word_qty "$MAX_WORD_QTY"
+  scripts/giza/run_filter_tran_table.sh -o  "$dirDst/output.t1.${ITER_QTY}" -giza_root_dir "$dirSrc" -giza_iter_qty $ITER_QTY -min_prob "$MIN_PROB" -memindex "$FILTER_DIR/$FIELD"  -max_word_qty "$MAX_WORD_QTY" $EXTRA_TRAN_FLAGS
   check "filter_tran_table"
 }
 
@@ -0,0 +1,7 @@
+#/bin/bash
+export MAVEN_OPTS="-Xms1g -Xmx4g -server"
+bash_cmd="mvn compile exec:java -Dexec.mainClass=edu.cmu.lti.oaqa.knn4qa.apps.NmslibLoadTest -Dexec.args='$@' "
+bash -c "$bash_cmd"
+if [ "$?" != "0" ] ; then
+  exit 1
+fi
@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.InputStreamReader;
 import java.util.*;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nullable;
 
@@ -35,12 +36,20 @@ import com.google.common.base.Splitter;
 import edu.cmu.lti.oaqa.annographix.util.CompressUtils;
 import edu.cmu.lti.oaqa.annographix.util.XmlHelper;
 import edu.cmu.lti.oaqa.knn4qa.cand_providers.BruteForceKNNCandidateProvider;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.CachingCandidateProvider;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.CandidateCache;
 import edu.cmu.lti.oaqa.knn4qa.cand_providers.CandidateEntry;
 import edu.cmu.lti.oaqa.knn4qa.cand_providers.CandidateInfo;
 import edu.cmu.lti.oaqa.knn4qa.cand_providers.CandidateProvider;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.ExtractorKNNScorer;
 import edu.cmu.lti.oaqa.knn4qa.cand_providers.LuceneCandidateProvider;
 import edu.cmu.lti.oaqa.knn4qa.cand_providers.LuceneGIZACandidateProvider;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.NappIndex;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.NappKNNCandidateProvider;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.NmslibClientPool;
 import edu.cmu.lti.oaqa.knn4qa.cand_providers.NmslibKNNCandidateProvider;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.SWGraphIndex;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.SWGraphKNNCandidateProvider;
 import edu.cmu.lti.oaqa.knn4qa.cand_providers.NmslibQueryGenerator;
 import edu.cmu.lti.oaqa.knn4qa.cand_providers.SolrCandidateProvider;
 import edu.cmu.lti.oaqa.knn4qa.letor.FeatureExtractor;
@@ -120,29 +129,47 @@ class BaseQueryAppProcessingThread extends Thread {
       
       boolean addRankScores = mAppRef.mInMemExtrFinal != null && mAppRef.mInMemExtrFinal.addRankScores();
       
-      for (int iq = 0; iq < mAppRef.mQueries.size(); ++iq)
-      if (iq % mThreadQty == mThreadId) {
-        Map<String, String>    docFields = null;
-        String                 docText = mAppRef.mQueries.get(iq);
-        
-        // 1. Parse a query
-        try {
-          docFields = XmlHelper.parseXMLIndexEntry(docText);
-        } catch (Exception e) {
-          mAppRef.logger.error("Parsing error, offending DOC:\n" + docText);
-          throw new Exception("Parsing error.");
+      /*
+       * Candidates are requested for up to mCandInFlightQty queries ahead of time.
+       * If the provider supports asynchronous requests, this thread re-ranks
+       * results of one query while the following queries are being processed.
+       */
+      ArrayDeque<PendingQuery> pendingQueries = new ArrayDeque<PendingQuery>();
+      int nextQuery = mThreadId;
+      
+      for (int iq = mThreadId; iq < mAppRef.mQueries.size(); iq += mThreadQty) {
+        // 1. Parse queries and request candidates
+        while (pendingQueries.size() < mAppRef.mCandInFlightQty && nextQuery < mAppRef.mQueries.size()) {
+          Map<String, String>    nextFields = null;
+          String                 docText = mAppRef.mQueries.get(nextQuery);
+          
+          try {
+            nextFields = XmlHelper.parseXMLIndexEntry(docText);
+          } catch (Exception e) {
+            mAppRef.logger.error("Parsing error, offending DOC:\n" + docText);
+            throw new Exception("Parsing error.");
+          }
+          
+          long start = System.currentTimeMillis();
+          Future<CandidateInfo> cands = candProvider.submitCandidates(nextQuery, nextFields, mAppRef.mMaxCandRet);
+          pendingQueries.add(new PendingQuery(nextFields, cands, System.currentTimeMillis() - start));
+          nextQuery += mThreadQty;
         }
         
+        PendingQuery           pendingQuery = pendingQueries.poll();
+        Map<String, String>    docFields = pendingQuery.mDocFields;
+        
         String queryID = docFields.get(CandidateProvider.ID_FIELD_NAME);
                 
         // 2. Obtain results
         long start = System.currentTimeMillis();
         
-        CandidateInfo qres = candProvider.getCandidates(iq, docFields, mAppRef.mMaxCandRet);
+        CandidateInfo qres = CandidateProvider.waitForResult(pendingQuery.mCands);
         CandidateEntry [] resultsAll = qres.mEntries;
         
         long end = System.currentTimeMillis();
-        long searchTimeMS = end - start;
+        // The time this thread spent on requesting and waiting for candidates
+        long searchTimeMS = end - start + pendingQuery.mSubmitTimeMS;
         
         mAppRef.logger.info(
             String.format("Obtained results for the query # %d queryId='%s' thread ID=%d, the search took %d ms, we asked for max %d entries got %d", 
@@ -296,6 +323,20 @@ class BaseQueryAppProcessingThread extends Thread {
     }
   }
 
+  /**
+   * A query whose candidates were requested, but not processed yet.
+   */
+  private static class PendingQuery {
+    PendingQuery(Map<String, String> docFields, Future<CandidateInfo> cands, long submitTimeMS) {
+      mDocFields = docFields;
+      mCands = cands;
+      mSubmitTimeMS = submitTimeMS;
+    }
+    final Map<String, String>    mDocFields;
+    final Future<CandidateInfo>  mCands;
+    final long                   mSubmitTimeMS;
+  }
+
   /**
    * Adds ranks and scores obtained from a candidate provider.
    * 
@@ -434,12 +475,23 @@ public abstract class BaseQueryApp {
       mOptions.addOption(CommonParams.THREAD_QTY_PARAM,        null, true, CommonParams.THREAD_QTY_DESC);
     mOptions.addOption(CommonParams.KNN_THREAD_QTY_PARAM,      null, true, CommonParams.KNN_THREAD_QTY_DESC);
     mOptions.addOption(CommonParams.KNN_WEIGHTS_FILE_PARAM,    null, true, CommonParams.KNN_WEIGHTS_FILE_DESC);
+    mOptions.addOption(CommonParams.KNN_EF_SEARCH_PARAM,       null, true, CommonParams.KNN_EF_SEARCH_DESC);
+    mOptions.addOption(CommonParams.KNN_NUM_PIVOT_SEARCH_PARAM, null, true, CommonParams.KNN_NUM_PIVOT_SEARCH_DESC);
+    mOptions.addOption(CommonParams.KNN_MIN_TIMES_PARAM,       null, true, CommonParams.KNN_MIN_TIMES_DESC);
+    mOptions.addOption(CommonParams.LUCENE_SEARCH_THREAD_QTY_PARAM, null, true,  CommonParams.LUCENE_SEARCH_THREAD_QTY_DESC);
+    mOptions.addOption(CommonParams.LUCENE_PRELOAD_INDEX_PARAM,     null, false, CommonParams.LUCENE_PRELOAD_INDEX_DESC);
+    mOptions.addOption(CommonParams.WARM_UP_QUERY_QTY_PARAM,   null, true, CommonParams.WARM_UP_QUERY_QTY_DESC);
+    mOptions.addOption(CommonParams.CAND_CACHE_FILE_PARAM,     null, true, CommonParams.CAND_CACHE_FILE_DESC);
+    mOptions.addOption(CommonParams.CAND_CACHE_QTY_PARAM,      null, true, CommonParams.CAND_CACHE_QTY_DESC);
     mOptions.addOption(CommonParams.MAX_NUM_QUERY_PARAM,       null, true, CommonParams.MAX_NUM_QUERY_DESC);
     
     mOptions.addOption(CommonParams.GIZA_EXPAND_QTY_PARAM,          null, true,  CommonParams.GIZA_EXPAND_QTY_DESC);
     mOptions.addOption(CommonParams.GIZA_EXPAND_USE_WEIGHTS_PARAM,  null, false, CommonParams.GIZA_EXPAND_USE_WEIGHTS_DESC);
 
     mOptions.addOption(CommonParams.NMSLIB_FIELDS_PARAM,       null, true, CommonParams.NMSLIB_FIELDS_DESC);
+    mOptions.addOption(CommonParams.NMSLIB_POOL_SIZE_PARAM,    null, true, CommonParams.NMSLIB_POOL_SIZE_DESC);
+    mOptions.addOption(CommonParams.NMSLIB_TIMEOUT_PARAM,      null, true, CommonParams.NMSLIB_TIMEOUT_DESC);
+    mOptions.addOption(CommonParams.CAND_IN_FLIGHT_QTY_PARAM,  null, true, CommonParams.CAND_IN_FLIGHT_QTY_DESC);
     
     mOptions.addOption(CommonParams.SAVE_STAT_FILE_PARAM,      null, true, CommonParams.SAVE_STAT_FILE_DESC);
   }
@@ -458,6 +510,7 @@ public abstract class BaseQueryApp {
     mOptions.addOption(CommonParams.EMBED_FILES_PARAM,         null, true,  CommonParams.EMBED_FILES_DESC);
     if (useHigHorderModels)
       mOptions.addOption(CommonParams.HIHG_ORDER_FILES_PARAM,    null, true,  CommonParams.HIHG_ORDER_FILES_DESC);            
+    mOptions.addOption(CommonParams.BM25_IMPACT_BITS_PARAM,    null, true,  CommonParams.BM25_IMPACT_BITS_DESC);
   }
   
   /**
@@ -555,6 +608,32 @@ public abstract class BaseQueryApp {
         showUsage("Number of threads for brute-force KNN-provider isn't integer: '" + tmpn + "'");
       }
     }
+    tmpn = mCmd.getOptionValue(CommonParams.KNN_EF_SEARCH_PARAM);
+    if (null != tmpn) {
+      try {
+        mKnnEfSearch = Integer.parseInt(tmpn);
+      } catch (NumberFormatException e) {
+        showUsage("The size of the SW-graph search queue isn't integer: '" + tmpn + "'");
+      }
+      if (mKnnEfSearch <= 0)
+        showUsage("The size of the SW-graph search queue should be positive: '" + tmpn + "'");
+    }
+    tmpn = mCmd.getOptionValue(CommonParams.KNN_NUM_PIVOT_SEARCH_PARAM);
+    if (null != tmpn) {
+      try {
+        mKnnNumPivotSearch = Integer.parseInt(tmpn);
+      } catch (NumberFormatException e) {
+        showUsage("The number of NAPP search pivots isn't integer: '" + tmpn + "'");
+      }
+    }
+    tmpn = mCmd.getOptionValue(CommonParams.KNN_MIN_TIMES_PARAM);
+    if (null != tmpn) {
+      try {
+        mKnnMinTimes = Integer.parseInt(tmpn);
+      } catch (NumberFormatException e) {
+        showUsage("The minimum number of shared NAPP pivots isn't integer: '" + tmpn + "'");
+      }
+    }
     String knnWeightFileName = mCmd.getOptionValue(CommonParams.KNN_WEIGHTS_FILE_PARAM);
     if (null != knnWeightFileName) {
       mKnnWeights = FeatureExtractor.readFeatureWeights(knnWeightFileName);
@@ -568,6 +647,66 @@ public abstract class BaseQueryApp {
       }
     }
     mGizaExpandUseWeights = mCmd.hasOption(CommonParams.GIZA_EXPAND_USE_WEIGHTS_PARAM);
+    tmpn = mCmd.getOptionValue(CommonParams.LUCENE_SEARCH_THREAD_QTY_PARAM);
+    if (null != tmpn) {
+      try {
+        mLuceneSearchThreadQty = Integer.parseInt(tmpn);
+      } catch (NumberFormatException e) {
+        showUsage("Number of Lucene segment-search threads isn't integer: '" + tmpn + "'");
+      }
+      if (mLuceneSearchThreadQty <= 0)
+        showUsage("Number of Lucene segment-search threads should be positive: '" + tmpn + "'");
+    }
+    mLucenePreloadIndex = mCmd.hasOption(CommonParams.LUCENE_PRELOAD_INDEX_PARAM);
+    mCandCacheFile = mCmd.getOptionValue(CommonParams.CAND_CACHE_FILE_PARAM);
+    tmpn = mCmd.getOptionValue(CommonParams.CAND_CACHE_QTY_PARAM);
+    if (null != tmpn) {
+      try {
+        mCandCacheQty = Integer.parseInt(tmpn);
+      } catch (NumberFormatException e) {
+        showUsage("Number of cached candidate lists isn't integer: '" + tmpn + "'");
+      }
+      if (mCandCacheQty < 0)
+        showUsage("Number of cached candidate lists should be non-negative: '" + tmpn + "'");
+    }
+    tmpn = mCmd.getOptionValue(CommonParams.NMSLIB_POOL_SIZE_PARAM);
+    if (null != tmpn) {
+      try {
+        mNmslibPoolSize = Integer.parseInt(tmpn);
+      } catch (NumberFormatException e) {
+        showUsage("The size of the NMSLIB connection pool isn't integer: '" + tmpn + "'");
+      }
+      if (mNmslibPoolSize <= 0)
+        showUsage("The size of the NMSLIB connection pool should be positive: '" + tmpn + "'");
+    }
+    tmpn = mCmd.getOptionValue(CommonParams.NMSLIB_TIMEOUT_PARAM);
+    if (null != tmpn) {
+      try {
+        mNmslibTimeoutMS = Integer.parseInt(tmpn);
+      } catch (NumberFormatException e) {
+        showUsage("The NMSLIB timeout isn't integer: '" + tmpn + "'");
+      }
+      if (mNmslibTimeoutMS <= 0)
+        showUsage("The NMSLIB timeout should be positive: '" + tmpn + "'");
+    }
+    tmpn = mCmd.getOptionValue(CommonParams.CAND_IN_FLIGHT_QTY_PARAM);
+    if (null != tmpn) {
+      try {
+        mCandInFlightQty = Integer.parseInt(tmpn);
+      } catch (NumberFormatException e) {
+        showUsage("Number of in-flight queries isn't integer: '" + tmpn + "'");
+      }
+      if (mCandInFlightQty <= 0)
+        showUsage("Number of in-flight queries should be positive: '" + tmpn + "'");
+    }
+    tmpn = mCmd.getOptionValue(CommonParams.WARM_UP_QUERY_QTY_PARAM);
+    if (null != tmpn) {
+      try {
+        mWarmUpQueryQty = Integer.parseInt(tmpn);
+      } catch (NumberFormatException e) {
+        showUsage("Number of warm-up queries isn't integer: '" + tmpn + "'");
+      }
+    }
     mGizaRootDir = mCmd.getOptionValue(CommonParams.GIZA_ROOT_DIR_PARAM);
     tmpn = mCmd.getOptionValue(CommonParams.GIZA_ITER_QTY_PARAM);
     if (null != tmpn) {
@@ -589,6 +728,16 @@ public abstract class BaseQueryApp {
       mHighOrderFiles = highOrderFilesStr.split(",");
     }
     mMemIndexPref = mCmd.getOptionValue(CommonParams.MEMINDEX_PARAM);
+    tmpn = mCmd.getOptionValue(CommonParams.BM25_IMPACT_BITS_PARAM);
+    if (null != tmpn) {
+      try {
+        mBM25ImpactBitQty = Integer.parseInt(tmpn);
+      } catch (NumberFormatException e) {
+        showUsage("The number of bits per BM25 impact isn't integer: '" + tmpn + "'");
+      }
+      if (mBM25ImpactBitQty != 8 && mBM25ImpactBitQty != 16)
+        showUsage("The number of bits per BM25 impact should be either 8 or 16: '" + tmpn + "'");
+    }
     mExtrTypeInterm = mCmd.getOptionValue(CommonParams.EXTRACTOR_TYPE_INTERM_PARAM);
     if (mExtrTypeInterm != null) {
       String modelFile = mCmd.getOptionValue(CommonParams.MODEL_FILE_INTERM_PARAM);
@@ -665,7 +814,7 @@ public abstract class BaseQueryApp {
       for (int ic = 1; ic < mThreadQty; ++ic) 
         mCandProviders[ic] = mCandProviders[0];
     } else if (mCandProviderType.equalsIgnoreCase(CandidateProvider.CAND_TYPE_LUCENE)) {
-      mCandProviders[0] = new LuceneCandidateProvider(mProviderURI);
+      mCandProviders[0] = new LuceneCandidateProvider(mProviderURI, mLuceneSearchThreadQty, mLucenePreloadIndex);
       for (int ic = 1; ic < mThreadQty; ++ic) 
         mCandProviders[ic] = mCandProviders[0];
     } else if (mCandProviderType.equalsIgnoreCase(CandidateProvider.CAND_TYPE_LUCENE_GIZA)) {
@@ -678,7 +827,8 @@ public abstract class BaseQueryApp {
         showUsageSpecify(CommonParams.GIZA_ITER_QTY_DESC);
       }
       
-      mCandProviders[0] = new LuceneGIZACandidateProvider(mProviderURI, mGizaExpandQty, mGizaExpandUseWeights,
+      mCandProviders[0] = new LuceneGIZACandidateProvider(mProviderURI, mLuceneSearchThreadQty, mLucenePreloadIndex,
+                                                          mGizaExpandQty, mGizaExpandUseWeights,
                                                           mGizaRootDir, mGizaIterQty, 
                                                           mMemIndexPref,
                                                           mInMemExtrFinal, mInMemExtrInterm);
@@ -689,30 +839,223 @@ public abstract class BaseQueryApp {
         showUsage("One shouldn't use an intermeditate re-ranker together with the brute-force Java provider!");
       if (null == mKnnWeights)
         showUsageSpecify(CommonParams.KNN_WEIGHTS_FILE_DESC);
-      if (null == mInMemExtrInterm)
+      if (null == mInMemExtrFinal)
         showUsageSpecify(CommonParams.EXTRACTOR_TYPE_FINAL_DESC);
-      mCandProviders[0] = new BruteForceKNNCandidateProvider(mInMemExtrFinal,
-                                                             mKnnWeights,
-                                                             mKnnThreadQty
-                                                            );      
+      mKnnBruteForce = new BruteForceKNNCandidateProvider(mInMemExtrFinal,
+                                                          mKnnWeights,
+                                                          mKnnThreadQty
+                                                         );      
+      mCandProviders[0] = mKnnBruteForce;
       for (int ic = 1; ic < mThreadQty; ++ic) 
         mCandProviders[ic] = mCandProviders[0];        
-    } else if (mCandProviderType.equals(CandidateProvider.CAND_TYPE_NMSLIB)) {
+    } else if (mCandProviderType.equalsIgnoreCase(CandidateProvider.CAND_TYPE_SWGRAPH)) {
       /*
-       * NmslibKNNCandidateProvider isn't really thread-safe,
-       * b/c each instance creates a TCP/IP that isn't supposed to be shared among threads.
-       * However, creating one instance of the provider class per thread is totally fine (and is the right way to go). 
+       * The graph is loaded only once and is shared, but each thread
+       * needs its own provider instance (because of search data structures).
+       * The provider URI is the graph file created by BuildSWGraphIndex.
        */
+      if (null != mInMemExtrInterm)
+        showUsage("One shouldn't use an intermeditate re-ranker together with the SW-graph Java provider!");
+      if (null == mKnnWeights)
+        showUsageSpecify(CommonParams.KNN_WEIGHTS_FILE_DESC);
+      if (null == mInMemExtrFinal)
+        showUsageSpecify(CommonParams.EXTRACTOR_TYPE_FINAL_DESC);
+      SWGraphIndex index = SWGraphIndex.load(new ExtractorKNNScorer(mInMemExtrFinal, mKnnWeights),
+                                             mProviderURI);
+      for (int ic = 0; ic < mThreadQty; ++ic) {
+        mCandProviders[ic] = new SWGraphKNNCandidateProvider(index, mKnnEfSearch, ic);
+      }
+    } else if (mCandProviderType.equalsIgnoreCase(CandidateProvider.CAND_TYPE_NAPP)) {
+      /*
+       * Same as for the SW-graph: the index created by BuildNappIndex is shared,
+       * but each thread needs its own provider instance.
+       */
+      if (null != mInMemExtrInterm)
+        showUsage("One shouldn't use an intermeditate re-ranker together with the NAPP Java provider!");
+      if (null == mKnnWeights)
+        showUsageSpecify(CommonParams.KNN_WEIGHTS_FILE_DESC);
+      if (null == mInMemExtrFinal)
+        showUsageSpecify(CommonParams.EXTRACTOR_TYPE_FINAL_DESC);
+      NappIndex index = NappIndex.load(new ExtractorKNNScorer(mInMemExtrFinal, mKnnWeights),
+                                       mProviderURI);
+      for (int ic = 0; ic < mThreadQty; ++ic) {
+        mCandProviders[ic] = new NappKNNCandidateProvider(index, mKnnNumPivotSearch, mKnnMinTimes);
+      }
+    } else if (mCandProviderType.equals(CandidateProvider.CAND_TYPE_NMSLIB)) {
       if (null == mNmslibFields) showUsageSpecify(CommonParams.NMSLIB_FIELDS_PARAM);
       NmslibQueryGenerator queryGen = 
           new NmslibQueryGenerator(mNmslibFields, mMemIndexPref, mInMemExtrInterm, mInMemExtrFinal); 
-      for (int ic = 0; ic < mThreadQty; ++ic) {
-        mCandProviders[ic] = new NmslibKNNCandidateProvider(mProviderURI, queryGen);
-      }                
+      if (mNmslibPoolSize != null) {
+        // A pooled provider is thread-safe: all threads share the pool connections.
+        mNmslibPool = NmslibKNNCandidateProvider.createPool(mProviderURI, mNmslibPoolSize, mNmslibTimeoutMS);
+        mCandProviders[0] = new NmslibKNNCandidateProvider(mNmslibPool, queryGen);
+        for (int ic = 1; ic < mThreadQty; ++ic) 
+          mCandProviders[ic] = mCandProviders[0];
+      } else {
+        /*
+         * A blocking NmslibKNNCandidateProvider isn't really thread-safe,
+         * b/c each instance creates a TCP/IP that isn't supposed to be shared among threads.
+         * However, creating one instance of the provider class per thread is totally fine (and is the right way to go). 
+         */
+        for (int ic = 0; ic < mThreadQty; ++ic) {
+          mCandProviders[ic] = new NmslibKNNCandidateProvider(mProviderURI, queryGen);
+        }
+      }
     } else {
       showUsage("Wrong candidate record provider type: '" + mCandProviderType + "'");
     }
-
+  }
+  
+  /**
+   * Wraps providers into caching ones, if the cache is requested. This function
+   * should be called after {@link #warmUp()}: otherwise, warm-up queries would
+   * populate the cache and would be served from it later.
+   * 
+   * @throws Exception
+   */
+  void initCandidateCache() throws Exception {
+    if (mCandCacheFile != null || mCandCacheQty != null) {
+      /*
+       * All provider instances share the cache. If the same provider instance 
+       * is used by several threads, it is wrapped only once.
+       */
+      mCandCache = new CandidateCache(mCandCacheQty != null ? mCandCacheQty : CandidateCache.DEFAULT_MAX_MEM_QTY, 
+                                      mCandCacheFile);
+      String providerConfig = getProviderConfig();
+      logger.info("Caching candidates of the provider: " + providerConfig);
+      IdentityHashMap<CandidateProvider, CandidateProvider> wrapped = 
+          new IdentityHashMap<CandidateProvider, CandidateProvider>();
+      for (int ic = 0; ic < mThreadQty; ++ic) {
+        CandidateProvider p = wrapped.get(mCandProviders[ic]);
+        if (p == null) {
+          p = new CachingCandidateProvider(mCandProviders[ic], mCandCache, providerConfig);
+          wrapped.put(mCandProviders[ic], p);
+        }
+        mCandProviders[ic] = p;
+      }
+    }
+  }
+  
+  /**
+   * Creates a description of the candidate provider, which includes
+   * all options that may affect the output of the provider as well as
+   * fingerprints of the index and other files used by the provider. Extractor-related 
+   * options are included only for providers that use extractors (or their translation
+   * tables) to generate candidates: for other providers, re-ranking options can be 
+   * changed without invalidating cached candidates.
+   */
+  String getProviderConfig() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(mCandProviderType).append('@').append(mProviderURI);
+    
+    ArrayList<String> params = new ArrayList<String>(Arrays.asList(
+        CommonParams.MIN_SHOULD_MATCH_PCT_PARAM,
+        CommonParams.GIZA_EXPAND_QTY_PARAM, CommonParams.GIZA_EXPAND_USE_WEIGHTS_PARAM,
+        CommonParams.GIZA_ROOT_DIR_PARAM, CommonParams.GIZA_ITER_QTY_PARAM,
+        CommonParams.NMSLIB_FIELDS_PARAM));
+    // Files whose modification changes the output of the provider
+    ArrayList<String> fileNames = new ArrayList<String>();
+    fileNames.add(mProviderURI);
+    if (mCandProviderType.equalsIgnoreCase(CandidateProvider.CAND_TYPE_KNN) ||
+        mCandProviderType.equalsIgnoreCase(CandidateProvider.CAND_TYPE_SWGRAPH) ||
+        mCandProviderType.equalsIgnoreCase(CandidateProvider.CAND_TYPE_NAPP) ||
+        mCandProviderType.equalsIgnoreCase(CandidateProvider.CAND_TYPE_NMSLIB)) {
+      fileNames.addAll(Arrays.asList(mCmd.getOptionValue(CommonParams.KNN_WEIGHTS_FILE_PARAM),
+                                     mMemIndexPref, mEmbedDir, mGizaRootDir));
+      params.addAll(Arrays.asList(
+        CommonParams.KNN_WEIGHTS_FILE_PARAM, CommonParams.KNN_EF_SEARCH_PARAM,
+        CommonParams.KNN_NUM_PIVOT_SEARCH_PARAM, CommonParams.KNN_MIN_TIMES_PARAM,
+        CommonParams.EXTRACTOR_TYPE_FINAL_PARAM, CommonParams.EXTRACTOR_TYPE_INTERM_PARAM,
+        CommonParams.MEMINDEX_PARAM, CommonParams.EMBED_DIR_PARAM, CommonParams.EMBED_FILES_PARAM,
+        CommonParams.HIHG_ORDER_FILES_PARAM, CommonParams.BM25_IMPACT_BITS_PARAM));
+    } else if (mCandProviderType.equalsIgnoreCase(CandidateProvider.CAND_TYPE_LUCENE_GIZA)) {
+      // Query expansion uses translation tables and vocabularies of the extractors
+      fileNames.addAll(Arrays.asList(mMemIndexPref, mGizaRootDir));
+      params.addAll(Arrays.asList(
+        CommonParams.EXTRACTOR_TYPE_FINAL_PARAM, CommonParams.EXTRACTOR_TYPE_INTERM_PARAM,
+        CommonParams.MEMINDEX_PARAM));
+    }
+    for (String param : params) {
+      if (mCmd.hasOption(param)) {
+        String val = mCmd.getOptionValue(param);
+        sb.append(' ').append(param).append('=').append(val != null ? val : "");
+      }
+    }
+    // If an index is re-built in place, its fingerprint changes
+    for (String fileName : fileNames) {
+      if (fileName == null) continue;
+      String fingerprint = getFileFingerprint(fileName);
+      if (fingerprint != null) sb.append(" fingerprint(").append(fileName).append(")=").append(fingerprint);
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Computes a fingerprint of a file, which is the number of files, their
+   * total size, and the latest modification time. A directory is scanned
+   * recursively. If there's no such file or directory, the name is considered to be a 
+   * prefix (as in the case of the in-memory forward index) and all files 
+   * (or directories) starting with this prefix are used.
+   * 
+   * @param fileName  a file, a directory, or a prefix of file names.
+   * @return a fingerprint or null, if there are no files.
+   */
+  static String getFileFingerprint(String fileName) {
+    File f = new File(fileName);
+    ArrayList<File> files = new ArrayList<File>();
+    if (f.exists()) {
+      addFiles(f, files);
+    } else {
+      File dir = f.getAbsoluteFile().getParentFile();
+      File children[] = dir != null ? dir.listFiles() : null;
+      if (children != null) {
+        for (File child : children) {
+          if (child.getName().startsWith(f.getName())) addFiles(child, files);
+        }
+      }
+    }
+    if (files.isEmpty()) return null;
+    
+    long size = 0, lastModified = 0;
+    for (File file : files) {
+      size += file.length();
+      lastModified = Math.max(lastModified, file.lastModified());
+    }
+    return String.format("%d/%d/%d", files.size(), size, lastModified);
+  }
+  
+  private static void addFiles(File f, ArrayList<File> res) {
+    if (f.isDirectory()) {
+      File children[] = f.listFiles();
+      if (children != null) {
+        for (File child : children) addFiles(child, res);
+      }
+    } else {
+      res.add(f);
+    }
+  }
+  
+  /**
+   * Runs the first mWarmUpQueryQty queries (results are discarded), so that
+   * timing statistics don't include the cost of the initial loading of index
+   * data, JIT compilation, etc. Because all threads typically share the
+   * same index data, it is sufficient to use only the first provider.
+   * The warm-up uses providers that are not yet wrapped into caching ones
+   * (see {@link #initCandidateCache()}).
+   * 
+   * @throws Exception
+   */
+  void warmUp() throws Exception {
+    int qty = Math.min(mWarmUpQueryQty, mQueries.size());
+    if (qty <= 0) return;
+    
+    long start = System.currentTimeMillis();
+    for (int iq = 0; iq < qty; ++iq) {
+      Map<String, String> docFields = XmlHelper.parseXMLIndexEntry(mQueries.get(iq));
+      mCandProviders[0].getCandidates(iq, docFields, mMaxCandRet);
+    }
+    logger.info(String.format("Warmed up the candidate provider using %d queries in %d ms", 
+                              qty, System.currentTimeMillis() - start));
   }
   
   /**
@@ -764,6 +1107,7 @@ public abstract class BaseQueryApp {
       }
     }
 
+    inMemExtractor.setBM25ImpactBitQty(mBM25ImpactBitQty);
     inMemExtractor.init(donnorExtractors);
 
     return inMemExtractor;
@@ -808,6 +1152,10 @@ public abstract class BaseQueryApp {
       
       logger.info("Read " + docQty + " documents"); 
       
+      warmUp();
+      
+      initCandidateCache();
+      
       init();
       
       BaseQueryAppProcessingThread[] workers = new BaseQueryAppProcessingThread[mThreadQty];
@@ -823,6 +1171,18 @@ public abstract class BaseQueryApp {
      
       fin();
       
+      if (mCandCache != null) {
+        mCandCache.logStats();
+        mCandCache.close();
+      }
+      if (mNmslibPool != null) {
+        logger.info(String.format("Opened %d connections to the NMSLIB server", mNmslibPool.getConnectQty()));
+        mNmslibPool.close();
+      }
+      if (mKnnBruteForce != null) {
+        mKnnBruteForce.close();
+      }
+      
       long end = System.currentTimeMillis();
       double totalTimeMS = end - start;
       
@@ -830,6 +1190,10 @@ public abstract class BaseQueryApp {
       
       logger.info(String.format("Query time (ms):             mean=%f std=%f", 
                                 mQueryTimeStat.getMean(), mQueryTimeStat.getStandardDeviation()));
+      if (mQueryTimeStat.getSum() > 0) {
+        logger.info(String.format("Query throughput (per thread): %f queries/sec",
+                                  1000.0 * mQueryTimeStat.getN() / mQueryTimeStat.getSum()));
+      }
       logger.info(String.format("Number of entries found:     mean=%f std=%f",
           mNumRetStat.getMean(), mNumRetStat.getStandardDeviation()));
 
@@ -876,17 +1240,32 @@ public abstract class BaseQueryApp {
   QrelReader   mQrels;
   int          mThreadQty = 1;
   int          mKnnThreadQty = 1;
+  int          mKnnEfSearch = SWGraphIndex.DEFAULT_EF_SEARCH;
+  int          mKnnNumPivotSearch = NappIndex.DEFAULT_PIVOT_SEARCH_QTY;
+  int          mKnnMinTimes = NappIndex.DEFAULT_MIN_TIMES;
   String       mNmslibFields[];
+  Integer      mNmslibPoolSize;
+  int          mNmslibTimeoutMS = NmslibClientPool.DEFAULT_TIMEOUT_MS;
+  NmslibClientPool mNmslibPool;
+  BruteForceKNNCandidateProvider mKnnBruteForce;
+  int          mCandInFlightQty = 1;
   String       mSaveStatFile;
   DenseVector  mKnnWeights;        
   Integer      mGizaExpandQty;
   boolean      mGizaExpandUseWeights = false;
+  int          mLuceneSearchThreadQty = 1;
+  boolean      mLucenePreloadIndex = false;
+  int          mWarmUpQueryQty = 0;
+  String       mCandCacheFile;
+  Integer      mCandCacheQty;
+  CandidateCache mCandCache;
   String       mGizaRootDir;
   int          mGizaIterQty = -1;
   String       mEmbedDir;
   String       mEmbedFiles[];
   String       mHighOrderFiles[];
   String       mMemIndexPref;
+  int          mBM25ImpactBitQty = 0;
   String       mExtrTypeFinal;
   String       mExtrTypeInterm;
   DenseVector  mModelInterm;
@@ -0,0 +1,200 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.apps;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import edu.cmu.lti.oaqa.knn4qa.embed.EmbeddingReaderAndRecoder;
+import edu.cmu.lti.oaqa.knn4qa.embed.HNSWIndex;
+import edu.cmu.lti.oaqa.knn4qa.simil.AbstractDistance;
+import edu.cmu.lti.oaqa.knn4qa.simil.VectorSearchEntry;
+
+/**
+ * An application that builds (or loads) an HNSW index for word embeddings
+ * (see {@link HNSWIndex}) and, optionally, compares the approximate search
+ * against the brute-force one: for several values of efSearch, it reports
+ * recall and the number of queries per second.
+ */
+public class BuildEmbeddingIndex {
+  public static final String EMBED_FILE_PARAM = "embed_file";
+  public static final String EMBED_FILE_DESC  = "A word embedding file";
+  public static final String OUT_FILE_PARAM = "o";
+  public static final String OUT_FILE_DESC  = "An output index file";
+  public static final String IN_FILE_PARAM = "i";
+  public static final String IN_FILE_DESC  = "An input index file: if specified, the index is loaded rather than built";
+  public static final String DIST_TYPE_PARAM = "dist_type";
+  public static final String DIST_TYPE_DESC  = "A distance type: l2, cosine";
+  public static final String M_PARAM = "M";
+  public static final String M_DESC  = "The maximum number of neighbors of a vector (default " + HNSWIndex.DEFAULT_M + ")";
+  public static final String EF_CONSTRUCTION_PARAM = "ef_construction";
+  public static final String EF_CONSTRUCTION_DESC  = "The size of the queue used during the construction (default " +
+                                                     HNSWIndex.DEFAULT_EF_CONSTRUCTION + ")";
+  public static final String EF_SEARCH_PARAM = "ef_search";
+  public static final String EF_SEARCH_DESC  = "A comma-separated list of search queue sizes to evaluate (default " +
+                                               BuildEmbeddingIndex.DEFAULT_EF_SEARCH + ")";
+  public static final String EVAL_QTY_PARAM = "eval_qty";
+  public static final String EVAL_QTY_DESC  = "The number of random words used to compare the index against the brute-force search";
+  public static final String K_PARAM = "k";
+  public static final String K_DESC  = "The number of neighbors used in the evaluation (default " + BuildEmbeddingIndex.DEFAULT_K + ")";
+
+  public static final String DEFAULT_EF_SEARCH = "10,20,40,80,160,320";
+  public static final int    DEFAULT_K = 10;
+
+  static void Usage(String err, Options options) {
+    System.err.println("Error: " + err);
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp("BuildEmbeddingIndex", options);
+    System.exit(1);
+  }
+
+  public static void main(String[] args) {
+    Options options = new Options();
+
+    options.addOption(EMBED_FILE_PARAM,                 null, true,  EMBED_FILE_DESC);
+    options.addOption(OUT_FILE_PARAM,                   null, true,  OUT_FILE_DESC);
+    options.addOption(IN_FILE_PARAM,                    null, true,  IN_FILE_DESC);
+    options.addOption(DIST_TYPE_PARAM,                  null, true,  DIST_TYPE_DESC);
+    options.addOption(M_PARAM,                          null, true,  M_DESC);
+    options.addOption(EF_CONSTRUCTION_PARAM,            null, true,  EF_CONSTRUCTION_DESC);
+    options.addOption(EF_SEARCH_PARAM,                  null, true,  EF_SEARCH_DESC);
+    options.addOption(EVAL_QTY_PARAM,                   null, true,  EVAL_QTY_DESC);
+    options.addOption(K_PARAM,                          null, true,  K_DESC);
+    options.addOption(CommonParams.THREAD_QTY_PARAM,    null, true,  CommonParams.THREAD_QTY_DESC);
+
+    CommandLineParser parser = new org.apache.commons.cli.GnuParser();
+
+    try {
+      CommandLine cmd = parser.parse(options, args);
+
+      String embedFileName = cmd.getOptionValue(EMBED_FILE_PARAM);
+      if (null == embedFileName) {
+        Usage("Specify '" + EMBED_FILE_DESC + "'", options);
+      }
+      String outFileName = cmd.getOptionValue(OUT_FILE_PARAM);
+      String inFileName = cmd.getOptionValue(IN_FILE_PARAM);
+      if (null == outFileName && null == inFileName) {
+        Usage("Specify '" + OUT_FILE_DESC + "' or '" + IN_FILE_DESC + "'", options);
+      }
+      int M = Integer.parseInt(cmd.getOptionValue(M_PARAM, "" + HNSWIndex.DEFAULT_M));
+      int efConstruction = Integer.parseInt(cmd.getOptionValue(EF_CONSTRUCTION_PARAM,
+                                                               "" + HNSWIndex.DEFAULT_EF_CONSTRUCTION));
+      int evalQty = Integer.parseInt(cmd.getOptionValue(EVAL_QTY_PARAM, "0"));
+      int k = Integer.parseInt(cmd.getOptionValue(K_PARAM, "" + DEFAULT_K));
+      if (k <= 0) {
+        Usage("Specify a positive '" + K_DESC + "'", options);
+      }
+      String efSearchList[] = cmd.getOptionValue(EF_SEARCH_PARAM, DEFAULT_EF_SEARCH).split(",");
+      int efSearch[] = new int[efSearchList.length];
+      for (int i = 0; i < efSearch.length; ++i) {
+        efSearch[i] = Integer.parseInt(efSearchList[i].trim());
+        if (efSearch[i] <= 0) Usage("Search queue sizes should be positive", options);
+      }
+      int threadQty = Runtime.getRuntime().availableProcessors();
+      if (cmd.hasOption(CommonParams.THREAD_QTY_PARAM)) {
+        threadQty = Integer.parseInt(cmd.getOptionValue(CommonParams.THREAD_QTY_PARAM));
+        if (threadQty <= 0) Usage("The number of threads should be positive", options);
+      }
+
+      EmbeddingReaderAndRecoder embed = new EmbeddingReaderAndRecoder(embedFileName, null);
+
+      HNSWIndex index = null;
+      if (null != inFileName) {
+        index = HNSWIndex.load(embed, inFileName);
+      } else {
+        String distType = cmd.getOptionValue(DIST_TYPE_PARAM);
+        if (null == distType) {
+          Usage("Specify '" + DIST_TYPE_DESC + "'", options);
+        }
+        index = HNSWIndex.build(embed, AbstractDistance.create(distType), M, efConstruction, threadQty);
+      }
+      if (null != outFileName) {
+        index.save(outFileName);
+      }
+
+      if (evalQty > 0) {
+        evaluate(embed, index, evalQty, k, efSearch, threadQty);
+      }
+    } catch (ParseException e) {
+      e.printStackTrace();
+      Usage("Cannot parse arguments", options);
+    } catch(Exception e) {
+      e.printStackTrace();
+      System.err.println("Terminating due to an exception: " + e);
+      System.exit(1);
+    }
+
+    System.out.println("Terminated successfully!");
+  }
+
+  /**
+   * Compares the HNSW search against the brute-force search
+   * for randomly selected words (query words are excluded from results)
+   * and prints recall and the number of queries per second for each efSearch.
+   *
+   * @param embed       word embeddings.
+   * @param index       the index.
+   * @param queryQty    the number of query words.
+   * @param k           the number of neighbors.
+   * @param efSearch    an array of search queue sizes.
+   * @param threadQty   the number of threads.
+   * @throws Exception
+   */
+  public static void evaluate(EmbeddingReaderAndRecoder embed, HNSWIndex index,
+                              int queryQty, int k, int efSearch[], int threadQty) throws Exception {
+    String words[] = embed.getWords();
+    queryQty = Math.min(queryQty, words.length);
+    Random rand = new Random(0);
+    String queries[] = new String[queryQty];
+    for (int i = 0; i < queryQty; ++i) queries[i] = words[rand.nextInt(words.length)];
+
+    AbstractDistance dist = index.getDistance();
+
+    long startTime = System.nanoTime();
+    VectorSearchEntry exact[][] = embed.kNNSearchBatch(queries, dist, true, k, threadQty);
+    double exactSec = Math.max(1e-9, (System.nanoTime() - startTime) / 1e9);
+    System.out.println(String.format("Brute-force search, distance: %s, k=%d, %d queries: %.1f queries/sec",
+                                     dist.getName(), k, queryQty, queryQty / exactSec));
+
+    int origEfSearch = index.getEfSearch();
+    for (int ef : efSearch) {
+      index.setEfSearch(ef);
+      startTime = System.nanoTime();
+      VectorSearchEntry approx[][] = index.kNNSearchBatch(queries, true, k, threadQty);
+      double sec = Math.max(1e-9, (System.nanoTime() - startTime) / 1e9);
+
+      int foundQty = 0, totalQty = 0;
+      for (int i = 0; i < queryQty; ++i) {
+        HashSet<String> exactIds = new HashSet<String>();
+        for (VectorSearchEntry e : exact[i]) exactIds.add(e.mID);
+        for (VectorSearchEntry e : approx[i]) {
+          if (exactIds.contains(e.mID)) ++foundQty;
+        }
+        totalQty += exact[i].length;
+      }
+      System.out.println(String.format("HNSW efSearch=%d: recall@%d=%.4f %.1f queries/sec, %.1f times faster than the brute-force search",
+                                       ef, k, (double)foundQty / Math.max(1, totalQty),
+                                       queryQty / sec, exactSec / sec));
+    }
+    index.setEfSearch(origEfSearch);
+  }
+}
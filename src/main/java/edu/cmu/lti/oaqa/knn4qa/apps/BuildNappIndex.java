@@ -0,0 +1,191 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.apps;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import no.uib.cipr.matrix.DenseVector;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.BruteForceKNNCandidateProvider;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.CandidateEntry;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.CandidateProvider;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.ExtractorKNNScorer;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.NappIndex;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.NappKNNCandidateProvider;
+import edu.cmu.lti.oaqa.knn4qa.letor.InMemIndexFeatureExtractor;
+
+/**
+ * An application that builds a NAPP index over documents of the in-memory forward
+ * index (see {@link NappIndex}). The similarity is the same as in the brute-force
+ * k-NN provider: a dot product of features and feature weights. The index
+ * is used by the candidate provider of the type {@link CandidateProvider#CAND_TYPE_NAPP}.
+ *
+ * <p>If a query file is specified, the application also compares the NAPP provider
+ * (for each combination of search parameters) against the brute-force provider:
+ * it reports recall, the average time per query, and the average number of
+ * scored candidates. In this mode, the index can be loaded rather than built.</p>
+ */
+public class BuildNappIndex {
+  public static final String OUT_FILE_PARAM = "o";
+  public static final String OUT_FILE_DESC  = "An output index file";
+  public static final String INP_FILE_PARAM = "i";
+  public static final String INP_FILE_DESC  = "An input index file (the index is loaded rather than created)";
+  public static final String NUM_PIVOT_PARAM = "num_pivot";
+  public static final String NUM_PIVOT_DESC  = "The number of pivots (default " + NappIndex.DEFAULT_PIVOT_QTY + ")";
+  public static final String NUM_PIVOT_INDEX_PARAM = "num_pivot_index";
+  public static final String NUM_PIVOT_INDEX_DESC  = "The number of closest pivots indexed for each document (default " +
+                                                     NappIndex.DEFAULT_PIVOT_INDEX_QTY + ")";
+  public static final String NUM_PIVOT_SEARCH_PARAM = "num_pivot_search";
+  public static final String NUM_PIVOT_SEARCH_DESC  = "A comma-separated list of numbers of query-closest pivots to test (default " +
+                                                      NappIndex.DEFAULT_PIVOT_SEARCH_QTY + ")";
+  public static final String MIN_TIMES_PARAM = "min_times";
+  public static final String MIN_TIMES_DESC  = "A comma-separated list of minimum numbers of shared pivots to test (default " +
+                                               NappIndex.DEFAULT_MIN_TIMES + ")";
+  public static final String K_PARAM = "k";
+  public static final String K_DESC  = "The number of neighbors used to compute recall (default " +
+                                       KNNIndexAppHelper.DEFAULT_K + ")";
+
+  static void Usage(String err, Options options) {
+    System.err.println("Error: " + err);
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp("BuildNappIndex", options);
+    System.exit(1);
+  }
+
+  static int[] parseIntList(String s) {
+    String parts[] = s.split(",");
+    int res[] = new int[parts.length];
+    for (int i = 0; i < parts.length; ++i) res[i] = Integer.parseInt(parts[i].trim());
+    return res;
+  }
+
+  public static void main(String[] args) {
+    Options options = new Options();
+
+    KNNIndexAppHelper.addExtractorOptions(options);
+    options.addOption(OUT_FILE_PARAM,                           null, true,  OUT_FILE_DESC);
+    options.addOption(INP_FILE_PARAM,                           null, true,  INP_FILE_DESC);
+    options.addOption(NUM_PIVOT_PARAM,                          null, true,  NUM_PIVOT_DESC);
+    options.addOption(NUM_PIVOT_INDEX_PARAM,                    null, true,  NUM_PIVOT_INDEX_DESC);
+    options.addOption(CommonParams.THREAD_QTY_PARAM,            null, true,  CommonParams.THREAD_QTY_DESC);
+    options.addOption(CommonParams.QUERY_FILE_PARAM,            null, true,  CommonParams.QUERY_FILE_DESC);
+    options.addOption(CommonParams.MAX_NUM_QUERY_PARAM,         null, true,  CommonParams.MAX_NUM_QUERY_DESC);
+    options.addOption(K_PARAM,                                  null, true,  K_DESC);
+    options.addOption(NUM_PIVOT_SEARCH_PARAM,                   null, true,  NUM_PIVOT_SEARCH_DESC);
+    options.addOption(MIN_TIMES_PARAM,                          null, true,  MIN_TIMES_DESC);
+
+    CommandLineParser parser = new org.apache.commons.cli.GnuParser();
+
+    try {
+      CommandLine cmd = parser.parse(options, args);
+
+      String outFileName = cmd.getOptionValue(OUT_FILE_PARAM);
+      String inpFileName = cmd.getOptionValue(INP_FILE_PARAM);
+      if ((null == outFileName) == (null == inpFileName)) {
+        Usage("Specify either '" + OUT_FILE_DESC + "' or '" + INP_FILE_DESC + "'", options);
+      }
+      String queryFileName = cmd.getOptionValue(CommonParams.QUERY_FILE_PARAM);
+      if (null != inpFileName && null == queryFileName) {
+        Usage("Specify '" + CommonParams.QUERY_FILE_DESC + "' to test a loaded index", options);
+      }
+      int pivotQty = Integer.parseInt(cmd.getOptionValue(NUM_PIVOT_PARAM, "" + NappIndex.DEFAULT_PIVOT_QTY));
+      int pivotIndexQty = Integer.parseInt(cmd.getOptionValue(NUM_PIVOT_INDEX_PARAM,
+                                                              "" + NappIndex.DEFAULT_PIVOT_INDEX_QTY));
+      int pivotSearchQtys[] = parseIntList(cmd.getOptionValue(NUM_PIVOT_SEARCH_PARAM,
+                                                              "" + NappIndex.DEFAULT_PIVOT_SEARCH_QTY));
+      int minTimesArr[] = parseIntList(cmd.getOptionValue(MIN_TIMES_PARAM, "" + NappIndex.DEFAULT_MIN_TIMES));
+      int k = Integer.parseInt(cmd.getOptionValue(K_PARAM, KNNIndexAppHelper.DEFAULT_K));
+      int maxNumQuery = Integer.parseInt(cmd.getOptionValue(CommonParams.MAX_NUM_QUERY_PARAM,
+                                                            "" + Integer.MAX_VALUE));
+      int threadQty = Runtime.getRuntime().availableProcessors();
+      if (cmd.hasOption(CommonParams.THREAD_QTY_PARAM)) {
+        threadQty = Integer.parseInt(cmd.getOptionValue(CommonParams.THREAD_QTY_PARAM));
+        if (threadQty <= 0) Usage("The number of threads should be positive", options);
+      }
+
+      InMemIndexFeatureExtractor featExtr = null;
+      DenseVector weights = null;
+      try {
+        featExtr = KNNIndexAppHelper.createExtractor(cmd, threadQty);
+        weights = KNNIndexAppHelper.readWeights(cmd, featExtr);
+      } catch (IllegalArgumentException e) {
+        Usage(e.getMessage(), options);
+      }
+      ExtractorKNNScorer scorer = new ExtractorKNNScorer(featExtr, weights);
+
+      NappIndex index = null;
+      if (null != outFileName) {
+        long startTime = System.currentTimeMillis();
+        index = NappIndex.build(scorer, pivotQty, pivotIndexQty, threadQty);
+        System.out.println(String.format("The index is created in %.1f sec",
+                                         (System.currentTimeMillis() - startTime) / 1e3));
+        index.save(outFileName);
+      } else {
+        index = NappIndex.load(scorer, inpFileName);
+      }
+
+      if (null != queryFileName) {
+        ArrayList<Map<String, String>> queries = KNNIndexAppHelper.readQueries(queryFileName, maxNumQuery);
+        System.out.println("Read " + queries.size() + " queries");
+
+        CandidateEntry exact[][] = new CandidateEntry[queries.size()][];
+        BruteForceKNNCandidateProvider bruteForce = new BruteForceKNNCandidateProvider(featExtr, weights, threadQty);
+        double bruteForceTime = KNNIndexAppHelper.runQueries(bruteForce, queries, k, exact);
+        bruteForce.close();
+        System.out.println(String.format("Brute-force search: %.2f ms per query", bruteForceTime));
+
+        CandidateEntry approx[][] = new CandidateEntry[queries.size()][];
+        for (int pivotSearchQty : pivotSearchQtys)
+        for (int minTimes : minTimesArr) {
+          if (minTimes > pivotSearchQty) continue;
+          NappKNNCandidateProvider provider = new NappKNNCandidateProvider(index, pivotSearchQty, minTimes);
+
+          long candQty = 0;
+          long startTime = System.nanoTime();
+          for (int i = 0; i < queries.size(); ++i) {
+            approx[i] = provider.getCandidates(i, queries.get(i), k).mEntries;
+            candQty += provider.getLastCandQty();
+          }
+          double time = (System.nanoTime() - startTime) / 1e6 / Math.max(1, queries.size());
+          double avgCandQty = (double) candQty / Math.max(1, queries.size());
+
+          System.out.println(String.format(
+              "%s=%d %s=%d recall@%d=%.4f %.2f ms per query (speed-up %.1f) %.1f candidates per query (%.2f%% of documents)",
+              NUM_PIVOT_SEARCH_PARAM, pivotSearchQty, MIN_TIMES_PARAM, minTimes,
+              k, KNNIndexAppHelper.compRecall(exact, approx),
+              time, bruteForceTime / Math.max(time, 1e-6),
+              avgCandQty, 100.0 * avgCandQty / Math.max(1, index.getDocQty())));
+        }
+      }
+    } catch (ParseException e) {
+      e.printStackTrace();
+      Usage("Cannot parse arguments", options);
+    } catch(Exception e) {
+      e.printStackTrace();
+      System.err.println("Terminating due to an exception: " + e);
+      System.exit(1);
+    }
+
+    System.out.println("Terminated successfully!");
+  }
+}
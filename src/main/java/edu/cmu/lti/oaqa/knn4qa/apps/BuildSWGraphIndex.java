@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.apps;
+
+import no.uib.cipr.matrix.DenseVector;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.CandidateProvider;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.ExtractorKNNScorer;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.SWGraphIndex;
+import edu.cmu.lti.oaqa.knn4qa.letor.InMemIndexFeatureExtractor;
+
+/**
+ * An application that builds an SW-graph over documents of the in-memory forward
+ * index (see {@link SWGraphIndex}). The similarity is the same as in the brute-force
+ * k-NN provider: a dot product of features and feature weights. The graph
+ * is used by the candidate provider of the type {@link CandidateProvider#CAND_TYPE_SWGRAPH}.
+ */
+public class BuildSWGraphIndex {
+  public static final String OUT_FILE_PARAM = "o";
+  public static final String OUT_FILE_DESC  = "An output index file";
+  public static final String NN_PARAM = "NN";
+  public static final String NN_DESC  = "The number of links created for each document (default " + SWGraphIndex.DEFAULT_NN + ")";
+  public static final String EF_CONSTRUCTION_PARAM = "ef_construction";
+  public static final String EF_CONSTRUCTION_DESC  = "The size of the queue used during the construction (default " +
+                                                     SWGraphIndex.DEFAULT_EF_CONSTRUCTION + ")";
+
+  static void Usage(String err, Options options) {
+    System.err.println("Error: " + err);
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp("BuildSWGraphIndex", options);
+    System.exit(1);
+  }
+
+  public static void main(String[] args) {
+    Options options = new Options();
+
+    KNNIndexAppHelper.addExtractorOptions(options);
+    options.addOption(OUT_FILE_PARAM,                           null, true,  OUT_FILE_DESC);
+    options.addOption(NN_PARAM,                                 null, true,  NN_DESC);
+    options.addOption(EF_CONSTRUCTION_PARAM,                    null, true,  EF_CONSTRUCTION_DESC);
+    options.addOption(CommonParams.THREAD_QTY_PARAM,            null, true,  CommonParams.THREAD_QTY_DESC);
+
+    CommandLineParser parser = new org.apache.commons.cli.GnuParser();
+
+    try {
+      CommandLine cmd = parser.parse(options, args);
+
+      String outFileName = cmd.getOptionValue(OUT_FILE_PARAM);
+      if (null == outFileName) {
+        Usage("Specify '" + OUT_FILE_DESC + "'", options);
+      }
+      int NN = Integer.parseInt(cmd.getOptionValue(NN_PARAM, "" + SWGraphIndex.DEFAULT_NN));
+      int efConstruction = Integer.parseInt(cmd.getOptionValue(EF_CONSTRUCTION_PARAM,
+                                                               "" + SWGraphIndex.DEFAULT_EF_CONSTRUCTION));
+      int threadQty = Runtime.getRuntime().availableProcessors();
+      if (cmd.hasOption(CommonParams.THREAD_QTY_PARAM)) {
+        threadQty = Integer.parseInt(cmd.getOptionValue(CommonParams.THREAD_QTY_PARAM));
+        if (threadQty <= 0) Usage("The number of threads should be positive", options);
+      }
+
+      InMemIndexFeatureExtractor featExtr = null;
+      DenseVector weights = null;
+      try {
+        featExtr = KNNIndexAppHelper.createExtractor(cmd, threadQty);
+        weights = KNNIndexAppHelper.readWeights(cmd, featExtr);
+      } catch (IllegalArgumentException e) {
+        Usage(e.getMessage(), options);
+      }
+
+      SWGraphIndex index = SWGraphIndex.build(new ExtractorKNNScorer(featExtr, weights),
+                                              NN, efConstruction, threadQty);
+      index.save(outFileName);
+    } catch (ParseException e) {
+      e.printStackTrace();
+      Usage("Cannot parse arguments", options);
+    } catch(Exception e) {
+      e.printStackTrace();
+      System.err.println("Terminating due to an exception: " + e);
+      System.exit(1);
+    }
+
+    System.out.println("Terminated successfully!");
+  }
+}
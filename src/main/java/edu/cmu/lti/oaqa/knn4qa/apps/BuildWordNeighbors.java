@@ -0,0 +1,556 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.apps;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import edu.cmu.lti.oaqa.knn4qa.embed.EmbeddingReaderAndRecoder;
+import edu.cmu.lti.oaqa.knn4qa.embed.HNSWIndex;
+import edu.cmu.lti.oaqa.knn4qa.embed.WordNeighborFile;
+import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndex;
+import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndexFilterAndRecoder;
+import edu.cmu.lti.oaqa.knn4qa.simil.AbstractDistance;
+import edu.cmu.lti.oaqa.knn4qa.simil.CosineDistance;
+import edu.cmu.lti.oaqa.knn4qa.simil.DistanceFunctions;
+import edu.cmu.lti.oaqa.knn4qa.simil.EuclideanDistance;
+import edu.cmu.lti.oaqa.knn4qa.simil.KNNHeap;
+
+/**
+ * A thread that computes neighbors for a subset of query tiles
+ * in the current partition. Scalar products are computed
+ * for a tile of query rows and a tile of data rows at a time, so that
+ * both tiles stay in the CPU cache.
+ */
+class WordNeighborThread extends Thread {
+  static final int QUERY_TILE_QTY = 64;
+  static final int DATA_TILE_QTY  = 256;
+
+  private final float       mMatr[];
+  private final float       mNorms[];
+  private final int         mRowQty;
+  private final int         mDim;
+  private final AbstractDistance mDist;
+  private final boolean     mIsL2;
+  private final boolean     mIsCosine;
+  private final KNNHeap     mHeaps[];
+  private final int         mPartStart;
+  private final int         mPartEnd;
+  private final int         mThreadId;
+  private final int         mThreadQty;
+  private Throwable         mError = null;
+
+  WordNeighborThread(float matr[], float norms[], int rowQty, int dim,
+                     AbstractDistance dist, KNNHeap heaps[],
+                     int partStart, int partEnd,
+                     int threadId, int threadQty) {
+    mMatr = matr;
+    mNorms = norms;
+    mRowQty = rowQty;
+    mDim = dim;
+    mDist = dist;
+    mIsL2 = dist instanceof EuclideanDistance;
+    mIsCosine = dist instanceof CosineDistance;
+    mHeaps = heaps;
+    mPartStart = partStart;
+    mPartEnd = partEnd;
+    mThreadId = threadId;
+    mThreadQty = threadQty;
+  }
+
+  Throwable getError() { return mError; }
+
+  @Override
+  public void run() {
+    try {
+      float qBuf[] = new float[mDim], dBuf[] = new float[mDim];
+
+      int tileQty = (mPartEnd - mPartStart + QUERY_TILE_QTY - 1) / QUERY_TILE_QTY;
+
+      for (int tileId = mThreadId; tileId < tileQty; tileId += mThreadQty) {
+        int q0 = mPartStart + tileId * QUERY_TILE_QTY;
+        int q1 = Math.min(mPartEnd, q0 + QUERY_TILE_QTY);
+
+        for (int q = q0; q < q1; ++q) mHeaps[q - mPartStart].clear();
+
+        for (int d0 = 0; d0 < mRowQty; d0 += DATA_TILE_QTY) {
+          int d1 = Math.min(mRowQty, d0 + DATA_TILE_QTY);
+          if (mIsL2 || mIsCosine) {
+            procTileDot(q0, q1, d0, d1);
+          } else {
+            procTileGeneric(q0, q1, d0, d1, qBuf, dBuf);
+          }
+        }
+      }
+    } catch (Throwable e) {
+      mError = e;
+    }
+  }
+
+  /*
+   * Computes scalar products for four query rows in one pass over
+   * each data row, which reduces the number of memory accesses.
+   */
+  private void procTileDot(int q0, int q1, int d0, int d1) {
+    final float matr[] = mMatr;
+    final int   dim = mDim;
+
+    int q = q0;
+    for (; q + 4 <= q1; q += 4) {
+      final int off0 = q * dim, off1 = off0 + dim, off2 = off1 + dim, off3 = off2 + dim;
+      for (int d = d0; d < d1; ++d) {
+        final int offd = d * dim;
+        float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        for (int i = 0; i < dim; ++i) {
+          float v = matr[offd + i];
+          sum0 += matr[off0 + i] * v;
+          sum1 += matr[off1 + i] * v;
+          sum2 += matr[off2 + i] * v;
+          sum3 += matr[off3 + i] * v;
+        }
+        addDot(q,     d, sum0);
+        addDot(q + 1, d, sum1);
+        addDot(q + 2, d, sum2);
+        addDot(q + 3, d, sum3);
+      }
+    }
+    for (; q < q1; ++q) {
+      final int offq = q * dim;
+      for (int d = d0; d < d1; ++d) {
+        final int offd = d * dim;
+        float sum = 0;
+        for (int i = 0; i < dim; ++i) sum += matr[offq + i] * matr[offd + i];
+        addDot(q, d, sum);
+      }
+    }
+  }
+
+  /*
+   * Converts the scalar product to the distance: the formulas reproduce
+   * DistanceFunctions.compEuclidean and DistanceFunctions.compCosine.
+   */
+  private void addDot(int q, int d, float dot) {
+    if (q == d) return;
+
+    float nq = mNorms[q], nd = mNorms[d];
+    float dist;
+    if (mIsL2) {
+      dist = (float)Math.sqrt(Math.max(0f, nq + nd - 2 * dot));
+    } else {
+      float normMul = (float)Math.max(DistanceFunctions.FLOAT_EPS, Math.sqrt(nq * nd));
+      dist = 1 - Math.max(-1f, Math.min(1f, dot / normMul));
+    }
+    mHeaps[q - mPartStart].offer(dist, d);
+  }
+
+  private void procTileGeneric(int q0, int q1, int d0, int d1, float qBuf[], float dBuf[]) {
+    for (int q = q0; q < q1; ++q) {
+      System.arraycopy(mMatr, q * mDim, qBuf, 0, mDim);
+      for (int d = d0; d < d1; ++d) {
+        if (q == d) continue;
+        System.arraycopy(mMatr, d * mDim, dBuf, 0, mDim);
+        mHeaps[q - mPartStart].offer(mDist.compute(qBuf, dBuf), d);
+      }
+    }
+  }
+}
+
+/**
+ * A thread that finds approximate neighbors for a subset of words
+ * in the current partition using the HNSW index.
+ */
+class WordNeighborIndexThread extends Thread {
+  private final HNSWIndex   mIndex;
+  private final int         mRows[];
+  private final int         mRowToWordId[];
+  private final boolean     mAllowedRows[];
+  private final int         mK;
+  private final int         mResIds[][];
+  private final float       mResDists[][];
+  private final int         mResQty[];
+  private final int         mPartStart;
+  private final int         mPartEnd;
+  private final int         mThreadId;
+  private final int         mThreadQty;
+  private Throwable         mError = null;
+
+  WordNeighborIndexThread(HNSWIndex index, int rows[], int rowToWordId[], boolean allowedRows[], int k,
+                          int resIds[][], float resDists[][], int resQty[],
+                          int partStart, int partEnd,
+                          int threadId, int threadQty) {
+    mIndex = index;
+    mRows = rows;
+    mRowToWordId = rowToWordId;
+    mAllowedRows = allowedRows;
+    mK = k;
+    mResIds = resIds;
+    mResDists = resDists;
+    mResQty = resQty;
+    mPartStart = partStart;
+    mPartEnd = partEnd;
+    mThreadId = threadId;
+    mThreadQty = threadQty;
+  }
+
+  Throwable getError() { return mError; }
+
+  @Override
+  public void run() {
+    try {
+      HNSWIndex.Searcher searcher = mIndex.newSearcher();
+      for (int wordId = mPartStart + mThreadId; wordId < mPartEnd; wordId += mThreadQty) {
+        int   ids[] = mResIds[wordId - mPartStart];
+        int qty = searcher.searchRow(mRows[wordId], mK, true, mAllowedRows, ids, mResDists[wordId - mPartStart]);
+        // Rows of the embedding matrix are converted to positions in the word list
+        for (int i = 0; i < qty; ++i) ids[i] = mRowToWordId[ids[i]];
+        mResQty[wordId - mPartStart] = qty;
+      }
+    } catch (Throwable e) {
+      mError = e;
+    }
+  }
+}
+
+/**
+ * An application that computes exact k nearest neighbors for every word
+ * in the embedding vocabulary and saves them to a binary file
+ * (see {@link WordNeighborFile}).
+ *
+ * <p>Embeddings are copied to a single row-major matrix. Words are processed in partitions:
+ * neighbors for one partition are computed by all threads,
+ * then they are written to the output file, so only one partition of results
+ * is kept in memory.</p>
+ *
+ * <p>The exact search is quadratic in the number of words. For large vocabularies,
+ * neighbors can be found approximately using the HNSW index 
+ * (see {@link BuildEmbeddingIndex}).</p>
+ */
+public class BuildWordNeighbors {
+  public static final String EMBED_FILE_PARAM = "embed_file";
+  public static final String EMBED_FILE_DESC  = "A word embedding file (in the text format)";
+  public static final String OUT_FILE_PARAM = "o";
+  public static final String OUT_FILE_DESC  = "An output binary file";
+  public static final String K_PARAM = "k";
+  public static final String K_DESC  = "The number of neighbors";
+  public static final String DIST_TYPE_PARAM = "dist_type";
+  public static final String DIST_TYPE_DESC  = "A distance type: l2, cosine";
+  public static final String PART_QTY_PARAM = "part_qty";
+  public static final String PART_QTY_DESC  = "The number of words in one partition (default " + BuildWordNeighbors.DEFAULT_PART_QTY + ")";
+
+  public static final String INDEX_FILE_PARAM = "index_file";
+  public static final String INDEX_FILE_DESC  = "An HNSW index file: if specified, approximate neighbors are found using the index";
+  public static final String EF_SEARCH_PARAM = "ef_search";
+  public static final String EF_SEARCH_DESC  = "The size of the HNSW search queue (default " + HNSWIndex.DEFAULT_EF_SEARCH + ")";
+
+  public static final int DEFAULT_PART_QTY = 16384;
+
+  static void Usage(String err, Options options) {
+    System.err.println("Error: " + err);
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp("BuildWordNeighbors", options);
+    System.exit(1);
+  }
+
+  public static void main(String[] args) {
+    Options options = new Options();
+
+    options.addOption(EMBED_FILE_PARAM,                  null, true,  EMBED_FILE_DESC);
+    options.addOption(OUT_FILE_PARAM,                    null, true,  OUT_FILE_DESC);
+    options.addOption(K_PARAM,                           null, true,  K_DESC);
+    options.addOption(DIST_TYPE_PARAM,                   null, true,  DIST_TYPE_DESC);
+    options.addOption(PART_QTY_PARAM,                    null, true,  PART_QTY_DESC);
+    options.addOption(CommonParams.THREAD_QTY_PARAM,     null, true,  CommonParams.THREAD_QTY_DESC);
+    options.addOption(CommonParams.MEM_FWD_INDEX_PARAM,  null, true,  CommonParams.MEM_FWD_INDEX_DESC);
+    options.addOption(INDEX_FILE_PARAM,                  null, true,  INDEX_FILE_DESC);
+    options.addOption(EF_SEARCH_PARAM,                   null, true,  EF_SEARCH_DESC);
+
+    CommandLineParser parser = new org.apache.commons.cli.GnuParser();
+
+    try {
+      CommandLine cmd = parser.parse(options, args);
+
+      String embedFileName = cmd.getOptionValue(EMBED_FILE_PARAM);
+      if (null == embedFileName) {
+        Usage("Specify '" + EMBED_FILE_DESC + "'", options);
+      }
+      String outFileName = cmd.getOptionValue(OUT_FILE_PARAM);
+      if (null == outFileName) {
+        Usage("Specify '" + OUT_FILE_DESC + "'", options);
+      }
+      int k = 0;
+      if (cmd.hasOption(K_PARAM)) {
+        k = Integer.parseInt(cmd.getOptionValue(K_PARAM));
+      }
+      if (k <= 0) {
+        Usage("Specify a positive '" + K_DESC + "'", options);
+      }
+      String distType = cmd.getOptionValue(DIST_TYPE_PARAM);
+      if (null == distType) {
+        Usage("Specify '" + DIST_TYPE_DESC + "'", options);
+      }
+      AbstractDistance dist = AbstractDistance.create(distType);
+
+      int partQty = DEFAULT_PART_QTY;
+      if (cmd.hasOption(PART_QTY_PARAM)) {
+        partQty = Integer.parseInt(cmd.getOptionValue(PART_QTY_PARAM));
+        if (partQty <= 0) Usage("The number of words in a partition should be positive", options);
+      }
+      int threadQty = Runtime.getRuntime().availableProcessors();
+      if (cmd.hasOption(CommonParams.THREAD_QTY_PARAM)) {
+        threadQty = Integer.parseInt(cmd.getOptionValue(CommonParams.THREAD_QTY_PARAM));
+        if (threadQty <= 0) Usage("The number of threads should be positive", options);
+      }
+
+      InMemForwardIndexFilterAndRecoder filter = null;
+      String memFwdIndex = cmd.getOptionValue(CommonParams.MEM_FWD_INDEX_PARAM);
+      if (null != memFwdIndex) {
+        filter = new InMemForwardIndexFilterAndRecoder(new InMemForwardIndex(memFwdIndex));
+      }
+
+      EmbeddingReaderAndRecoder embed = new EmbeddingReaderAndRecoder(embedFileName, null);
+
+      ArrayList<String> wordList = new ArrayList<String>();
+      ArrayList<Integer> rowList = new ArrayList<Integer>();
+      String allWords[] = embed.getWords();
+      for (int row = 0; row < allWords.length; ++row) {
+        String w = allWords[row];
+        if (filter == null || filter.getWordId(w) != null) {
+          wordList.add(w);
+          rowList.add(row);
+        }
+      }
+      String words[] = wordList.toArray(new String[wordList.size()]);
+
+      String indexFileName = cmd.getOptionValue(INDEX_FILE_PARAM);
+      if (null == indexFileName) {
+        compute(embed, words, dist, k, partQty, threadQty, outFileName);
+      } else {
+        HNSWIndex index = HNSWIndex.load(embed, indexFileName);
+        if (!index.getDistance().getName().equals(dist.getName())) {
+          Usage("The index was built for the distance '" + index.getDistance().getName() + "'", options);
+        }
+        if (cmd.hasOption(EF_SEARCH_PARAM)) {
+          index.setEfSearch(Integer.parseInt(cmd.getOptionValue(EF_SEARCH_PARAM)));
+        }
+        int rows[] = new int[rowList.size()];
+        for (int i = 0; i < rows.length; ++i) rows[i] = rowList.get(i);
+        computeWithIndex(index, words, rows, dist, k, partQty, threadQty, outFileName);
+      }
+    } catch (ParseException e) {
+      e.printStackTrace();
+      Usage("Cannot parse arguments", options);
+    } catch(Exception e) {
+      e.printStackTrace();
+      System.err.println("Terminating due to an exception: " + e);
+      System.exit(1);
+    }
+
+    System.out.println("Terminated successfully!");
+  }
+
+  /**
+   * Computes k nearest neighbors for every word in the list and saves
+   * them to a binary file.
+   *
+   * @param embed         word embeddings.
+   * @param words         the list of words (each word must have an embedding).
+   * @param dist          a distance.
+   * @param k             the number of neighbors.
+   * @param partQty       the number of words in a partition.
+   * @param threadQty     the number of threads.
+   * @param outFileName   an output file.
+   * @throws Exception
+   */
+  public static void compute(EmbeddingReaderAndRecoder embed,
+                             String words[],
+                             AbstractDistance dist,
+                             int k, int partQty, int threadQty,
+                             String outFileName) throws Exception {
+    final int rowQty = words.length;
+    final int dim = embed.getDim();
+
+    if ((long)rowQty * dim > Integer.MAX_VALUE - 8) {
+      throw new Exception(String.format("Too many words (%d) for dimensionality %d", rowQty, dim));
+    }
+
+    float matr[] = new float[rowQty * dim];
+    float norms[] = new float[rowQty]; // squared L2 norms
+    for (int row = 0; row < rowQty; ++row) {
+      final int off = row * dim;
+      if (!embed.getVector(words[row], matr, off)) 
+        throw new Exception("No embedding for the word: '" + words[row] + "'");
+      float norm = 0;
+      for (int i = 0; i < dim; ++i) norm += matr[off + i] * matr[off + i];
+      norms[row] = norm;
+    }
+
+    partQty = Math.min(partQty, Math.max(1, rowQty));
+    threadQty = Math.min(threadQty, (partQty + WordNeighborThread.QUERY_TILE_QTY - 1) / WordNeighborThread.QUERY_TILE_QTY);
+    threadQty = Math.max(1, threadQty);
+
+    KNNHeap heaps[] = new KNNHeap[partQty];
+    for (int i = 0; i < partQty; ++i) heaps[i] = new KNNHeap(k);
+
+    int   ids[] = new int[k];
+    float dists[] = new float[k];
+
+    System.out.println(String.format("Computing %d neighbors for %d words, distance: %s, dimensionality: %d, # of threads: %d, partition size: %d",
+                                      k, rowQty, dist.getName(), dim, threadQty, partQty));
+
+    RandomAccessFile outFile = new RandomAccessFile(outFileName, "rw");
+    try {
+      outFile.setLength(0);
+      FileChannel out = outFile.getChannel();
+      WordNeighborFile.writeHeader(out, rowQty, k);
+
+      ByteBuffer buf = ByteBuffer.allocate((int)(partQty * WordNeighborFile.getRowSize(k))).order(ByteOrder.LITTLE_ENDIAN);
+
+      long startTime = System.currentTimeMillis();
+
+      for (int partStart = 0; partStart < rowQty; partStart += partQty) {
+        int partEnd = Math.min(rowQty, partStart + partQty);
+
+        WordNeighborThread workers[] = new WordNeighborThread[threadQty];
+        for (int threadId = 0; threadId < threadQty; ++threadId) {
+          workers[threadId] = new WordNeighborThread(matr, norms, rowQty, dim, dist, heaps,
+                                                     partStart, partEnd, threadId, threadQty);
+        }
+        // Start threads
+        for (WordNeighborThread e : workers) e.start();
+        // Wait till they finish
+        for (WordNeighborThread e : workers) e.join(0);
+
+        for (WordNeighborThread e : workers) {
+          if (e.getError() != null)
+            throw new Exception("Neighbor computation thread failed: " + e.getError(), e.getError());
+        }
+
+        // Save the partition
+        buf.clear();
+        for (int row = partStart; row < partEnd; ++row) {
+          int qty = heaps[row - partStart].extractSorted(ids, dists);
+          WordNeighborFile.putRow(buf, k, ids, dists, qty);
+        }
+        WordNeighborFile.writeRows(out, k, partStart, buf);
+
+        double elapsedSec = Math.max(1e-3, (System.currentTimeMillis() - startTime) / 1000.0);
+        System.out.println(String.format("Processed %d words out of %d, elapsed %.1f sec, %.1f words/sec, %.3g distances/sec",
+                                         partEnd, rowQty, elapsedSec,
+                                         partEnd / elapsedSec, (double)partEnd * rowQty / elapsedSec));
+      }
+
+      WordNeighborFile.writeTrailer(out, k, dist.getName(), words);
+    } finally {
+      outFile.close();
+    }
+  }
+
+  /**
+   * Finds approximate k nearest neighbors for every word in the list
+   * using the HNSW index and saves them to a binary file.
+   *
+   * @param index         the index built for the embeddings of words.
+   * @param words         the list of words.
+   * @param rows          rows of words in the embedding matrix (i.e., positions in {@link EmbeddingReaderAndRecoder#getWords()}).
+   * @param dist          a distance (the one used to build the index).
+   * @param k             the number of neighbors.
+   * @param partQty       the number of words in a partition.
+   * @param threadQty     the number of threads.
+   * @param outFileName   an output file.
+   * @throws Exception
+   */
+  public static void computeWithIndex(HNSWIndex index,
+                                      String words[], int rows[],
+                                      AbstractDistance dist,
+                                      int k, int partQty, int threadQty,
+                                      String outFileName) throws Exception {
+    final int wordQty = words.length;
+
+    // Only words from the list can be neighbors
+    boolean allowedRows[] = new boolean[index.getRowQty()];
+    int     rowToWordId[] = new int[index.getRowQty()];
+    for (int wordId = 0; wordId < wordQty; ++wordId) {
+      allowedRows[rows[wordId]] = true;
+      rowToWordId[rows[wordId]] = wordId;
+    }
+
+    partQty = Math.min(partQty, Math.max(1, wordQty));
+    threadQty = Math.max(1, Math.min(threadQty, partQty));
+
+    int   resIds[][] = new int[partQty][k];
+    float resDists[][] = new float[partQty][k];
+    int   resQty[] = new int[partQty];
+
+    System.out.println(String.format("Finding %d approximate neighbors for %d words, distance: %s, efSearch: %d, # of threads: %d, partition size: %d",
+                                      k, wordQty, dist.getName(), index.getEfSearch(), threadQty, partQty));
+
+    RandomAccessFile outFile = new RandomAccessFile(outFileName, "rw");
+    try {
+      outFile.setLength(0);
+      FileChannel out = outFile.getChannel();
+      WordNeighborFile.writeHeader(out, wordQty, k);
+
+      ByteBuffer buf = ByteBuffer.allocate((int)(partQty * WordNeighborFile.getRowSize(k))).order(ByteOrder.LITTLE_ENDIAN);
+
+      long startTime = System.currentTimeMillis();
+
+      for (int partStart = 0; partStart < wordQty; partStart += partQty) {
+        int partEnd = Math.min(wordQty, partStart + partQty);
+
+        WordNeighborIndexThread workers[] = new WordNeighborIndexThread[threadQty];
+        for (int threadId = 0; threadId < threadQty; ++threadId) {
+          workers[threadId] = new WordNeighborIndexThread(index, rows, rowToWordId, allowedRows, k,
+                                                          resIds, resDists, resQty,
+                                                          partStart, partEnd, threadId, threadQty);
+        }
+        // Start threads
+        for (WordNeighborIndexThread e : workers) e.start();
+        // Wait till they finish
+        for (WordNeighborIndexThread e : workers) e.join(0);
+
+        for (WordNeighborIndexThread e : workers) {
+          if (e.getError() != null)
+            throw new Exception("Neighbor search thread failed: " + e.getError(), e.getError());
+        }
+
+        // Save the partition
+        buf.clear();
+        for (int wordId = partStart; wordId < partEnd; ++wordId) {
+          int i = wordId - partStart;
+          WordNeighborFile.putRow(buf, k, resIds[i], resDists[i], resQty[i]);
+        }
+        WordNeighborFile.writeRows(out, k, partStart, buf);
+
+        double elapsedSec = Math.max(1e-3, (System.currentTimeMillis() - startTime) / 1000.0);
+        System.out.println(String.format("Processed %d words out of %d, elapsed %.1f sec, %.1f words/sec",
+                                         partEnd, wordQty, elapsedSec, partEnd / elapsedSec));
+      }
+
+      WordNeighborFile.writeTrailer(out, k, dist.getName(), words);
+    } finally {
+      outFile.close();
+    }
+  }
+}
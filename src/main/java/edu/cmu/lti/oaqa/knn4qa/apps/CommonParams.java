@@ -15,6 +15,10 @@
  */
 package edu.cmu.lti.oaqa.knn4qa.apps;
 
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.CandidateCache;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.NappIndex;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.NmslibClientPool;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.SWGraphIndex;
 import edu.cmu.lti.oaqa.knn4qa.letor.InMemIndexFeatureExtractor;
 
 public class CommonParams {
@@ -98,6 +102,16 @@ public class CommonParams {
   
   public final static String KNN_WEIGHTS_FILE_DESC = "a file with the weights for knn-search";
   public final static String KNN_WEIGHTS_FILE_PARAM = "knn_weights";
+
+  public final static String KNN_EF_SEARCH_DESC  = "the size of the search queue of the in-process SW-graph knn-provider (default " +
+                                                   SWGraphIndex.DEFAULT_EF_SEARCH + ")";
+  public final static String KNN_EF_SEARCH_PARAM = "knn_ef_search";
+  public final static String KNN_NUM_PIVOT_SEARCH_DESC  = "the number of query-closest pivots used by the in-process NAPP knn-provider (default " +
+                                                          NappIndex.DEFAULT_PIVOT_SEARCH_QTY + ")";
+  public final static String KNN_NUM_PIVOT_SEARCH_PARAM = "knn_num_pivot_search";
+  public final static String KNN_MIN_TIMES_DESC  = "the minimum number of pivots a document shares with the query in the in-process NAPP knn-provider (default " +
+                                                   NappIndex.DEFAULT_MIN_TIMES + ")";
+  public final static String KNN_MIN_TIMES_PARAM = "knn_min_times";
   
   public final static String KNN_QUERIES_DESC  = "a file to save knn-queries in the format that can be processed by NMSLIB";
   public final static String KNN_QUERIES_PARAM = "knn_queries";    
@@ -107,6 +121,18 @@ public class CommonParams {
   
   public final static String NMSLIB_FIELDS_PARAM = "nmslib_fields";
   public final static String NMSLIB_FIELDS_DESC  = "A comma-separated list of fields used by an NMSLIB provider, it must correspond exactly to what is specified in respective NMSLIB header file";
+
+  public final static String NMSLIB_POOL_SIZE_DESC  = "the number of (asynchronous) connections to the NMSLIB server shared by all threads, " +
+                                                      "the server must use the framed transport (by default, each thread uses its own blocking connection)";
+  public final static String NMSLIB_POOL_SIZE_PARAM = "nmslib_pool_size";
+
+  public final static String NMSLIB_TIMEOUT_DESC  = "a timeout (in ms) for pooled connections to the NMSLIB server (default " +
+                                                    NmslibClientPool.DEFAULT_TIMEOUT_MS + ")";
+  public final static String NMSLIB_TIMEOUT_PARAM = "nmslib_timeout";
+
+  public final static String CAND_IN_FLIGHT_QTY_DESC  = "the number of queries for which each thread requests candidates ahead of time (default 1): " +
+                                                        "this makes sense only for a pooled NMSLIB provider";
+  public final static String CAND_IN_FLIGHT_QTY_PARAM = "cand_in_flight_qty";
   
   public final static String ROOT_DIR_DESC = "A root dir for the pipeline output";
   public final static String ROOT_DIR_PARAM = "root_dir";
@@ -119,6 +145,25 @@ public class CommonParams {
   
   public final static String MAX_NUM_QUERY_DESC  = "maximum number of queries to process";
   public final static String MAX_NUM_QUERY_PARAM = "max_num_query";
+
+  public final static String WARM_UP_QUERY_QTY_DESC  = "the number of queries (from the beginning of the query file) used to warm up the candidate provider (default 0)";
+  public final static String WARM_UP_QUERY_QTY_PARAM = "warm_up_query_qty";
+
+  public final static String LUCENE_SEARCH_THREAD_QTY_DESC  = "the number of threads that search Lucene index segments of one query in parallel (default 1)";
+  public final static String LUCENE_SEARCH_THREAD_QTY_PARAM = "lucene_search_thread_qty";
+
+  public final static String LUCENE_PRELOAD_INDEX_DESC  = "read Lucene index files at startup (to warm up the OS page cache)";
+  public final static String LUCENE_PRELOAD_INDEX_PARAM = "lucene_preload_index";
+
+  public final static String CAND_CACHE_FILE_DESC  = "a file to keep candidate lists: repeated runs with the same queries and provider parameters read candidates from this file";
+  public final static String CAND_CACHE_FILE_PARAM = "cand_cache_file";
+
+  public final static String CAND_CACHE_QTY_DESC  = "the maximum number of candidate lists cached in memory (default " +
+                                                    CandidateCache.DEFAULT_MAX_MEM_QTY + ")";
+  public final static String CAND_CACHE_QTY_PARAM = "cand_cache_qty";
+
+  public final static String MAX_SEGMENT_QTY_DESC  = "force-merge the Lucene index into at most this number of segments";
+  public final static String MAX_SEGMENT_QTY_PARAM = "max_segment_qty";
   
   public final static String SOLR_FILE_NAME_DESC = "A name of output file to be fed to a SOLR indexer, e.g., SolrAnswerFile.txt";
   public final static String SOLR_FILE_NAME_PARAM = "solr_file";
@@ -135,6 +180,9 @@ public class CommonParams {
   public final static String MAX_WORD_QTY_PARAM = "max_word_qty";
   public final static String MAX_WORD_QTY_DESC  = "A maximum number of words";
 
+  public final static String BM25_IMPACT_BITS_PARAM = "bm25_impact_bits";
+  public final static String BM25_IMPACT_BITS_DESC  = "If specified, BM25 is computed using precomputed impacts quantized to this number of bits (8 or 16)";
+
   public final static String SAVE_STAT_FILE_PARAM = "save_stat_file";
   public final static String SAVE_STAT_FILE_DESC  = "A file to save some vital query execution statistics";
   
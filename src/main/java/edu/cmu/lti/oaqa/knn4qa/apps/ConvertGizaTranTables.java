@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.apps;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import edu.cmu.lti.oaqa.knn4qa.letor.InMemIndexFeatureExtractor;
+
+/**
+ * An application that converts GIZA translation tables used by a given
+ * feature extractor to the binary format. Binary tables are saved next to
+ * text ones and are loaded by feature extractors (with the same parameters)
+ * instead of text tables.
+ */
+public class ConvertGizaTranTables {
+  public final static String EXTRACTOR_TYPE_PARAM = "extr_type";
+  public final static String EXTRACTOR_TYPE_DESC  = "An extractor type (binary tables are created using its parameters): " +
+                                                    InMemIndexFeatureExtractor.getExtractorListDesc();
+
+  static void Usage(String err, Options options) {
+    System.err.println("Error: " + err);
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp("ConvertGizaTranTables", options);
+    System.exit(1);
+  }
+
+  public static void main(String[] args) {
+    Options options = new Options();
+
+    options.addOption(EXTRACTOR_TYPE_PARAM,              null, true,  EXTRACTOR_TYPE_DESC);
+    options.addOption(CommonParams.MEMINDEX_PARAM,       null, true,  CommonParams.MEMINDEX_DESC);
+    options.addOption(CommonParams.GIZA_ROOT_DIR_PARAM,  null, true,  CommonParams.GIZA_ROOT_DIR_DESC);
+    options.addOption(CommonParams.GIZA_ITER_QTY_PARAM,  null, true,  CommonParams.GIZA_ITER_QTY_DESC);
+
+    CommandLineParser parser = new org.apache.commons.cli.GnuParser();
+
+    try {
+      CommandLine cmd = parser.parse(options, args);
+
+      String extrType = cmd.getOptionValue(EXTRACTOR_TYPE_PARAM);
+      if (null == extrType) {
+        Usage("Specify '" + EXTRACTOR_TYPE_DESC + "'", options);
+      }
+      String memIndexPref = cmd.getOptionValue(CommonParams.MEMINDEX_PARAM);
+      if (null == memIndexPref) {
+        Usage("Specify '" + CommonParams.MEMINDEX_DESC + "'", options);
+      }
+      String gizaRootDir = cmd.getOptionValue(CommonParams.GIZA_ROOT_DIR_PARAM);
+      if (null == gizaRootDir) {
+        Usage("Specify '" + CommonParams.GIZA_ROOT_DIR_DESC + "'", options);
+      }
+      int gizaIterQty = -1;
+      if (cmd.hasOption(CommonParams.GIZA_ITER_QTY_PARAM)) {
+        gizaIterQty = Integer.parseInt(cmd.getOptionValue(CommonParams.GIZA_ITER_QTY_PARAM));
+      }
+      if (gizaIterQty <= 0) {
+        Usage("Specify '" + CommonParams.GIZA_ITER_QTY_DESC + "'", options);
+      }
+
+      InMemIndexFeatureExtractor extr =
+          InMemIndexFeatureExtractor.createExtractor(extrType, gizaRootDir, gizaIterQty, memIndexPref,
+                                                     null, null, null);
+
+      extr.saveBinaryTranTables();
+    } catch (ParseException e) {
+      e.printStackTrace();
+      Usage("Cannot parse arguments", options);
+    } catch(Exception e) {
+      e.printStackTrace();
+      System.err.println("Terminating due to an exception: " + e);
+      System.exit(1);
+    }
+
+    System.out.println("Terminated successfully!");
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.apps;
+
+import java.util.Arrays;
+
+import net.openhft.koloboke.collect.map.hash.HashIntObjMap;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import edu.cmu.lti.oaqa.knn4qa.embed.SparseEmbeddingDict;
+import edu.cmu.lti.oaqa.knn4qa.embed.SparseEmbeddingReaderAndRecorder;
+import edu.cmu.lti.oaqa.knn4qa.letor.FeatureExtractor;
+import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndex;
+import edu.cmu.lti.oaqa.knn4qa.simil.SparseFloatVector;
+
+/**
+ * An application that converts sparse word embeddings (high-order models)
+ * from the text to the binary format. Word IDs in the binary file are
+ * IDs of the forward index of a given field, so the binary file
+ * is used (instead of the text one) only for this field.
+ */
+public class ConvertSparseEmbeddings {
+  public final static String FIELD_NAME_PARAM = "field";
+  public final static String FIELD_NAME_DESC  = "A field whose forward index is used to recode words: " +
+                                                Arrays.toString(FeatureExtractor.mFieldNames) +
+                                                ", default " + FeatureExtractor.mFieldNames[FeatureExtractor.TEXT_UNLEMM_FIELD_ID];
+  public final static String QUANTIZE_PARAM = "quantize";
+  public final static String QUANTIZE_DESC  = "quantize values to 16 bits";
+
+  static void Usage(String err, Options options) {
+    System.err.println("Error: " + err);
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp("ConvertSparseEmbeddings", options);
+    System.exit(1);
+  }
+
+  public static void main(String[] args) {
+    Options options = new Options();
+
+    options.addOption(CommonParams.MEMINDEX_PARAM,          null, true,  CommonParams.MEMINDEX_DESC);
+    options.addOption(CommonParams.EMBED_DIR_PARAM,         null, true,  CommonParams.EMBED_DIR_DESC);
+    options.addOption(CommonParams.HIHG_ORDER_FILES_PARAM,  null, true,  CommonParams.HIHG_ORDER_FILES_DESC);
+    options.addOption(FIELD_NAME_PARAM,                     null, true,  FIELD_NAME_DESC);
+    options.addOption(QUANTIZE_PARAM,                       null, false, QUANTIZE_DESC);
+
+    CommandLineParser parser = new org.apache.commons.cli.GnuParser();
+
+    try {
+      CommandLine cmd = parser.parse(options, args);
+
+      String memIndexPref = cmd.getOptionValue(CommonParams.MEMINDEX_PARAM);
+      if (null == memIndexPref) {
+        Usage("Specify '" + CommonParams.MEMINDEX_DESC + "'", options);
+      }
+      String embedDir = cmd.getOptionValue(CommonParams.EMBED_DIR_PARAM);
+      if (null == embedDir) {
+        Usage("Specify '" + CommonParams.EMBED_DIR_DESC + "'", options);
+      }
+      String fileNamesStr = cmd.getOptionValue(CommonParams.HIHG_ORDER_FILES_PARAM);
+      if (null == fileNamesStr) {
+        Usage("Specify '" + CommonParams.HIHG_ORDER_FILES_DESC + "'", options);
+      }
+      String fieldName = cmd.getOptionValue(FIELD_NAME_PARAM,
+                                            FeatureExtractor.mFieldNames[FeatureExtractor.TEXT_UNLEMM_FIELD_ID]);
+      if (!Arrays.asList(FeatureExtractor.mFieldNames).contains(fieldName)) {
+        Usage("Wrong field name '" + fieldName + "'", options);
+      }
+      boolean quantize = cmd.hasOption(QUANTIZE_PARAM);
+
+      InMemForwardIndex index = new InMemForwardIndex(FeatureExtractor.indexFileName(memIndexPref, fieldName));
+
+      for (String fileName : fileNamesStr.split(",")) {
+        String textFileName = embedDir + "/" + fileName;
+        HashIntObjMap<SparseFloatVector> dict = SparseEmbeddingReaderAndRecorder.readDict(index, textFileName);
+        SparseEmbeddingDict.saveBinary(index, SparseEmbeddingDict.binaryFileName(textFileName), dict, quantize);
+        System.out.println("Converted: " + textFileName);
+      }
+    } catch (ParseException e) {
+      e.printStackTrace();
+      Usage("Cannot parse arguments", options);
+    } catch(Exception e) {
+      e.printStackTrace();
+      System.err.println("Terminating due to an exception: " + e);
+      System.exit(1);
+    }
+
+    System.out.println("Terminated successfully!");
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.apps;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import edu.cmu.lti.oaqa.knn4qa.embed.EmbeddingReaderAndRecoder;
+
+/**
+ * An application that converts dense word embeddings (in the text
+ * or word2vec binary format) to the native binary format, which is 
+ * loaded much faster.
+ */
+public class ConvertWordEmbeddings {
+  public final static String INPUT_FILE_PARAM = "i";
+  public final static String INPUT_FILE_DESC  = "An input file (text or word2vec binary)";
+  public final static String OUTPUT_FILE_PARAM = "o";
+  public final static String OUTPUT_FILE_DESC  = "An output file";
+
+  static void Usage(String err, Options options) {
+    System.err.println("Error: " + err);
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp("ConvertWordEmbeddings", options);
+    System.exit(1);
+  }
+
+  public static void main(String[] args) {
+    Options options = new Options();
+
+    options.addOption(INPUT_FILE_PARAM,               null, true,  INPUT_FILE_DESC);
+    options.addOption(OUTPUT_FILE_PARAM,              null, true,  OUTPUT_FILE_DESC);
+    options.addOption(CommonParams.THREAD_QTY_PARAM,  null, true,  CommonParams.THREAD_QTY_DESC);
+
+    CommandLineParser parser = new org.apache.commons.cli.GnuParser();
+
+    try {
+      CommandLine cmd = parser.parse(options, args);
+
+      String inputFile = cmd.getOptionValue(INPUT_FILE_PARAM);
+      if (null == inputFile) {
+        Usage("Specify '" + INPUT_FILE_DESC + "'", options);
+      }
+      String outputFile = cmd.getOptionValue(OUTPUT_FILE_PARAM);
+      if (null == outputFile) {
+        Usage("Specify '" + OUTPUT_FILE_DESC + "'", options);
+      }
+      int threadQty = Runtime.getRuntime().availableProcessors();
+      if (cmd.hasOption(CommonParams.THREAD_QTY_PARAM)) {
+        threadQty = Integer.parseInt(cmd.getOptionValue(CommonParams.THREAD_QTY_PARAM));
+      }
+
+      EmbeddingReaderAndRecoder embed = new EmbeddingReaderAndRecoder(inputFile, null, threadQty);
+      embed.saveBinary(outputFile);
+    } catch (ParseException e) {
+      e.printStackTrace();
+      Usage("Cannot parse arguments", options);
+    } catch(Exception e) {
+      e.printStackTrace();
+      System.err.println("Terminating due to an exception: " + e);
+      System.exit(1);
+    }
+
+    System.out.println("Terminated successfully!");
+  }
+}
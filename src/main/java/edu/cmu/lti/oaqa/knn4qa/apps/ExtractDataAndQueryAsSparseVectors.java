@@ -84,6 +84,7 @@ public class ExtractDataAndQueryAsSparseVectors {
         OUT_DATA_PARAM,
         TEXT_FIELD_PARAM,
         TEST_QTY_PARAM,
+        CommonParams.BM25_IMPACT_BITS_PARAM,
     };
     String optDescs[] = {
         CommonParams.MAX_NUM_QUERY_DESC,
@@ -93,7 +94,8 @@ public class ExtractDataAndQueryAsSparseVectors {
         OUT_QUERIES_DESC,
         OUT_DATA_DESC,  
         TEXT_FIELD_DESC,
-        TEST_QTY_DESC
+        TEST_QTY_DESC,
+        CommonParams.BM25_IMPACT_BITS_DESC
     };
     boolean hasArg[] = {
         true,
@@ -103,6 +105,7 @@ public class ExtractDataAndQueryAsSparseVectors {
         true,
         true,        
         true,
+        true,
         true
     };
     
@@ -161,6 +164,21 @@ public class ExtractDataAndQueryAsSparseVectors {
       BM25SimilarityLucene bm25simil = 
           new BM25SimilarityLucene(FeatureExtractor.BM25_K1, FeatureExtractor.BM25_B, indx);
       
+      tmpn = cmd.getOptionValue(CommonParams.BM25_IMPACT_BITS_PARAM);
+      if (tmpn != null) {
+        int impactBitQty = 0;
+        try {
+          impactBitQty = Integer.parseInt(tmpn);
+        } catch (NumberFormatException e) {
+          UsageSpecify(CommonParams.BM25_IMPACT_BITS_PARAM, opt);
+        }
+        if (impactBitQty != 8 && impactBitQty != 16) {
+          Usage("The number of bits per BM25 impact should be either 8 or 16: '" + tmpn + "'", opt);
+        }
+        bm25simil.precomputeImpacts(impactBitQty);
+        System.out.println(String.format("Using %d-bit BM25 impacts", impactBitQty));
+      }
+      
       String inQueryFile = cmd.getOptionValue(IN_QUERIES_PARAM);
       String outQueryFile = cmd.getOptionValue(OUT_QUERIES_PARAM);
       if ((inQueryFile == null) != (outQueryFile == null)) {
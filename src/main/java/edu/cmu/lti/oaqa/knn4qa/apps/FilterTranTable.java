@@ -15,32 +15,228 @@
  */
 package edu.cmu.lti.oaqa.knn4qa.apps;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Arrays;
 
 import org.apache.commons.cli.*;
 
 
-import edu.cmu.lti.oaqa.knn4qa.giza.GizaTranRec;
+import edu.cmu.lti.oaqa.knn4qa.giza.GizaTranChunkParser;
+import edu.cmu.lti.oaqa.knn4qa.giza.GizaTranTableReaderAndRecoder;
 import edu.cmu.lti.oaqa.knn4qa.giza.GizaVocabularyReader;
+import edu.cmu.lti.oaqa.knn4qa.letor.FeatureExtractor;
 import edu.cmu.lti.oaqa.knn4qa.memdb.FrequentIndexWordFilterAndRecoder;
+import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndex;
+import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndexFilterAndRecoder;
 import edu.cmu.lti.oaqa.knn4qa.utils.CompressUtils;
+import edu.cmu.lti.oaqa.knn4qa.utils.LineChunkParser;
 import edu.cmu.lti.oaqa.knn4qa.utils.VocabularyFilterAndRecoder;
 
-
+/**
+ * An application that filters a GIZA translation table: it keeps only entries
+ * with sufficiently large probabilities, whose source and target words are
+ * frequent words (of a given in-memory forward index). The input is read
+ * in large chunks, which are filtered in parallel, the output is compressed
+ * (if necessary) in a separate thread.
+ * 
+ * <p>Optionally, the filtered table can be also saved in the binary format,
+ * which is loaded by feature extractors instead of the text one
+ * (see {@link GizaTranTableReaderAndRecoder#saveBinary(String, int)}). In this case,
+ * filtered vocabularies should already be in the output directory.</p>
+ * 
+ * @author Leonid Boytsov
+ *
+ */
 public class FilterTranTable {
   
-  private static final int REPORT_INTERVAL_QTY = 100000;
-
-
   private static final String INPUT_PARAM = "i";
   private static final String INPUT_DESC = "A name of the input translation file (can have a .gz or .bz2 extension)";
 
   private static final String OUTPUT_PARAM = "o";
   private static final String OUTPUT_DESC  = "A name of the output file (can have a .gz extension to be compressed)";
+  
+  private static final String SAVE_BIN_PARAM = "save_bin";
+  private static final String SAVE_BIN_DESC  = "Also save the filtered table in the binary format: " +
+                                               "filtered vocabularies should be in the output directory, " +
+                                               "the minimum probability is used as the binary-table threshold";
+  
+  private static final String FLIP_PARAM = "flip_tran_table";
+  private static final String FLIP_DESC  = "Flip the binary table (the flag and the self-translation probability " +
+                                           "should match those of the feature extractor)";
+  
+  private static final String PROB_SELF_TRAN_PARAM = "prob_self_tran";
+  private static final String PROB_SELF_TRAN_DESC  = "A self-translation probability of the binary table, default: " +
+                                                     FeatureExtractor.DEFAULT_PROB_SELF_TRAN;
    
+  private static final String NL = System.getProperty("line.separator");
+  private static final String ENCODING = "UTF-8";
+
+  /**
+   * Filters one chunk of the translation table: output lines are accumulated 
+   * in memory, and, if necessary, the entries are kept as well.
+   */
+  static class FilterChunkParser extends GizaTranChunkParser {
+    FilterChunkParser(GizaVocabularyReader srcVoc, GizaVocabularyReader dstVoc,
+                      VocabularyFilterAndRecoder filter, float minProb, boolean keepEntries) {
+      mSrcVoc = srcVoc;
+      mDstVoc = dstVoc;
+      mFilter = filter;
+      mMinProb = minProb;
+      mKeepEntries = keepEntries;
+    }
+    
+    @Override
+    protected void parseLine() throws Exception {
+      ++mTotalQty;
+      super.parseLine();
+    }
+    
+    @Override
+    protected void addEntry(int srcId, int dstId, float prob) throws Exception {
+      if (srcId != mPrevSrcId) {
+        ++mWordQty;
+        if (mFirstSrcId < 0) mFirstSrcId = srcId;
+        
+        if (srcId == 0) mIsNotFiltered = true;
+        else {
+          String wordSrc = mSrcVoc.getWord(srcId);       
+          mIsNotFiltered = mFilter == null || (wordSrc != null && mFilter.checkWord(wordSrc));
+        }
+      }           
+
+      mPrevSrcId = srcId;
+
+      if (prob >= mMinProb && mIsNotFiltered) {
+        String wordDst = mDstVoc.getWord(dstId);
+
+        if (mFilter == null || (wordDst != null && mFilter.checkWord(wordDst))) {
+          mOut.append(srcId).append(' ').append(dstId).append(' ').append(prob).append(NL);
+          mAddedQty++;
+          if (mKeepEntries) super.addEntry(srcId, dstId, prob);
+        }
+      }          
+    }
+    
+    final GizaVocabularyReader        mSrcVoc;
+    final GizaVocabularyReader        mDstVoc;
+    final VocabularyFilterAndRecoder  mFilter;
+    final float                       mMinProb;
+    final boolean                     mKeepEntries;
+    
+    final StringBuilder               mOut = new StringBuilder();
+    long                              mTotalQty = 0;
+    long                              mAddedQty = 0;
+    int                               mWordQty = 0;
+    int                               mFirstSrcId = -1;
+    int                               mPrevSrcId = -1;
+    boolean                           mIsNotFiltered = false;
+  }
+  
+  /**
+   * Consumes filtered chunks in the input order: writes output lines,
+   * updates counters and, if necessary, accumulates kept entries.
+   */
+  static class FilterResultHandler implements LineChunkParser.Handler<FilterChunkParser> {
+    FilterResultHandler(OutputStream out, String inputFile, boolean keepEntries) {
+      mOut = out;
+      mInputFile = inputFile;
+      mKeepEntries = keepEntries;
+      int initSize = keepEntries ? 1024 : 0;
+      mKeptSrcIds = new int[initSize];
+      mKeptDstIds = new int[initSize];
+      mKeptProbs = new float[initSize];
+    }
+    
+    @Override
+    public void process(FilterChunkParser chunk) throws Exception {
+      mOut.write(chunk.mOut.toString().getBytes(ENCODING));
+      
+      mTotalQty += chunk.mTotalQty;
+      mAddedQty += chunk.mAddedQty;
+      mWordQty += chunk.mWordQty;
+      // A source word can span two chunks
+      if (chunk.mFirstSrcId >= 0 && chunk.mFirstSrcId == mLastSrcId) --mWordQty;
+      if (chunk.mPrevSrcId >= 0) mLastSrcId = chunk.mPrevSrcId;
+      
+      if (mKeepEntries) {
+        int qty = chunk.getQty();
+        int newQty = mKeptQty + qty;
+        if (newQty > mKeptSrcIds.length) {
+          int newSize = Math.max(newQty, 2 * mKeptSrcIds.length);
+          mKeptSrcIds = Arrays.copyOf(mKeptSrcIds, newSize);
+          mKeptDstIds = Arrays.copyOf(mKeptDstIds, newSize);
+          mKeptProbs  = Arrays.copyOf(mKeptProbs, newSize);
+        }
+        System.arraycopy(chunk.getSrcIds(), 0, mKeptSrcIds, mKeptQty, qty);
+        System.arraycopy(chunk.getDstIds(), 0, mKeptDstIds, mKeptQty, qty);
+        System.arraycopy(chunk.getProbs(),  0, mKeptProbs,  mKeptQty, qty);
+        mKeptQty = newQty;
+      }
+      
+      System.out.println(String.format("Processed %d lines (%d source word entries) from '%s', added %d lines", 
+                                        mTotalQty, mWordQty, mInputFile, mAddedQty));
+    }
+    
+    final OutputStream                mOut;
+    final String                      mInputFile;
+    final boolean                     mKeepEntries;
+    
+    long                              mTotalQty = 0;
+    long                              mAddedQty = 0;
+    long                              mWordQty = 0;
+    // The last source word ID of the previous chunk
+    int                               mLastSrcId = -1;
+    
+    int                               mKeptQty = 0;
+    int                               mKeptSrcIds[];
+    int                               mKeptDstIds[];
+    float                             mKeptProbs[];
+  }
+  
+  /**
+   * Loads a vocabulary in a separate thread.
+   */
+  static class VocReaderThread extends Thread {
+    VocReaderThread(String fileName, VocabularyFilterAndRecoder filter, int threadQty) {
+      mFileName = fileName;
+      mFilter = filter;
+      mThreadQty = threadQty;
+    }
+    
+    @Override
+    public void run() {
+      try {
+        mVoc = new GizaVocabularyReader(mFileName, mFilter, mThreadQty);
+      } catch (Exception e) {
+        mException = e;
+      }
+    }
+    
+    final String                      mFileName;
+    final VocabularyFilterAndRecoder  mFilter;
+    final int                         mThreadQty;
+    GizaVocabularyReader              mVoc = null;
+    Exception                         mException = null;
+  }
+  
+  /**
+   * Loads the source and the target vocabularies in parallel.
+   */
+  static GizaVocabularyReader[] readVocabularies(String srcVocFile, String dstVocFile,
+                                                 VocabularyFilterAndRecoder filter, 
+                                                 int threadQty) throws Exception {
+    VocReaderThread threads[] = {
+        new VocReaderThread(srcVocFile, filter, Math.max(1, threadQty / 2)),
+        new VocReaderThread(dstVocFile, filter, Math.max(1, threadQty / 2))
+    };
+    for (VocReaderThread t : threads) t.start();
+    for (VocReaderThread t : threads) t.join();
+    for (VocReaderThread t : threads) 
+      if (t.mException != null) throw t.mException;
+    
+    return new GizaVocabularyReader[] { threads[0].mVoc, threads[1].mVoc }; 
+  }
 
   static void Usage(String err, Options options) {
     System.err.println("Error: " + err);
@@ -59,6 +255,10 @@ public class FilterTranTable {
     options.addOption(CommonParams.GIZA_ROOT_DIR_PARAM, null, true, CommonParams.GIZA_ROOT_DIR_PARAM);
     options.addOption(CommonParams.MIN_PROB_PARAM,      null, true, CommonParams.MIN_PROB_DESC);
     options.addOption(CommonParams.MAX_WORD_QTY_PARAM,  null, true, CommonParams.MAX_WORD_QTY_PARAM);  
+    options.addOption(CommonParams.THREAD_QTY_PARAM,    null, true, CommonParams.THREAD_QTY_DESC);
+    options.addOption(SAVE_BIN_PARAM,                   null, false, SAVE_BIN_DESC);
+    options.addOption(FLIP_PARAM,                       null, false, FLIP_DESC);
+    options.addOption(PROB_SELF_TRAN_PARAM,             null, true, PROB_SELF_TRAN_DESC);
     
     CommandLineParser parser = new org.apache.commons.cli.GnuParser();
 
@@ -100,91 +300,89 @@ public class FilterTranTable {
       if (null != tmpi) {
         maxWordQty = Integer.parseInt(tmpi);
       }
+      
+      int threadQty = Runtime.getRuntime().availableProcessors();
+      
+      tmpi = cmd.getOptionValue(CommonParams.THREAD_QTY_PARAM);
+      
+      if (null != tmpi) {
+        threadQty = Integer.parseInt(tmpi);
+      }
                  
       String memFwdIndxName = cmd.getOptionValue(CommonParams.MEM_FWD_INDEX_PARAM);
       if (null == memFwdIndxName) {
         Usage("Specify '" + CommonParams.MEM_FWD_INDEX_DESC + "'", options);
       }      
+      
+      final boolean saveBin = cmd.hasOption(SAVE_BIN_PARAM);
+      final boolean flipTable = cmd.hasOption(FLIP_PARAM);
+      float probSelfTran = FeatureExtractor.DEFAULT_PROB_SELF_TRAN;
+      
+      tmpf = cmd.getOptionValue(PROB_SELF_TRAN_PARAM);
+      
+      if (tmpf != null) {
+        probSelfTran = Float.parseFloat(tmpf);
+      }
 
       System.out.println("Filtering index: " + memFwdIndxName + " max # of frequent words: " + maxWordQty + " min. probability:" + minProb);
       
-      VocabularyFilterAndRecoder filter 
+      final VocabularyFilterAndRecoder filter 
             = new FrequentIndexWordFilterAndRecoder(memFwdIndxName, maxWordQty);
       
       String srcVocFile = CompressUtils.findFileVariant(gizaRootDir + "/source.vcb");
       
       System.out.println("Source vocabulary file: " + srcVocFile);
       
-      GizaVocabularyReader srcVoc = 
-          new GizaVocabularyReader(srcVocFile, filter);
-      
       String dstVocFile = CompressUtils.findFileVariant(gizaRootDir + "/target.vcb");
       
       System.out.println("Target vocabulary file: " + dstVocFile);
       
-      GizaVocabularyReader dstVoc = 
-          new GizaVocabularyReader(CompressUtils.findFileVariant(dstVocFile), filter);            
+      GizaVocabularyReader vocs[] = readVocabularies(srcVocFile, dstVocFile, filter, threadQty);
+      
+      final GizaVocabularyReader srcVoc = vocs[0]; 
+      final GizaVocabularyReader dstVoc = vocs[1];            
 
       String inputFile = CompressUtils.findFileVariant(gizaRootDir + "/output.t1." + gizaIterQty);
+      final float minProbFinal = minProb;
       
-      BufferedReader finp = new BufferedReader(new InputStreamReader(
-                                                CompressUtils.createInputStream(inputFile)));
+      OutputStream fout = CompressUtils.createBackgroundOutputStream(outputFile);
       
-      BufferedWriter fout = new BufferedWriter(new OutputStreamWriter(
-                                                CompressUtils.createOutputStream(outputFile)));
+      FilterResultHandler res = new FilterResultHandler(fout, inputFile, saveBin);
       
       try {
-        String  line;
-        int     prevSrcId = -1;
-        int     wordQty = 0;
-        long    addedQty = 0;
-        long    totalQty = 0;
-        boolean isNotFiltered = false;
+        LineChunkParser.parseFile(inputFile, threadQty, 
+            new LineChunkParser.Factory<FilterChunkParser>() {
+              @Override
+              public FilterChunkParser create() {
+                return new FilterChunkParser(srcVoc, dstVoc, filter, minProbFinal, saveBin);
+              }
+            }, 
+            res);
+      } finally {
+        fout.close();
+      }
+      
+      if (saveBin) {
+        String outDir = new File(outputFile).getAbsoluteFile().getParent();
         
-        for (totalQty = 0; (line = finp.readLine()) != null; ) {
-          ++totalQty;
-          // Skip empty lines
-          line = line.trim(); if (line.isEmpty()) continue;
-          
-          GizaTranRec rec = new GizaTranRec(line);
-          
-          if (rec.mSrcId != prevSrcId) {
-            ++wordQty;
-          }
-          if (totalQty % REPORT_INTERVAL_QTY == 0) {
-            System.out.println(String.format("Processed %d lines (%d source word entries) from '%s', added %d lines", 
-                                              totalQty, wordQty, inputFile, addedQty));
-          }
-          
-          // isNotFiltered should be set after procOneWord
-          if (rec.mSrcId != prevSrcId) {
-            if (rec.mSrcId == 0) isNotFiltered = true;
-            else {
-              String wordSrc = srcVoc.getWord(rec.mSrcId);       
-              isNotFiltered = filter == null || (wordSrc != null && filter.checkWord(wordSrc));
-            }
-          }           
-
-          prevSrcId = rec.mSrcId;
-
-          if (rec.mProb >= minProb && isNotFiltered) {
-            String wordDst = dstVoc.getWord(rec.mDstId);
-
-            if (filter == null || (wordDst != null && filter.checkWord(wordDst))) {
-              fout.write(String.format(rec.mSrcId + " " + rec.mDstId + " " + rec.mProb));
-              fout.newLine();
-              addedQty++;
-            }
-          }          
-        }
+        InMemForwardIndex                 fieldIndex = new InMemForwardIndex(memFwdIndxName);
+        InMemForwardIndexFilterAndRecoder recoder = new InMemForwardIndexFilterAndRecoder(fieldIndex);
         
-        System.out.println(String.format("Processed %d lines (%d source word entries) from '%s', added %d lines", 
-            totalQty, wordQty, inputFile, addedQty));
+        // Word probabilities should be computed using filtered vocabularies (as feature extractors do)
+        GizaVocabularyReader binVocs[] = readVocabularies(CompressUtils.findFileVariant(outDir + "/source.vcb"), 
+                                                          CompressUtils.findFileVariant(outDir + "/target.vcb"),
+                                                          recoder, threadQty);
         
-      } finally {
-        finp.close();
-        fout.close();
-      }      
+        GizaTranTableReaderAndRecoder table = 
+            new GizaTranTableReaderAndRecoder(flipTable, outputFile,
+                                              res.mKeptSrcIds, res.mKeptDstIds, res.mKeptProbs, res.mKeptQty,
+                                              recoder, binVocs[0], binVocs[1], 
+                                              probSelfTran, minProb, threadQty, null);
+        
+        String textFile = outputFile.endsWith(".gz") ? 
+                          outputFile.substring(0, outputFile.length() - ".gz".length()) : outputFile;
+        table.saveBinary(GizaTranTableReaderAndRecoder.binaryFileName(textFile), fieldIndex.getMaxWordId());
+      }
     } catch (ParseException e) {
       Usage("Cannot parse arguments", options);
     } catch (Exception e) {
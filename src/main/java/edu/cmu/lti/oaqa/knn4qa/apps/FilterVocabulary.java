@@ -15,10 +15,7 @@
  */
 package edu.cmu.lti.oaqa.knn4qa.apps;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 
 import org.apache.commons.cli.*;
 
@@ -26,19 +23,106 @@ import edu.cmu.lti.oaqa.knn4qa.giza.*;
 import edu.cmu.lti.oaqa.knn4qa.memdb.FrequentIndexWordFilterAndRecoder;
 import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndex;
 import edu.cmu.lti.oaqa.knn4qa.utils.CompressUtils;
+import edu.cmu.lti.oaqa.knn4qa.utils.LineChunkParser;
 import edu.cmu.lti.oaqa.knn4qa.utils.ParamHelper;
 import edu.cmu.lti.oaqa.knn4qa.utils.VocabularyFilterAndRecoder;
 
+/**
+ * An application that keeps only frequent words (of a given in-memory forward index)
+ * in GIZA vocabulary files. Several (comma-separated) files can be filtered 
+ * at once: files are processed in parallel, and each file is split into
+ * chunks, which are also filtered in parallel.
+ */
 public class FilterVocabulary {
   
-  private static final int REPORT_INTERVAL_QTY = 10000;
-  
-  private static final String OUT_VOC_FILE_DESC = "a name of the output file (can have a .gz extension to be compressed)";
+  private static final String OUT_VOC_FILE_DESC = "a comma-separated list of output file names (can have a .gz extension to be compressed)";
   private static final String OUT_VOC_FILE_PARAM = "o";
   
-  private static final String IN_VOC_FILE_DESC = "a name of the input vocabulary file (can have a .gz or .bz2 extension)";
+  private static final String IN_VOC_FILE_DESC = "a comma-separated list of input vocabulary file names (can have a .gz or .bz2 extension)";
   private static final String IN_VOC_FILE_PARAM = "i";
 
+  /**
+   * Filters one chunk of the vocabulary file: output lines are 
+   * accumulated in memory.
+   */
+  static class FilterChunkParser extends GizaVocChunkParser {
+    FilterChunkParser(VocabularyFilterAndRecoder filter) {
+      mFilter = filter;
+    }
+    
+    @Override
+    protected void parseLine() throws Exception {
+      ++mTotalQty;
+      super.parseLine();
+    }
+    
+    @Override
+    protected void addRec(GizaVocRec rec) {
+      if (mFilter.checkWord(rec.mWord)) {
+        mOut.append(rec.mId).append(' ').append(rec.mWord).append(' ').append(rec.mQty).append(NL);
+        mAddedQty++;
+      }
+    }
+    
+    final VocabularyFilterAndRecoder  mFilter;
+    final StringBuilder               mOut = new StringBuilder();
+    long                              mTotalQty = 0;
+    long                              mAddedQty = 0;
+  }
+  
+  /**
+   * Filters one vocabulary file.
+   */
+  static class FilterThread extends Thread {
+    FilterThread(String inputFile, String outputFile, 
+                 VocabularyFilterAndRecoder filter, int threadQty) {
+      mInputFile = inputFile;
+      mOutputFile = outputFile;
+      mFilter = filter;
+      mThreadQty = threadQty;
+    }
+    
+    @Override
+    public void run() {
+      try {
+        final OutputStream fout = CompressUtils.createBackgroundOutputStream(mOutputFile);
+        final long qtys[] = new long[2];
+        
+        try {
+          LineChunkParser.parseFile(mInputFile, mThreadQty,
+              new LineChunkParser.Factory<FilterChunkParser>() {
+                @Override
+                public FilterChunkParser create() {
+                  return new FilterChunkParser(mFilter);
+                }
+              }, 
+              new LineChunkParser.Handler<FilterChunkParser>() {
+                @Override
+                public void process(FilterChunkParser chunk) throws Exception {
+                  fout.write(chunk.mOut.toString().getBytes(ENCODING));
+                  qtys[0] += chunk.mTotalQty;
+                  qtys[1] += chunk.mAddedQty;
+                  System.out.println(String.format("Processed %d lines from '%s', added %d lines", 
+                                                    qtys[0], mInputFile, qtys[1]));
+                }
+              });
+        } finally {
+          fout.close();
+        }
+      } catch (Exception e) {
+        mException = e;
+      }
+    }
+    
+    final String                      mInputFile;
+    final String                      mOutputFile;
+    final VocabularyFilterAndRecoder  mFilter;
+    final int                         mThreadQty;
+    Exception                         mException = null;
+  }
+  
+  private static final String NL = System.getProperty("line.separator");
+  private static final String ENCODING = "UTF-8";
   
    
       
@@ -56,9 +140,9 @@ public class FilterVocabulary {
   }
 
   public static void main(String[] args) {
-    String optKeys[]  = {IN_VOC_FILE_PARAM, OUT_VOC_FILE_PARAM, CommonParams.MEM_FWD_INDEX_PARAM, CommonParams.MAX_WORD_QTY_PARAM};
-    String optDescs[] = {IN_VOC_FILE_DESC,  OUT_VOC_FILE_DESC,  CommonParams.MEM_FWD_INDEX_DESC,  CommonParams.MAX_WORD_QTY_DESC};
-    boolean hasArg[]  = {true,              true,               true,                             true};
+    String optKeys[]  = {IN_VOC_FILE_PARAM, OUT_VOC_FILE_PARAM, CommonParams.MEM_FWD_INDEX_PARAM, CommonParams.MAX_WORD_QTY_PARAM, CommonParams.THREAD_QTY_PARAM};
+    String optDescs[] = {IN_VOC_FILE_DESC,  OUT_VOC_FILE_DESC,  CommonParams.MEM_FWD_INDEX_DESC,  CommonParams.MAX_WORD_QTY_DESC,  CommonParams.THREAD_QTY_DESC};
+    boolean hasArg[]  = {true,              true,               true,                             true,                             true};
   
     ParamHelper mParamHelper = null;
     
@@ -91,42 +175,36 @@ public class FilterVocabulary {
         UsageSpecify(CommonParams.MEM_FWD_INDEX_DESC, mParamHelper.getOptions());
       }
       
+      int threadQty = Runtime.getRuntime().availableProcessors();
+      
+      tmpi = cmd.getOptionValue(CommonParams.THREAD_QTY_PARAM);
+      
+      if (null != tmpi) {
+        threadQty = Integer.parseInt(tmpi);
+      }
+      
+      String inputFiles[] = inputFile.split(",");
+      String outputFiles[] = outputFile.split(",");
+      if (inputFiles.length != outputFiles.length) {
+        Usage(String.format("The number of input files (%d) is different from the number of output files (%d)",
+                            inputFiles.length, outputFiles.length), mParamHelper.getOptions());
+      }
+      
       VocabularyFilterAndRecoder filter = new FrequentIndexWordFilterAndRecoder(memFwdIndxName, maxWordQty);
 
-      BufferedReader finp = new BufferedReader(new InputStreamReader(
-                                                CompressUtils.createInputStream(inputFile)));      
-      BufferedWriter fout = new BufferedWriter(new OutputStreamWriter(
-                                                CompressUtils.createOutputStream(outputFile)));      
-      try {
-        
-        
-        String  line;
-
-        int     wordQty = 0;
-        long    addedQty = 0;
-        long    totalQty = 0;
-        
-        for (totalQty = 0; (line = finp.readLine()) != null; ) {
-          ++totalQty;
-          // Skip empty lines
-          line = line.trim(); if (line.isEmpty()) continue;
-          
-          GizaVocRec rec = new GizaVocRec(line);
-          
-          if (filter.checkWord(rec.mWord)) {
-            rec.save(fout);
-            addedQty++;
-          }
-        
-          if (totalQty % REPORT_INTERVAL_QTY == 0)
-          System.out.println(String.format("Processed %d lines (%d source word entries) from '%s', added %d lines", 
-                                            totalQty, wordQty, inputFile, addedQty));
-        }
-        
-      } finally {
-        finp.close();
-        fout.close();
-      }      
+      // Files are filtered in parallel, threads are divided among files
+      FilterThread threads[] = new FilterThread[inputFiles.length];
+      for (int i = 0; i < inputFiles.length; ++i) {
+        threads[i] = new FilterThread(inputFiles[i], outputFiles[i], filter, 
+                                      Math.max(1, threadQty / inputFiles.length));
+        threads[i].start();
+      }
+      for (int i = 0; i < inputFiles.length; ++i) {
+        threads[i].join();
+      }
+      for (int i = 0; i < inputFiles.length; ++i) {
+        if (threads[i].mException != null) throw threads[i].mException;
+      }
     } catch (ParseException e) {
       Usage("Cannot parse arguments", mParamHelper != null ? mParamHelper.getOptions() : null);
       e.printStackTrace();
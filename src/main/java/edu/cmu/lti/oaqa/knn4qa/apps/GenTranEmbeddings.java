@@ -17,7 +17,6 @@
 package edu.cmu.lti.oaqa.knn4qa.apps;
 
 import net.openhft.koloboke.collect.map.hash.HashIntObjMap;
-import no.uib.cipr.matrix.sparse.SparseVector;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -25,6 +24,7 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import edu.cmu.lti.oaqa.knn4qa.embed.SparseEmbeddingDict;
 import edu.cmu.lti.oaqa.knn4qa.embed.SparseEmbeddingReaderAndRecorder;
 import edu.cmu.lti.oaqa.knn4qa.giza.GizaTranTableReaderAndRecoder;
 import edu.cmu.lti.oaqa.knn4qa.giza.GizaVocabularyReader;
@@ -33,6 +33,7 @@ import edu.cmu.lti.oaqa.knn4qa.memdb.FrequentIndexWordFilterAndRecoder;
 import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndex;
 import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndexFilterAndRecoder;
 import edu.cmu.lti.oaqa.knn4qa.simil.BM25SimilarityLucene;
+import edu.cmu.lti.oaqa.knn4qa.simil.SparseFloatVector;
 import edu.cmu.lti.oaqa.knn4qa.utils.VocabularyFilterAndRecoder;
 
 public class GenTranEmbeddings {
@@ -52,8 +53,20 @@ public class GenTranEmbeddings {
   public static final String MIN_PROB_DESC  = "A minimum probability";
   public static final String MAX_DIGIT_PARAM= "max_digit";
   public static final String MAX_DIGIT_DESC = "the maximum # of digits to print";
+  public static final String BINARY_OUT_PARAM = "bin_out";
+  public static final String BINARY_OUT_DESC  = "save models in the binary format (instead of text), i.e., with the suffix '" +
+                                                SparseEmbeddingDict.BINARY_SUFFIX + "'";
+  public static final String QUANTIZE_PARAM = "quantize";
+  public static final String QUANTIZE_DESC  = "quantize values of binary models to 16 bits";
 
-  
+  static void saveModel(InMemForwardIndex index, String fileName, HashIntObjMap<SparseFloatVector> model, 
+                        int maxDigit, boolean binaryOut, boolean quantize) throws Exception {
+    if (binaryOut) {
+      SparseEmbeddingDict.saveBinary(index, SparseEmbeddingDict.binaryFileName(fileName), model, quantize);
+    } else {
+      SparseEmbeddingReaderAndRecorder.saveDict(index, fileName, model, maxDigit);
+    }
+  }
 
   
   public static void main(String[] args) {
@@ -66,7 +79,10 @@ public class GenTranEmbeddings {
     options.addOption(MAX_MODEL_ORDER_PARAM,                  null, true,  MAX_MODEL_ORDER_DESC);
     options.addOption(MIN_PROB_PARAM,                         null, true,  MIN_PROB_DESC);
     options.addOption(MAX_DIGIT_PARAM,                        null, true,  MAX_DIGIT_DESC);
+    options.addOption(BINARY_OUT_PARAM,                       null, false, BINARY_OUT_DESC);
+    options.addOption(QUANTIZE_PARAM,                         null, false, QUANTIZE_DESC);
     options.addOption(CommonParams.MAX_WORD_QTY_PARAM,        null, true, CommonParams.MAX_WORD_QTY_PARAM);
+    options.addOption(CommonParams.THREAD_QTY_PARAM,          null, true, CommonParams.THREAD_QTY_DESC);
 
     CommandLineParser parser = new org.apache.commons.cli.GnuParser();
     
@@ -114,11 +130,22 @@ public class GenTranEmbeddings {
         Usage("Specify '" + MIN_PROB_DESC + "'", options);
       }
       
+      int threadQty = Runtime.getRuntime().availableProcessors();
+      if (cmd.hasOption(CommonParams.THREAD_QTY_PARAM)) {
+        threadQty = Integer.parseInt(cmd.getOptionValue(CommonParams.THREAD_QTY_PARAM));
+      }
+      
       int maxDigit = 5;
       if (cmd.hasOption(MAX_DIGIT_PARAM)) {
         maxDigit = Integer.parseInt(cmd.getOptionValue(MAX_DIGIT_PARAM));
       }
       
+      boolean binaryOut = cmd.hasOption(BINARY_OUT_PARAM);
+      boolean quantize = cmd.hasOption(QUANTIZE_PARAM);
+      if (quantize && !binaryOut) {
+        Usage("Only binary models can be quantized, specify '" + BINARY_OUT_PARAM + "'", options);
+      }
+      
       // We use unlemmatized text here, because lemmatized dictionary is going to be mostly subset of the unlemmatized one.
       int fieldId = FeatureExtractor.TEXT_UNLEMM_FIELD_ID;
       
@@ -143,17 +170,18 @@ public class GenTranEmbeddings {
       int order = 0;
    
       System.out.println("Starting to compute the 0-order model");
-      HashIntObjMap<SparseVector> currModel = SparseEmbeddingReaderAndRecorder.createTranVecDict(index, filterAndRecoder, minProb, answToQuestTran);
+      HashIntObjMap<SparseFloatVector> currModel = SparseEmbeddingReaderAndRecorder.createTranVecDict(index, filterAndRecoder, minProb, answToQuestTran);
       System.out.println("0-order model is computed");      
-      SparseEmbeddingReaderAndRecorder.saveDict(index, outFilePrefix + ".0", currModel, maxDigit);
+      saveModel(index, outFilePrefix + ".0", currModel, maxDigit, binaryOut, quantize);
       System.out.println("0-order model is saved");
       
       while (order < maxModelOrder) {
         ++order;
         System.out.println("Starting to compute the "+order+"-order model");
-        currModel = SparseEmbeddingReaderAndRecorder.nextOrderDict(currModel, index, minProb, answToQuestTran);
+        currModel = SparseEmbeddingReaderAndRecorder.nextOrderDict(currModel, index.getMaxWordId(), minProb, 
+                                                                   answToQuestTran, threadQty);
         System.out.println(order+"-order model is computed");  
-        SparseEmbeddingReaderAndRecorder.saveDict(index, outFilePrefix + "." + order, currModel, maxDigit);
+        saveModel(index, outFilePrefix + "." + order, currModel, maxDigit, binaryOut, quantize);
         System.out.println(order+"-order model is saved");
       }
 
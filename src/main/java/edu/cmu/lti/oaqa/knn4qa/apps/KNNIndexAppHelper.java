@@ -0,0 +1,196 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.apps;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+
+import no.uib.cipr.matrix.DenseVector;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+
+import edu.cmu.lti.oaqa.annographix.util.CompressUtils;
+import edu.cmu.lti.oaqa.annographix.util.XmlHelper;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.CandidateEntry;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.CandidateProvider;
+import edu.cmu.lti.oaqa.knn4qa.letor.FeatureExtractor;
+import edu.cmu.lti.oaqa.knn4qa.letor.InMemIndexFeatureExtractor;
+
+/**
+ * Functions shared by applications that build in-process k-NN indices
+ * over documents ({@link BuildSWGraphIndex} and {@link BuildNappIndex}):
+ * creating the feature extractor and comparing an approximate provider
+ * against the brute-force one.
+ *
+ * <p>Functions throw IllegalArgumentException if options are missing or incorrect.</p>
+ */
+class KNNIndexAppHelper {
+  public static final String DEFAULT_K = "100";
+
+  /**
+   * Adds options needed to create the extractor and to read feature weights.
+   */
+  static void addExtractorOptions(Options options) {
+    options.addOption(CommonParams.MEMINDEX_PARAM,              null, true,  CommonParams.MEMINDEX_DESC);
+    options.addOption(CommonParams.EXTRACTOR_TYPE_FINAL_PARAM,  null, true,  CommonParams.EXTRACTOR_TYPE_FINAL_DESC);
+    options.addOption(CommonParams.KNN_WEIGHTS_FILE_PARAM,      null, true,  CommonParams.KNN_WEIGHTS_FILE_DESC);
+    options.addOption(CommonParams.GIZA_ROOT_DIR_PARAM,         null, true,  CommonParams.GIZA_ROOT_DIR_DESC);
+    options.addOption(CommonParams.GIZA_ITER_QTY_PARAM,         null, true,  CommonParams.GIZA_ITER_QTY_DESC);
+    options.addOption(CommonParams.EMBED_DIR_PARAM,             null, true,  CommonParams.EMBED_DIR_DESC);
+    options.addOption(CommonParams.EMBED_FILES_PARAM,           null, true,  CommonParams.EMBED_FILES_DESC);
+    options.addOption(CommonParams.HIHG_ORDER_FILES_PARAM,      null, true,  CommonParams.HIHG_ORDER_FILES_DESC);
+    options.addOption(CommonParams.BM25_IMPACT_BITS_PARAM,      null, true,  CommonParams.BM25_IMPACT_BITS_DESC);
+  }
+
+  /**
+   * Creates and initializes the extractor.
+   *
+   * @param cmd         parsed options.
+   * @param threadQty   the number of threads used to load resources.
+   * @return the extractor.
+   * @throws Exception
+   */
+  static InMemIndexFeatureExtractor createExtractor(CommandLine cmd, int threadQty) throws Exception {
+    String memIndexPref = getRequired(cmd, CommonParams.MEMINDEX_PARAM, CommonParams.MEMINDEX_DESC);
+    String extrType = getRequired(cmd, CommonParams.EXTRACTOR_TYPE_FINAL_PARAM, CommonParams.EXTRACTOR_TYPE_FINAL_DESC);
+    String gizaRootDir = cmd.getOptionValue(CommonParams.GIZA_ROOT_DIR_PARAM);
+    int gizaIterQty = Integer.parseInt(cmd.getOptionValue(CommonParams.GIZA_ITER_QTY_PARAM, "-1"));
+    String embedDir = cmd.getOptionValue(CommonParams.EMBED_DIR_PARAM);
+    String embedFiles[] = null;
+    if (cmd.hasOption(CommonParams.EMBED_FILES_PARAM)) {
+      embedFiles = cmd.getOptionValue(CommonParams.EMBED_FILES_PARAM).split(",");
+    }
+    String highOrderFiles[] = null;
+    if (cmd.hasOption(CommonParams.HIHG_ORDER_FILES_PARAM)) {
+      highOrderFiles = cmd.getOptionValue(CommonParams.HIHG_ORDER_FILES_PARAM).split(",");
+    }
+    int bm25ImpactBitQty = Integer.parseInt(cmd.getOptionValue(CommonParams.BM25_IMPACT_BITS_PARAM, "0"));
+    if (bm25ImpactBitQty != 0 && bm25ImpactBitQty != 8 && bm25ImpactBitQty != 16) {
+      throw new IllegalArgumentException("The number of bits per BM25 impact should be either 8 or 16");
+    }
+
+    InMemIndexFeatureExtractor featExtr =
+        InMemIndexFeatureExtractor.createExtractor(extrType,
+                                                   gizaRootDir, gizaIterQty,
+                                                   memIndexPref,
+                                                   embedDir, embedFiles, highOrderFiles);
+    if (null == featExtr) {
+      throw new IllegalArgumentException("Wrong type of the feature extractor: '" + extrType + "'");
+    }
+    if (featExtr.needsSomeEmbed() && null == embedDir) {
+      throw new IllegalArgumentException("Specify '" + CommonParams.EMBED_DIR_DESC + "'");
+    }
+    if (featExtr.needsDenseEmbed() && (null == embedFiles || embedFiles.length == 0)) {
+      throw new IllegalArgumentException("Specify '" + CommonParams.EMBED_FILES_DESC + "'");
+    }
+    if (featExtr.needsHighOrderEmbed() && (null == highOrderFiles || highOrderFiles.length == 0)) {
+      throw new IllegalArgumentException("Specify '" + CommonParams.HIHG_ORDER_FILES_DESC + "'");
+    }
+    if (featExtr.needsGIZA() && (null == gizaRootDir || gizaIterQty <= 0)) {
+      throw new IllegalArgumentException("Specify '" + CommonParams.GIZA_ROOT_DIR_DESC + "' and '" +
+                                         CommonParams.GIZA_ITER_QTY_DESC + "'");
+    }
+    featExtr.setBM25ImpactBitQty(bm25ImpactBitQty);
+    featExtr.setInitThreadQty(threadQty);
+    featExtr.init();
+
+    return featExtr;
+  }
+
+  /**
+   * Reads feature weights and checks that their number matches the number of features.
+   */
+  static DenseVector readWeights(CommandLine cmd, InMemIndexFeatureExtractor featExtr) throws Exception {
+    String fileName = getRequired(cmd, CommonParams.KNN_WEIGHTS_FILE_PARAM, CommonParams.KNN_WEIGHTS_FILE_DESC);
+    DenseVector weights = FeatureExtractor.readFeatureWeights(fileName);
+    if (weights.size() != featExtr.getFeatureQty()) {
+      throw new Exception(String.format("The number of weights (%d) isn't equal to the number of features (%d)",
+                                        weights.size(), featExtr.getFeatureQty()));
+    }
+    return weights;
+  }
+
+  /**
+   * Reads queries (empty queries are skipped).
+   *
+   * @param fileName    a query file.
+   * @param maxQty      the maximum number of queries to read.
+   * @return an array of parsed queries.
+   * @throws Exception
+   */
+  static ArrayList<Map<String, String>> readQueries(String fileName, int maxQty) throws Exception {
+    ArrayList<Map<String, String>> res = new ArrayList<Map<String, String>>();
+    BufferedReader inpText = new BufferedReader(new InputStreamReader(CompressUtils.createInputStream(fileName)));
+
+    try {
+      for (String docText = XmlHelper.readNextXMLIndexEntry(inpText);
+           docText != null && res.size() < maxQty;
+           docText = XmlHelper.readNextXMLIndexEntry(inpText)) {
+        Map<String, String> query = XmlHelper.parseXMLIndexEntry(docText);
+        String text = query.get(CandidateProvider.TEXT_FIELD_NAME);
+        if (text != null && !text.trim().isEmpty()) res.add(query);
+      }
+    } finally {
+      inpText.close();
+    }
+    return res;
+  }
+
+  /**
+   * Runs queries using a given provider.
+   *
+   * @param provider  a candidate provider.
+   * @param queries   queries.
+   * @param k         the number of candidates to retrieve.
+   * @param results   an output array of results.
+   * @return the average time per query in milliseconds.
+   * @throws Exception
+   */
+  static double runQueries(CandidateProvider provider, ArrayList<Map<String, String>> queries,
+                           int k, CandidateEntry results[][]) throws Exception {
+    long startTime = System.nanoTime();
+    for (int i = 0; i < queries.size(); ++i) {
+      results[i] = provider.getCandidates(i, queries.get(i), k).mEntries;
+    }
+    return (System.nanoTime() - startTime) / 1e6 / Math.max(1, queries.size());
+  }
+
+  /**
+   * Computes the fraction of true k-NN documents found by an approximate search.
+   */
+  static double compRecall(CandidateEntry exact[][], CandidateEntry approx[][]) {
+    long foundQty = 0, totalQty = 0;
+    for (int i = 0; i < exact.length; ++i) {
+      HashSet<String> exactIds = new HashSet<String>();
+      for (CandidateEntry e : exact[i]) exactIds.add(e.mDocId);
+      for (CandidateEntry e : approx[i]) {
+        if (exactIds.contains(e.mDocId)) ++foundQty;
+      }
+      totalQty += exact[i].length;
+    }
+    return (double) foundQty / Math.max(1, totalQty);
+  }
+
+  private static String getRequired(CommandLine cmd, String param, String desc) {
+    String res = cmd.getOptionValue(param);
+    if (null == res) throw new IllegalArgumentException("Specify '" + desc + "'");
+    return res;
+  }
+}
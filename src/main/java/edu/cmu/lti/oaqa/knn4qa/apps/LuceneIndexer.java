@@ -22,6 +22,7 @@ import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.store.*;
+import org.apache.lucene.util.BytesRef;
 
 import edu.cmu.lti.oaqa.annographix.solr.UtilConst;
 import edu.cmu.lti.oaqa.annographix.util.CompressUtils;
@@ -61,6 +62,7 @@ public class LuceneIndexer {
     options.addOption(CommonParams.MAX_NUM_REC_PARAM,   null, true, CommonParams.MAX_NUM_REC_DESC);
     options.addOption(CommonParams.SOLR_FILE_NAME_PARAM,null, true, CommonParams.SOLR_FILE_NAME_DESC);    
     options.addOption(CommonParams.OUT_INDEX_PARAM,     null, true, CommonParams.OUT_MINDEX_DESC);    
+    options.addOption(CommonParams.MAX_SEGMENT_QTY_PARAM, null, true, CommonParams.MAX_SEGMENT_QTY_DESC);
 
     CommandLineParser parser = new org.apache.commons.cli.GnuParser();
     
@@ -116,6 +118,21 @@ public class LuceneIndexer {
         System.exit(1);
       }
       
+      int maxSegmentQty = 0;
+      
+      tmp = cmd.getOptionValue(CommonParams.MAX_SEGMENT_QTY_PARAM);
+      
+      if (tmp != null) {
+        try {
+          maxSegmentQty = Integer.parseInt(tmp);
+          if (maxSegmentQty <= 0) {
+            Usage("The maximum number of segments should be a positive integer", options);
+          }
+        } catch (NumberFormatException e) {
+          Usage("The maximum number of segments should be a positive integer", options);
+        }
+      }
+      
       String subDirs[] = subDirTypeList.split(",");
 
       int docNum = 0;
@@ -160,6 +177,8 @@ public class LuceneIndexer {
           }
 
           luceneDoc.add(new StringField(UtilConst.TAG_DOCNO, id, Field.Store.YES));
+          // Lets candidate providers obtain IDs without reading stored documents
+          luceneDoc.add(new SortedDocValuesField(UtilConst.TAG_DOCNO, new BytesRef(id)));
 
           for (Map.Entry<String, String> e : docFields.entrySet())
             if (!e.getKey().equals(UtilConst.TAG_DOCNO)) {
@@ -172,6 +191,12 @@ public class LuceneIndexer {
         System.out.println("Indexed " + docNum + " docs");
       }
       
+      if (maxSegmentQty > 0) {
+        // Fewer segments mean fewer per-segment term lookups for each query term
+        System.out.println("Merging the index into at most " + maxSegmentQty + " segments");
+        indexWriter.forceMerge(maxSegmentQty);
+      }
+      
       indexWriter.commit();
       indexWriter.close();
       
@@ -0,0 +1,290 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.apps;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.CandidateProvider;
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.NmslibClientPool;
+import edu.cmu.lti.oaqa.similarity.QueryException;
+import edu.cmu.lti.oaqa.similarity.QueryService;
+import edu.cmu.lti.oaqa.similarity.ReplyEntry;
+
+/**
+ * A load test of the NMSLIB client. The application starts a local stand-in
+ * query server, which answers each k-NN query after a given delay (the search time).
+ * Client threads send queries and spend a given time processing
+ * each reply (this imitates re-ranking). The application reports the throughput of:
+ * <ul>
+ * <li>blocking clients, one connection per thread (one query at a time);
+ * <li>a shared {@link NmslibClientPool}, for each requested number of
+ *     queries in flight per thread.
+ * </ul>
+ */
+public class NmslibLoadTest {
+  public static final String PORT_PARAM = "port";
+  public static final String PORT_DESC  = "A port of the stand-in server (default 9999)";
+  public static final String QUERY_QTY_PARAM = "query_qty";
+  public static final String QUERY_QTY_DESC  = "The number of queries in each test (default 2000)";
+  public static final String SEARCH_TIME_PARAM = "search_time";
+  public static final String SEARCH_TIME_DESC  = "The server-side time (in ms) to answer one query (default 5)";
+  public static final String SERVER_THREAD_QTY_PARAM = "server_thread_qty";
+  public static final String SERVER_THREAD_QTY_DESC  = "The number of server worker threads (default 64)";
+  public static final String RERANK_TIME_PARAM = "rerank_time";
+  public static final String RERANK_TIME_DESC  = "The client-side time (in ms) to process one reply (default 5)";
+  public static final String IN_FLIGHT_QTY_PARAM = "in_flight_qty";
+  public static final String IN_FLIGHT_QTY_DESC  = "A comma-separated list of numbers of queries in flight per thread to test (default 1,2,4)";
+  public static final String K_PARAM = "k";
+  public static final String K_DESC  = "The number of neighbors to retrieve (default 100)";
+
+  static void Usage(String err, Options options) {
+    System.err.println("Error: " + err);
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp("NmslibLoadTest", options);
+    System.exit(1);
+  }
+
+  /**
+   * A stand-in for the NMSLIB query server: it returns k fake neighbors after a delay.
+   */
+  static class StandInQueryService implements QueryService.Iface {
+    StandInQueryService(int searchTimeMS) {
+      mSearchTimeMS = searchTimeMS;
+    }
+
+    @Override
+    public void setQueryTimeParams(String queryTimeParams) throws QueryException, TException {}
+
+    @Override
+    public List<ReplyEntry> knnQuery(int k, String queryObj, boolean retExternId, boolean retObj)
+        throws QueryException, TException {
+      pause(mSearchTimeMS);
+      ArrayList<ReplyEntry> res = new ArrayList<ReplyEntry>(k);
+      for (int i = 0; i < k; ++i) {
+        ReplyEntry e = new ReplyEntry(i, i);
+        if (retExternId) e.setExternId("doc" + i);
+        res.add(e);
+      }
+      return res;
+    }
+
+    @Override
+    public List<ReplyEntry> rangeQuery(double r, String queryObj, boolean retExternId, boolean retObj)
+        throws QueryException, TException {
+      throw new QueryException("Range queries aren't supported by the stand-in server");
+    }
+
+    @Override
+    public double getDistance(String obj1, String obj2) throws QueryException, TException {
+      return 0;
+    }
+
+    private final int mSearchTimeMS;
+  }
+
+  /**
+   * Sends queries using either a blocking client (if the pool is null) or a shared pool.
+   */
+  static class ClientThread extends Thread {
+    ClientThread(String host, int port, NmslibClientPool pool, int inFlightQty,
+                 int queryQty, int k, int rerankTimeMS, AtomicLong errQty) {
+      mHost = host;
+      mPort = port;
+      mPool = pool;
+      mInFlightQty = inFlightQty;
+      mQueryQty = queryQty;
+      mK = k;
+      mRerankTimeMS = rerankTimeMS;
+      mErrQty = errQty;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (mPool == null) {
+          // Non-blocking servers require the framed transport
+          TTransport transp = new TFramedTransport(new TSocket(mHost, mPort));
+          transp.open();
+          QueryService.Client client = new QueryService.Client(new TBinaryProtocol(transp));
+          for (int i = 0; i < mQueryQty; ++i) {
+            processReply(client.knnQuery(mK, "query" + i, true, false));
+          }
+          transp.close();
+        } else {
+          ArrayDeque<Future<List<ReplyEntry>>> pending = new ArrayDeque<Future<List<ReplyEntry>>>();
+          int next = 0;
+          for (int i = 0; i < mQueryQty; ++i) {
+            while (pending.size() < mInFlightQty && next < mQueryQty) {
+              pending.add(mPool.knnQuery(mK, "query" + next));
+              ++next;
+            }
+            processReply(CandidateProvider.waitForResult(pending.poll()));
+          }
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        mErrQty.incrementAndGet();
+      }
+    }
+
+    private void processReply(List<ReplyEntry> repl) {
+      if (repl.size() != mK) mErrQty.incrementAndGet();
+      pause(mRerankTimeMS);
+    }
+
+    private final String            mHost;
+    private final int               mPort;
+    private final NmslibClientPool  mPool;
+    private final int               mInFlightQty;
+    private final int               mQueryQty;
+    private final int               mK;
+    private final int               mRerankTimeMS;
+    private final AtomicLong        mErrQty;
+  }
+
+  static void pause(int timeMS) {
+    if (timeMS <= 0) return;
+    try {
+      Thread.sleep(timeMS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Runs client threads and returns the throughput (queries/sec).
+   */
+  static double runTest(String host, int port, NmslibClientPool pool, int inFlightQty,
+                        int threadQty, int queryQty, int k, int rerankTimeMS) throws Exception {
+    AtomicLong errQty = new AtomicLong();
+    ClientThread threads[] = new ClientThread[threadQty];
+    for (int i = 0; i < threadQty; ++i) {
+      // Queries are divided among threads as evenly as possible
+      int qty = queryQty / threadQty + (i < queryQty % threadQty ? 1 : 0);
+      threads[i] = new ClientThread(host, port, pool, inFlightQty, qty, k, rerankTimeMS, errQty);
+    }
+    long startTime = System.nanoTime();
+    for (ClientThread t : threads) t.start();
+    for (ClientThread t : threads) t.join();
+    double timeSec = (System.nanoTime() - startTime) / 1e9;
+    if (errQty.get() > 0) {
+      throw new Exception(String.format("%d client errors", errQty.get()));
+    }
+    return queryQty / timeSec;
+  }
+
+  public static void main(String[] args) {
+    Options options = new Options();
+
+    options.addOption(PORT_PARAM,                       null, true, PORT_DESC);
+    options.addOption(CommonParams.THREAD_QTY_PARAM,    null, true, CommonParams.THREAD_QTY_DESC);
+    options.addOption(QUERY_QTY_PARAM,                  null, true, QUERY_QTY_DESC);
+    options.addOption(SEARCH_TIME_PARAM,                null, true, SEARCH_TIME_DESC);
+    options.addOption(SERVER_THREAD_QTY_PARAM,          null, true, SERVER_THREAD_QTY_DESC);
+    options.addOption(RERANK_TIME_PARAM,                null, true, RERANK_TIME_DESC);
+    options.addOption(IN_FLIGHT_QTY_PARAM,              null, true, IN_FLIGHT_QTY_DESC);
+    options.addOption(K_PARAM,                          null, true, K_DESC);
+    options.addOption(CommonParams.NMSLIB_TIMEOUT_PARAM, null, true, CommonParams.NMSLIB_TIMEOUT_DESC);
+
+    CommandLineParser parser = new org.apache.commons.cli.GnuParser();
+
+    try {
+      CommandLine cmd = parser.parse(options, args);
+
+      int port = Integer.parseInt(cmd.getOptionValue(PORT_PARAM, "9999"));
+      int threadQty = Integer.parseInt(cmd.getOptionValue(CommonParams.THREAD_QTY_PARAM, "4"));
+      int queryQty = Integer.parseInt(cmd.getOptionValue(QUERY_QTY_PARAM, "2000"));
+      int searchTimeMS = Integer.parseInt(cmd.getOptionValue(SEARCH_TIME_PARAM, "5"));
+      int serverThreadQty = Integer.parseInt(cmd.getOptionValue(SERVER_THREAD_QTY_PARAM, "64"));
+      int rerankTimeMS = Integer.parseInt(cmd.getOptionValue(RERANK_TIME_PARAM, "5"));
+      int inFlightQtys[] = BuildNappIndex.parseIntList(cmd.getOptionValue(IN_FLIGHT_QTY_PARAM, "1,2,4"));
+      int k = Integer.parseInt(cmd.getOptionValue(K_PARAM, "100"));
+      int timeoutMS = Integer.parseInt(cmd.getOptionValue(CommonParams.NMSLIB_TIMEOUT_PARAM,
+                                                          "" + NmslibClientPool.DEFAULT_TIMEOUT_MS));
+      if (threadQty <= 0) Usage("The number of threads should be positive", options);
+      if (serverThreadQty <= 0) Usage("The number of server threads should be positive", options);
+      for (int inFlightQty : inFlightQtys) {
+        if (inFlightQty <= 0) Usage("The number of queries in flight should be positive", options);
+      }
+
+      final String host = "localhost";
+
+      TThreadedSelectorServer.Args serverArgs =
+          new TThreadedSelectorServer.Args(new TNonblockingServerSocket(port));
+      serverArgs.processor(new QueryService.Processor<StandInQueryService>(new StandInQueryService(searchTimeMS)));
+      serverArgs.workerThreads(serverThreadQty);
+      final TServer server = new TThreadedSelectorServer(serverArgs);
+      Thread serverThread = new Thread("StandInQueryServer") {
+        @Override
+        public void run() {
+          server.serve();
+        }
+      };
+      serverThread.setDaemon(true);
+      serverThread.start();
+      while (!server.isServing()) Thread.sleep(10);
+
+      System.out.println(String.format(
+          "Stand-in server on port %d: search time %d ms, %d worker threads; " +
+          "%d client threads, re-ranking time %d ms, %d queries per test",
+          port, searchTimeMS, serverThreadQty, threadQty, rerankTimeMS, queryQty));
+
+      // The first (short) run only warms up the JIT and the server
+      runTest(host, port, null, 1, threadQty, Math.min(queryQty, 100), k, rerankTimeMS);
+
+      double baseQPS = runTest(host, port, null, 1, threadQty, queryQty, k, rerankTimeMS);
+      System.out.println(String.format("Blocking clients: %.1f queries/sec", baseQPS));
+
+      for (int inFlightQty : inFlightQtys) {
+        NmslibClientPool pool = new NmslibClientPool(host, port, threadQty * inFlightQty, timeoutMS);
+        double qps = runTest(host, port, pool, inFlightQty, threadQty, queryQty, k, rerankTimeMS);
+        System.out.println(String.format(
+            "Pooled clients, %d queries in flight per thread (%d connections): %.1f queries/sec (speed-up %.2f)",
+            inFlightQty, pool.getConnectQty(), qps, qps / baseQPS));
+        pool.close();
+      }
+
+      server.stop();
+    } catch (ParseException e) {
+      e.printStackTrace();
+      Usage("Cannot parse arguments", options);
+    } catch(Exception e) {
+      e.printStackTrace();
+      System.err.println("Terminating due to an exception: " + e);
+      System.exit(1);
+    }
+
+    System.out.println("Terminated successfully!");
+  }
+}
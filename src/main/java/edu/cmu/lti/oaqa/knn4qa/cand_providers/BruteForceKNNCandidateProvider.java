@@ -18,138 +18,168 @@ package edu.cmu.lti.oaqa.knn4qa.cand_providers;
 import no.uib.cipr.matrix.DenseVector;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.cmu.lti.oaqa.knn4qa.letor.InMemIndexFeatureExtractor;
-import edu.cmu.lti.oaqa.knn4qa.memdb.DocEntryExt;
-import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndex;
+import edu.cmu.lti.oaqa.knn4qa.simil.KNNHeap;
+
+/**
+ * A task that scores documents for one query. The task takes blocks
+ * of consecutive documents from the shared counter until all the blocks
+ * are processed: each block is scored using one call of {@link KNNScorer#score}.
+ * The task keeps k best documents in its own heap. The heap and the block 
+ * buffers belong to the querying thread, which reuses them for subsequent queries.
+ */
+class BruteForceKNNTask implements Callable<KNNHeap> {
+  private final Map<String, String>           mQueryData;
+  private final KNNHeap                       mHeap;
+  private final int                           mDocs[];
+  private final float                         mScores[];
+  private final KNNScorer                     mScorer;
+  private final AtomicInteger                 mNextBlockId;
 
-class SearchEntry implements Comparable<SearchEntry> {
-  /**
-   * An identifier, e.g., a document ID or a word. 
-   */
-  public final String    mID;
   /**
-   * The distance (the larger is better).
+   * Constructor.
+   * 
+   * @param queryData     query data.
+   * @param heap          an empty heap of top-k entries.
+   * @param docs          a buffer for document ordinal numbers: its size is the block size.
+   * @param scores        a buffer for document scores (of the same size).
+   * @param scorer        a similarity.
+   * @param nextBlockId   a counter of blocks, which is shared by all tasks of the query.
    */
-  public final float     mScore;  
-  
-  public SearchEntry(String id, float score) {
-    this.mID = id;
-    this.mScore = score;
+  BruteForceKNNTask(Map<String, String> queryData,
+                    KNNHeap heap,
+                    int docs[], float scores[],
+                    KNNScorer scorer,
+                    AtomicInteger nextBlockId) {
+    mQueryData = queryData;
+    mHeap = heap;
+    mDocs = docs;
+    mScores = scores;
+    mScorer = scorer;
+    mNextBlockId = nextBlockId;
   }
 
-  /* (non-Javadoc)
-   * @see java.lang.Object#toString()
-   */
   @Override
-  public String toString() {
-    return "[Identifier: " + mID + ", score: " + mScore + "]";
-  }
+  public KNNHeap call() throws Exception {
+    final int docQty = mScorer.getDocQty();
+    final int blockDocQty = mDocs.length;
+    final int blockQty = (docQty + blockDocQty - 1) / blockDocQty;
 
-  /* (non-Javadoc)
-   * The smallest value should go first, this is necessary
-   * for the priority queue (where the head is the SMALLEST value), i.e.,
-   * we want to evict the worst similarity entry from the priority queue.
-   */
-  @Override
-  public int compareTo(SearchEntry o) {
-    if (mScore < o.mScore) return -1;
-    if (mScore > o.mScore) return 1;
-    return 0;
-  }  
-}
+    int blockId;
+    while ((blockId = mNextBlockId.getAndIncrement()) < blockQty) {
+      int start = blockId * blockDocQty;
+      int qty = Math.min(docQty, start + blockDocQty) - start;
 
-class BruteForceKNNThread extends Thread {
-  private final int                           mTopK;
-  private final int                           mThreadId;
-  private final InMemIndexFeatureExtractor    mFeatExtr;
-  private final DenseVector                   mWeights;
-  private final int                           mThreadQty;
-  private final Map<String, String>           mQueryData;
-  private SearchEntry[]                       mResult = null;
+      for (int i = 0; i < qty; ++i) mDocs[i] = start + i;
 
-  public SearchEntry [] getResult() {
-    return mResult;
-  }
-  
-  public BruteForceKNNThread(Map<String, String> queryData,
-                      int topK,
-                      InMemIndexFeatureExtractor featExtr,
-                      int threadId,
-                      int threadQty,
-                      DenseVector weights) {
-    mQueryData = queryData;
-    mTopK = topK;
-    mThreadId = threadId;
-    mThreadQty = threadQty;
-    mFeatExtr = featExtr;
-    mWeights = weights;
-  }
-  
-  @Override
-  public void run() {
-    InMemForwardIndex       fieldIndex = mFeatExtr.getTextFieldIndex();
-    ArrayList<DocEntryExt>  allDocs = fieldIndex.getDocEntries();
-
-    PriorityQueue<SearchEntry> q = new PriorityQueue<SearchEntry>(mTopK);
-    ArrayList<String>          oneDocId = new ArrayList<String>();
-    oneDocId.add("");
-    
-    for (int i = 0; i < allDocs.size(); ++i) { 
-      if (i % mThreadQty == mThreadId) {
-        DocEntryExt doc = allDocs.get(i);
-        oneDocId.set(0, doc.mId);
-        
-        try {
-          Map<String, DenseVector> res = mFeatExtr.getFeatures(oneDocId, mQueryData);
-          
-          DenseVector feat = res.get(doc.mId);
-          float score = (float) feat.dot(mWeights);
-          
-          if (q.size() < mTopK) {
-            q.add(new SearchEntry(doc.mId, score));
-          } else if (score > q.peek().mScore) {
-            q.add(new SearchEntry(doc.mId, score));
-            q.poll();
-          }
-          
-        } catch (Exception e) {
-          e.printStackTrace();
-          System.err.println("Search failure, exiting!");
-          System.exit(1);
-        }    
-      }      
+      mScorer.score(mQueryData, mDocs, qty, mScores);
+
+      for (int i = 0; i < qty; ++i) {
+        // The heap keeps entries with the smallest values, hence, scores are negated
+        mHeap.offer(-mScores[i], mDocs[i]);
+      }
     }
-    
-    mResult = new SearchEntry[q.size()];
-    mResult = q.toArray(mResult);
+
+    return mHeap;
   }
-                      
 }
 
 /**
  * Brute-force KNN to return k-closest entries.
- * 
+ *
+ * <p>Documents are scored by a pool of threads that is shared by all queries:
+ * a query is split into tasks (one per thread), which process blocks of
+ * {@link #BLOCK_DOC_QTY} consecutive documents. Because getFeatures is called
+ * once per block rather than once per document, query-specific
+ * computations are carried out only once per block. Each task
+ * keeps its own bounded heap of top-k documents, heaps are merged when
+ * all tasks are finished. Heaps and block buffers are kept per querying
+ * thread and are reused, so a query doesn't allocate them.</p>
+ *
+ * <p>The thread pool should be shut down using {@link #close()}, when
+ * the provider is no longer needed.</p>
+ *
  * @author Leonid Boytsov
  *
  */
 public class BruteForceKNNCandidateProvider extends CandidateProvider {
-  private InMemIndexFeatureExtractor    mFeatExtr;
-  private DenseVector                   mWeights;
-  private int                           mThreadQty;
+  public static final int BLOCK_DOC_QTY = 1024;
 
+  private final KNNScorer               mScorer;
+  private final int                     mThreadQty;
+  private final ExecutorService         mPool;
+  
   /**
-   * @throws Exception 
+   * Search data structures of one querying thread: the heap of merged results,
+   * as well as a heap and block buffers for each task of a query. The querying
+   * thread waits for all the tasks to finish. Hence, the data structures
+   * can be reused by its next query.
+   */
+  private static class SearchBuffers {
+    SearchBuffers(int taskQty) {
+      mTaskHeaps = new KNNHeap[taskQty];
+      mTaskDocs = new int[taskQty][BLOCK_DOC_QTY];
+      mTaskScores = new float[taskQty][BLOCK_DOC_QTY];
+      for (int i = 0; i < taskQty; ++i) mTaskHeaps[i] = new KNNHeap(0);
+    }
+    final KNNHeap mHeap = new KNNHeap(0);
+    final KNNHeap mTaskHeaps[];
+    final int     mTaskDocs[][];
+    final float   mTaskScores[][];
+  }
+  
+  private final ThreadLocal<SearchBuffers> mSearchBuffers = new ThreadLocal<SearchBuffers>() {
+    @Override
+    protected SearchBuffers initialValue() {
+      return new SearchBuffers(mThreadQty);
+    }
+  };
+
+  /**
+   * Creates a provider that scores documents using a dot product of features 
+   * and weights (see {@link ExtractorKNNScorer}).
+   * 
+   * @throws Exception
    */
   public BruteForceKNNCandidateProvider(
       InMemIndexFeatureExtractor featExtr,
       DenseVector       weights,
       int               threadQty
       ) throws Exception {
-    mFeatExtr = featExtr;
-    mWeights   = weights;
-    mThreadQty = Math.min(threadQty, 
-                          mFeatExtr.getTextFieldIndex().getDocQty());
+    this(new ExtractorKNNScorer(featExtr, weights), threadQty);
+  }
+
+  /**
+   * Creates a provider that scores all documents using a given similarity, 
+   * i.e., the same similarity as the one of in-process k-NN indices.
+   * 
+   * @param scorer      a similarity.
+   * @param threadQty   the number of threads that score documents.
+   * @throws Exception
+   */
+  public BruteForceKNNCandidateProvider(
+      KNNScorer         scorer,
+      int               threadQty
+      ) throws Exception {
+    mScorer = scorer;
+    mThreadQty = Math.max(1, Math.min(threadQty, mScorer.getDocQty()));
+    mPool = Executors.newFixedThreadPool(mThreadQty, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "BruteForceKNN");
+        // Worker threads shouldn't prevent the application from exiting
+        t.setDaemon(true);
+        return t;
+      }
+    });
   }
 
 
@@ -157,72 +187,89 @@ public class BruteForceKNNCandidateProvider extends CandidateProvider {
   public String getName() {
     return this.getClass().getName();
   }
+  
+  /**
+   * Shuts down the thread pool: tasks that are already submitted are
+   * completed, but the provider can't be used afterwards.
+   */
+  public void close() {
+    mPool.shutdown();
+  }
 
 
   /*
-   * getCandidates should be thread-safe, because the feature extractor's function
-   * getFeatures is thread-safe. 
-   */  
+   * getCandidates should be thread-safe, because the scorer is thread-safe
+   * (e.g., the feature extractor's function getFeatures is thread-safe). 
+   * Tasks of concurrent queries share the thread pool.
+   */
   @Override
-  public boolean isThreadSafe() { return true; }   
+  public boolean isThreadSafe() { return true; }
 
   @Override
   public CandidateInfo getCandidates(int queryNum, Map<String, String> queryData,
                                    int maxQty) throws Exception {
-    ArrayList<CandidateEntry> resArr = new ArrayList<CandidateEntry>();
-    
     String queryID = queryData.get(ID_FIELD_NAME);
     if (null == queryID) {
       throw new Exception(
           String.format("Query id (%s) is undefined for query # %d",
                         ID_FIELD_NAME, queryNum));
-    }        
-    
+    }
+
     String text = queryData.get(TEXT_FIELD_NAME);
     if (null == text) {
       throw new Exception(
           String.format("Query (%s) is undefined for query # %d",
                         TEXT_FIELD_NAME, queryNum));
     }
-    
+
     String query = text.trim();
 
+    SearchBuffers buffers = mSearchBuffers.get();
+    KNNHeap       heap = buffers.mHeap;
+    heap.reset(Math.max(0, maxQty));
+
     if (!query.isEmpty()) {
-      
-      
-      BruteForceKNNThread  [] workers = new BruteForceKNNThread[mThreadQty];
-      /*
-       *  Create search threads: because the search is very slow (dozens of seconds
-       *  it's quite cheap to create a thread for each request).
-       */
-      for (int threadId = 0; threadId < mThreadQty; ++threadId) {
-        workers[threadId] = new BruteForceKNNThread(queryData, maxQty, mFeatExtr, 
-                                            threadId, mThreadQty, mWeights);
+      int blockQty = (mScorer.getDocQty() + BLOCK_DOC_QTY - 1) / BLOCK_DOC_QTY;
+      int taskQty = Math.min(mThreadQty, blockQty);
+
+      AtomicInteger nextBlockId = new AtomicInteger();
+      ArrayList<Future<KNNHeap>> tasks = new ArrayList<Future<KNNHeap>>(taskQty);
+      for (int i = 0; i < taskQty; ++i) {
+        buffers.mTaskHeaps[i].reset(heap.getMaxQty());
+        tasks.add(mPool.submit(new BruteForceKNNTask(queryData, buffers.mTaskHeaps[i], 
+                                                     buffers.mTaskDocs[i], buffers.mTaskScores[i],
+                                                     mScorer, nextBlockId)));
       }
-      // Start threads
-      for (BruteForceKNNThread e : workers) e.start();
-      // Wait till they finish
-      for (BruteForceKNNThread e : workers) e.join(0);
-      
+
       // Merge results
-      for (BruteForceKNNThread thread : workers)
-        for (SearchEntry e : thread.getResult()) {
-          resArr.add(new CandidateEntry(e.mID, e.mScore));
+      boolean done = false;
+      try {
+        for (Future<KNNHeap> task : tasks) heap.merge(task.get());
+        done = true;
+      } catch (ExecutionException e) {
+        throw new Exception("Brute-force k-NN search failed for query # " + queryNum + ": " + e.getCause(),
+                            e.getCause());
+      } finally {
+        if (!done) {
+          for (Future<KNNHeap> task : tasks) task.cancel(true);
+          /*
+           * A cancelled task may still be running and use its buffers,
+           * so the next query of this thread should get new ones.
+           */
+          mSearchBuffers.remove();
         }
-      
-      Collections.sort(resArr);
-      
-      if (resArr.size() > maxQty) {
-        ArrayList<CandidateEntry> tmp = resArr;
-        resArr = new ArrayList<CandidateEntry>(maxQty); 
-        for (int i = 0; i < maxQty; ++i)
-          resArr.add(tmp.get(i));
       }
     }
-    
-    CandidateEntry[] results = resArr.toArray(new CandidateEntry[resArr.size()]);
-//    Arrays.sort(results);
-        
+
+    int   docIds[] = new int[heap.size()];
+    float scores[] = new float[heap.size()];
+    int qty = heap.extractSorted(docIds, scores);
+
+    CandidateEntry[] results = new CandidateEntry[qty];
+    for (int i = 0; i < qty; ++i) {
+      results[i] = new CandidateEntry(mScorer.getDocId(docIds[i]), -scores[i]);
+    }
+
     return new CandidateInfo(results);
   }
 
@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import java.util.Map;
+
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A decorator that caches candidate lists of another provider (see {@link CandidateCache}).
+ * The cache key includes all query fields and a description of the provider configuration 
+ * (including the fingerprint of the index), so that the same cache (file) can't return 
+ * lists generated by a differently configured provider or using a different index.
+ */
+public class CachingCandidateProvider extends CandidateProvider {
+  /**
+   * Constructor.
+   *
+   * @param provider        a provider whose candidates are cached.
+   * @param cache           a cache (it can be shared among several instances of the class).
+   * @param providerConfig  a string that describes the provider and all parameters affecting its output.
+   */
+  public CachingCandidateProvider(CandidateProvider provider, CandidateCache cache, String providerConfig) {
+    mProvider = provider;
+    mCache = cache;
+    mProviderConfig = providerConfig;
+  }
+
+  @Override
+  public String getName() {
+    return this.getClass().getName() + "(" + mProvider.getName() + ")";
+  }
+
+  /*
+   * The cache is thread-safe, so this depends only on the wrapped provider.
+   */
+  @Override
+  public boolean isThreadSafe() { return mProvider.isThreadSafe(); }
+
+  @Override
+  public CandidateInfo getCandidates(int queryNum, Map<String, String> queryData,
+                                     int maxQty) throws Exception {
+    String key = createKey(queryNum, queryData, maxQty);
+
+    CandidateInfo res = mCache.get(key);
+    if (res == null) {
+      res = mProvider.getCandidates(queryNum, queryData, maxQty);
+      mCache.put(key, res);
+    }
+    return res;
+  }
+
+  /*
+   * Cache misses are submitted to the wrapped provider, so that they
+   * can be processed asynchronously (if the wrapped provider supports this).
+   */
+  @Override
+  public ListenableFuture<CandidateInfo> submitCandidates(int queryNum, Map<String, String> queryData,
+                                                          int maxQty) {
+    try {
+      final String key = createKey(queryNum, queryData, maxQty);
+
+      CandidateInfo res = mCache.get(key);
+      if (res != null) return Futures.immediateFuture(res);
+
+      return Futures.transform(mProvider.submitCandidates(queryNum, queryData, maxQty),
+                               new AsyncFunction<CandidateInfo, CandidateInfo>() {
+        @Override
+        public ListenableFuture<CandidateInfo> apply(CandidateInfo res) throws Exception {
+          mCache.put(key, res);
+          return Futures.immediateFuture(res);
+        }
+      });
+    } catch (Exception e) {
+      return Futures.immediateFailedFuture(e);
+    }
+  }
+
+  private String createKey(int queryNum, Map<String, String> queryData, int maxQty) throws Exception {
+    String queryID = queryData.get(ID_FIELD_NAME);
+    if (null == queryID) {
+      throw new Exception(
+          String.format("Query id (%s) is undefined for query # %d",
+                        ID_FIELD_NAME, queryNum));
+    }
+
+    if (null == queryData.get(TEXT_FIELD_NAME)) {
+      throw new Exception(
+          String.format("Query (%s) is undefined for query # %d",
+                        TEXT_FIELD_NAME, queryNum));
+    }
+
+    return CandidateCache.createKey(mProviderConfig, queryID, queryData, maxQty);
+  }
+
+  private final CandidateProvider mProvider;
+  private final CandidateCache    mCache;
+  private final String            mProviderConfig;
+}
@@ -0,0 +1,387 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of candidate lists shared by (possibly several) instances of
+ * {@link CachingCandidateProvider}. It consists of a bounded in-memory LRU cache
+ * and an optional disk store, which keeps all lists ever computed, so that
+ * repeated runs of the same queries don't need to generate candidates at all.
+ *
+ * <p>The disk store is an append-only file of compressed records, each record
+ * keeps the cache key and the candidate list. When the file is opened, it is scanned once
+ * to memorize record offsets. A truncated last record (e.g., if the application
+ * was killed) is discarded. The in-memory cache is split into several LRU stripes
+ * (each stripe is synchronized) to reduce contention among threads.</p>
+ */
+public class CandidateCache {
+  public static final int DEFAULT_MAX_MEM_QTY = 10000;
+
+  private static final Logger logger = LoggerFactory.getLogger(CandidateCache.class);
+
+  private static final int MAGIC = 0x434e4348; // CNCH (RandomAccessFile writes the big-endian order)
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final int STRIPE_QTY = 16;
+  private static final char KEY_SEP = '\u0000';
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * An LRU cache for a subset of keys.
+   */
+  private static class Stripe extends LinkedHashMap<String, CandidateInfo> {
+    private static final long serialVersionUID = 1L;
+
+    Stripe(int maxQty) {
+      super(16, 0.75f, true /* access order */);
+      mMaxQty = maxQty;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, CandidateInfo> eldest) {
+      return size() > mMaxQty;
+    }
+
+    final int mMaxQty;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxMemQty   the maximum number of candidate lists kept in memory.
+   * @param diskFile    the name of the disk store file (or null, if the disk store isn't used):
+   *                    it is created, if it doesn't exist.
+   * @throws Exception
+   */
+  public CandidateCache(int maxMemQty, String diskFile) throws Exception {
+    if (maxMemQty < 0)
+      throw new Exception("The maximum number of cached entries should be non-negative, but it is: " + maxMemQty);
+    mStripes = new Stripe[STRIPE_QTY];
+    for (int i = 0; i < STRIPE_QTY; ++i) {
+      mStripes[i] = new Stripe((maxMemQty + STRIPE_QTY - 1) / STRIPE_QTY);
+    }
+    if (diskFile != null) openDiskStore(diskFile);
+  }
+
+  /**
+   * Creates a cache key. Besides the text, providers can use other query fields
+   * (e.g., the NMSLIB provider and providers relying on in-memory extractors do so).
+   * Hence, the key includes all query fields (sorted by name).
+   *
+   * @param providerConfig  a string that describes the provider and all parameters affecting its output.
+   * @param queryId         a query ID.
+   * @param queryFields     query fields (the ID field is ignored).
+   * @param maxQty          the maximum number of candidates.
+   * @return a key.
+   */
+  public static String createKey(String providerConfig, String queryId, 
+                                 Map<String, String> queryFields, int maxQty) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(providerConfig).append(KEY_SEP).append(queryId);
+    for (Map.Entry<String, String> e : new TreeMap<String, String>(queryFields).entrySet()) {
+      if (e.getKey().equals(CandidateProvider.ID_FIELD_NAME)) continue;
+      sb.append(KEY_SEP).append(e.getKey()).append('=').append(e.getValue());
+    }
+    sb.append(KEY_SEP).append(maxQty);
+    return sb.toString();
+  }
+
+  /**
+   * Retrieves a candidate list from memory or from the disk store. Callers
+   * (re-rankers) modify candidate entries, so a copy is returned.
+   *
+   * @param key   a key.
+   * @return a candidate list or null, if the key isn't cached.
+   * @throws Exception
+   */
+  public CandidateInfo get(String key) throws Exception {
+    Stripe stripe = getStripe(key);
+    CandidateInfo res = null;
+    synchronized (stripe) {
+      res = stripe.get(key);
+    }
+    if (res != null) {
+      mMemHitQty.incrementAndGet();
+      return copy(res);
+    }
+    if (mDiskFile != null) {
+      synchronized (mDiskFile) {
+        Long pos = mDiskOffsets.get(key);
+        if (pos != null) res = readRecord(pos, key);
+      }
+    }
+    if (res != null) {
+      mDiskHitQty.incrementAndGet();
+      synchronized (stripe) {
+        stripe.put(key, res);
+      }
+    } else {
+      mMissQty.incrementAndGet();
+    }
+    return res != null ? copy(res) : null;
+  }
+
+  /**
+   * Adds a candidate list to the cache (and to the disk store, if it is used).
+   *
+   * @param key     a key.
+   * @param info    a candidate list.
+   * @throws Exception
+   */
+  public void put(String key, CandidateInfo info) throws Exception {
+    info = copy(info);
+    Stripe stripe = getStripe(key);
+    synchronized (stripe) {
+      stripe.put(key, info);
+    }
+    if (mDiskFile != null) {
+      byte rec[] = encodeRecord(key, info);
+      synchronized (mDiskFile) {
+        // Another thread might have stored the same list
+        if (!mDiskOffsets.containsKey(key)) {
+          mDiskFile.seek(mDiskSize);
+          mDiskFile.write(rec);
+          mDiskOffsets.put(key, mDiskSize);
+          mDiskSize += rec.length;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the number of requests served from memory.
+   */
+  public long getMemHitQty() { return mMemHitQty.get(); }
+
+  /**
+   * @return the number of requests served from the disk store.
+   */
+  public long getDiskHitQty() { return mDiskHitQty.get(); }
+
+  /**
+   * @return the number of requests that were not served from the cache.
+   */
+  public long getMissQty() { return mMissQty.get(); }
+
+  /**
+   * Logs hit and miss statistics.
+   */
+  public void logStats() {
+    long memHitQty = getMemHitQty(), diskHitQty = getDiskHitQty(), missQty = getMissQty();
+    long totalQty = memHitQty + diskHitQty + missQty;
+    logger.info(String.format("Candidate cache: %d requests, %d memory hits, %d disk hits, %d misses (hit rate %.1f%%)",
+                              totalQty, memHitQty, diskHitQty, missQty,
+                              totalQty > 0 ? 100.0 * (memHitQty + diskHitQty) / totalQty : 0.0));
+    if (mDiskFile != null) {
+      synchronized (mDiskFile) {
+        logger.info(String.format("Candidate cache: %d lists (%d bytes) are kept on disk",
+                                  mDiskOffsets.size(), mDiskSize));
+      }
+    }
+  }
+
+  /**
+   * Closes the disk store (if it is used).
+   *
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    if (mDiskFile != null) {
+      synchronized (mDiskFile) {
+        mDiskFile.close();
+      }
+    }
+  }
+
+  /**
+   * Copies original scores and document IDs.
+   */
+  private static CandidateInfo copy(CandidateInfo info) {
+    CandidateEntry entries[] = new CandidateEntry[info.mEntries.length];
+    for (int i = 0; i < entries.length; ++i) {
+      entries[i] = new CandidateEntry(info.mEntries[i].mDocId, info.mEntries[i].mOrigScore);
+    }
+    return new CandidateInfo(info.mNumFound, entries);
+  }
+
+  private Stripe getStripe(String key) {
+    return mStripes[(key.hashCode() & Integer.MAX_VALUE) % STRIPE_QTY];
+  }
+
+  private void openDiskStore(String fileName) throws Exception {
+    boolean exists = new File(fileName).exists();
+    mDiskFile = new RandomAccessFile(fileName, "rw");
+    if (!exists || mDiskFile.length() == 0) {
+      mDiskFile.writeInt(MAGIC);
+      mDiskFile.writeInt(VERSION);
+      mDiskSize = HEADER_SIZE;
+      return;
+    }
+    if (mDiskFile.length() < HEADER_SIZE ||
+        mDiskFile.readInt() != MAGIC || mDiskFile.readInt() != VERSION) {
+      mDiskFile.close();
+      throw new Exception(String.format("The file '%s' isn't a candidate cache file (or its version is different)",
+                                        fileName));
+    }
+    long pos = HEADER_SIZE;
+    long size = mDiskFile.length();
+    while (pos < size) {
+      try {
+        mDiskFile.seek(pos);
+        int comprLen = mDiskFile.readInt();
+        int rawLen = mDiskFile.readInt();
+        if (comprLen < 0 || rawLen < 0 || pos + 8 + comprLen > size) break;
+        byte compr[] = new byte[comprLen];
+        mDiskFile.readFully(compr);
+        DataInputStream inp = new DataInputStream(new ByteArrayInputStream(inflate(compr, rawLen)));
+        mDiskOffsets.put(readString(inp), pos);
+        pos += 8 + comprLen;
+      } catch (EOFException e) {
+        break;
+      } catch (DataFormatException e) {
+        break;
+      }
+    }
+    if (pos < size) {
+      logger.warn(String.format("Discarding a truncated record at the end of the candidate cache file '%s'", fileName));
+      mDiskFile.setLength(pos);
+    }
+    mDiskSize = pos;
+    logger.info(String.format("Read %d candidate lists from the cache file '%s'", mDiskOffsets.size(), fileName));
+  }
+
+  private CandidateInfo readRecord(long pos, String key) throws Exception {
+    mDiskFile.seek(pos);
+    int comprLen = mDiskFile.readInt();
+    int rawLen = mDiskFile.readInt();
+    byte compr[] = new byte[comprLen];
+    mDiskFile.readFully(compr);
+    DataInputStream inp = new DataInputStream(new ByteArrayInputStream(inflate(compr, rawLen)));
+    String recKey = readString(inp);
+    if (!recKey.equals(key)) {
+      throw new Exception("Bug: the key of the record at the position " + pos + " is different from the requested one");
+    }
+    int numFound = inp.readInt();
+    int qty = inp.readInt();
+    CandidateEntry entries[] = new CandidateEntry[qty];
+    for (int i = 0; i < qty; ++i) {
+      String docId = readString(inp);
+      entries[i] = new CandidateEntry(docId, inp.readFloat());
+    }
+    return new CandidateInfo(numFound, entries);
+  }
+
+  private static byte[] encodeRecord(String key, CandidateInfo info) throws IOException {
+    ByteArrayOutputStream raw = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(raw);
+    writeString(out, key);
+    out.writeInt(info.mNumFound);
+    out.writeInt(info.mEntries.length);
+    for (CandidateEntry e : info.mEntries) {
+      writeString(out, e.mDocId);
+      out.writeFloat(e.mOrigScore);
+    }
+    out.close();
+    byte rawBytes[] = raw.toByteArray();
+
+    Deflater deflater = new Deflater();
+    deflater.setInput(rawBytes);
+    deflater.finish();
+    ByteArrayOutputStream rec = new ByteArrayOutputStream(rawBytes.length / 2 + 16);
+    DataOutputStream recOut = new DataOutputStream(rec);
+    recOut.writeInt(0); // compressed length, it is set later
+    recOut.writeInt(rawBytes.length);
+    byte buf[] = new byte[4096];
+    while (!deflater.finished()) {
+      int qty = deflater.deflate(buf);
+      recOut.write(buf, 0, qty);
+    }
+    deflater.end();
+    recOut.close();
+
+    byte res[] = rec.toByteArray();
+    int comprLen = res.length - 8;
+    res[0] = (byte)(comprLen >>> 24);
+    res[1] = (byte)(comprLen >>> 16);
+    res[2] = (byte)(comprLen >>> 8);
+    res[3] = (byte) comprLen;
+    return res;
+  }
+
+  private static byte[] inflate(byte compr[], int rawLen) throws DataFormatException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compr);
+      byte res[] = new byte[rawLen];
+      int qty = 0;
+      while (qty < rawLen) {
+        int n = inflater.inflate(res, qty, rawLen - qty);
+        if (n == 0 && (inflater.finished() || inflater.needsInput())) break;
+        qty += n;
+      }
+      if (qty != rawLen) throw new DataFormatException("Unexpected length of the inflated record");
+      return res;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /*
+   * Strings are written as the length of the UTF-8 representation followed by bytes,
+   * because writeUTF can't save strings longer than 64K bytes.
+   */
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte b[] = s.getBytes(UTF8);
+    out.writeInt(b.length);
+    out.write(b);
+  }
+
+  private static String readString(DataInputStream inp) throws IOException {
+    byte b[] = new byte[inp.readInt()];
+    inp.readFully(b);
+    return new String(b, UTF8);
+  }
+
+  private final Stripe            mStripes[];
+  private RandomAccessFile        mDiskFile = null;
+  private long                    mDiskSize = 0;
+  private final HashMap<String, Long> mDiskOffsets = new HashMap<String, Long>();
+
+  private final AtomicLong        mMemHitQty = new AtomicLong();
+  private final AtomicLong        mDiskHitQty = new AtomicLong();
+  private final AtomicLong        mMissQty = new AtomicLong();
+}
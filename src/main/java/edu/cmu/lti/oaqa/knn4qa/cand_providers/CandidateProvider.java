@@ -16,6 +16,11 @@
 package edu.cmu.lti.oaqa.knn4qa.cand_providers;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import edu.cmu.lti.oaqa.annographix.solr.SolrRes;
 
@@ -29,6 +34,8 @@ public abstract class CandidateProvider {
   public static final String CAND_TYPE_LUCENE_GIZA = "lucene_giza";
   public static final String CAND_TYPE_NMSLIB      = "nmslib";
   public static final String CAND_TYPE_KNN         = "knn_java";
+  public static final String CAND_TYPE_SWGRAPH     = "swgraph_java";
+  public static final String CAND_TYPE_NAPP        = "napp_java";
   
 
   public final static String CAND_PROVID_DESC = "candidate record provider type: " + 
@@ -36,6 +43,8 @@ public abstract class CandidateProvider {
       CandidateProvider.CAND_TYPE_QRELS + ", " + 
       CandidateProvider.CAND_TYPE_SOLR + ", " + 
       CandidateProvider.CAND_TYPE_KNN + ", " + 
+      CandidateProvider.CAND_TYPE_SWGRAPH + ", " + 
+      CandidateProvider.CAND_TYPE_NAPP + ", " + 
       CandidateProvider.CAND_TYPE_NMSLIB;
   
   /**
@@ -80,4 +89,42 @@ public abstract class CandidateProvider {
   abstract public CandidateInfo getCandidates(int queryNum, 
                                     Map<String, String> queryData, 
                                     int maxQty)  throws Exception;
+  
+  /**
+   * Submits a query and returns without waiting for results, if the provider
+   * supports this (e.g., a remote provider). Thus, a thread can keep several
+   * queries in flight. By default, candidates are obtained synchronously using
+   * {@link #getCandidates(int, Map, int)}.
+   * 
+   * @param     queryNum     an ordinal query number (for debugging purposes).
+   * @param     queryData    several pieces of input data, one is typically a bag-of-words query.
+   * @param     maxQty       a maximum number of candidate records to return.
+   * @return    a future result of {@link #getCandidates(int, Map, int)}.
+   */
+  public ListenableFuture<CandidateInfo> submitCandidates(int queryNum, 
+                                                          Map<String, String> queryData, 
+                                                          int maxQty) {
+    try {
+      return Futures.immediateFuture(getCandidates(queryNum, queryData, maxQty));
+    } catch (Exception e) {
+      return Futures.immediateFailedFuture(e);
+    }
+  }
+  
+  /**
+   * Waits for a future result and re-throws the original exception if the computation failed.
+   * 
+   * @param     res   a future result.
+   * @return    the result.
+   * @throws Exception
+   */
+  public static <T> T waitForResult(Future<T> res) throws Exception {
+    try {
+      return res.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) throw (Exception) cause;
+      throw e;
+    }
+  }
 }
@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import java.util.*;
+
+import no.uib.cipr.matrix.DenseVector;
+
+import edu.cmu.lti.oaqa.knn4qa.letor.FeatureExtractor;
+import edu.cmu.lti.oaqa.knn4qa.letor.InMemIndexFeatureExtractor;
+import edu.cmu.lti.oaqa.knn4qa.memdb.DocEntry;
+import edu.cmu.lti.oaqa.knn4qa.memdb.DocEntryExt;
+import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndex;
+
+/**
+ * The similarity used by the brute-force k-NN provider: a dot product
+ * of features (produced by an in-memory feature extractor) and feature weights.
+ * Documents are the ones stored in the extractor's forward index for the text field.
+ */
+public class ExtractorKNNScorer implements KNNScorer {
+  private final InMemIndexFeatureExtractor    mFeatExtr;
+  private final DenseVector                   mWeights;
+  private final ArrayList<DocEntryExt>        mAllDocs;
+
+  public ExtractorKNNScorer(InMemIndexFeatureExtractor featExtr, DenseVector weights) {
+    mFeatExtr = featExtr;
+    mWeights = weights;
+    mAllDocs = featExtr.getTextFieldIndex().getDocEntries();
+  }
+
+  @Override
+  public int getDocQty() {
+    return mAllDocs.size();
+  }
+
+  @Override
+  public String getDocId(int doc) {
+    return mAllDocs.get(doc).mId;
+  }
+
+  @Override
+  public String getDesc() {
+    StringBuilder sb = new StringBuilder(mFeatExtr.getName());
+    double data[] = mWeights.getData();
+    for (int i = 0; i < mWeights.size(); ++i) sb.append(' ').append(data[i]);
+    return sb.toString();
+  }
+
+  /*
+   * The text of each field is restored from the sequence of word IDs,
+   * which is kept in the forward index of this field.
+   */
+  @Override
+  public Map<String, String> createDocQuery(int doc) throws Exception {
+    String docId = getDocId(doc);
+    HashMap<String, String> res = new HashMap<String, String>();
+    res.put(CandidateProvider.ID_FIELD_NAME, docId);
+
+    for (int fieldId = 0; fieldId < FeatureExtractor.mFieldNames.length; ++fieldId) {
+      InMemForwardIndex fieldIndex = mFeatExtr.getFieldIndex(fieldId);
+      if (null == fieldIndex) continue;
+      DocEntry e = fieldIndex.getDocEntry(docId);
+      if (null == e) {
+        throw new Exception("There is no docEntry for docId='" + docId + "'" +
+                            " fieldId=" + fieldId);
+      }
+      StringBuilder sb = new StringBuilder();
+      for (int wordId : e.mWordIdSeq) {
+        String word = fieldIndex.getWord(wordId);
+        if (null == word) continue;
+        if (sb.length() > 0) sb.append(' ');
+        sb.append(word);
+      }
+      res.put(FeatureExtractor.mFieldsSOLR[fieldId], sb.toString());
+    }
+
+    return res;
+  }
+
+  @Override
+  public void score(Map<String, String> queryData, int docs[], int qty, float scores[]) throws Exception {
+    ArrayList<String> docIds = new ArrayList<String>(qty);
+    for (int i = 0; i < qty; ++i) docIds.add(mAllDocs.get(docs[i]).mId);
+
+    Map<String, DenseVector> res = mFeatExtr.getFeatures(docIds, queryData);
+
+    for (int i = 0; i < qty; ++i) {
+      DenseVector feat = res.get(docIds.get(i));
+      scores[i] = (float) feat.dot(mWeights);
+    }
+  }
+}
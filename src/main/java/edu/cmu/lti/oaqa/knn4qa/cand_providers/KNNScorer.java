@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import java.util.Map;
+
+/**
+ * Computes similarity between queries and indexed documents for
+ * in-process k-NN indices ({@link SWGraphIndex} and {@link NappIndex}) and
+ * for the brute-force search ({@link BruteForceKNNCandidateProvider}).
+ * Larger values mean more similar documents.
+ */
+public interface KNNScorer {
+  /**
+   * @return the number of documents.
+   */
+  int getDocQty();
+
+  /**
+   * @return the ID of a document with a given ordinal number.
+   */
+  String getDocId(int doc);
+
+  /**
+   * @return a description of the similarity (it is saved
+   *         with an index to detect an accidental use of a different similarity).
+   */
+  String getDesc();
+
+  /**
+   * Creates query data that represents an indexed document.
+   *
+   * @param doc   a document ordinal number.
+   * @return  query data in the same format as data passed to {@link CandidateProvider#getCandidates(int, Map, int)}.
+   * @throws Exception
+   */
+  Map<String, String> createDocQuery(int doc) throws Exception;
+
+  /**
+   * Computes similarity scores for several documents.
+   *
+   * @param queryData   query data.
+   * @param docs        an array of document ordinal numbers.
+   * @param qty         the number of documents to score.
+   * @param scores      an output array of at least qty elements.
+   * @throws Exception
+   */
+  void score(Map<String, String> queryData, int docs[], int qty, float scores[]) throws Exception;
+}
@@ -18,11 +18,7 @@ package edu.cmu.lti.oaqa.knn4qa.cand_providers;
 import java.util.*;
 import java.io.*;
 
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.*;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.Similarity;
@@ -30,8 +26,6 @@ import org.apache.lucene.store.FSDirectory;
 
 import edu.cmu.lti.oaqa.knn4qa.letor.FeatureExtractor;
 
-import com.google.common.base.Splitter;
-
 public class LuceneCandidateProvider extends CandidateProvider {
   @Override
   public String getName() {
@@ -39,14 +33,28 @@ public class LuceneCandidateProvider extends CandidateProvider {
   }  
   
   public LuceneCandidateProvider(String indexDirName) throws Exception {
+    this(indexDirName, 1, false);
+  }
+  
+  /**
+   * Constructor.
+   * 
+   * @param indexDirName      an index directory.
+   * @param searchThreadQty   the number of threads that search index segments of one query in parallel.
+   * @param preloadIndex      if true, index files are read at startup to warm up the OS page cache.
+   * @throws Exception
+   */
+  public LuceneCandidateProvider(String indexDirName, int searchThreadQty, boolean preloadIndex) throws Exception {
     File indexDir = new File(indexDirName);
     
     if (!indexDir.exists()) {
       throw new Exception(String.format("Directory '%s' doesn't exist", indexDirName)); 
     }
+    if (preloadIndex) LuceneSearchUtils.preloadIndex(indexDir);
     mReader = DirectoryReader.open(FSDirectory.open(indexDir));
-    mSearcher = new IndexSearcher(mReader);
+    mSearcher = LuceneSearchUtils.createSearcher(mReader, searchThreadQty);
     mSearcher.setSimilarity(mSimilarity);
+    mDocIds = new LuceneDocIds(mReader);
   }
   
   /*
@@ -77,36 +85,17 @@ public class LuceneCandidateProvider extends CandidateProvider {
                         TEXT_FIELD_NAME, queryNum));
     }
     
-    String query = text.trim();
-
-    ArrayList<String>   toks = new ArrayList<String>();
-    for (String s: mSpaceSplit.split(query)) {
-      toks.add(s);
-    }
-    if (2 * toks.size() > BooleanQuery.getMaxClauseCount()) {
-      // This a heuristic, but it should work fine in many cases
-      BooleanQuery.setMaxClauseCount(2 * toks.size());
-    }
-
     int    numFound = 0;
 
-    if (!query.isEmpty()) {    
-      // QueryParser cannot be shared among threads!
-      QueryParser parser = new QueryParser(TEXT_FIELD_NAME, mAnalyzer);
-      parser.setDefaultOperator(QueryParser.OR_OPERATOR);
+    Query  query = createQuery(text);
 
-      Query       queryParsed = parser.parse(query);
-      
-      TopDocs     hits = mSearcher.search(queryParsed, maxQty);
+    if (query != null) {
+      TopDocs     hits = mSearcher.search(query, maxQty);
       numFound = hits.totalHits;
       ScoreDoc[]  scoreDocs = hits.scoreDocs;
       
       for (ScoreDoc oneHit: scoreDocs) {
-        Document doc = mSearcher.doc(oneHit.doc);
-        String id = doc.get(ID_FIELD_NAME);
-        float score = oneHit.score;
-        
-        resArr.add(new CandidateEntry(id, score));
+        resArr.add(new CandidateEntry(mDocIds.get(oneHit.doc), oneHit.score));
       }
     }
       
@@ -115,11 +104,46 @@ public class LuceneCandidateProvider extends CandidateProvider {
         
     return new CandidateInfo(numFound, results);
   }
+
+  /**
+   * Creates a disjunction of term queries from white-space separated tokens
+   * (the text is already tokenized and there is no need to use a query parser).
+   * Repeated tokens produce a single term query whose boost is equal to the number
+   * of repetitions: because BM25 scores are linear in the query boost
+   * (and there's no coordination factor), the scores are the same as in the case of
+   * one clause per token occurrence.
+   *
+   * <p>If the number of distinct tokens exceeds the maximum number of clauses,
+   * they are split among several nested boolean queries (rather than changing
+   * the global limit).</p>
+   *
+   * @param text  query text.
+   * @return a query or null, if the text has no tokens.
+   */
+  static Query createQuery(String text) {
+    HashMap<String, Integer> tokQtys = new HashMap<String, Integer>();
+    ArrayList<String>        toks = new ArrayList<String>();
+
+    for (String s: LuceneSearchUtils.QUERY_SPLITTER.split(text)) {
+      Integer qty = tokQtys.get(s);
+      if (qty == null) toks.add(s);
+      tokQtys.put(s, qty == null ? 1 : qty + 1);
+    }
+    if (toks.isEmpty()) return null;
+
+    ArrayList<Query> clauses = new ArrayList<Query>();
+    for (String tok : toks) {
+      TermQuery tq = new TermQuery(new Term(TEXT_FIELD_NAME, tok));
+      int       qty = tokQtys.get(tok);
+      if (qty > 1) tq.setBoost(qty);
+      clauses.add(tq);
+    }
+
+    return LuceneSearchUtils.createDisjunction(clauses);
+  }
   
   private IndexReader   mReader = null;
   private IndexSearcher mSearcher = null;
+  private LuceneDocIds  mDocIds = null;
   private Similarity    mSimilarity = new BM25Similarity(FeatureExtractor.BM25_K1, FeatureExtractor.BM25_B);
-  private Analyzer      mAnalyzer = new WhitespaceAnalyzer();
-
-  private static Splitter mSpaceSplit = Splitter.on(' ').omitEmptyStrings().trimResults();
 }
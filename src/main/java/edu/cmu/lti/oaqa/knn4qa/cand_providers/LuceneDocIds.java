@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.util.Bits;
+
+/**
+ * A mapping from Lucene (top-level) document numbers to external document IDs.
+ * It is built once, when the index is opened. Thus, the IDs of retrieved documents
+ * are obtained without reading stored documents at query time.
+ *
+ * <p>IDs are read from the sorted DocValues field {@link CandidateProvider#ID_FIELD_NAME},
+ * which is created by LuceneIndexer. For segments of older indices, which don't
+ * have this field, IDs are read from the stored field of the same name.</p>
+ */
+class LuceneDocIds {
+  /**
+   * Reads IDs of all (non-deleted) documents.
+   *
+   * @param reader  an index reader.
+   * @throws Exception
+   */
+  LuceneDocIds(IndexReader reader) throws Exception {
+    mIds = new String[reader.maxDoc()];
+
+    Set<String> fieldsToLoad = Collections.singleton(CandidateProvider.ID_FIELD_NAME);
+
+    for (AtomicReaderContext ctx : reader.leaves()) {
+      AtomicReader    segReader = ctx.reader();
+      Bits            liveDocs = segReader.getLiveDocs();
+      SortedDocValues idValues = segReader.getSortedDocValues(CandidateProvider.ID_FIELD_NAME);
+
+      for (int doc = 0; doc < segReader.maxDoc(); ++doc) {
+        if (liveDocs != null && !liveDocs.get(doc)) continue;
+        mIds[ctx.docBase + doc] = idValues != null ?
+                                  idValues.get(doc).utf8ToString() :
+                                  segReader.document(doc, fieldsToLoad).get(CandidateProvider.ID_FIELD_NAME);
+      }
+    }
+  }
+
+  /**
+   * @param doc   a top-level Lucene document number.
+   * @return an external document ID.
+   */
+  String get(int doc) { return mIds[doc]; }
+
+  private final String mIds[];
+}
@@ -18,11 +18,7 @@ package edu.cmu.lti.oaqa.knn4qa.cand_providers;
 import java.util.*;
 import java.io.*;
 
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.*;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.Similarity;
@@ -35,20 +31,17 @@ import edu.cmu.lti.oaqa.knn4qa.letor.InMemIndexFeatureExtractor;
 import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndex;
 import edu.cmu.lti.oaqa.knn4qa.memdb.WordEntry;
 
-class TranRecSortByProb implements Comparable<TranRecSortByProb> {
-  public TranRecSortByProb(int mDstWorId, float mProb) {
-    super();
-    this.mDstWorId = mDstWorId;
-    this.mProb = mProb;
-  }
-  final public int     mDstWorId;
-  final public float   mProb;
-  @Override
-  public int compareTo(TranRecSortByProb o) {
-    // If mProb > o.mProb, we return -1
-    // that is higher-probability entries will go first
-    return (int) Math.signum(o.mProb - mProb);
+/**
+ * Top translations of one word (excluding the word itself), which are
+ * used to expand a query: immutable, so it can be shared among threads.
+ */
+class TranExpansion {
+  TranExpansion(Term terms[], float boosts[]) {
+    mTerms = terms;
+    mBoosts = boosts;
   }
+  final Term    mTerms[];
+  final float   mBoosts[];
 }
 
 /**
@@ -56,19 +49,39 @@ class TranRecSortByProb implements Comparable<TranRecSortByProb> {
  * GIZA-computed translation probabilities: it works only with a <b>flipped/inverted</b>
  * translation table.
  * 
+ * <p>Expansion lists (top translations of a word) are computed only once
+ * per word and are cached. A query is built as a Boolean query of
+ * (possibly boosted) term queries directly, i.e., without the query parser.
+ * Long queries are split into nested Boolean queries 
+ * (see {@link LuceneSearchUtils#createDisjunction(List)}).</p>
+ * 
  * @author Leonid Boytsov
  *
  */
 public class LuceneGIZACandidateProvider extends CandidateProvider {
   public static final String ERROR_EXPL = "The Lucene+GIZA candidate provider requires a Giza-enabled feature extractor";
-  private static final Object lock = new Object();
   
   @Override
   public String getName() {
     return this.getClass().getName();
   }  
   
-  public LuceneGIZACandidateProvider(String indexDirName, int topTranQty, boolean useWeights,
+  /**
+   * Constructor.
+   * 
+   * @param indexDirName      an index directory.
+   * @param searchThreadQty   the number of threads that search index segments of one query in parallel.
+   * @param preloadIndex      if true, index files are read at startup to warm up the OS page cache.
+   * @param topTranQty        the number of translations added for each query word.
+   * @param useWeights        if true, translations are weighted using translation probabilities.
+   * @param gizaRootDir       a root directory of GIZA output.
+   * @param gizaIterQty       the number of GIZA iterations.
+   * @param memIndexPref      a prefix of the in-memory forward index.
+   * @param featureExtractors extractors whose resources are re-used (if possible).
+   * @throws Exception
+   */
+  public LuceneGIZACandidateProvider(String indexDirName, int searchThreadQty, boolean preloadIndex,
+                                    int topTranQty, boolean useWeights,
                                     String gizaRootDir, int gizaIterQty, 
                                     String memIndexPref,
                                     InMemIndexFeatureExtractor ... featureExtractors) throws Exception {
@@ -105,11 +118,13 @@ public class LuceneGIZACandidateProvider extends CandidateProvider {
     }
     mTopTranQty = topTranQty;
     mUseWeights = useWeights;
+    mExpansions = new TranExpansion[mFieldIndex.getMaxWordId() + 1];
     
+    if (preloadIndex) LuceneSearchUtils.preloadIndex(indexDir);
     mReader = DirectoryReader.open(FSDirectory.open(indexDir));
-    mSearcher = new IndexSearcher(mReader);
+    mSearcher = LuceneSearchUtils.createSearcher(mReader, searchThreadQty);
     mSearcher.setSimilarity(mSimilarity);
-    
+    mDocIds = new LuceneDocIds(mReader);
   }
   
   /*
@@ -139,71 +154,33 @@ public class LuceneGIZACandidateProvider extends CandidateProvider {
                         TEXT_FIELD_NAME, queryNum));
     }
     
-    String origQuery = text.trim();
     int    numFound = 0;
-
-    if (!origQuery.isEmpty()) {    
-      StringBuffer queryToks = new StringBuffer();
-      int          tokQty = 0;
+    
+    ArrayList<Query> clauses = new ArrayList<Query>();
+    for (String w : LuceneSearchUtils.QUERY_SPLITTER.split(text)) {
+      clauses.add(new TermQuery(new Term(TEXT_FIELD_NAME, w)));
       
-      for (String w : origQuery.split("\\s+")) 
-      if (!w.isEmpty()) {
-        tokQty++;        
-        queryToks.append(w + " ");        
-        
-        final WordEntry we = mFieldIndex.getWordEntry(w);
-        if (we != null) {
-          GizaOneWordTranRecs rec0 = mAnswToQuestTran.getTranProbs(we.mWordId);
-          if (rec0 != null) {
-            TranRecSortByProb rec[] = new TranRecSortByProb[rec0.mDstIds.length];
-            for (int i = 0; i < rec0.mDstIds.length; ++i)
-              rec[i] = new TranRecSortByProb(rec0.mDstIds[i], rec0.mProbs[i]);
-            Arrays.sort(rec);
-            int qty = mTopTranQty;
-            for (int i = 0; i < Math.min(rec.length, qty); ++i) {
-              int dstId = rec[i].mDstWorId;
-              if (dstId != we.mWordId) { 
-                queryToks.append(mFieldIndex.getWord(dstId) + 
-                    (mUseWeights ? "^" + String.format("%.3f", rec[i].mProb) : "") +" ");
-                ++tokQty;
-              } else {
-                // If we skip a word, b/c it's the same as the query word
-                // we will get one more candidate so that exactly Math.min(mTopTranQty, rec.length)
-                // words were added
-                ++qty;
-              }              
-            }
-          }
+      final WordEntry     we = mFieldIndex.getWordEntry(w);
+      final TranExpansion exp = we != null ? getExpansion(we.mWordId) : null;
+      if (exp != null) {
+        for (int i = 0; i < exp.mTerms.length; ++i) {
+          TermQuery tq = new TermQuery(exp.mTerms[i]);
+          if (mUseWeights) tq.setBoost(exp.mBoosts[i]);
+          clauses.add(tq);
         }
       }
+    }
       
-      synchronized (lock) { // this is a static lock, it will block all instance of this class
-        if (tokQty > BooleanQuery.getMaxClauseCount()) {
-          BooleanQuery.setMaxClauseCount(tokQty);        
-        }
-      }
+    if (!clauses.isEmpty()) {
+      Query       query = LuceneSearchUtils.createDisjunction(clauses);
+      //System.out.println("The resulting query: " + query.toString());
       
-      String luceneQuery = queryToks.toString().trim();
-      if (!luceneQuery.isEmpty()) {
-        // QueryParser cannot be shared among threads!
-        QueryParser parser = new QueryParser(TEXT_FIELD_NAME, mAnalyzer);
-        parser.setDefaultOperator(QueryParser.OR_OPERATOR);
-        
-        Query       queryParsed = parser.parse(luceneQuery);
-        
-        //System.out.println("The resulting query: " + luceneQuery.toString());
-        
-        TopDocs     hits = mSearcher.search(queryParsed, maxQty);
-        numFound = hits.totalHits;
-        ScoreDoc[]  scoreDocs = hits.scoreDocs;
-        
-        for (ScoreDoc oneHit: scoreDocs) {
-          Document doc = mSearcher.doc(oneHit.doc);
-          String id = doc.get(ID_FIELD_NAME);
-          float score = oneHit.score;
-          
-          resArr.add(new CandidateEntry(id, score));
-        }
+      TopDocs     hits = mSearcher.search(query, maxQty);
+      numFound = hits.totalHits;
+      ScoreDoc[]  scoreDocs = hits.scoreDocs;
+      
+      for (ScoreDoc oneHit: scoreDocs) {
+        resArr.add(new CandidateEntry(mDocIds.get(oneHit.doc), oneHit.score));
       }
     }
       
@@ -213,14 +190,78 @@ public class LuceneGIZACandidateProvider extends CandidateProvider {
     return new CandidateInfo(numFound, results);
   }
   
+  /**
+   * Returns top translations of a word: they are computed on the first request
+   * and are cached. Translations are sorted in the order of decreasing probabilities,
+   * ties are resolved in the order of increasing target word IDs. The query word
+   * itself is excluded, so that exactly min(mTopTranQty, &lt;# of other translations&gt;)
+   * words are added.
+   * 
+   * @param wordId    a word ID.
+   * @return an expansion list (possibly empty).
+   */
+  private TranExpansion getExpansion(int wordId) {
+    TranExpansion res = mExpansions[wordId];
+    if (res != null) return res;
+    
+    int   start, end;
+    int   dstIds[];
+    float probs[];
+    if (mAnswToQuestTran.isDiskResident()) {
+      // CSR arrays aren't available for a disk-resident table
+      GizaOneWordTranRecs row = mAnswToQuestTran.getTranRowShared(wordId);
+      start = 0;
+      end = row != null ? row.mDstIds.length : 0;
+      dstIds = row != null ? row.mDstIds : null;
+      probs = row != null ? row.mProbs : null;
+    } else {
+      start = mAnswToQuestTran.getTranRowStart(wordId);
+      end = mAnswToQuestTran.getTranRowEnd(wordId);
+      dstIds = mAnswToQuestTran.getTranDstIdArray();
+      probs = mAnswToQuestTran.getTranProbArray();
+    }
+    
+    /*
+     * Probabilities are non-negative, so the order of their bit patterns 
+     * is the order of their values. Thus, sorting keys in the ascending order, 
+     * sorts probabilities in the descending order and (for equal probabilities) 
+     * word IDs in the ascending order.
+     */
+    long keys[] = new long[end - start];
+    int  qty = 0;
+    for (int i = start; i < end; ++i) {
+      int dstId = dstIds[i];
+      if (dstId != wordId) {
+        keys[qty++] = ((long)(Integer.MAX_VALUE - Float.floatToIntBits(probs[i])) << 32) | dstId;
+      }
+    }
+    Arrays.sort(keys, 0, qty);
+    
+    qty = Math.min(qty, mTopTranQty);
+    Term  terms[] = new Term[qty];
+    float boosts[] = new float[qty];
+    for (int i = 0; i < qty; ++i) {
+      int   dstId = (int) keys[i];
+      float prob = Float.intBitsToFloat(Integer.MAX_VALUE - (int)(keys[i] >>> 32));
+      terms[i] = new Term(TEXT_FIELD_NAME, mFieldIndex.getWord(dstId));
+      // The same rounding as in earlier versions, where weights were passed to the query parser
+      boosts[i] = Float.parseFloat(String.format(Locale.ROOT, "%.3f", prob));
+    }
+    res = new TranExpansion(terms, boosts);
+    // A benign race: the expansion is immutable and several threads would compute the same one
+    mExpansions[wordId] = res;
+    return res;
+  }
+  
   private IndexReader   mReader = null;
   private IndexSearcher mSearcher = null;
+  private LuceneDocIds  mDocIds = null;
   private Similarity    mSimilarity = new BM25Similarity(FeatureExtractor.BM25_K1, FeatureExtractor.BM25_B);
-  private Analyzer      mAnalyzer = new WhitespaceAnalyzer();
   private InMemForwardIndex             mFieldIndex = null;
   private GizaTranTableReaderAndRecoder mAnswToQuestTran = null;
   
   
   private final int                           mTopTranQty;
   private final boolean                       mUseWeights;
+  private final TranExpansion                 mExpansions[];
  }
@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+
+/**
+ * Functions shared by Lucene-based candidate providers: opening a searcher,
+ * which (optionally) searches index segments in parallel, pre-loading index files,
+ * and creating queries from already tokenized text.
+ */
+class LuceneSearchUtils {
+  private static final int PRELOAD_BUFFER_SIZE = 1024 * 1024;
+
+  private static final Logger logger = LoggerFactory.getLogger(LuceneSearchUtils.class);
+
+  /**
+   * Splits (already tokenized) query text into tokens: all providers
+   * should use this splitter, so that they tokenize queries identically.
+   */
+  static final Splitter QUERY_SPLITTER = Splitter.on(CharMatcher.WHITESPACE).omitEmptyStrings();
+
+  /**
+   * Creates a searcher. If more than one thread is requested, segments of the
+   * index are searched in parallel (for each query) using a thread pool.
+   * This reduces latency when queries are processed by only a few threads,
+   * but it doesn't help (and may even hurt) throughput otherwise.
+   *
+   * @param reader            an index reader.
+   * @param searchThreadQty   the number of threads searching the segments of one query.
+   * @return a searcher.
+   */
+  static IndexSearcher createSearcher(IndexReader reader, int searchThreadQty) {
+    if (searchThreadQty <= 1 || reader.leaves().size() <= 1) {
+      return new IndexSearcher(reader);
+    }
+    int threadQty = Math.min(searchThreadQty, reader.leaves().size());
+    logger.info(String.format("Searching %d index segments using %d threads",
+                              reader.leaves().size(), threadQty));
+    ExecutorService pool = Executors.newFixedThreadPool(threadQty, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "LuceneSegmentSearch");
+        // Worker threads shouldn't prevent the application from exiting
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    return new IndexSearcher(reader, pool);
+  }
+
+  /**
+   * Reads all index files sequentially, so that the first queries don't pay for
+   * random reads of postings and term dictionaries from disk
+   * (this works only if the index fits into the OS page cache).
+   *
+   * @param indexDir  an index directory.
+   * @throws Exception
+   */
+  static void preloadIndex(File indexDir) throws Exception {
+    long   startTime = System.currentTimeMillis();
+    long   totalQty = 0;
+    byte   buf[] = new byte[PRELOAD_BUFFER_SIZE];
+
+    File files[] = indexDir.listFiles();
+    if (files == null) {
+      throw new Exception(String.format("Cannot list files in the directory '%s'", indexDir));
+    }
+    for (File f : files) {
+      if (!f.isFile()) continue;
+      InputStream inp = new FileInputStream(f);
+      try {
+        for (int qty = inp.read(buf); qty >= 0; qty = inp.read(buf)) {
+          totalQty += qty;
+        }
+      } finally {
+        inp.close();
+      }
+    }
+    logger.info(String.format("Pre-loaded %d bytes of the index '%s' in %.1f sec",
+                              totalQty, indexDir, (System.currentTimeMillis() - startTime) / 1e3));
+  }
+
+  /**
+   * Creates a disjunction of queries. If the number of clauses exceeds the maximum
+   * number of clauses in a Boolean query, they are split among several nested Boolean
+   * queries, rather than changing the limit, which is global (and would have to be
+   * changed under a lock). BM25 has neither a coordination factor nor a query
+   * normalization, so nesting doesn't change document scores.
+   *
+   * @param clauses   a list of (should) clauses.
+   * @return a Boolean query.
+   */
+  static BooleanQuery createDisjunction(List<? extends Query> clauses) {
+    final int maxClauseQty = BooleanQuery.getMaxClauseCount();
+    
+    if (clauses.size() <= maxClauseQty) {
+      BooleanQuery res = new BooleanQuery();
+      for (Query q : clauses) res.add(q, BooleanClause.Occur.SHOULD);
+      return res;
+    }
+    
+    ArrayList<Query> parts = new ArrayList<Query>();
+    for (int start = 0; start < clauses.size(); start += maxClauseQty) {
+      parts.add(createDisjunction(clauses.subList(start, Math.min(clauses.size(), start + maxClauseQty))));
+    }
+    // If there are too many parts, they are nested again
+    return createDisjunction(parts);
+  }
+}
@@ -0,0 +1,502 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.cmu.lti.oaqa.knn4qa.simil.KNNHeap;
+import edu.cmu.lti.oaqa.knn4qa.utils.BinaryFileReader;
+import edu.cmu.lti.oaqa.knn4qa.utils.BinaryFileWriter;
+
+/**
+ * A thread that finds the closest pivots for a subset of documents.
+ */
+class NappBuildThread extends Thread {
+  private final NappIndex   mIndex;
+  private final int         mDocPivots[];
+  private final int         mThreadId;
+  private final int         mThreadQty;
+  private Throwable         mError = null;
+
+  NappBuildThread(NappIndex index, int docPivots[], int threadId, int threadQty) {
+    mIndex = index;
+    mDocPivots = docPivots;
+    mThreadId = threadId;
+    mThreadQty = threadQty;
+  }
+
+  Throwable getError() { return mError; }
+
+  @Override
+  public void run() {
+    try {
+      NappIndex.Searcher searcher = mIndex.newSearcher();
+      final int pivotIndexQty = mIndex.getPivotIndexQty();
+      for (int doc = mThreadId; doc < mIndex.getDocQty(); doc += mThreadQty) {
+        searcher.findClosestPivots(mIndex.getScorer().createDocQuery(doc), pivotIndexQty,
+                                   mDocPivots, doc * pivotIndexQty);
+        mIndex.reportProgress();
+      }
+    } catch (Throwable e) {
+      mError = e;
+    }
+  }
+}
+
+/**
+ * An approximate k-NN index for documents: the neighborhood approximation
+ * (NAPP) index, where the similarity between a query and a document
+ * is computed by a {@link KNNScorer}. This is a Java version of
+ * the NAPP method of NMSLIB, see "Permutation Search Methods are Efficient, Yet Faster
+ * Search is Possible" by Naidan, Boytsov, and Nyberg, 2015.
+ *
+ * <p>A number of documents (numPivot) is randomly selected as pivots. For each document,
+ * the index memorizes numPivotIndex pivots that are most similar
+ * to the document: it keeps a posting list of documents for every pivot.
+ * To answer a query, the search finds numPivotSearch pivots that are most
+ * similar to the query and scores only documents that share at least minTimes
+ * of these pivots with the query. Similarities between documents and pivots are
+ * computed by representing documents as queries (see {@link KNNScorer#createDocQuery(int)}),
+ * so that queries and documents are compared with pivots in the same way.</p>
+ *
+ * <p>Posting lists are compressed: sorted document numbers are
+ * delta-encoded and stored using the variable-byte code. Candidate documents
+ * and pivots are scored in batches, so that query-specific computations
+ * of the scorer are carried out only once per batch.</p>
+ *
+ * <p>The index can be built by several threads (provided that the scorer
+ * is thread-safe). Searches can be carried out concurrently, but each thread
+ * needs its own {@link Searcher}.</p>
+ */
+public class NappIndex {
+  public static final int DEFAULT_PIVOT_QTY         = 1000;
+  public static final int DEFAULT_PIVOT_INDEX_QTY   = 32;
+  public static final int DEFAULT_PIVOT_SEARCH_QTY  = 32;
+  public static final int DEFAULT_MIN_TIMES         = 2;
+  // The number of candidate documents scored in one batch
+  public static final int BLOCK_DOC_QTY             = 1024;
+
+  private static final int MAGIC = 0x5050414e; // NAPP in the little-endian order
+  private static final int VERSION = 1;
+  private static final long RANDOM_SEED = 0;
+  private static final int REPORT_INTERVAL_QTY = 10000;
+
+  private static final Logger logger = LoggerFactory.getLogger(NappIndex.class);
+
+  /**
+   * Builds the index.
+   *
+   * @param scorer          the similarity.
+   * @param pivotQty        the number of pivots.
+   * @param pivotIndexQty   the number of the closest pivots memorized for each document.
+   * @param threadQty       the number of threads.
+   * @return the index.
+   * @throws Exception
+   */
+  public static NappIndex build(KNNScorer scorer, int pivotQty, int pivotIndexQty, int threadQty) throws Exception {
+    int docQty = scorer.getDocQty();
+    if (pivotQty < 1 || pivotQty > docQty)
+      throw new Exception(String.format("The number of pivots should be from 1 to %d, but it is: %d",
+                                        docQty, pivotQty));
+    if (pivotIndexQty < 1 || pivotIndexQty > pivotQty || pivotIndexQty > Short.MAX_VALUE)
+      throw new Exception(String.format("The number of indexed pivots should be from 1 to %d, but it is: %d",
+                                        Math.min(pivotQty, Short.MAX_VALUE), pivotIndexQty));
+    if (threadQty < 1)
+      throw new Exception("The number of threads should be positive, but it is: " + threadQty);
+    if ((long) docQty * pivotIndexQty > Integer.MAX_VALUE)
+      throw new Exception(String.format("Too many documents (%d) for %d indexed pivots", docQty, pivotIndexQty));
+
+    long startTime = System.currentTimeMillis();
+
+    // Pivots are randomly selected documents (sampled without replacement)
+    int perm[] = new int[docQty];
+    for (int i = 0; i < docQty; ++i) perm[i] = i;
+    Random rand = new Random(RANDOM_SEED);
+    for (int i = 0; i < pivotQty; ++i) {
+      int k = i + rand.nextInt(docQty - i);
+      int tmp = perm[i]; perm[i] = perm[k]; perm[k] = tmp;
+    }
+    int pivots[] = Arrays.copyOf(perm, pivotQty);
+    perm = null;
+
+    NappIndex index = new NappIndex(scorer, pivots, pivotIndexQty);
+
+    int docPivots[] = new int[docQty * pivotIndexQty];
+
+    threadQty = Math.max(1, Math.min(threadQty, docQty));
+    NappBuildThread[] workers = new NappBuildThread[threadQty];
+    for (int threadId = 0; threadId < threadQty; ++threadId) {
+      workers[threadId] = new NappBuildThread(index, docPivots, threadId, threadQty);
+    }
+    // Start threads
+    for (NappBuildThread e : workers) e.start();
+    // Wait till they finish
+    for (NappBuildThread e : workers) e.join(0);
+
+    for (NappBuildThread e : workers) {
+      if (e.getError() != null)
+        throw new Exception("NAPP construction thread failed: " + e.getError(), e.getError());
+    }
+
+    index.createPostings(docPivots);
+
+    logger.info(String.format("Built the NAPP index for %d documents, numPivot=%d numPivotIndex=%d, " +
+                              "posting lists: %.1f MB, # of threads: %d, %.1f sec",
+                              docQty, pivotQty, pivotIndexQty, index.mPostData.length / 1024.0 / 1024.0,
+                              threadQty, (System.currentTimeMillis() - startTime) / 1000.0));
+    return index;
+  }
+
+  /**
+   * Loads the index saved by {@link #save(String)}.
+   *
+   * @param scorer    the similarity, documents must be the same as the ones used to build the index.
+   * @param fileName  an index file.
+   * @return the index.
+   * @throws Exception
+   */
+  public static NappIndex load(KNNScorer scorer, String fileName) throws Exception {
+    BinaryFileReader inp = new BinaryFileReader(fileName);
+
+    try {
+      if (inp.getSize() < 8 || inp.readInt() != MAGIC)
+        throw new Exception(String.format("File '%s' is not a NAPP index", fileName));
+      int ver = inp.readInt();
+      if (ver != VERSION)
+        throw new Exception(String.format("Unsupported version %d of the NAPP index '%s'", ver, fileName));
+
+      String desc = inp.readString();
+      int docQty = inp.readInt();
+      int pivotQty = inp.readInt();
+      int pivotIndexQty = inp.readInt();
+      int postDataLen = inp.readInt();
+
+      if (docQty != scorer.getDocQty())
+        throw new Exception(String.format(
+            "The NAPP index '%s' was built for %d documents, but there are %d documents",
+            fileName, docQty, scorer.getDocQty()));
+      for (int doc = 0; doc < docQty; ++doc) {
+        String docId = inp.readString();
+        if (!docId.equals(scorer.getDocId(doc)))
+          throw new Exception(String.format(
+              "The NAPP index '%s' was built for different documents: the document # %d is '%s' instead of '%s'",
+              fileName, doc, docId, scorer.getDocId(doc)));
+      }
+      if (!desc.equals(scorer.getDesc())) {
+        // The index is still usable, but the search may be less accurate
+        logger.warn(String.format("The NAPP index '%s' was built using a different similarity: '%s' instead of '%s'",
+                                  fileName, desc, scorer.getDesc()));
+      }
+
+      int pivots[] = new int[pivotQty];
+      inp.readInts(pivots, 0, pivotQty);
+      NappIndex index = new NappIndex(scorer, pivots, pivotIndexQty);
+
+      inp.readInts(index.mPostStarts, 0, pivotQty + 1);
+      index.mPostData = new byte[postDataLen];
+      inp.readBytes(index.mPostData, 0, postDataLen);
+      for (int pivot = 0; pivot < pivotQty; ++pivot) {
+        if (pivots[pivot] < 0 || pivots[pivot] >= docQty ||
+            index.mPostStarts[pivot] > index.mPostStarts[pivot + 1])
+          throw new Exception(String.format("Corrupt NAPP index '%s'", fileName));
+      }
+      if (index.mPostStarts[0] != 0 || index.mPostStarts[pivotQty] != postDataLen)
+        throw new Exception(String.format("Corrupt NAPP index '%s'", fileName));
+
+      logger.info(String.format("Loaded the NAPP index for %d documents from '%s', numPivot=%d numPivotIndex=%d",
+                                docQty, fileName, pivotQty, pivotIndexQty));
+      return index;
+    } finally {
+      inp.close();
+    }
+  }
+
+  /**
+   * Saves the index.
+   *
+   * <p>The file consists of the header (the similarity description and
+   * parameters), the list of document IDs (it is used to check that
+   * the index matches documents), pivots, and compressed posting lists.</p>
+   *
+   * @param fileName  an output file.
+   * @throws Exception
+   */
+  public void save(String fileName) throws Exception {
+    BinaryFileWriter out = new BinaryFileWriter(fileName);
+
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeString(mScorer.getDesc());
+    out.writeInt(mDocQty);
+    out.writeInt(mPivots.length);
+    out.writeInt(mPivotIndexQty);
+    out.writeInt(mPostData.length);
+    for (int doc = 0; doc < mDocQty; ++doc) out.writeString(mScorer.getDocId(doc));
+    out.writeInts(mPivots, 0, mPivots.length);
+    out.writeInts(mPostStarts, 0, mPostStarts.length);
+    out.writeBytes(mPostData, 0, mPostData.length);
+
+    out.close();
+    logger.info(String.format("Saved the NAPP index for %d documents to '%s'", mDocQty, fileName));
+  }
+
+  /**
+   * @return the similarity.
+   */
+  public KNNScorer getScorer() { return mScorer; }
+
+  /**
+   * @return the number of pivots.
+   */
+  public int getPivotQty() { return mPivots.length; }
+
+  /**
+   * @return the number of the closest pivots memorized for each document.
+   */
+  public int getPivotIndexQty() { return mPivotIndexQty; }
+
+  /**
+   * @return the number of indexed documents.
+   */
+  public int getDocQty() { return mDocQty; }
+
+  /**
+   * Creates a search object, which keeps data structures reused
+   * among searches. It can be used only by one thread.
+   */
+  public Searcher newSearcher() {
+    return new Searcher();
+  }
+
+  /**
+   * Data structures of one search thread: counters of shared pivots
+   * (a counter is valid only if the document is marked with the current
+   * search number, so counters don't need to be cleared), the list of candidates,
+   * and buffers for documents scored in one batch.
+   */
+  public class Searcher {
+    private Searcher() {
+      mPivotScores = new float[mPivots.length];
+    }
+
+    /**
+     * Finds approximate k documents that are most similar to the query.
+     *
+     * @param queryData       query data.
+     * @param k               the k in k-NN.
+     * @param pivotSearchQty  the number of pivots that are most similar to the query.
+     * @param minTimes        the minimum number of these pivots that a candidate document should share with the query.
+     * @param docs            an output array of document ordinal numbers of at least k elements.
+     * @param scores          an output array of similarity scores of at least k elements.
+     * @return the number of found documents, they are sorted in the order of decreasing scores.
+     * @throws Exception
+     */
+    public int search(Map<String, String> queryData, int k, int pivotSearchQty, int minTimes,
+                      int docs[], float scores[]) throws Exception {
+      if (pivotSearchQty < 1 || pivotSearchQty > mPivots.length || pivotSearchQty > Short.MAX_VALUE)
+        throw new Exception(String.format("The number of search pivots should be from 1 to %d, but it is: %d",
+                                          Math.min(mPivots.length, Short.MAX_VALUE), pivotSearchQty));
+      if (minTimes < 1 || minTimes > pivotSearchQty)
+        throw new Exception(String.format("minTimes should be from 1 to %d, but it is: %d",
+                                          pivotSearchQty, minTimes));
+      mCandQty = 0;
+      if (k <= 0) return 0;
+
+      int queryPivots[] = new int[pivotSearchQty];
+      findClosestPivots(queryData, pivotSearchQty, queryPivots, 0);
+
+      if (mMarks == null) {
+        // Allocated only when needed: searchers used to build the index don't need counters
+        mCounters = new short[mDocQty];
+        mMarks = new int[mDocQty];
+      }
+      if (++mMark == 0) {
+        // Marks wrapped around
+        Arrays.fill(mMarks, 0);
+        mMark = 1;
+      }
+
+      // Merge posting lists: a document becomes a candidate when its counter reaches minTimes
+      for (int pivot : queryPivots) {
+        int pos = mPostStarts[pivot];
+        final int end = mPostStarts[pivot + 1];
+        int doc = -1;
+        while (pos < end) {
+          // Variable-byte decoding of a delta
+          int delta = 0, shift = 0;
+          byte b;
+          do {
+            b = mPostData[pos++];
+            delta |= (b & 0x7f) << shift;
+            shift += 7;
+          } while (b < 0);
+          doc += delta;
+
+          if (mMarks[doc] != mMark) {
+            mMarks[doc] = mMark;
+            mCounters[doc] = 0;
+          }
+          if (++mCounters[doc] == minTimes) {
+            if (mCandQty == mCands.length) mCands = Arrays.copyOf(mCands, 2 * mCandQty);
+            mCands[mCandQty++] = doc;
+          }
+        }
+      }
+
+      // Candidates are scored in blocks of documents sorted by their ordinal numbers
+      Arrays.sort(mCands, 0, mCandQty);
+      KNNHeap heap = new KNNHeap(k);
+      for (int start = 0; start < mCandQty; start += BLOCK_DOC_QTY) {
+        int qty = Math.min(BLOCK_DOC_QTY, mCandQty - start);
+        System.arraycopy(mCands, start, mBlockDocs, 0, qty);
+        mScorer.score(queryData, mBlockDocs, qty, mBlockScores);
+        for (int i = 0; i < qty; ++i) {
+          // The heap keeps entries with the smallest values, hence, scores are negated
+          heap.offer(-mBlockScores[i], mBlockDocs[i]);
+        }
+      }
+
+      int qty = heap.extractSorted(docs, scores);
+      for (int i = 0; i < qty; ++i) scores[i] = -scores[i];
+      return qty;
+    }
+
+    /**
+     * @return the number of candidate documents scored during the last search.
+     */
+    public int getCandQty() { return mCandQty; }
+
+    /**
+     * Finds the pivots most similar to the query (all pivots are scored in one batch).
+     *
+     * @param queryData   query data.
+     * @param qty         the number of pivots to find.
+     * @param res         an output array.
+     * @param off         an offset in the output array.
+     */
+    void findClosestPivots(Map<String, String> queryData, int qty, int res[], int off) throws Exception {
+      mScorer.score(queryData, mPivots, mPivots.length, mPivotScores);
+      KNNHeap heap = new KNNHeap(qty);
+      for (int i = 0; i < mPivots.length; ++i) heap.offer(-mPivotScores[i], i);
+      int ids[] = new int[qty];
+      int foundQty = heap.extractSorted(ids, new float[qty]);
+      if (foundQty != qty)
+        throw new Exception(String.format("Bug: found %d pivots instead of %d", foundQty, qty));
+      System.arraycopy(ids, 0, res, off, qty);
+    }
+
+    private final float   mPivotScores[];
+    private short         mCounters[];
+    private int           mMarks[];
+    private int           mMark = 0;
+    private int           mCands[] = new int[BLOCK_DOC_QTY];
+    private int           mCandQty = 0;
+    private final int     mBlockDocs[] = new int[BLOCK_DOC_QTY];
+    private final float   mBlockScores[] = new float[BLOCK_DOC_QTY];
+  }
+
+  private NappIndex(KNNScorer scorer, int pivots[], int pivotIndexQty) {
+    mScorer = scorer;
+    mDocQty = scorer.getDocQty();
+    mPivots = pivots;
+    mPivotIndexQty = pivotIndexQty;
+    mPostStarts = new int[pivots.length + 1];
+  }
+
+  /**
+   * Creates compressed posting lists.
+   *
+   * @param docPivots   the closest pivots of documents: numPivotIndex pivots per document.
+   */
+  private void createPostings(int docPivots[]) throws Exception {
+    final int pivotQty = mPivots.length;
+
+    // Documents are added in the increasing order, so posting lists are sorted
+    int postQtys[] = new int[pivotQty];
+    for (int pivot : docPivots) ++postQtys[pivot];
+    int postDocs[][] = new int[pivotQty][];
+    for (int pivot = 0; pivot < pivotQty; ++pivot) postDocs[pivot] = new int[postQtys[pivot]];
+    Arrays.fill(postQtys, 0);
+    for (int doc = 0; doc < mDocQty; ++doc) {
+      for (int i = 0; i < mPivotIndexQty; ++i) {
+        int pivot = docPivots[doc * mPivotIndexQty + i];
+        postDocs[pivot][postQtys[pivot]++] = doc;
+      }
+    }
+
+    // Compute the size of compressed data first
+    long size = 0;
+    for (int pivot = 0; pivot < pivotQty; ++pivot) {
+      int prev = -1;
+      for (int doc : postDocs[pivot]) {
+        size += getVarByteLen(doc - prev);
+        prev = doc;
+      }
+    }
+    if (size > Integer.MAX_VALUE)
+      throw new Exception("Posting lists are too large: " + size + " bytes");
+
+    mPostData = new byte[(int) size];
+    int pos = 0;
+    for (int pivot = 0; pivot < pivotQty; ++pivot) {
+      mPostStarts[pivot] = pos;
+      int prev = -1;
+      for (int doc : postDocs[pivot]) {
+        int delta = doc - prev;
+        prev = doc;
+        while (delta >= 0x80) {
+          mPostData[pos++] = (byte) ((delta & 0x7f) | 0x80);
+          delta >>>= 7;
+        }
+        mPostData[pos++] = (byte) delta;
+      }
+      postDocs[pivot] = null;
+    }
+    mPostStarts[pivotQty] = pos;
+  }
+
+  private static int getVarByteLen(int v) {
+    int len = 1;
+    while (v >= 0x80) {
+      v >>>= 7;
+      ++len;
+    }
+    return len;
+  }
+
+  void reportProgress() {
+    int qty = mProcessedQty.incrementAndGet();
+    if (qty % REPORT_INTERVAL_QTY == 0) {
+      logger.info(String.format("Found the closest pivots for %d documents out of %d", qty, mDocQty));
+    }
+  }
+
+  private final KNNScorer                 mScorer;
+  private final int                       mDocQty;
+  // Pivots are document ordinal numbers
+  private final int                       mPivots[];
+  private final int                       mPivotIndexQty;
+  // The posting list of the i-th pivot is stored in mPostData from mPostStarts[i] to mPostStarts[i+1]
+  private final int                       mPostStarts[];
+  private byte                            mPostData[];
+  private final AtomicInteger             mProcessedQty = new AtomicInteger();
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import java.util.*;
+
+/**
+ * An approximate counterpart of {@link BruteForceKNNCandidateProvider}: candidates
+ * are retrieved in-process using a NAPP index (see {@link NappIndex}), which
+ * is built offline for the same similarity (typically, {@link ExtractorKNNScorer}).
+ *
+ * <p>The index can be shared among several provider instances, but
+ * each instance keeps its own search data structures. Thus, one should
+ * create one instance per thread.</p>
+ */
+public class NappKNNCandidateProvider extends CandidateProvider {
+  /**
+   * Constructor.
+   *
+   * @param index           the index.
+   * @param pivotSearchQty  the number of pivots that are most similar to the query.
+   * @param minTimes        the minimum number of these pivots that a candidate document should share with the query.
+   * @throws Exception
+   */
+  public NappKNNCandidateProvider(NappIndex index, int pivotSearchQty, int minTimes) throws Exception {
+    if (pivotSearchQty < 1 || pivotSearchQty > index.getPivotQty())
+      throw new Exception(String.format("The number of search pivots should be from 1 to %d, but it is: %d",
+                                        index.getPivotQty(), pivotSearchQty));
+    if (minTimes < 1 || minTimes > pivotSearchQty)
+      throw new Exception(String.format("minTimes should be from 1 to %d, but it is: %d",
+                                        pivotSearchQty, minTimes));
+    mIndex = index;
+    mPivotSearchQty = pivotSearchQty;
+    mMinTimes = minTimes;
+    mSearcher = index.newSearcher();
+  }
+
+  @Override
+  public String getName() {
+    return this.getClass().getName();
+  }
+
+  /*
+   * Each instance has its own searcher, so it can't be used by several threads.
+   */
+  @Override
+  public boolean isThreadSafe() { return false; }
+
+  /**
+   * @return the number of candidate documents scored during the last search.
+   */
+  public int getLastCandQty() { return mSearcher.getCandQty(); }
+
+  @Override
+  public CandidateInfo getCandidates(int queryNum, Map<String, String> queryData,
+                                     int maxQty) throws Exception {
+    String queryID = queryData.get(ID_FIELD_NAME);
+    if (null == queryID) {
+      throw new Exception(
+          String.format("Query id (%s) is undefined for query # %d",
+                        ID_FIELD_NAME, queryNum));
+    }
+
+    String text = queryData.get(TEXT_FIELD_NAME);
+    if (null == text) {
+      throw new Exception(
+          String.format("Query (%s) is undefined for query # %d",
+                        TEXT_FIELD_NAME, queryNum));
+    }
+
+    int qty = 0;
+    maxQty = Math.max(0, maxQty);
+    int   docs[] = new int[maxQty];
+    float scores[] = new float[maxQty];
+
+    if (!text.trim().isEmpty()) {
+      qty = mSearcher.search(queryData, maxQty, mPivotSearchQty, mMinTimes, docs, scores);
+    }
+
+    KNNScorer scorer = mIndex.getScorer();
+    CandidateEntry[] results = new CandidateEntry[qty];
+    for (int i = 0; i < qty; ++i) {
+      results[i] = new CandidateEntry(scorer.getDocId(docs[i]), scores[i]);
+    }
+
+    return new CandidateInfo(results);
+  }
+
+  private final NappIndex               mIndex;
+  private final int                     mPivotSearchQty;
+  private final int                     mMinTimes;
+  private final NappIndex.Searcher      mSearcher;
+}
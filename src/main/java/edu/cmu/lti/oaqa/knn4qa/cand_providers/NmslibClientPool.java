@@ -0,0 +1,276 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.apache.thrift.async.TAsyncClientManager;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TNonblockingSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import edu.cmu.lti.oaqa.similarity.QueryException;
+import edu.cmu.lti.oaqa.similarity.QueryService;
+import edu.cmu.lti.oaqa.similarity.ReplyEntry;
+
+/**
+ * A pool of asynchronous connections to an NMSLIB query server, which
+ * can be shared by any number of threads.
+ *
+ * <p>Each connection is a generated {@link QueryService.AsyncClient}, which can
+ * execute only one call at a time. Hence, the pool size is the maximum number of
+ * queries in flight. All connections are served by a single selector thread
+ * (of the {@link TAsyncClientManager}), so that a thread submitting a query
+ * doesn't have to wait for the reply, and can submit other queries instead.</p>
+ *
+ * <p>Connections are opened lazily. A connection that failed (or timed out) is
+ * dropped and re-opened; a query that failed because of a connection error
+ * (rather than an error reported by the server) is re-tried once using
+ * a new connection.</p>
+ *
+ * <p><b>Note:</b> non-blocking Thrift clients always use the framed transport.
+ * Thus, the server should be a non-blocking one (or, at least, use the framed transport).</p>
+ */
+public class NmslibClientPool {
+  public static final int DEFAULT_POOL_SIZE  = 8;
+  public static final int DEFAULT_TIMEOUT_MS = 10000;
+
+  private static final int RETRY_QTY = 1;
+
+  private static final Logger logger = LoggerFactory.getLogger(NmslibClientPool.class);
+
+  /**
+   * Constructor.
+   *
+   * @param host        a host name of the server.
+   * @param port        a port of the server.
+   * @param poolSize    a maximum number of connections (and queries in flight).
+   * @param timeoutMS   a timeout (in ms) to connect, to execute a query, and to wait for a free connection.
+   * @throws Exception
+   */
+  public NmslibClientPool(String host, int port, int poolSize, int timeoutMS) throws Exception {
+    if (poolSize <= 0) {
+      throw new Exception(String.format("The pool size should be positive, but it is %d", poolSize));
+    }
+    if (timeoutMS <= 0) {
+      throw new Exception(String.format("The timeout should be positive, but it is %d", timeoutMS));
+    }
+    mHost = host;
+    mPort = port;
+    mTimeoutMS = timeoutMS;
+    mManager = new TAsyncClientManager();
+    mFree = new ArrayBlockingQueue<Connection>(poolSize);
+    for (int i = 0; i < poolSize; ++i) {
+      mFree.add(new Connection());
+    }
+    logger.info(String.format("Created a pool of %d connections to %s:%d, timeout %d ms",
+                              poolSize, host, port, timeoutMS));
+  }
+
+  /**
+   * Submits a k-NN query. This function blocks only if all the connections are busy.
+   *
+   * @param k           a number of neighbors to retrieve.
+   * @param queryObj    a string representation of the query object.
+   * @return a future list of neighbors (with external IDs, but without objects)
+   * @throws Exception
+   */
+  public ListenableFuture<List<ReplyEntry>> knnQuery(int k, String queryObj) throws Exception {
+    if (mClosed) throw new Exception("The pool is closed");
+    Connection conn = mFree.poll(mTimeoutMS, TimeUnit.MILLISECONDS);
+    if (null == conn) {
+      throw new Exception(String.format("No free connection to %s:%d in %d ms", mHost, mPort, mTimeoutMS));
+    }
+    mBusyQty.incrementAndGet();
+    // The pool could have been closed while we were waiting
+    if (mClosed) {
+      release(conn);
+      throw new Exception("The pool is closed");
+    }
+    SettableFuture<List<ReplyEntry>> res = SettableFuture.create();
+    submit(conn, k, queryObj, RETRY_QTY, res);
+    return res;
+  }
+
+  /**
+   * A synchronous version of {@link #knnQuery(int, String)}.
+   */
+  public List<ReplyEntry> knnQuerySync(int k, String queryObj) throws Exception {
+    return CandidateProvider.waitForResult(knnQuery(k, queryObj));
+  }
+
+  /**
+   * @return the number of times connections were (re-)opened.
+   */
+  public int getConnectQty() { return mConnectQty.get(); }
+  
+  /**
+   * @return the number of currently open connections.
+   */
+  int getOpenQty() { return mOpenQty.get(); }
+
+  /**
+   * Closes the pool: new queries are rejected, idle connections are closed,
+   * and connections of queries in flight are closed as soon as these queries
+   * complete (or fail). The function waits for queries in flight, but
+   * not longer than they can take (if they time out), and then stops 
+   * the selector thread.
+   * 
+   * @throws InterruptedException
+   */
+  public void close() throws InterruptedException {
+    mClosed = true;
+    closeFree();
+    
+    // A query can be tried RETRY_QTY + 1 times and each attempt can take up to a timeout
+    long deadline = System.currentTimeMillis() + (RETRY_QTY + 2) * (long)mTimeoutMS;
+    synchronized (this) {
+      for (long waitMS = mTimeoutMS; mBusyQty.get() > 0 && waitMS > 0;
+           waitMS = deadline - System.currentTimeMillis()) {
+        wait(waitMS);
+      }
+    }
+    if (mBusyQty.get() > 0) {
+      logger.warn(String.format("Stopping the client manager with %d queries in flight", mBusyQty.get()));
+    }
+    mManager.stop();
+  }
+
+  /**
+   * Sends a query using a given connection. The connection is returned to the pool
+   * when the call completes. This function can be called from the selector thread,
+   * so it must not block.
+   */
+  private void submit(final Connection conn,
+                      final int k, final String queryObj,
+                      final int retryQty,
+                      final SettableFuture<List<ReplyEntry>> res) {
+    try {
+      QueryService.AsyncClient client = conn.getClient();
+      client.knnQuery(k, queryObj, true, false,
+                      new AsyncMethodCallback<QueryService.AsyncClient.knnQuery_call>() {
+        @Override
+        public void onComplete(QueryService.AsyncClient.knnQuery_call call) {
+          List<ReplyEntry> repl = null;
+          Exception        err = null;
+          try {
+            repl = call.getResult();
+          } catch (Exception e) {
+            // An error reported by the server: the connection is still fine
+            err = e;
+          }
+          release(conn);
+          if (err != null) res.setException(err); else res.set(repl);
+        }
+
+        @Override
+        public void onError(Exception e) {
+          conn.close();
+          if (retryQty > 0 && !mClosed && !(e instanceof QueryException)) {
+            logger.warn(String.format("Query to %s:%d failed (%s), re-connecting", mHost, mPort, e));
+            submit(conn, k, queryObj, retryQty - 1, res);
+          } else {
+            release(conn);
+            res.setException(e);
+          }
+        }
+      });
+    } catch (Exception e) {
+      conn.close();
+      release(conn);
+      res.setException(e);
+    }
+  }
+
+  /**
+   * Returns a connection to the pool, or closes it, if the pool is closed.
+   */
+  private void release(Connection conn) {
+    if (mClosed) {
+      conn.close();
+    } else {
+      mFree.add(conn);
+      // If the pool was closed in the meantime, the connection may have been missed by close()
+      if (mClosed) closeFree();
+    }
+    if (mBusyQty.decrementAndGet() == 0 && mClosed) {
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+  }
+  
+  /**
+   * Closes idle connections: each connection is removed from the queue 
+   * before it is closed, so it can't be closed twice (or used afterwards).
+   */
+  private void closeFree() {
+    Connection conn;
+    while ((conn = mFree.poll()) != null) {
+      conn.close();
+    }
+  }
+
+  /**
+   * A pool slot: a connection that is (re-)opened on demand.
+   */
+  private class Connection {
+    QueryService.AsyncClient getClient() throws Exception {
+      if (mClient == null || mClient.hasError()) {
+        close();
+        mTransport = new TNonblockingSocket(mHost, mPort, mTimeoutMS);
+        mOpenQty.incrementAndGet();
+        mClient = new QueryService.AsyncClient(mProtocolFactory, mManager, mTransport);
+        mClient.setTimeout(mTimeoutMS);
+        mConnectQty.incrementAndGet();
+      }
+      return mClient;
+    }
+
+    void close() {
+      if (mTransport != null) {
+        mTransport.close();
+        mOpenQty.decrementAndGet();
+      }
+      mTransport = null;
+      mClient = null;
+    }
+
+    private TNonblockingSocket        mTransport;
+    private QueryService.AsyncClient  mClient;
+  }
+
+  private final String                            mHost;
+  private final int                               mPort;
+  private final int                               mTimeoutMS;
+  private final TAsyncClientManager               mManager;
+  private final TProtocolFactory                  mProtocolFactory = new TBinaryProtocol.Factory();
+  private final ArrayBlockingQueue<Connection>    mFree;
+  private final AtomicInteger                     mConnectQty = new AtomicInteger();
+  private final AtomicInteger                     mOpenQty = new AtomicInteger();
+  // The number of connections taken from the pool (by queries in flight)
+  private final AtomicInteger                     mBusyQty = new AtomicInteger();
+  private volatile boolean                        mClosed = false;
+}
@@ -6,7 +6,10 @@ import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 
+import com.google.common.base.Function;
 import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import edu.cmu.lti.oaqa.similarity.QueryService;
 import edu.cmu.lti.oaqa.similarity.QueryService.Client;
@@ -15,51 +18,82 @@ import edu.cmu.lti.oaqa.similarity.ReplyEntry;
 /**
  * NMSLIB-based KNN to return k-closest entries.
  * 
+ * <p>The provider works in one of two modes. In the blocking mode, the provider
+ * owns a single connection and executes one query at a time, so each thread
+ * needs its own provider instance. In the pooled mode, the provider uses
+ * a {@link NmslibClientPool}, it can be shared by all threads, and
+ * a thread can keep several queries in flight (see {@link #submitCandidates(int, Map, int)}).</p>
+ * 
  * @author Leonid Boytsov
  *
  */
 public class NmslibKNNCandidateProvider  extends CandidateProvider {
-	Splitter splitOnColon = Splitter.on(':');	
+	final static Splitter splitOnColon = Splitter.on(':');	
 	final private NmslibQueryGenerator 	mQueryGen;
 	final private Client 							  mKNNClient;
+	final private NmslibClientPool      mKNNPool;
 
+	/**
+	 * Creates a provider in the blocking mode.
+	 */
 	public NmslibKNNCandidateProvider(String knnServiceURL, NmslibQueryGenerator queryGen) throws Exception {
 		mQueryGen = queryGen;
-   	String host = null;
-  	int    port = -1;
-  	
-  	int part = 0;
-  	for (String s : splitOnColon.split(knnServiceURL)) {
-  		if (0 == part) {
-  			host = s;
-  		} else if (1 == part) {
-  			try {
-  				port = Integer.parseInt(s);
-  			} catch (NumberFormatException e) {
-  				throw new RuntimeException("Invalid port in the service address '" + knnServiceURL + "'");
-  			}
-  		} else {
-  			throw new RuntimeException("Extra colon in the service address in '" + knnServiceURL + "'");
-  		}
-  		++part;
-  	}
-  	
-  	if (part != 2) {
-  		throw new Exception("Invalid format of the service address in '" + knnServiceURL + "'");
-  	}
+		mKNNPool = null;
   	
-  	TTransport knnServiceTransp = new TSocket(host, port);
+  	TTransport knnServiceTransp = new TSocket(getHost(knnServiceURL), getPort(knnServiceURL));
   	knnServiceTransp.open();
   	mKNNClient = new QueryService.Client(new TBinaryProtocol(knnServiceTransp));
 	}
 
+	/**
+	 * Creates a provider in the pooled mode.
+	 */
+	public NmslibKNNCandidateProvider(NmslibClientPool knnPool, NmslibQueryGenerator queryGen) {
+	  mQueryGen = queryGen;
+	  mKNNPool = knnPool;
+	  mKNNClient = null;
+	}
+	
+	/**
+	 * Creates a connection pool for a service address in the format host:port.
+	 */
+	public static NmslibClientPool createPool(String knnServiceURL, int poolSize, int timeoutMS) throws Exception {
+	  return new NmslibClientPool(getHost(knnServiceURL), getPort(knnServiceURL), poolSize, timeoutMS);
+	}
+	
+	private static String getHost(String knnServiceURL) throws Exception {
+	  return splitAddress(knnServiceURL).get(0);
+	}
+	
+	private static int getPort(String knnServiceURL) throws Exception {
+	  try {
+	    return Integer.parseInt(splitAddress(knnServiceURL).get(1));
+	  } catch (NumberFormatException e) {
+	    throw new RuntimeException("Invalid port in the service address '" + knnServiceURL + "'");
+	  }
+	}
+	
+	private static List<String> splitAddress(String knnServiceURL) throws Exception {
+	  ArrayList<String> parts = new ArrayList<String>();
+	  for (String s : splitOnColon.split(knnServiceURL)) {
+	    parts.add(s);
+	  }
+	  if (parts.size() > 2) {
+	    throw new RuntimeException("Extra colon in the service address in '" + knnServiceURL + "'");
+	  }
+	  if (parts.size() != 2) {
+	    throw new Exception("Invalid format of the service address in '" + knnServiceURL + "'");
+	  }
+	  return parts;
+	}
+
 	@Override
 	public String getName() {
 		return this.getClass().getName();
 	}
 
   /*
-   * getCandidates is not thread-safe and each thread need to use its own Transport and Client.
+   * In the blocking mode, getCandidates is not thread-safe and each thread need to use its own Transport and Client.
    * From this URL: http://comments.gmane.org/gmane.comp.lib.thrift.user/2704
    * 
    * The Thrift transport layer is not thread-safe. It is essentially a wrapper on a socket.
@@ -69,16 +103,49 @@ public class NmslibKNNCandidateProvider  extends CandidateProvider {
         this work in a multi-threaded environment would require another layer of abstraction that parceled out
         responses on the socket and determined which data should go to which thread. This would be less efficient
         in the common case of a single transport per thread.
+        
+   * In the pooled mode, each connection is used by one query at a time, so the provider is thread-safe.
    */  
   @Override
-  public boolean isThreadSafe() { return false; }   	
+  public boolean isThreadSafe() { return mKNNPool != null; }   	
 	
 	@Override
 	public CandidateInfo getCandidates(int queryNum, Map<String, String> queryData, int maxQty) throws Exception {
+	  if (mKNNPool != null) {
+	    return waitForResult(submitCandidates(queryNum, queryData, maxQty));
+	  }
 		String queryObjStr = mQueryGen.getStrObjForKNNService(queryData);
 		
 		List<ReplyEntry> clientRepl = mKNNClient.knnQuery(maxQty, queryObjStr, true, false);
 		
+		return createCandidates(clientRepl, maxQty);
+	}
+	
+	/**
+	 * In the pooled mode, this function returns as soon as the query is sent
+	 * (unless all connections are busy).
+	 */
+	@Override
+	public ListenableFuture<CandidateInfo> submitCandidates(int queryNum, Map<String, String> queryData, final int maxQty) {
+	  if (mKNNPool == null) {
+	    return super.submitCandidates(queryNum, queryData, maxQty);
+	  }
+	  try {
+	    String queryObjStr = mQueryGen.getStrObjForKNNService(queryData);
+	    
+	    return Futures.transform(mKNNPool.knnQuery(maxQty, queryObjStr), 
+	                             new Function<List<ReplyEntry>, CandidateInfo>() {
+	      @Override
+	      public CandidateInfo apply(List<ReplyEntry> clientRepl) {
+	        return createCandidates(clientRepl, maxQty);
+	      }
+	    });
+	  } catch (Exception e) {
+	    return Futures.immediateFailedFuture(e);
+	  }
+	}
+	
+	private static CandidateInfo createCandidates(List<ReplyEntry> clientRepl, int maxQty) {
 		CandidateEntry[] res = new CandidateEntry[Math.min(clientRepl.size(), maxQty)];
 		
 		int ind = 0;
@@ -0,0 +1,503 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.cmu.lti.oaqa.knn4qa.simil.CandidateQueue;
+import edu.cmu.lti.oaqa.knn4qa.simil.KNNHeap;
+import edu.cmu.lti.oaqa.knn4qa.utils.BinaryFileReader;
+import edu.cmu.lti.oaqa.knn4qa.utils.BinaryFileWriter;
+
+/**
+ * A thread that inserts a subset of documents into the SW-graph.
+ */
+class SWGraphBuildThread extends Thread {
+  private final SWGraphIndex  mIndex;
+  private final int           mThreadId;
+  private final int           mThreadQty;
+  private Throwable           mError = null;
+
+  SWGraphBuildThread(SWGraphIndex index, int threadId, int threadQty) {
+    mIndex = index;
+    mThreadId = threadId;
+    mThreadQty = threadQty;
+  }
+
+  Throwable getError() { return mError; }
+
+  @Override
+  public void run() {
+    try {
+      SWGraphIndex.Searcher searcher = mIndex.newSearcher(mThreadId);
+      // The first document is inserted before threads start
+      for (int doc = 1 + mThreadId; doc < mIndex.getDocQty(); doc += mThreadQty) {
+        mIndex.insert(doc, searcher);
+      }
+    } catch (Throwable e) {
+      mError = e;
+    }
+  }
+}
+
+/**
+ * An approximate k-NN index for documents: a navigable small world graph
+ * (SW-graph), where the similarity between a query and a document is
+ * computed by a {@link KNNScorer} (typically, a weighted combination of
+ * features produced by an in-memory feature extractor). The index keeps only
+ * document IDs and the graph, so the same scorer (i.e., the same forward index)
+ * should be used to build and to search the index.
+ *
+ * <p>Based on "Approximate nearest neighbor algorithm based on navigable small
+ * world graphs" by Malkov et al., 2014 (this is the sw-graph method of NMSLIB).
+ * Documents are inserted one by one: each document is used as a query
+ * to find efConstruction closest documents among the inserted ones and
+ * is linked (in both directions) to NN closest of them. The similarity doesn't
+ * have to be symmetric: a document is represented as a query by
+ * {@link KNNScorer#createDocQuery(int)}. The search is a best-first search
+ * with the queue of size efSearch that starts from several random documents.</p>
+ *
+ * <p>Computing similarity via an extractor is expensive and much of
+ * the work is query-specific. Hence, the search doesn't score documents
+ * one by one: it takes several best candidates from the queue and scores
+ * all their unvisited neighbors using one call of
+ * {@link KNNScorer#score(Map, int[], int, float[])}.</p>
+ *
+ * <p>The index can be built by several threads (provided that the scorer
+ * is thread-safe). Searches can be carried out concurrently, but each thread
+ * needs its own {@link Searcher}.</p>
+ */
+public class SWGraphIndex {
+  public static final int DEFAULT_NN              = 10;
+  public static final int DEFAULT_EF_CONSTRUCTION = 200;
+  public static final int DEFAULT_EF_SEARCH       = 200;
+
+  private static final int MAGIC = 0x52475753; // SWGR in the little-endian order
+  private static final int VERSION = 1;
+  // The number of random documents where the search starts
+  private static final int SEED_QTY = 4;
+  // The number of candidates whose neighbors are scored in one batch
+  private static final int EXPAND_QTY = 8;
+  private static final long RANDOM_SEED = 0;
+  private static final int REPORT_INTERVAL_QTY = 10000;
+  // The number of locks guarding lists of neighbors (documents share locks)
+  private static final int LOCK_QTY = 4096;
+
+  private static final Logger logger = LoggerFactory.getLogger(SWGraphIndex.class);
+
+  /**
+   * Builds the index.
+   *
+   * @param scorer          the similarity.
+   * @param NN              the number of links created for an inserted document.
+   * @param efConstruction  the size of the queue used to find neighbors of an inserted document.
+   * @param threadQty       the number of threads.
+   * @return the index.
+   * @throws Exception
+   */
+  public static SWGraphIndex build(KNNScorer scorer, int NN, int efConstruction, int threadQty) throws Exception {
+    if (NN < 1)
+      throw new Exception("NN should be positive, but it is: " + NN);
+    if (efConstruction < NN)
+      throw new Exception(String.format("efConstruction (%d) should be at least NN (%d)", efConstruction, NN));
+    if (threadQty < 1)
+      throw new Exception("The number of threads should be positive, but it is: " + threadQty);
+
+    long startTime = System.currentTimeMillis();
+
+    int docQty = scorer.getDocQty();
+    SWGraphIndex index = new SWGraphIndex(scorer, NN, efConstruction);
+
+    if (docQty > 0) {
+      index.mLinks[0] = new int[1 + 2 * NN];
+
+      threadQty = Math.max(1, Math.min(threadQty, docQty));
+      SWGraphBuildThread[] workers = new SWGraphBuildThread[threadQty];
+      for (int threadId = 0; threadId < threadQty; ++threadId) {
+        workers[threadId] = new SWGraphBuildThread(index, threadId, threadQty);
+      }
+      // Start threads
+      for (SWGraphBuildThread e : workers) e.start();
+      // Wait till they finish
+      for (SWGraphBuildThread e : workers) e.join(0);
+
+      for (SWGraphBuildThread e : workers) {
+        if (e.getError() != null)
+          throw new Exception("SW-graph construction thread failed: " + e.getError(), e.getError());
+      }
+    }
+    index.mIsBuilt = true;
+
+    logger.info(String.format("Built the SW-graph index for %d documents, NN=%d efConstruction=%d, " +
+                              "average # of neighbors: %.1f, # of threads: %d, %.1f sec",
+                              docQty, NN, efConstruction, index.getAvgNeighborQty(), threadQty,
+                              (System.currentTimeMillis() - startTime) / 1000.0));
+    return index;
+  }
+
+  /**
+   * Loads the index saved by {@link #save(String)}.
+   *
+   * @param scorer    the similarity, documents must be the same as the ones used to build the index.
+   * @param fileName  an index file.
+   * @return the index.
+   * @throws Exception
+   */
+  public static SWGraphIndex load(KNNScorer scorer, String fileName) throws Exception {
+    BinaryFileReader inp = new BinaryFileReader(fileName);
+
+    try {
+      if (inp.getSize() < 8 || inp.readInt() != MAGIC)
+        throw new Exception(String.format("File '%s' is not an SW-graph index", fileName));
+      int ver = inp.readInt();
+      if (ver != VERSION)
+        throw new Exception(String.format("Unsupported version %d of the SW-graph index '%s'", ver, fileName));
+
+      String desc = inp.readString();
+      int docQty = inp.readInt();
+      int NN = inp.readInt();
+      int efConstruction = inp.readInt();
+
+      if (docQty != scorer.getDocQty())
+        throw new Exception(String.format(
+            "The SW-graph index '%s' was built for %d documents, but there are %d documents",
+            fileName, docQty, scorer.getDocQty()));
+      for (int doc = 0; doc < docQty; ++doc) {
+        String docId = inp.readString();
+        if (!docId.equals(scorer.getDocId(doc)))
+          throw new Exception(String.format(
+              "The SW-graph index '%s' was built for different documents: the document # %d is '%s' instead of '%s'",
+              fileName, doc, docId, scorer.getDocId(doc)));
+      }
+      if (!desc.equals(scorer.getDesc())) {
+        // The graph is still usable, but the search may be less accurate
+        logger.warn(String.format("The SW-graph index '%s' was built using a different similarity: '%s' instead of '%s'",
+                                  fileName, desc, scorer.getDesc()));
+      }
+
+      SWGraphIndex index = new SWGraphIndex(scorer, NN, efConstruction);
+      for (int doc = 0; doc < docQty; ++doc) {
+        int qty = inp.readInt();
+        if (qty < 0 || qty >= docQty)
+          throw new Exception(String.format("Corrupt SW-graph index '%s'", fileName));
+        int links[] = new int[1 + qty];
+        links[0] = qty;
+        inp.readInts(links, 1, qty);
+        index.mLinks[doc] = links;
+      }
+      index.mIsBuilt = true;
+
+      logger.info(String.format("Loaded the SW-graph index for %d documents from '%s', NN=%d efConstruction=%d",
+                                docQty, fileName, NN, efConstruction));
+      return index;
+    } finally {
+      inp.close();
+    }
+  }
+
+  /**
+   * Saves the index (the index shouldn't be modified at the same time).
+   *
+   * <p>The file consists of the header (the similarity description and
+   * parameters), the list of document IDs (it is used to check that
+   * the index matches documents), and lists of neighbors for each document.</p>
+   *
+   * @param fileName  an output file.
+   * @throws Exception
+   */
+  public void save(String fileName) throws Exception {
+    BinaryFileWriter out = new BinaryFileWriter(fileName);
+
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeString(mScorer.getDesc());
+    out.writeInt(mDocQty);
+    out.writeInt(mNN);
+    out.writeInt(mEfConstruction);
+    for (int doc = 0; doc < mDocQty; ++doc) out.writeString(mScorer.getDocId(doc));
+    for (int doc = 0; doc < mDocQty; ++doc) {
+      int links[] = mLinks[doc];
+      out.writeInts(links, 0, links[0] + 1);
+    }
+
+    out.close();
+    logger.info(String.format("Saved the SW-graph index for %d documents to '%s'", mDocQty, fileName));
+  }
+
+  /**
+   * @return the similarity.
+   */
+  public KNNScorer getScorer() { return mScorer; }
+
+  /**
+   * @return the number of links created for an inserted document.
+   */
+  public int getNN() { return mNN; }
+
+  /**
+   * @return the size of the queue used during the construction.
+   */
+  public int getEfConstruction() { return mEfConstruction; }
+
+  /**
+   * @return the number of indexed documents.
+   */
+  public int getDocQty() { return mDocQty; }
+
+  /**
+   * @return the average number of neighbors of a document.
+   */
+  public float getAvgNeighborQty() {
+    long qty = 0;
+    for (int doc = 0; doc < mDocQty; ++doc) {
+      if (mLinks[doc] != null) qty += mLinks[doc][0];
+    }
+    return mDocQty > 0 ? (float) qty / mDocQty : 0;
+  }
+
+  /**
+   * Creates a search object, which keeps data structures reused
+   * among searches. It can be used only by one thread.
+   *
+   * @param seed    a seed of the random number generator, which
+   *                selects documents where the search starts.
+   */
+  public Searcher newSearcher(long seed) {
+    return new Searcher(seed);
+  }
+
+  /**
+   * Data structures of one search thread: a visited set (documents are
+   * marked with the current search number, so the set doesn't need to be cleared),
+   * the priority queue of candidates, the heap of ef best documents,
+   * and buffers for documents scored in one batch.
+   */
+  public class Searcher {
+    private Searcher(long seed) {
+      mRand = new Random(RANDOM_SEED + seed);
+      mVisited = new int[mDocQty];
+    }
+
+    /**
+     * Finds approximate k documents that are most similar to the query.
+     *
+     * @param queryData   query data.
+     * @param k           the k in k-NN.
+     * @param ef          the size of the search queue (it is never smaller than k).
+     * @param docs        an output array of document ordinal numbers of at least k elements.
+     * @param dists       an output array of distances (i.e., negative similarity scores) of at least k elements.
+     * @return the number of found documents, they are sorted in the order of increasing distances.
+     * @throws Exception
+     */
+    public int search(Map<String, String> queryData, int k, int ef, int docs[], float dists[]) throws Exception {
+      if (k <= 0 || mDocQty == 0) return 0;
+      int qty = Math.min(k, searchQuery(queryData, Math.max(ef, k), mDocQty, -1));
+      System.arraycopy(mResIds, 0, docs, 0, qty);
+      System.arraycopy(mResDists, 0, dists, 0, qty);
+      return qty;
+    }
+
+    /**
+     * A best-first search: found documents are saved
+     * to mResIds and mResDists (in the order of increasing distances).
+     *
+     * @param queryData   query data.
+     * @param ef          the size of the search queue.
+     * @param seedMaxDoc  seeds are selected among documents with ordinal numbers smaller than this one.
+     * @param excludeDoc  a document that isn't returned (or -1).
+     * @return the number of found documents.
+     */
+    private int searchQuery(Map<String, String> queryData, int ef, int seedMaxDoc, int excludeDoc) throws Exception {
+      if (mRes == null || mRes.getMaxQty() != ef) {
+        mRes = new KNNHeap(ef);
+        mResIds = new int[ef];
+        mResDists = new float[ef];
+      }
+      mRes.clear();
+      mCands.clear();
+
+      if (++mVisitMark == 0) {
+        // Marks wrapped around
+        Arrays.fill(mVisited, 0);
+        mVisitMark = 1;
+      }
+
+      // Seeds are scored in one batch: the first document is always inserted
+      int batchQty = 0;
+      mBatchIds = ensureCapacity(mBatchIds, SEED_QTY);
+      mBatchIds[batchQty++] = 0;
+      mVisited[0] = mVisitMark;
+      for (int i = 1; i < SEED_QTY; ++i) {
+        int e = mRand.nextInt(seedMaxDoc);
+        if (mVisited[e] != mVisitMark && isInserted(e)) {
+          mVisited[e] = mVisitMark;
+          mBatchIds[batchQty++] = e;
+        }
+      }
+      scoreBatch(queryData, batchQty, excludeDoc);
+
+      while (!mCands.isEmpty()) {
+        if (mCands.getTopDist() > mRes.getBound()) break;
+        // Neighbors of several best candidates are scored together
+        batchQty = 0;
+        for (int expQty = 0; expQty < EXPAND_QTY && !mCands.isEmpty() &&
+                             mCands.getTopDist() <= mRes.getBound(); ++expQty) {
+          int curr = mCands.pop();
+          int links[] = getNeighbors(curr);
+          int qty = links[0];
+          mBatchIds = ensureCapacity(mBatchIds, batchQty + qty);
+          for (int i = 1; i <= qty; ++i) {
+            int e = links[i];
+            if (mVisited[e] == mVisitMark) continue;
+            mVisited[e] = mVisitMark;
+            mBatchIds[batchQty++] = e;
+          }
+        }
+        scoreBatch(queryData, batchQty, excludeDoc);
+      }
+
+      return mRes.extractSorted(mResIds, mResDists);
+    }
+
+    /**
+     * Scores documents from mBatchIds and adds them to the queue of candidates and to the result set.
+     */
+    private void scoreBatch(Map<String, String> queryData, int batchQty, int excludeDoc) throws Exception {
+      if (batchQty == 0) return;
+      mBatchScores = ensureCapacity(mBatchScores, batchQty);
+      mScorer.score(queryData, mBatchIds, batchQty, mBatchScores);
+      for (int i = 0; i < batchQty; ++i) {
+        int   e = mBatchIds[i];
+        float d = -mBatchScores[i];
+        if (d < mRes.getBound()) {
+          mCands.push(d, e);
+          if (e != excludeDoc) mRes.offer(d, e);
+        }
+      }
+    }
+
+    private final Random  mRand;
+    private final int     mVisited[];
+    private int           mVisitMark = 0;
+    private int           mBatchIds[] = new int[0];
+    private float         mBatchScores[] = new float[0];
+    private final CandidateQueue mCands = new CandidateQueue();
+    private KNNHeap       mRes;
+    private int           mResIds[];
+    private float         mResDists[];
+  }
+
+  private SWGraphIndex(KNNScorer scorer, int NN, int efConstruction) {
+    mScorer = scorer;
+    mNN = NN;
+    mEfConstruction = efConstruction;
+    mDocQty = scorer.getDocQty();
+    // The first element of a list is the number of neighbors, null means that the document isn't inserted yet
+    mLinks = new int[mDocQty][];
+    mLocks = new Object[LOCK_QTY];
+    for (int i = 0; i < LOCK_QTY; ++i) mLocks[i] = new Object();
+  }
+
+  /**
+   * Inserts a document into the graph.
+   */
+  void insert(int doc, Searcher s) throws Exception {
+    Map<String, String> queryData = mScorer.createDocQuery(doc);
+
+    int qty = Math.min(mNN, s.searchQuery(queryData, mEfConstruction, doc, doc));
+
+    int links[] = new int[1 + Math.max(2 * mNN, qty)];
+    System.arraycopy(s.mResIds, 0, links, 1, qty);
+    links[0] = qty;
+    synchronized (getLock(doc)) {
+      mLinks[doc] = links;
+    }
+    for (int i = 0; i < qty; ++i) {
+      addLink(s.mResIds[i], doc);
+    }
+
+    int insQty = mInsertedQty.incrementAndGet();
+    if (insQty % REPORT_INTERVAL_QTY == 0) {
+      logger.info(String.format("Inserted %d documents into the SW-graph index out of %d", insQty + 1, mDocQty));
+    }
+  }
+
+  /**
+   * Adds a link to the list of a given document (the list grows as necessary).
+   */
+  private void addLink(int doc, int newNeighbor) {
+    synchronized (getLock(doc)) {
+      int links[] = mLinks[doc];
+      int qty = links[0];
+      if (qty + 1 == links.length) {
+        links = Arrays.copyOf(links, 2 * links.length);
+        mLinks[doc] = links;
+      }
+      links[1 + qty] = newNeighbor;
+      links[0] = qty + 1;
+    }
+  }
+
+  /**
+   * Obtains neighbors of a document: if the graph is being built,
+   * the method returns a copy, otherwise, it returns the list itself.
+   *
+   * @return the list of neighbors, where the first element is the number of neighbors.
+   */
+  private int[] getNeighbors(int doc) {
+    if (mIsBuilt) return mLinks[doc];
+    synchronized (getLock(doc)) {
+      int links[] = mLinks[doc];
+      return Arrays.copyOf(links, links[0] + 1);
+    }
+  }
+
+  private boolean isInserted(int doc) {
+    if (mIsBuilt) return true;
+    synchronized (getLock(doc)) {
+      return mLinks[doc] != null;
+    }
+  }
+
+  private Object getLock(int doc) {
+    return mLocks[doc % LOCK_QTY];
+  }
+
+  private static int[] ensureCapacity(int arr[], int qty) {
+    return arr.length >= qty ? arr : Arrays.copyOf(arr, Math.max(qty, 2 * arr.length));
+  }
+
+  private static float[] ensureCapacity(float arr[], int qty) {
+    return arr.length >= qty ? arr : Arrays.copyOf(arr, Math.max(qty, 2 * arr.length));
+  }
+
+  private final KNNScorer                 mScorer;
+  private final int                       mNN;
+  private final int                       mEfConstruction;
+  private final int                       mDocQty;
+  // Lists of neighbors
+  private final int                       mLinks[][];
+  private final Object                    mLocks[];
+  private final AtomicInteger             mInsertedQty = new AtomicInteger();
+  // True if the graph isn't modified any more (so that lists of neighbors can be read without locking)
+  private volatile boolean                mIsBuilt = false;
+}
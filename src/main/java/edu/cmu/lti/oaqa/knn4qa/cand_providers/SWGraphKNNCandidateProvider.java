@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import java.util.*;
+
+/**
+ * An approximate counterpart of {@link BruteForceKNNCandidateProvider}: candidates
+ * are retrieved in-process using an SW-graph (see {@link SWGraphIndex}), which
+ * is built offline for the same similarity (typically, {@link ExtractorKNNScorer}).
+ *
+ * <p>The graph can be shared among several provider instances, but
+ * each instance keeps its own search data structures. Thus, one should
+ * create one instance per thread.</p>
+ */
+public class SWGraphKNNCandidateProvider extends CandidateProvider {
+  /**
+   * Constructor.
+   *
+   * @param index       the graph.
+   * @param efSearch    the size of the search queue (it trades accuracy for speed).
+   * @param seed        a seed of the random number generator, which selects documents where the search starts.
+   * @throws Exception
+   */
+  public SWGraphKNNCandidateProvider(SWGraphIndex index, int efSearch, long seed) throws Exception {
+    if (efSearch < 1)
+      throw new Exception("efSearch should be positive, but it is: " + efSearch);
+    mIndex = index;
+    mEfSearch = efSearch;
+    mSearcher = index.newSearcher(seed);
+  }
+
+  @Override
+  public String getName() {
+    return this.getClass().getName();
+  }
+
+  /*
+   * Each instance has its own searcher, so it can't be used by several threads.
+   */
+  @Override
+  public boolean isThreadSafe() { return false; }
+
+  @Override
+  public CandidateInfo getCandidates(int queryNum, Map<String, String> queryData,
+                                     int maxQty) throws Exception {
+    String queryID = queryData.get(ID_FIELD_NAME);
+    if (null == queryID) {
+      throw new Exception(
+          String.format("Query id (%s) is undefined for query # %d",
+                        ID_FIELD_NAME, queryNum));
+    }
+
+    String text = queryData.get(TEXT_FIELD_NAME);
+    if (null == text) {
+      throw new Exception(
+          String.format("Query (%s) is undefined for query # %d",
+                        TEXT_FIELD_NAME, queryNum));
+    }
+
+    int qty = 0;
+    maxQty = Math.max(0, maxQty);
+    int   docs[] = new int[maxQty];
+    float dists[] = new float[maxQty];
+
+    if (!text.trim().isEmpty()) {
+      qty = mSearcher.search(queryData, maxQty, mEfSearch, docs, dists);
+    }
+
+    KNNScorer scorer = mIndex.getScorer();
+    CandidateEntry[] results = new CandidateEntry[qty];
+    for (int i = 0; i < qty; ++i) {
+      results[i] = new CandidateEntry(scorer.getDocId(docs[i]), -dists[i]);
+    }
+
+    return new CandidateInfo(results);
+  }
+
+  private final SWGraphIndex            mIndex;
+  private final int                     mEfSearch;
+  private final SWGraphIndex.Searcher   mSearcher;
+}
@@ -17,6 +17,8 @@ package edu.cmu.lti.oaqa.knn4qa.embed;
 
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
 
 import org.slf4j.Logger;
@@ -25,57 +27,151 @@ import org.slf4j.LoggerFactory;
 import edu.cmu.lti.oaqa.knn4qa.memdb.DocEntry;
 import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndex;
 import edu.cmu.lti.oaqa.knn4qa.simil.*;
+import edu.cmu.lti.oaqa.knn4qa.utils.BinaryFileReader;
+import edu.cmu.lti.oaqa.knn4qa.utils.BinaryFileWriter;
 import edu.cmu.lti.oaqa.knn4qa.utils.CompressUtils;
+import edu.cmu.lti.oaqa.knn4qa.utils.LineChunkParser;
 import edu.cmu.lti.oaqa.knn4qa.utils.VocabularyFilterAndRecoder;
 import net.openhft.koloboke.collect.map.hash.*;
 
-class ParsedEmbedRec {  
-  static final String WS_SPLIT_PAT = "\\s+";
+/**
+ * Parses a chunk of a text embedding file (the one that is used in Glove): 
+ * each non-empty line contains a word followed by vector elements.
+ * Vectors are L2-normalized by the parser.
+ */
+class EmbedChunkParser extends LineChunkParser {
+  static final Factory<EmbedChunkParser> FACTORY = new Factory<EmbedChunkParser>() {
+    @Override
+    public EmbedChunkParser create() {
+      return new EmbedChunkParser();
+    }
+  };
 
-  /**
-   *  Parses a string representation of an embedding,
-   *  if the input is empty doesn't throw an exception, but
-   *  merely sets mWord to an empty string and mVec to null.  
-   *  
-   * @param line    an input string (whole file line).
-   * @param lineNum the line number of the input string.
-   * 
-   * @throws Exception
-   */
-  ParsedEmbedRec(String line, int lineNum) throws Exception {
-    String parts[] = line.split(WS_SPLIT_PAT);
-    mWord = parts[0];
+  @Override
+  protected void parseLine() throws Exception {
+    if (!nextToken()) return; // Skip empty lines
     
-    if (mWord.isEmpty()) {
-      mVec = null;
-    } else {
-      int dim = parts.length - 1;
-      mVec = new float[dim];
-      String floatStr;
-      for (int i = 0; i < dim; ++i) {
-        floatStr = parts[i + 1];
-        try {
-          mVec[i] = Float.parseFloat(parts[i + 1]);
-        } catch (NumberFormatException e) {
-          throw new Exception(String.format(
-              "Wrong format in line %d, can't parse float # %d: '%s'", lineNum, i+1, floatStr));           
-        }
-      }      
-    }    
+    String word = getToken();
+    int dim = 0;
+    while (nextToken()) {
+      if (dim == mTmpVec.length) mTmpVec = Arrays.copyOf(mTmpVec, 2 * dim);
+      try {
+        mTmpVec[dim] = getTokenFloat();
+      } catch (NumberFormatException e) {
+        throw new Exception(String.format(
+            "Wrong format in the line of the word '%s', can't parse float # %d: '%s'", word, dim + 1, getToken()));
+      }
+      ++dim;
+    }
+    
+    if (mWords.isEmpty() && dim == 1 && word.matches("[0-9]+") && mTmpVec[0] == Math.rint(mTmpVec[0])) {
+      // This can be the header of the word2vec text format: the number of words and the dimensionality
+      mHeaderCandidate = true;
+    }
+    
+    float vec[] = Arrays.copyOf(mTmpVec, dim);
+    EmbeddingReaderAndRecoder.normalizeL2(vec);
+    
+    mWords.add(word);
+    mVecs.add(vec);
   }
   
-  final String    mWord;
-  final float []  mVec;
+  final ArrayList<String>   mWords = new ArrayList<String>();
+  final ArrayList<float[]>  mVecs = new ArrayList<float[]>();
+  boolean                   mHeaderCandidate = false;
+  private float             mTmpVec[] = new float[256];
 };
 
+class KNNBatchSearchThread extends Thread {
+  private final EmbeddingReaderAndRecoder mEmbed;
+  private final String[]                  mQueryIDs;
+  private final VectorSearchEntry[][]     mResults;
+  private final AbstractDistance          mDist;
+  private final boolean                   mExcludeExactMatch;
+  private final int                       mK;
+  private final int                       mThreadId;
+  private final int                       mThreadQty;
+  private Throwable                       mError = null;
+  
+  KNNBatchSearchThread(EmbeddingReaderAndRecoder embed,
+                       String[] queryIDs,
+                       VectorSearchEntry[][] results,
+                       AbstractDistance dist,
+                       boolean excludeExactMatch,
+                       int k,
+                       int threadId,
+                       int threadQty) {
+    mEmbed = embed;
+    mQueryIDs = queryIDs;
+    mResults = results;
+    mDist = dist;
+    mExcludeExactMatch = excludeExactMatch;
+    mK = k;
+    mThreadId = threadId;
+    mThreadQty = threadQty;
+  }
+  
+  Throwable getError() { return mError; }
+  
+  @Override
+  public void run() {
+    KNNHeap heap = new KNNHeap(mK);
+    float[] rowBuf = new float[mEmbed.getDim()];
+    
+    try {
+      for (int i = mThreadId; i < mQueryIDs.length; i += mThreadQty) {
+        String queryID = mQueryIDs[i];
+        float[] searchVec = mEmbed.getVector(queryID);
+        mResults[i] = searchVec == null ? 
+                      new VectorSearchEntry[0] :
+                      mEmbed.searchOne(searchVec, mExcludeExactMatch ? queryID : null, 
+                                       mDist, heap, rowBuf);
+      }
+    } catch (Throwable e) {
+      mError = e;
+    }
+  }
+}
+
 public class EmbeddingReaderAndRecoder {
   private static final int REPORT_INTERVAL_QTY = 50000;
   
+  static final String WS_SPLIT_PAT = "\\s+";
+  
+  static final int FORMAT_TEXT          = 0;
+  static final int FORMAT_WORD2VEC_BIN  = 1;
+  static final int FORMAT_NATIVE        = 2;
+  private static final int FORMAT_PROBE_SIZE = 1 << 16;
+  
+  private static final int NATIVE_MAGIC = 0x4e424d45; // EMBN in the little-endian order
+  private static final int NATIVE_VERSION = 1;
+  
+  static final int BLOCK_SHIFT = 10;
+  static final int BLOCK_ROW_QTY = 1 << BLOCK_SHIFT;
+  /**
+   * A partial distance is compared against the bound after 
+   * processing that many vector elements.
+   */
+  private static final int ABANDON_CHECK_STEP = 8;
+  private static final float UNIT_NORM_EPS = 1e-4f;
+  
   private static final Logger logger = LoggerFactory.getLogger(EmbeddingReaderAndRecoder.class);
   
   /**
-   * Constructor: reads a file (can be compressed) in a text format (the
-   * one that is used in Glove) and saves the mapping from strings to vectors.
+   * Constructor: reads a file (can be compressed) and saves the mapping from strings to vectors.
+   * The following formats are supported (the format is detected automatically):
+   * <ul>
+   * <li>the text format used in Glove (the header of the word2vec text format is skipped);
+   * <li>the binary format of word2vec;
+   * <li>the native binary format (see {@link #saveBinary(String)}), which consists of
+   *     a header, a vocabulary block, and a contiguous matrix of (already normalized) vectors.
+   * </ul>
+   * A text file is parsed in parallel (using one thread per available processor).
+   * 
+   * <p>All vectors are kept in a single row-major matrix (split into blocks
+   * of {@link #BLOCK_ROW_QTY} rows), rows follow in the order of the file.
+   * Words and word IDs are mapped to row numbers and L2 norms of rows are
+   * precomputed.</p>
    * 
    * <p>If the recoding object is specified, the class also keeps the mapping
    * from IDs to vectors. Note that the recoding object is also used as a filter:
@@ -87,69 +183,293 @@ public class EmbeddingReaderAndRecoder {
    * word2vec sentences from the binary to text format. Then,
    * we searched for several identical words and compared output.</p>
    *  
-   * @param textFileName 
+   * @param fileName 
    *            input file
    * @param filterAndRecoder
    *            an object used for filtering and recoding (can be null).
    * 
    * @throws Exception 
    */
-  public EmbeddingReaderAndRecoder(String textFileName,
+  public EmbeddingReaderAndRecoder(String fileName,
                              VocabularyFilterAndRecoder filterAndRecoder) throws Exception {
-    BufferedReader fr = new BufferedReader(new 
-              InputStreamReader(CompressUtils.createInputStream(textFileName)));        
+    this(fileName, filterAndRecoder, Runtime.getRuntime().availableProcessors());
+  }
+  
+  /**
+   * Constructor: the same as {@link #EmbeddingReaderAndRecoder(String, VocabularyFilterAndRecoder)},
+   * but the number of threads used to parse a text file is specified explicitly.
+   * 
+   * @param fileName 
+   *            input file
+   * @param filterAndRecoder
+   *            an object used for filtering and recoding (can be null).
+   * @param threadQty
+   *            the number of threads to parse a text file.
+   * 
+   * @throws Exception 
+   */
+  public EmbeddingReaderAndRecoder(String fileName,
+                                   VocabularyFilterAndRecoder filterAndRecoder,
+                                   int threadQty) throws Exception {
+    long startTime = System.currentTimeMillis();
     
-    String line;
-    int lineNum = 0;
-    while ((line = fr.readLine()) != null) {
-      ++lineNum;
-      
-      ParsedEmbedRec rec = new ParsedEmbedRec(line, lineNum);
-            
-      if (rec.mWord.isEmpty()) continue;
-
-      if (mhStr2Vec.containsKey(rec.mWord)) {
-        logger.info("Duplicate key: '" + rec.mWord + "' line: " + lineNum);
-        continue;
+    int format = detectFormat(fileName);
+    
+    switch (format) {
+      case FORMAT_NATIVE:        readNative(fileName, filterAndRecoder); break;
+      case FORMAT_WORD2VEC_BIN:  readWord2VecBinary(fileName, filterAndRecoder); break;
+      default:                   readText(fileName, filterAndRecoder, threadQty);
+    }
+    
+    mZeroVector = new float[mDim];
+    trimStorage();
+    
+    double sec = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+    logger.info(String.format("Finished loading %d word vectors from '%s' (out of %d), dimensionality: %d, " +
+                              "%.1f sec: %.1f MB/sec %.0f vectors/sec", 
+                              mRowQty, fileName, mReadQty, getDim(), sec,
+                              new File(fileName).length() / sec / (1 << 20), mReadQty / sec));
+  }
+  
+  /**
+   * Saves vectors in the native binary format, which can be read much faster than
+   * the text format.
+   * 
+   * @param fileName  an output file name.
+   * @throws Exception
+   */
+  public void saveBinary(String fileName) throws Exception {
+    BinaryFileWriter out = new BinaryFileWriter(fileName);
+    
+    out.writeInt(NATIVE_MAGIC);
+    out.writeInt(NATIVE_VERSION);
+    out.writeInt(mRowQty);
+    out.writeInt(mDim);
+    for (int row = 0; row < mRowQty; ++row) out.writeString(mRowWords[row]);
+    // The matrix starts at an aligned position
+    while (out.getPosition() % 8 != 0) out.writeByte((byte)0);
+    for (int row = 0; row < mRowQty; row += BLOCK_ROW_QTY) {
+      out.writeFloats(mBlocks[row >>> BLOCK_SHIFT], 0, Math.min(BLOCK_ROW_QTY, mRowQty - row) * mDim);
+    }
+    
+    out.close();
+    logger.info(String.format("Saved %d word vectors to '%s'", mRowQty, fileName));
+  }
+  
+  /**
+   * Detects the format of an embedding file.
+   */
+  static int detectFormat(String fileName) throws Exception {
+    InputStream inp = CompressUtils.createInputStream(fileName);
+    byte buf[] = new byte[FORMAT_PROBE_SIZE];
+    int len = 0;
+    try {
+      while (len < buf.length) {
+        int qty = inp.read(buf, len, buf.length - len);
+        if (qty < 0) break;
+        len += qty;
       }
-      
-      if (0 == mDim) {
-        mDim = rec.mVec.length;
-        if (0 == mDim) {
-          throw new Exception(String.format("Wrong format in line %d, no vector elements found", lineNum));
+    } finally {
+      inp.close();
+    }
+    if (len >= 4 && ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN).getInt(0) == NATIVE_MAGIC) 
+      return FORMAT_NATIVE;
+    
+    int eol = 0;
+    while (eol < len && buf[eol] != '\n') ++eol;
+    if (eol == len || !new String(buf, 0, eol, "UTF-8").trim().matches("[0-9]+\\s+[0-9]+")) 
+      return FORMAT_TEXT;
+    /*
+     * There's a word2vec header: in the binary format, the word in the
+     * next line is followed by raw floats, which (almost certainly) include 
+     * bytes that can't appear in the text representation of numbers.
+     */
+    int pos = eol + 1;
+    while (pos < len && buf[pos] != ' ') ++pos;
+    for (++pos; pos < len && buf[pos] != '\n'; ++pos) {
+      byte b = buf[pos];
+      if ((b < 0x20 || b > 0x7e) && b != '\t' && b != '\r') return FORMAT_WORD2VEC_BIN;
+    }
+    return FORMAT_TEXT;
+  }
+  
+  private void readText(String fileName, final VocabularyFilterAndRecoder filterAndRecoder, 
+                        int threadQty) throws Exception {
+    final String fn = fileName;
+    final boolean firstChunk[] = new boolean[] { true };
+    
+    LineChunkParser.parseFile(fileName, threadQty, EmbedChunkParser.FACTORY, 
+                              new LineChunkParser.Handler<EmbedChunkParser>() {
+      @Override
+      public void process(EmbedChunkParser chunk) throws Exception {
+        int start = 0;
+        if (firstChunk[0] && chunk.mHeaderCandidate && chunk.mWords.size() > 1) {
+          logger.info("Skipping the header of the word2vec text format: '" + chunk.mWords.get(0) + "'");
+          start = 1;
+        }
+        firstChunk[0] = false;
+        for (int i = start; i < chunk.mWords.size(); ++i) {
+          addVector(chunk.mWords.get(i), chunk.mVecs.get(i), filterAndRecoder, fn);
         }
-      } else {
-        if (mDim != rec.mVec.length)
-          throw new Exception(String.format(
-              "Wrong format in line %d, # of vector elements (%d) is different from preceeding lines (%d)", 
-              rec.mVec.length, mDim));
       }
+    });
+  }
+  
+  private void readWord2VecBinary(String fileName, VocabularyFilterAndRecoder filterAndRecoder) throws Exception {
+    InputStream inp = new BufferedInputStream(CompressUtils.createInputStream(fileName), 1 << 20);
+    
+    try {
+      String header[] = readWord2VecToken(inp, fileName, '\n').trim().split(WS_SPLIT_PAT);
+      int qty = Integer.parseInt(header[0]);
+      int dim = Integer.parseInt(header[1]);
+      byte buf[] = new byte[4 * dim];
+      ByteBuffer bbuf = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+      float vec[] = new float[dim];
       
-      normalizeL2(rec.mVec);
-      
-      mhStr2Vec.put(rec.mWord, rec.mVec);
-      
-      if (null != filterAndRecoder) {
-        Integer id = filterAndRecoder.getWordId(rec.mWord);
-        if (id != null) mhInt2Vec.put((int)id, rec.mVec);
+      for (int i = 0; i < qty; ++i) {
+        String word = readWord2VecToken(inp, fileName, ' ');
+        int len = 0;
+        while (len < buf.length) {
+          int n = inp.read(buf, len, buf.length - len);
+          if (n < 0) 
+            throw new Exception(String.format("Unexpected end of file '%s', the vector of the word '%s' is truncated", 
+                                              fileName, word));
+          len += n;
+        }
+        bbuf.clear();
+        bbuf.asFloatBuffer().get(vec);
+        normalizeL2(vec);
+        addVector(word, vec, filterAndRecoder, fileName);
       }
+    } finally {
+      inp.close();
+    }
+  }
+  
+  /**
+   * Reads a UTF-8 token of the binary word2vec file: leading new lines are skipped.
+   */
+  private static String readWord2VecToken(InputStream inp, String fileName, char delim) throws Exception {
+    ByteArrayOutputStream tok = new ByteArrayOutputStream();
+    int b;
+    while ((b = inp.read()) >= 0) {
+      if (b == delim) break;
+      if (tok.size() == 0 && (b == '\n' || b == '\r')) continue;
+      tok.write(b);
+    }
+    if (b < 0) throw new Exception(String.format("Unexpected end of file '%s'", fileName));
+    return tok.toString("UTF-8");
+  }
+  
+  private void readNative(String fileName, VocabularyFilterAndRecoder filterAndRecoder) throws Exception {
+    BinaryFileReader inp = new BinaryFileReader(fileName);
+    
+    try {
+      inp.readInt(); // magic
+      int ver = inp.readInt();
+      if (ver != NATIVE_VERSION)
+        throw new Exception(String.format("Unsupported version %d of the binary embedding file '%s'", ver, fileName));
+      int qty = inp.readInt();
+      int dim = inp.readInt();
+      if (qty < 0 || dim <= 0)
+        throw new Exception(String.format("Corrupt binary embedding file '%s'", fileName));
       
-      if (lineNum % REPORT_INTERVAL_QTY == 0)
-        logger.info(String.format("Loaded %d source word vectors from '%s'", 
-                    lineNum, textFileName));
-
+      String words[] = new String[qty];
+      for (int i = 0; i < qty; ++i) words[i] = inp.readString();
+      long matrixPos = (inp.getPosition() + 7) / 8 * 8;
+      if (matrixPos + 4L * qty * dim > inp.getSize())
+        throw new Exception(String.format("Corrupt binary embedding file '%s': the file is too short", fileName));
+      inp.seek(matrixPos);
+      float vec[] = new float[dim];
+      for (int i = 0; i < qty; ++i) {
+        inp.readFloats(vec, 0, dim);
+        // Vectors are saved already normalized
+        addVector(words[i], vec, filterAndRecoder, fileName);
+      }
+    } finally {
+      inp.close();
     }
+  }
+  
+  /**
+   * Copies a vector to the next row of the matrix (the vector can be reused by the caller).
+   */
+  private void addVector(String word, float vec[], 
+                         VocabularyFilterAndRecoder filterAndRecoder, 
+                         String fileName) throws Exception {
+    ++mReadQty;
     
-    mZeroVector = new float[mDim];
+    if (mStr2Row.containsKey(word)) {
+      logger.info("Duplicate key: '" + word + "' file: '" + fileName + "'");
+      return;
+    }
+    
+    if (0 == mDim) {
+      mDim = vec.length;
+      if (0 == mDim) {
+        throw new Exception(String.format("Wrong format, no vector elements found for the word '%s' file: '%s'", 
+                                          word, fileName));
+      }
+    } else {
+      if (mDim != vec.length)
+        throw new Exception(String.format(
+            "Wrong format, # of vector elements (%d) for the word '%s' is different from preceeding words (%d), file: '%s'", 
+            vec.length, word, mDim, fileName));
+    }
+    
+    final int row = mRowQty++;
+    final int blockId = row >>> BLOCK_SHIFT;
+    if (blockId == mBlocks.length) {
+      mBlocks = Arrays.copyOf(mBlocks, blockId + 1);
+      mBlocks[blockId] = new float[BLOCK_ROW_QTY * mDim];
+    }
+    if (row == mRowWords.length) {
+      int newSize = Math.max(BLOCK_ROW_QTY, 2 * row);
+      mRowWords = Arrays.copyOf(mRowWords, newSize);
+      mNorms = Arrays.copyOf(mNorms, newSize);
+    }
+    System.arraycopy(vec, 0, mBlocks[blockId], getOffset(row), mDim);
+    mRowWords[row] = word;
+    mNorms[row] = compNormL2(vec);
+    mStr2Row.put(word, row);
+    
+    if (null != filterAndRecoder) {
+      Integer id = filterAndRecoder.getWordId(word);
+      if (id != null && id >= 0) {
+        if (id >= mId2Row.length) {
+          int oldSize = mId2Row.length;
+          mId2Row = Arrays.copyOf(mId2Row, Math.max(id + 1, 2 * oldSize));
+          Arrays.fill(mId2Row, oldSize, mId2Row.length, -1);
+        }
+        mId2Row[id] = row;
+      }
+    }
     
-    logger.info(String.format("Finished loading %d word vectors from '%s' (out of %d), dimensionality: %d", 
-                              mhInt2Vec.size(), textFileName, lineNum, getDim()));
+    if (mReadQty % REPORT_INTERVAL_QTY == 0)
+      logger.info(String.format("Loaded %d source word vectors from '%s'", mReadQty, fileName));
   }
   
-  public static void normalizeL2(float[] vec) {
+  /**
+   * Trims the slack left in storage arrays after loading.
+   */
+  private void trimStorage() {
+    mRowWords = Arrays.copyOf(mRowWords, mRowQty);
+    mNorms = Arrays.copyOf(mNorms, mRowQty);
+    int lastRowQty = mRowQty & (BLOCK_ROW_QTY - 1);
+    if (lastRowQty != 0) {
+      int blockId = mRowQty >>> BLOCK_SHIFT;
+      mBlocks[blockId] = Arrays.copyOf(mBlocks[blockId], lastRowQty * mDim);
+    }
+  }
+  
+  private static float compNormL2(float[] vec) {
     float norm = 0;
     for (float f: vec) norm += f*f;
-    norm = (float) Math.sqrt(norm);
+    return (float) Math.sqrt(norm);
+  }
+  
+  public static void normalizeL2(float[] vec) {
+    float norm = compNormL2(vec);
     if (Math.abs(norm) >= DistanceFunctions.FLOAT_EPS) {
       for (int i = 0; i < vec.length; ++i)
         vec[i] /= norm;
@@ -166,14 +486,23 @@ public class EmbeddingReaderAndRecoder {
    * @return    a respective average vector.
    */
   public float[] getTextAverage(String text, boolean normalizeL2) {
-    float[] res = new float[mDim];
+    final int dim = mDim;
+    float[] res = new float[dim];
+    /*
+     * Rows are copied to a separate buffer before they are added up:
+     * the JIT compiler doesn't vectorize the loop that reads a block
+     * at an arbitrary offset, because it can't rule out that the 
+     * block and the result overlap. 
+     */
+    float[] rowBuf = new float[dim];
     int qty = 0;
     
-    for (String w : text.split(ParsedEmbedRec.WS_SPLIT_PAT)) {
-      float[] vec = getVector(w);
-      if (null != vec) {
+    for (String w : text.split(WS_SPLIT_PAT)) {
+      int row = getRow(w);
+      if (row >= 0) {
         ++qty;
-        for (int k = 0; k < mDim; ++k) { res[k] += vec[k]; }        
+        System.arraycopy(getBlock(row), getOffset(row), rowBuf, 0, dim);
+        for (int k = 0; k < dim; ++k) { res[k] += rowBuf[k]; }        
       }
     }
     
@@ -205,19 +534,23 @@ public class EmbeddingReaderAndRecoder {
                                InMemForwardIndex    fieldIndex, 
                                boolean              weightByIDF,
                                boolean              normalizeL2) {
-    float[] res = new float[mDim];
+    final int dim = mDim;
+    float[] res = new float[dim];
+    float[] rowBuf = new float[dim];
     int qty = 0;
     
     for (int iWord = 0; iWord < doc.mWordIds.length; ++iWord) {
       int wordId = doc.mWordIds[iWord];
-      float[] vec = getVector(wordId);
-      if (vec != null) {
+      int row = getRow(wordId);
+      if (row >= 0) {
         float mult = weightByIDF ? simil.getIDF(fieldIndex, wordId) : 1.0f;
         ++qty;
-        for (int k = 0; k < mDim; ++k) { 
-          res[k] += vec[k] * 
+        final float   wordQty = doc.mQtys[iWord];
+        System.arraycopy(getBlock(row), getOffset(row), rowBuf, 0, dim);
+        for (int k = 0; k < dim; ++k) { 
+          res[k] += rowBuf[k] * 
                     mult * 
-                    doc.mQtys[iWord]; 
+                    wordQty; 
         }   
       }      
     }
@@ -239,24 +572,59 @@ public class EmbeddingReaderAndRecoder {
   public int getDim() { return mDim; }
   
   /**
-   * Obtains an embedding for a given string.
+   * @return the number of stored vectors.
+   */
+  public int getWordQty() { return mRowQty; }
+  
+  /**
+   * Obtains an embedding for a given string. Vectors are stored in a shared
+   * matrix, so each call allocates a copy: loops over many words should
+   * use {@link #getVector(String, float[], int)} or the row accessors below.
    * 
    * @param s   string
-   * @return    an embedding vector or null, if the string is not found in the dictionary
+   * @return    a copy of the embedding vector or null, if the string is not found in the dictionary
    */
   public float[] getVector(String s) {
-    return mhStr2Vec.get(s);
+    return copyRow(getRow(s));
   }
   
   /**
    * Obtains an embedding by the word ID, it works only
    * if the non-null recoding object was specified in the constructor. 
+   * Each call allocates a copy (see {@link #getVector(int, float[], int)}).
    * 
    * @param id  word ID
-   * @return an embedding vector, or null if the there's no such ID.
+   * @return a copy of the embedding vector, or null if the there's no such ID.
    */
   public float[] getVector(int id) {
-    return mhInt2Vec.get(id);
+    return copyRow(getRow(id));
+  }
+  
+  /**
+   * Copies an embedding for a given string to the caller's buffer,
+   * without allocating memory.
+   * 
+   * @param s         string
+   * @param dst       an output buffer
+   * @param dstOff    an offset in the output buffer: dim elements starting from this offset are overwritten.
+   * @return          false if the string is not found in the dictionary (the buffer isn't changed).
+   */
+  public boolean getVector(String s, float dst[], int dstOff) {
+    return copyRow(getRow(s), dst, dstOff);
+  }
+  
+  /**
+   * Copies an embedding for a given word ID to the caller's buffer,
+   * without allocating memory. It works only if the non-null recoding
+   * object was specified in the constructor.
+   * 
+   * @param id        word ID
+   * @param dst       an output buffer
+   * @param dstOff    an offset in the output buffer: dim elements starting from this offset are overwritten.
+   * @return          false if there's no such ID (the buffer isn't changed).
+   */
+  public boolean getVector(int id, float dst[], int dstOff) {
+    return copyRow(getRow(id), dst, dstOff);
   }
   
   /**
@@ -264,7 +632,8 @@ public class EmbeddingReaderAndRecoder {
    * if the string cannot be found
    * 
    * @param s   string
-   * @return    an embedding vector or the zero vetor, if the string is not found in the dictionary
+   * @return    a copy of the embedding vector or the (shared) zero vetor, 
+   *            if the string is not found in the dictionary
    */
   public float[] getVectorOrZero(String s) {
     float [] res = getVector(s);
@@ -272,14 +641,85 @@ public class EmbeddingReaderAndRecoder {
     return res != null ? res : mZeroVector;
   }
   
+  /*
+   * The following functions give access to rows of the embedding matrix
+   * without copying them. Blocks are shared and must not be modified.
+   */
+  
+  /**
+   * @return a row of the matrix for a given word or -1 if there's no such word.
+   */
+  public int getRow(String s) {
+    return mStr2Row.getOrDefault(s, -1);
+  }
+  
+  /**
+   * @return a row of the matrix for a given word ID or -1 if there's no such ID.
+   */
+  public int getRow(int id) {
+    return id >= 0 && id < mId2Row.length ? mId2Row[id] : -1;
+  }
+  
+  /**
+   * @return a block of the matrix that keeps a given row.
+   */
+  public float[] getBlock(int row) {
+    return mBlocks[row >>> BLOCK_SHIFT];
+  }
+  
+  /**
+   * @return an offset of the row in its block.
+   */
+  public int getOffset(int row) {
+    return (row & (BLOCK_ROW_QTY - 1)) * mDim;
+  }
+  
+  /**
+   * @return a precomputed L2 norm of the row.
+   */
+  float getNorm(int row) {
+    return mNorms[row];
+  }
+  
+  /**
+   * @return a word stored in the given row.
+   */
+  String getRowWord(int row) {
+    return mRowWords[row];
+  }
+  
+  private float[] copyRow(int row) {
+    if (row < 0) return null;
+    float res[] = new float[mDim];
+    copyRow(row, res, 0);
+    return res;
+  }
+  
+  private boolean copyRow(int row, float dst[], int dstOff) {
+    if (row < 0) return false;
+    System.arraycopy(mBlocks[row >>> BLOCK_SHIFT], getOffset(row), dst, dstOff, mDim);
+    return true;
+  }
+  
   /**
-   * A brute-force k-NN search
+   * A brute-force k-NN search.
+   * 
+   * <p>Vectors are scanned in the order of rows of the matrix
+   * and the k best entries are kept in a 
+   * fixed-size primitive heap. For the L2 and the cosine distance, we use
+   * early abandoning: a partial (squared) distance is compared against 
+   * the distance of the current k-th best entry and the computation stops
+   * as soon as the candidate can't be better. Because all the vectors 
+   * are L2-normalized, the cosine distance is equal to one half of the
+   * squared L2 distance (zero vectors are processed separately).
+   * Other distances are computed in full.</p>
    * 
    * @param queryID             query identifier: e.g., a word or a document ID.
    * @param dist                a reference to the class that computes a distance
    * @param bExcludeExactMatch  exclude exact match???
    * @param k                   the k in k-NN.
-   * @return An empty array of k most similar entries.
+   * @return An array of k most similar entries (sorted in the order of increasing distances), 
+   *         which is empty if the query isn't found.
    */
   public VectorSearchEntry[] kNNSearch(String queryID,
                                         AbstractDistance dist,
@@ -288,43 +728,186 @@ public class EmbeddingReaderAndRecoder {
     float[] searchVec = getVector(queryID);
     
     if (searchVec != null) {
-      PriorityQueue<VectorSearchEntry> q = new PriorityQueue<VectorSearchEntry>(k);      
+      return searchOne(searchVec, bExcludeExactMatch ? queryID : null, dist, 
+                       new KNNHeap(k), new float[mDim]);
+    }
+    
+    return new VectorSearchEntry[0];
+  }
+  
+  /**
+   * A multi-threaded batch version of {@link #kNNSearch(String, AbstractDistance, boolean, int)}:
+   * queries are split among threads, each thread uses its own heap. 
+   * This function can be used to compute neighbors for the whole vocabulary 
+   * (see {@link #getWords()}).
+   * 
+   * @param queryIDs            an array of query identifiers.
+   * @param dist                a reference to the class that computes a distance
+   * @param bExcludeExactMatch  exclude exact match???
+   * @param k                   the k in k-NN.
+   * @param threadQty           the number of threads.
+   * @return an array of results, i-th element corresponds to the i-th query 
+   *         (it is empty, if the query isn't found).
+   * @throws Exception
+   */
+  public VectorSearchEntry[][] kNNSearchBatch(String[] queryIDs,
+                                              AbstractDistance dist,
+                                              boolean bExcludeExactMatch,
+                                              int k,
+                                              int threadQty) throws Exception {
+    if (threadQty < 1) 
+      throw new Exception("The number of threads should be positive, but it is: " + threadQty);
+    
+    VectorSearchEntry[][] res = new VectorSearchEntry[queryIDs.length][];
+    
+    threadQty = Math.max(1, Math.min(threadQty, queryIDs.length));
+    
+    KNNBatchSearchThread[] workers = new KNNBatchSearchThread[threadQty];
+    for (int threadId = 0; threadId < threadQty; ++threadId) {
+      workers[threadId] = new KNNBatchSearchThread(this, queryIDs, res, dist, 
+                                                   bExcludeExactMatch, k, 
+                                                   threadId, threadQty);
+    }
+    // Start threads
+    for (KNNBatchSearchThread e : workers) e.start();
+    // Wait till they finish
+    for (KNNBatchSearchThread e : workers) e.join(0);
+    
+    for (KNNBatchSearchThread e : workers) {
+      if (e.getError() != null) 
+        throw new Exception("k-NN search thread failed: " + e.getError(), e.getError());
+    }
+    
+    return res;
+  }
+  
+  /**
+   * @return all the words that have embeddings (in the order used by the k-NN search).
+   */
+  public String[] getWords() {
+    return mRowWords.clone();
+  }
+  
+  /**
+   * Carries out a k-NN search for a single query.
+   * 
+   * @param searchVec     a query vector.
+   * @param excludeWord   a word to exclude from the result set (can be null).
+   * @param dist          a reference to the class that computes a distance
+   * @param heap          a heap to keep the k best entries (it is cleared before the search).
+   * @param rowBuf        a temporary buffer of mDim elements.
+   * @return An array of k most similar entries (sorted in the order of increasing distances).
+   */
+  VectorSearchEntry[] searchOne(float[] searchVec, 
+                                String excludeWord,
+                                AbstractDistance dist,
+                                KNNHeap heap,
+                                float[] rowBuf) {
+    heap.clear();
+    
+    /*
+     * The early-abandoning kernel computes the squared L2 distance. 
+     * For the L2 distance, we then need to compute the square root.
+     * For the cosine distance, we divide the squared distance by two. 
+     * However, this works only for unit vectors, so the zero query
+     * (or a zero data vector) is handled by the generic code.
+     */
+    final boolean isL2 = dist instanceof EuclideanDistance;
+    final boolean isCosine = dist instanceof CosineDistance && isUnitVector(searchVec);
+    
+    final int dim = mDim;
+    final int rowQty = mRowQty;
+    
+    for (int row = 0; row < rowQty; ++row) {
+      final float[] block = mBlocks[row >>> BLOCK_SHIFT];
+      final int     off = (row & (BLOCK_ROW_QTY - 1)) * dim;
+      final float   bound = heap.getBound();
       
-      for (Map.Entry<String, float[]> e : mhStr2Vec.entrySet()) {
-        float sim = dist.compute(searchVec, e.getValue());
-               
-        if (bExcludeExactMatch && e.getKey().equals(queryID)) continue;        
-
-        if (q.size() < k) {
-          VectorSearchEntry toAdd = new VectorSearchEntry(e.getKey(), sim);
-          q.add(toAdd);
-//          System.out.println("Add " + toAdd);
-        }
-        else if (sim < q.peek().mDist) {
-          VectorSearchEntry toAdd = new VectorSearchEntry(e.getKey(), sim);
-          q.add(toAdd);
-          VectorSearchEntry toDel = q.poll();
-//          System.out.println("Delete " + toDel + " add " + toAdd);
-        }
+      float d;
+      
+      if (isL2) {
+        float boundSq = bound * bound;
+        float sq = compSquaredL2Bounded(searchVec, block, off, dim, boundSq);
+        if (sq > boundSq) continue;
+        d = (float) Math.sqrt(sq);
+      } else if (isCosine && isUnitNorm(mNorms[row])) {
+        float boundSq = 2 * bound;
+        float sq = compSquaredL2Bounded(searchVec, block, off, dim, boundSq);
+        if (sq > boundSq) continue;
+        d = Math.min(2f, sq / 2);
+      } else {
+        System.arraycopy(block, off, rowBuf, 0, dim);
+        d = dist.compute(searchVec, rowBuf);
       }
-      int qty = q.size();
-      VectorSearchEntry[] res = new VectorSearchEntry[qty];
       
-      for (int i = 0; i < qty; ++i) {
-        res[qty - i - 1] = q.poll();
+      if (d < bound) {
+        // Comparing strings only for potential candidates is much cheaper
+        if (excludeWord != null && mRowWords[row].equals(excludeWord)) continue;
+        heap.offer(d, row);
       }
-      return res;
     }
     
-    return new VectorSearchEntry[0];
+    int qty = heap.size();
+    int   rows[] = new int[qty];
+    float dists[] = new float[qty];
+    heap.extractSorted(rows, dists);
+    
+    VectorSearchEntry[] res = new VectorSearchEntry[qty];
+    for (int i = 0; i < qty; ++i) {
+      res[i] = new VectorSearchEntry(mRowWords[rows[i]], dists[i]);
+    }
+    return res;
   }
   
-  HashMap<String, float[]>          mhStr2Vec = new HashMap<String, float[]>();
-  private HashIntObjMap<float []>   mhInt2Vec = HashIntObjMaps.<float []>newMutableMap();
+  /**
+   * Computes the squared L2 distance between the query and the vector
+   * stored at the given offset, but stops as soon as the partial 
+   * sum exceeds the bound.
+   * 
+   * @return the squared L2 distance or a value larger than boundSq.
+   */
+  private static float compSquaredL2Bounded(float[] query, float[] data, int off, 
+                                            int dim, float boundSq) {
+    float sum = 0;
+    int i = 0;
+    while (i < dim) {
+      final int end = Math.min(dim, i + ABANDON_CHECK_STEP);
+      for (; i < end; ++i) {
+        float d = query[i] - data[off + i];
+        sum += d * d;
+      }
+      if (sum > boundSq) break;
+    }
+    return sum;
+  }
+  
+  private static boolean isUnitVector(float[] vec) {
+    return isUnitNorm(compNormL2(vec));
+  }
+  
+  private static boolean isUnitNorm(float norm) {
+    return Math.abs(norm * norm - 1) <= UNIT_NORM_EPS;
+  }
+  
+  /*
+   * Vectors are stored in a row-major matrix split into blocks 
+   * of BLOCK_ROW_QTY rows: using blocks rather than a single array 
+   * permits storing more than 2^31 floats and doesn't require 
+   * knowing the number of rows in advance. 
+   */
+  private float[][]                 mBlocks = new float[0][];
+  private int                       mRowQty = 0;
+  private String[]                  mRowWords = new String[0];
+  private float[]                   mNorms = new float[0];
+  private HashObjIntMap<String>     mStr2Row = HashObjIntMaps.<String>newMutableMap();
+  // Maps word IDs to rows, -1 means there's no vector for the ID
+  private int[]                     mId2Row = new int[0];
     
   float[]                   mZeroVector;
   
   int       mDim = 0;
+  // The number of vectors read, including duplicates and vectors filtered out
+  int       mReadQty = 0;
   
   /**
    * A simple test function that can also search for the closest embedding.
@@ -0,0 +1,853 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.embed;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.cmu.lti.oaqa.knn4qa.simil.AbstractDistance;
+import edu.cmu.lti.oaqa.knn4qa.simil.CandidateQueue;
+import edu.cmu.lti.oaqa.knn4qa.simil.CosineDistance;
+import edu.cmu.lti.oaqa.knn4qa.simil.DistanceFunctions;
+import edu.cmu.lti.oaqa.knn4qa.simil.EuclideanDistance;
+import edu.cmu.lti.oaqa.knn4qa.simil.KNNHeap;
+import edu.cmu.lti.oaqa.knn4qa.simil.VectorSearchEntry;
+import edu.cmu.lti.oaqa.knn4qa.utils.BinaryFileReader;
+import edu.cmu.lti.oaqa.knn4qa.utils.BinaryFileWriter;
+
+/**
+ * A thread that inserts a subset of vectors into the HNSW graph.
+ */
+class HNSWBuildThread extends Thread {
+  private final HNSWIndex   mIndex;
+  private final int         mThreadId;
+  private final int         mThreadQty;
+  private Throwable         mError = null;
+
+  HNSWBuildThread(HNSWIndex index, int threadId, int threadQty) {
+    mIndex = index;
+    mThreadId = threadId;
+    mThreadQty = threadQty;
+  }
+
+  Throwable getError() { return mError; }
+
+  @Override
+  public void run() {
+    try {
+      HNSWIndex.Searcher searcher = mIndex.newSearcher();
+      // The first vector is inserted before threads start
+      for (int row = 1 + mThreadId; row < mIndex.getRowQty(); row += mThreadQty) {
+        mIndex.insert(row, searcher);
+      }
+    } catch (Throwable e) {
+      mError = e;
+    }
+  }
+}
+
+/**
+ * A thread that carries out a subset of queries of a batch HNSW search.
+ */
+class HNSWBatchSearchThread extends Thread {
+  private final HNSWIndex               mIndex;
+  private final String[]                mQueryIDs;
+  private final VectorSearchEntry[][]   mResults;
+  private final boolean                 mExcludeExactMatch;
+  private final int                     mK;
+  private final int                     mThreadId;
+  private final int                     mThreadQty;
+  private Throwable                     mError = null;
+
+  HNSWBatchSearchThread(HNSWIndex index,
+                        String[] queryIDs,
+                        VectorSearchEntry[][] results,
+                        boolean excludeExactMatch,
+                        int k,
+                        int threadId,
+                        int threadQty) {
+    mIndex = index;
+    mQueryIDs = queryIDs;
+    mResults = results;
+    mExcludeExactMatch = excludeExactMatch;
+    mK = k;
+    mThreadId = threadId;
+    mThreadQty = threadQty;
+  }
+
+  Throwable getError() { return mError; }
+
+  @Override
+  public void run() {
+    try {
+      HNSWIndex.Searcher searcher = mIndex.newSearcher();
+      for (int i = mThreadId; i < mQueryIDs.length; i += mThreadQty) {
+        mResults[i] = mIndex.kNNSearch(searcher, mQueryIDs[i], mExcludeExactMatch, mK);
+      }
+    } catch (Throwable e) {
+      mError = e;
+    }
+  }
+}
+
+/**
+ * An approximate k-NN index for word embeddings: a Hierarchical Navigable
+ * Small World (HNSW) graph over rows of the {@link EmbeddingReaderAndRecoder}
+ * matrix. The index keeps only the graph: vectors are read from the
+ * embedding object, which must be the same (i.e., loaded from the same file)
+ * when the index is loaded from disk.
+ *
+ * <p>Based on "Efficient and robust approximate nearest neighbor search using
+ * Hierarchical Navigable Small World graphs" by Malkov and Yashunin, 2016.
+ * Each vector is assigned a random level (the probability to get
+ * a level larger than l is M<sup>-l</sup>). On each level, a vector is linked
+ * to at most M neighbors (at most 2M neighbors on the bottom level), which are
+ * selected using the diversity heuristic. A search descends greedily from the
+ * top level to the bottom one, where it carries out a best-first search
+ * with the queue of size ef.</p>
+ *
+ * <p>Parameters:</p>
+ * <ul>
+ * <li>M (build-time): the number of links per vector, larger values
+ *     give better recall for a larger index and a slower search;
+ * <li>efConstruction (build-time): the queue size used to find neighbors
+ *     of inserted vectors, larger values give a better graph, but make
+ *     the construction slower;
+ * <li>efSearch (query-time): the queue size of the search, it trades
+ *     accuracy for speed (it is never smaller than k).
+ * </ul>
+ *
+ * <p>The index can be built by several threads: each vector has its own lock
+ * that guards the lists of its neighbors. Searches can be carried out
+ * concurrently, but each thread needs its own {@link Searcher}.</p>
+ *
+ * <p>Distances are computed in the same way as in {@link EmbeddingReaderAndRecoder#kNNSearch(String, AbstractDistance, boolean, int)}:
+ * for the cosine distance, precomputed norms of vectors are used;
+ * distances other than L2 and cosine are computed by the distance object.</p>
+ */
+public class HNSWIndex {
+  public static final int DEFAULT_M               = 16;
+  public static final int DEFAULT_EF_CONSTRUCTION = 200;
+  public static final int DEFAULT_EF_SEARCH       = 100;
+
+  private static final int MAGIC = 0x57534e48; // HNSW in the little-endian order
+  private static final int VERSION = 1;
+  private static final long RANDOM_SEED = 0;
+  private static final int REPORT_INTERVAL_QTY = 100000;
+
+  private static final Logger logger = LoggerFactory.getLogger(HNSWIndex.class);
+
+  /**
+   * Builds the index.
+   *
+   * @param embed           word embeddings.
+   * @param dist            a distance.
+   * @param M               the maximum number of neighbors on upper levels (on the bottom level, it is 2M).
+   * @param efConstruction  the size of the queue used to find neighbors of an inserted vector.
+   * @param threadQty       the number of threads.
+   * @return the index.
+   * @throws Exception
+   */
+  public static HNSWIndex build(EmbeddingReaderAndRecoder embed,
+                                AbstractDistance dist,
+                                int M, int efConstruction,
+                                int threadQty) throws Exception {
+    if (M < 2)
+      throw new Exception("M should be at least 2, but it is: " + M);
+    if (efConstruction < 1)
+      throw new Exception("efConstruction should be positive, but it is: " + efConstruction);
+    if (threadQty < 1)
+      throw new Exception("The number of threads should be positive, but it is: " + threadQty);
+
+    long startTime = System.currentTimeMillis();
+
+    int rowQty = embed.getWordQty();
+    // Levels are generated in advance, so they don't depend on the number of threads
+    int levels[] = new int[rowQty];
+    Random rand = new Random(RANDOM_SEED);
+    double levelMult = 1 / Math.log(M);
+    for (int row = 0; row < rowQty; ++row) {
+      levels[row] = (int) (-Math.log(1 - rand.nextDouble()) * levelMult);
+    }
+
+    HNSWIndex index = new HNSWIndex(embed, dist, M, efConstruction, levels);
+
+    if (rowQty > 0) {
+      index.mEntryPoint = 0;
+      index.mMaxLevel = levels[0];
+
+      threadQty = Math.max(1, Math.min(threadQty, rowQty));
+      HNSWBuildThread[] workers = new HNSWBuildThread[threadQty];
+      for (int threadId = 0; threadId < threadQty; ++threadId) {
+        workers[threadId] = new HNSWBuildThread(index, threadId, threadQty);
+      }
+      // Start threads
+      for (HNSWBuildThread e : workers) e.start();
+      // Wait till they finish
+      for (HNSWBuildThread e : workers) e.join(0);
+
+      for (HNSWBuildThread e : workers) {
+        if (e.getError() != null)
+          throw new Exception("HNSW construction thread failed: " + e.getError(), e.getError());
+      }
+    }
+
+    logger.info(String.format("Built the HNSW index for %d vectors, distance: %s, M=%d efConstruction=%d, " +
+                              "# of levels: %d, # of threads: %d, %.1f sec",
+                              rowQty, dist.getName(), M, efConstruction, index.mMaxLevel + 1, threadQty,
+                              (System.currentTimeMillis() - startTime) / 1000.0));
+    return index;
+  }
+
+  /**
+   * Loads the index saved by {@link #save(String)}.
+   *
+   * @param embed     word embeddings, these must be the same as the ones used to build the index.
+   * @param fileName  an index file.
+   * @return the index.
+   * @throws Exception
+   */
+  public static HNSWIndex load(EmbeddingReaderAndRecoder embed, String fileName) throws Exception {
+    BinaryFileReader inp = new BinaryFileReader(fileName);
+
+    try {
+      if (inp.getSize() < 8 || inp.readInt() != MAGIC)
+        throw new Exception(String.format("File '%s' is not an HNSW index", fileName));
+      int ver = inp.readInt();
+      if (ver != VERSION)
+        throw new Exception(String.format("Unsupported version %d of the HNSW index '%s'", ver, fileName));
+
+      AbstractDistance dist = AbstractDistance.create(inp.readString());
+      int rowQty = inp.readInt();
+      int dim = inp.readInt();
+      int M = inp.readInt();
+      int efConstruction = inp.readInt();
+      int entryPoint = inp.readInt();
+      int maxLevel = inp.readInt();
+      long checksum = inp.readLong();
+
+      if (rowQty != embed.getWordQty() || (rowQty > 0 && dim != embed.getDim()))
+        throw new Exception(String.format(
+            "The HNSW index '%s' was built for %d vectors of dimensionality %d, but embeddings have %d vectors of dimensionality %d",
+            fileName, rowQty, dim, embed.getWordQty(), embed.getDim()));
+      for (int row = 0; row < rowQty; ++row) {
+        String word = inp.readString();
+        if (!word.equals(embed.getRowWord(row)))
+          throw new Exception(String.format(
+              "The HNSW index '%s' was built for different embeddings: the word # %d is '%s' instead of '%s'",
+              fileName, row, word, embed.getRowWord(row)));
+      }
+      if (checksum != compChecksum(embed))
+        throw new Exception(String.format("The HNSW index '%s' was built for different embedding vectors", fileName));
+
+      int levels[] = new int[rowQty];
+      inp.readInts(levels, 0, rowQty);
+
+      HNSWIndex index = new HNSWIndex(embed, dist, M, efConstruction, levels);
+      index.mEntryPoint = entryPoint;
+      index.mMaxLevel = maxLevel;
+
+      for (int row = 0; row < rowQty; ++row) {
+        for (int level = 0; level <= levels[row]; ++level) {
+          int links[] = index.getLinks(row, level);
+          int qty = inp.readInt();
+          if (qty < 0 || qty >= links.length)
+            throw new Exception(String.format("Corrupt HNSW index '%s'", fileName));
+          links[0] = qty;
+          inp.readInts(links, 1, qty);
+        }
+      }
+
+      logger.info(String.format("Loaded the HNSW index for %d vectors from '%s', distance: %s, M=%d efConstruction=%d",
+                                rowQty, fileName, dist.getName(), M, efConstruction));
+      return index;
+    } finally {
+      inp.close();
+    }
+  }
+
+  /**
+   * Saves the index (the index shouldn't be modified at the same time).
+   *
+   * <p>The file consists of the header (the distance name, parameters,
+   * and a checksum of vectors), the list of words (the list and the
+   * checksum are used to check that the index matches embeddings), vector levels, and lists of neighbors for each vector
+   * (from the bottom level to the top one).</p>
+   *
+   * @param fileName  an output file.
+   * @throws Exception
+   */
+  public void save(String fileName) throws Exception {
+    BinaryFileWriter out = new BinaryFileWriter(fileName);
+
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeString(mDist.getName());
+    out.writeInt(mRowQty);
+    out.writeInt(mDim);
+    out.writeInt(mM);
+    out.writeInt(mEfConstruction);
+    out.writeInt(mEntryPoint);
+    out.writeInt(mMaxLevel);
+    out.writeLong(compChecksum(mEmbed));
+    for (int row = 0; row < mRowQty; ++row) out.writeString(mEmbed.getRowWord(row));
+    out.writeInts(mLevels, 0, mRowQty);
+    for (int row = 0; row < mRowQty; ++row) {
+      for (int level = 0; level <= mLevels[row]; ++level) {
+        int links[] = getLinks(row, level);
+        out.writeInts(links, 0, links[0] + 1);
+      }
+    }
+
+    out.close();
+    logger.info(String.format("Saved the HNSW index for %d vectors to '%s'", mRowQty, fileName));
+  }
+
+  /**
+   * @return the distance used to build the index.
+   */
+  public AbstractDistance getDistance() { return mDist; }
+
+  /**
+   * @return the maximum number of neighbors on upper levels.
+   */
+  public int getM() { return mM; }
+
+  /**
+   * @return the size of the queue used during the construction.
+   */
+  public int getEfConstruction() { return mEfConstruction; }
+
+  /**
+   * @return the size of the search queue.
+   */
+  public int getEfSearch() { return mEfSearch; }
+
+  /**
+   * Sets the size of the search queue, it shouldn't be
+   * changed while searches are running.
+   *
+   * @param efSearch  the size of the search queue.
+   */
+  public void setEfSearch(int efSearch) {
+    if (efSearch < 1)
+      throw new RuntimeException("efSearch should be positive, but it is: " + efSearch);
+    mEfSearch = efSearch;
+  }
+
+  /**
+   * @return the number of indexed vectors.
+   */
+  public int getRowQty() { return mRowQty; }
+
+  /**
+   * Creates a search object, which keeps data structures reused
+   * among searches. It can be used only by one thread.
+   */
+  public Searcher newSearcher() {
+    return new Searcher();
+  }
+
+  /**
+   * An approximate version of {@link EmbeddingReaderAndRecoder#kNNSearch(String, AbstractDistance, boolean, int)},
+   * which creates a new search object.
+   *
+   * @param queryID             a query word.
+   * @param bExcludeExactMatch  if true, the query word is excluded from the result set.
+   * @param k                   the k in k-NN.
+   * @return An array of at most k entries (sorted in the order of increasing distances),
+   *         which is empty if the query isn't found.
+   */
+  public VectorSearchEntry[] kNNSearch(String queryID, boolean bExcludeExactMatch, int k) {
+    return kNNSearch(newSearcher(), queryID, bExcludeExactMatch, k);
+  }
+
+  /**
+   * The same as {@link #kNNSearch(String, boolean, int)}, but a search object is given.
+   */
+  public VectorSearchEntry[] kNNSearch(Searcher searcher, String queryID, boolean bExcludeExactMatch, int k) {
+    int queryRow = mEmbed.getRow(queryID);
+    if (queryRow < 0) return new VectorSearchEntry[0];
+
+    int   rows[] = new int[k];
+    float dists[] = new float[k];
+    int qty = searcher.searchRow(queryRow, k, bExcludeExactMatch, null, rows, dists);
+
+    VectorSearchEntry[] res = new VectorSearchEntry[qty];
+    for (int i = 0; i < qty; ++i) {
+      res[i] = new VectorSearchEntry(mEmbed.getRowWord(rows[i]), dists[i]);
+    }
+    return res;
+  }
+
+  /**
+   * An approximate version of {@link EmbeddingReaderAndRecoder#kNNSearchBatch(String[], AbstractDistance, boolean, int, int)}.
+   *
+   * @param queryIDs            an array of query words.
+   * @param bExcludeExactMatch  if true, query words are excluded from result sets.
+   * @param k                   the k in k-NN.
+   * @param threadQty           the number of threads.
+   * @return an array of results, i-th element corresponds to the i-th query
+   *         (it is empty, if the query isn't found).
+   * @throws Exception
+   */
+  public VectorSearchEntry[][] kNNSearchBatch(String[] queryIDs,
+                                              boolean bExcludeExactMatch,
+                                              int k,
+                                              int threadQty) throws Exception {
+    if (threadQty < 1)
+      throw new Exception("The number of threads should be positive, but it is: " + threadQty);
+
+    VectorSearchEntry[][] res = new VectorSearchEntry[queryIDs.length][];
+
+    threadQty = Math.max(1, Math.min(threadQty, queryIDs.length));
+
+    HNSWBatchSearchThread[] workers = new HNSWBatchSearchThread[threadQty];
+    for (int threadId = 0; threadId < threadQty; ++threadId) {
+      workers[threadId] = new HNSWBatchSearchThread(this, queryIDs, res, bExcludeExactMatch, k,
+                                                    threadId, threadQty);
+    }
+    // Start threads
+    for (HNSWBatchSearchThread e : workers) e.start();
+    // Wait till they finish
+    for (HNSWBatchSearchThread e : workers) e.join(0);
+
+    for (HNSWBatchSearchThread e : workers) {
+      if (e.getError() != null)
+        throw new Exception("HNSW search thread failed: " + e.getError(), e.getError());
+    }
+
+    return res;
+  }
+
+  /**
+   * Data structures of one search thread: the query, a visited set
+   * (vectors are marked with the current search number, so the set
+   * doesn't need to be cleared), the priority queue of candidates,
+   * the heap of ef best vectors, and temporary buffers.
+   */
+  public class Searcher {
+    private Searcher() {
+      mQuery = new float[mDim];
+      mRowBuf = new float[mDim];
+      mPairBuf = new float[mDim];
+      mNodeBuf = new float[mDim];
+      mNeighBuf = new int[mMaxM0 + 1];
+      mPruneIds = new int[mMaxM0 + 1];
+      mPruneDists = new float[mMaxM0 + 1];
+      mVisited = new int[mRowQty];
+    }
+
+    /**
+     * Finds approximate k nearest neighbors of a query vector.
+     *
+     * @param query         a query vector.
+     * @param k             the k in k-NN.
+     * @param allowedRows   if not null, only rows with the true flag can be returned.
+     * @param rows          an output array of found rows (embedding matrix rows) of at least k elements.
+     * @param dists         an output array of distances of at least k elements.
+     * @return the number of found neighbors, they are sorted in the order of increasing distances.
+     */
+    public int search(float query[], int k, boolean allowedRows[], int rows[], float dists[]) {
+      if (query.length != mDim)
+        throw new RuntimeException(String.format("Bug: the query dimensionality %d is different from %d",
+                                                 query.length, mDim));
+      System.arraycopy(query, 0, mQuery, 0, mDim);
+      float norm = 0;
+      for (float f : query) norm += f * f;
+      mQueryNorm = (float) Math.sqrt(norm);
+
+      return searchQuery(k, -1, allowedRows, rows, dists);
+    }
+
+    /**
+     * Finds approximate k nearest neighbors of an indexed vector.
+     *
+     * @param queryRow      a row of the embedding matrix.
+     * @param k             the k in k-NN.
+     * @param excludeQuery  if true, the query row isn't returned.
+     * @param allowedRows   if not null, only rows with the true flag can be returned.
+     * @param rows          an output array of found rows of at least k elements.
+     * @param dists         an output array of distances of at least k elements.
+     * @return the number of found neighbors, they are sorted in the order of increasing distances.
+     */
+    public int searchRow(int queryRow, int k, boolean excludeQuery, boolean allowedRows[],
+                         int rows[], float dists[]) {
+      setQueryRow(queryRow);
+      return searchQuery(k, excludeQuery ? queryRow : -1, allowedRows, rows, dists);
+    }
+
+    private int searchQuery(int k, int excludeRow, boolean allowedRows[], int rows[], float dists[]) {
+      int entryPoint = mEntryPoint;
+      if (entryPoint < 0 || k <= 0) return 0;
+
+      float entryDist = distToQuery(entryPoint);
+      for (int level = mMaxLevel; level > 0; --level) {
+        entryPoint = searchGreedy(entryPoint, entryDist, level);
+        entryDist = mCurDist;
+      }
+      int qty = Math.min(k, searchLayer(entryPoint, entryDist, 0, Math.max(mEfSearch, k), excludeRow, allowedRows));
+      System.arraycopy(mResIds, 0, rows, 0, qty);
+      System.arraycopy(mResDists, 0, dists, 0, qty);
+      return qty;
+    }
+
+    private void setQueryRow(int row) {
+      System.arraycopy(mEmbed.getBlock(row), mEmbed.getOffset(row), mQuery, 0, mDim);
+      mQueryNorm = mEmbed.getNorm(row);
+    }
+
+    private float distToQuery(int row) {
+      return compDist(mQuery, mQueryNorm, row, mRowBuf);
+    }
+
+    /**
+     * Moves to the neighbor that is closest to the query as long as
+     * the distance decreases, the distance to the found vector is saved to mCurDist.
+     */
+    private int searchGreedy(int entryPoint, float entryDist, int level) {
+      int   curr = entryPoint;
+      float currDist = entryDist;
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        int qty = getNeighbors(curr, level, mNeighBuf);
+        for (int i = 0; i < qty; ++i) {
+          int   e = mNeighBuf[i];
+          float d = distToQuery(e);
+          if (d < currDist) {
+            currDist = d;
+            curr = e;
+            changed = true;
+          }
+        }
+      }
+      mCurDist = currDist;
+      return curr;
+    }
+
+    /**
+     * A best-first search on one level: found vectors are saved
+     * to mResIds and mResDists (in the order of increasing distances).
+     *
+     * @return the number of found vectors.
+     */
+    private int searchLayer(int entryPoint, float entryDist, int level, int ef,
+                            int excludeRow, boolean allowedRows[]) {
+      if (mRes == null || mRes.getMaxQty() != ef) {
+        mRes = new KNNHeap(ef);
+        mResIds = new int[ef];
+        mResDists = new float[ef];
+      }
+      mRes.clear();
+      mCands.clear();
+
+      if (++mVisitMark == 0) {
+        // Marks wrapped around
+        Arrays.fill(mVisited, 0);
+        mVisitMark = 1;
+      }
+
+      mVisited[entryPoint] = mVisitMark;
+      mCands.push(entryDist, entryPoint);
+      if (isAllowed(entryPoint, excludeRow, allowedRows)) mRes.offer(entryDist, entryPoint);
+
+      while (!mCands.isEmpty()) {
+        if (mCands.getTopDist() > mRes.getBound()) break;
+        int curr = mCands.pop();
+        int qty = getNeighbors(curr, level, mNeighBuf);
+        for (int i = 0; i < qty; ++i) {
+          int e = mNeighBuf[i];
+          if (mVisited[e] == mVisitMark) continue;
+          mVisited[e] = mVisitMark;
+          float d = distToQuery(e);
+          if (d < mRes.getBound()) {
+            mCands.push(d, e);
+            if (isAllowed(e, excludeRow, allowedRows)) mRes.offer(d, e);
+          }
+        }
+      }
+
+      return mRes.extractSorted(mResIds, mResDists);
+    }
+
+    private final float   mQuery[];
+    private float         mQueryNorm;
+    private float         mCurDist;
+    private final float   mRowBuf[];
+    private final float   mPairBuf[];
+    private final float   mNodeBuf[];
+    private final int     mNeighBuf[];
+    private final int     mPruneIds[];
+    private final float   mPruneDists[];
+    private final int     mVisited[];
+    private int           mVisitMark = 0;
+    private final CandidateQueue mCands = new CandidateQueue();
+    private KNNHeap       mRes;
+    private int           mResIds[];
+    private float         mResDists[];
+  }
+
+  private HNSWIndex(EmbeddingReaderAndRecoder embed,
+                    AbstractDistance dist,
+                    int M, int efConstruction,
+                    int levels[]) {
+    mEmbed = embed;
+    mDist = dist;
+    mIsL2 = dist instanceof EuclideanDistance;
+    mIsCosine = dist instanceof CosineDistance;
+    mM = M;
+    mMaxM0 = 2 * M;
+    mEfConstruction = efConstruction;
+    mRowQty = levels.length;
+    mDim = embed.getDim();
+    mLevels = levels;
+
+    // The first element of a list is the number of neighbors
+    mLinks0 = new int[mRowQty][];
+    mLinksUpper = new int[mRowQty][][];
+    for (int row = 0; row < mRowQty; ++row) {
+      mLinks0[row] = new int[mMaxM0 + 1];
+      if (levels[row] > 0) {
+        mLinksUpper[row] = new int[levels[row]][];
+        for (int level = 1; level <= levels[row]; ++level)
+          mLinksUpper[row][level - 1] = new int[mM + 1];
+      }
+    }
+  }
+
+  /**
+   * Inserts a vector into the graph.
+   */
+  void insert(int row, Searcher s) {
+    s.setQueryRow(row);
+    final int level = mLevels[row];
+
+    /*
+     * If the vector becomes the new entry point, the global lock is held
+     * during the whole insertion (like in the reference implementation),
+     * which is rare, because there are only a few vectors on top levels.
+     */
+    mEntryLock.lock();
+    int entryPoint = mEntryPoint;
+    int maxLevel = mMaxLevel;
+    boolean holdLock = level > maxLevel;
+    if (!holdLock) mEntryLock.unlock();
+
+    try {
+      float entryDist = s.distToQuery(entryPoint);
+      for (int l = maxLevel; l > level; --l) {
+        entryPoint = s.searchGreedy(entryPoint, entryDist, l);
+        entryDist = s.mCurDist;
+      }
+      for (int l = Math.min(level, maxLevel); l >= 0; --l) {
+        int qty = s.searchLayer(entryPoint, entryDist, l, mEfConstruction, -1, null);
+        entryPoint = s.mResIds[0];
+        entryDist = s.mResDists[0];
+
+        int selQty = selectNeighbors(s, s.mResIds, s.mResDists, qty, mM);
+        setLinks(row, l, s.mResIds, selQty);
+        for (int i = 0; i < selQty; ++i) {
+          addLink(s, s.mResIds[i], row, s.mResDists[i], l);
+        }
+      }
+      if (holdLock) {
+        mEntryPoint = row;
+        mMaxLevel = level;
+      }
+    } finally {
+      if (holdLock) mEntryLock.unlock();
+    }
+
+    int insQty = mInsertedQty.incrementAndGet();
+    if (insQty % REPORT_INTERVAL_QTY == 0) {
+      logger.info(String.format("Inserted %d vectors into the HNSW index out of %d", insQty + 1, mRowQty));
+    }
+  }
+
+  /**
+   * Selects at most maxQty diverse neighbors: a candidate is selected only
+   * if it is closer to the base vector than to any previously selected neighbor.
+   * Selected neighbors are moved to the beginning of arrays.
+   *
+   * @param ids     candidates sorted in the order of increasing distances to the base vector.
+   * @param dists   distances to the base vector.
+   * @param qty     the number of candidates.
+   * @param maxQty  the maximum number of neighbors.
+   * @return the number of selected neighbors.
+   */
+  private int selectNeighbors(Searcher s, int ids[], float dists[], int qty, int maxQty) {
+    int selQty = 0;
+    for (int i = 0; i < qty && selQty < maxQty; ++i) {
+      final int   e = ids[i];
+      final float d = dists[i];
+      System.arraycopy(mEmbed.getBlock(e), mEmbed.getOffset(e), s.mPairBuf, 0, mDim);
+      final float norm = mEmbed.getNorm(e);
+      boolean good = true;
+      for (int j = 0; j < selQty; ++j) {
+        if (compDist(s.mPairBuf, norm, ids[j], s.mRowBuf) < d) {
+          good = false;
+          break;
+        }
+      }
+      if (good) {
+        ids[selQty] = e;
+        dists[selQty] = d;
+        ++selQty;
+      }
+    }
+    return selQty;
+  }
+
+  private void setLinks(int row, int level, int ids[], int qty) {
+    int links[] = getLinks(row, level);
+    synchronized (mLinks0[row]) {
+      System.arraycopy(ids, 0, links, 1, qty);
+      links[0] = qty;
+    }
+  }
+
+  /**
+   * Adds a link to the list of a given node: if the list is full,
+   * neighbors are re-selected among existing neighbors and the new one.
+   */
+  private void addLink(Searcher s, int node, int newNeighbor, float dist, int level) {
+    final int maxQty = level == 0 ? mMaxM0 : mM;
+    final int links[] = getLinks(node, level);
+
+    synchronized (mLinks0[node]) {
+      final int qty = links[0];
+      if (qty < maxQty) {
+        links[1 + qty] = newNeighbor;
+        links[0] = qty + 1;
+        return;
+      }
+
+      System.arraycopy(mEmbed.getBlock(node), mEmbed.getOffset(node), s.mNodeBuf, 0, mDim);
+      final float norm = mEmbed.getNorm(node);
+      // Candidates are sorted using the insertion sort (there are only a few of them)
+      int candQty = 0;
+      for (int i = 0; i <= qty; ++i) {
+        int   e = i < qty ? links[1 + i] : newNeighbor;
+        float d = i < qty ? compDist(s.mNodeBuf, norm, e, s.mRowBuf) : dist;
+        int pos = candQty++;
+        while (pos > 0 && s.mPruneDists[pos - 1] > d) {
+          s.mPruneDists[pos] = s.mPruneDists[pos - 1];
+          s.mPruneIds[pos] = s.mPruneIds[pos - 1];
+          --pos;
+        }
+        s.mPruneDists[pos] = d;
+        s.mPruneIds[pos] = e;
+      }
+      int selQty = selectNeighbors(s, s.mPruneIds, s.mPruneDists, candQty, maxQty);
+      System.arraycopy(s.mPruneIds, 0, links, 1, selQty);
+      links[0] = selQty;
+    }
+  }
+
+  /**
+   * Copies neighbors of a node at a given level.
+   *
+   * @return the number of neighbors.
+   */
+  private int getNeighbors(int row, int level, int buf[]) {
+    int links[] = getLinks(row, level);
+    synchronized (mLinks0[row]) {
+      int qty = links[0];
+      System.arraycopy(links, 1, buf, 0, qty);
+      return qty;
+    }
+  }
+
+  private int[] getLinks(int row, int level) {
+    return level == 0 ? mLinks0[row] : mLinksUpper[row][level - 1];
+  }
+
+  /**
+   * Computes a checksum of all embedding vectors.
+   */
+  private static long compChecksum(EmbeddingReaderAndRecoder embed) {
+    long res = embed.getDim();
+    for (int row = 0; row < embed.getWordQty(); ++row) {
+      final float block[] = embed.getBlock(row);
+      final int   off = embed.getOffset(row);
+      for (int i = 0; i < embed.getDim(); ++i)
+        res = res * 31 + Float.floatToIntBits(block[off + i]);
+    }
+    return res;
+  }
+
+  private static boolean isAllowed(int row, int excludeRow, boolean allowedRows[]) {
+    return row != excludeRow && (allowedRows == null || allowedRows[row]);
+  }
+
+  /**
+   * Computes the distance between a vector and a row of the embedding matrix.
+   *
+   * @param vec     a vector.
+   * @param norm    the L2 norm of the vector.
+   * @param row     a row.
+   * @param rowBuf  a buffer of mDim elements for distances that are computed by the distance object.
+   */
+  private float compDist(float vec[], float norm, int row, float rowBuf[]) {
+    final float block[] = mEmbed.getBlock(row);
+    final int   off = mEmbed.getOffset(row);
+    final int   dim = mDim;
+
+    if (mIsL2) {
+      float sum = 0;
+      for (int i = 0; i < dim; ++i) {
+        float d = vec[i] - block[off + i];
+        sum += d * d;
+      }
+      return (float) Math.sqrt(sum);
+    }
+    if (mIsCosine) {
+      float sum = 0;
+      for (int i = 0; i < dim; ++i) sum += vec[i] * block[off + i];
+      // The same formula as in DistanceFunctions.compNormScalar, but norms are precomputed
+      float normMul = (float) Math.max(DistanceFunctions.FLOAT_EPS, norm * mEmbed.getNorm(row));
+      return 1 - Math.max(-1f, Math.min(1f, sum / normMul));
+    }
+    System.arraycopy(block, off, rowBuf, 0, dim);
+    return mDist.compute(vec, rowBuf);
+  }
+
+  private final EmbeddingReaderAndRecoder mEmbed;
+  private final AbstractDistance          mDist;
+  private final boolean                   mIsL2;
+  private final boolean                   mIsCosine;
+  private final int                       mM;
+  private final int                       mMaxM0;
+  private final int                       mEfConstruction;
+  private int                             mEfSearch = DEFAULT_EF_SEARCH;
+  private final int                       mRowQty;
+  private final int                       mDim;
+  private final int                       mLevels[];
+  // Lists of neighbors on the bottom level, they are also used as locks
+  private final int                       mLinks0[][];
+  // Lists of neighbors on upper levels (null for vectors that are only on the bottom level)
+  private final int                       mLinksUpper[][][];
+  private volatile int                    mEntryPoint = -1;
+  private volatile int                    mMaxLevel = -1;
+  private final ReentrantLock             mEntryLock = new ReentrantLock();
+  private final AtomicInteger             mInsertedQty = new AtomicInteger();
+}
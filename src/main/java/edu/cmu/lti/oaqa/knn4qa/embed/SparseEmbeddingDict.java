@@ -0,0 +1,515 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.embed;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.openhft.koloboke.collect.map.hash.HashIntObjMap;
+import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndex;
+import edu.cmu.lti.oaqa.knn4qa.simil.SparseFloatVector;
+import edu.cmu.lti.oaqa.knn4qa.utils.BinaryFileReader;
+import edu.cmu.lti.oaqa.knn4qa.utils.BinaryFileWriter;
+
+/**
+ * A read-only dictionary of sparse word embeddings (e.g., high-order translation models)
+ * kept in the compressed sparse row (CSR) format: word IDs are IDs of the in-memory forward
+ * index. Rows are accessed through lightweight views (see {@link RowView}), which
+ * don't copy data.
+ *
+ * <p>The dictionary can be saved in the binary format, which can be memory-mapped
+ * rather than loaded on heap (see {@link #load(InMemForwardIndex, String)}).
+ * Values are stored either as regular floats or quantized
+ * to 16 bits (bfloat16: the upper half of the float with rounding, i.e., the relative error
+ * is at most 2<sup>-8</sup>). The binary file also keeps the vocabulary of the forward
+ * index, so that it is possible to check if IDs are still valid.
+ * Vectors are validated when they are saved (or read from a text file),
+ * but not when a binary file is loaded.</p>
+ *
+ * <p>A word that doesn't have an embedding is not distinguished from a word
+ * with an empty embedding.</p>
+ */
+public class SparseEmbeddingDict {
+  private static final Logger logger = LoggerFactory.getLogger(SparseEmbeddingDict.class);
+
+  /**
+   * A suffix of the binary dictionary file (it is appended to the name of the text file).
+   */
+  public static final String BINARY_SUFFIX = ".bin";
+
+  private static final int BINARY_MAGIC = 0x44455053; // SPED in the little-endian order
+  private static final int BINARY_VERSION = 1;
+
+  private static final int VAL_TYPE_FLOAT    = 0;
+  private static final int VAL_TYPE_BFLOAT16 = 1;
+
+  // A segment (a single mapping or a single array) has at most this many bytes
+  private static final int SEGMENT_SHIFT_BYTES = 30;
+  private static final int INT_SHIFT   = SEGMENT_SHIFT_BYTES - 2;
+  private static final int SHORT_SHIFT = SEGMENT_SHIFT_BYTES - 1;
+  private static final int LONG_SHIFT  = SEGMENT_SHIFT_BYTES - 3;
+  private static final long INT_MASK   = (1L << INT_SHIFT) - 1;
+  private static final long SHORT_MASK = (1L << SHORT_SHIFT) - 1;
+  private static final long LONG_MASK  = (1L << LONG_SHIFT) - 1;
+
+  /**
+   * A view of one dictionary row: it references data of the dictionary
+   * and can be reused for different rows (but not by different threads).
+   */
+  public static class RowView {
+    /**
+     * @return the number of non-zero elements.
+     */
+    public int size() { return mQty; }
+    /**
+     * @return the i-th ID (IDs are sorted).
+     */
+    public int getId(int i) { return mDict.getId(mStart + i); }
+    /**
+     * @return the i-th value.
+     */
+    public float getVal(int i) { return mDict.getVal(mStart + i); }
+
+    /**
+     * @return a copy of the row as a regular sparse vector.
+     */
+    public SparseFloatVector toVector() {
+      int   ids[] = new int[mQty];
+      float vals[] = new float[mQty];
+      for (int i = 0; i < mQty; ++i) {
+        ids[i] = getId(i);
+        vals[i] = getVal(i);
+      }
+      return new SparseFloatVector(ids, vals);
+    }
+
+    SparseEmbeddingDict mDict;
+    long                mStart;
+    int                 mQty;
+  }
+
+  /**
+   * @param textFileName  the name of a text dictionary file.
+   * @return the name of the respective binary file.
+   */
+  public static String binaryFileName(String textFileName) {
+    return textFileName + BINARY_SUFFIX;
+  }
+
+  /**
+   * Loads a dictionary for a given field: if there is a binary file created for the same
+   * forward index (see {@link #binaryFileName(String)}), this file is memory-mapped.
+   * Otherwise, the text file (see {@link SparseEmbeddingReaderAndRecorder#readDict(InMemForwardIndex, String)})
+   * is read and converted to the CSR format.
+   *
+   * @param fieldIndex  in-memory forward index.
+   * @param fileName    the name of the text file.
+   * @return a dictionary.
+   * @throws Exception
+   */
+  public static SparseEmbeddingDict load(InMemForwardIndex fieldIndex, String fileName) throws Exception {
+    String binFileName = binaryFileName(fileName);
+
+    if (new File(binFileName).exists()) {
+      SparseEmbeddingDict res = openBinary(binFileName, getVocabulary(fieldIndex));
+      if (res != null) return res;
+      if (!new File(fileName).exists())
+        throw new Exception(String.format(
+            "The binary dictionary '%s' was created for a different forward index and there is no text file '%s'",
+            binFileName, fileName));
+    }
+
+    long startTime = System.currentTimeMillis();
+    SparseEmbeddingDict res = fromMap(fieldIndex.getMaxWordId(),
+                                      SparseEmbeddingReaderAndRecorder.readDict(fieldIndex, fileName));
+    logger.info(String.format("Read %d entries from the text dictionary '%s' in %.1f sec",
+                              res.getEntryQty(), fileName, (System.currentTimeMillis() - startTime) / 1000.0));
+    return res;
+  }
+
+  /**
+   * Creates an on-heap dictionary from validated vectors (e.g., vectors read
+   * by {@link SparseEmbeddingReaderAndRecorder#readDict(InMemForwardIndex, String)}).
+   *
+   * @param maxWordId the maximum word ID.
+   * @param dict      a mapping wordId => embedding.
+   * @return a dictionary.
+   * @throws Exception
+   */
+  public static SparseEmbeddingDict fromMap(int maxWordId, HashIntObjMap<SparseFloatVector> dict) throws Exception {
+    long rowStart[] = getRowStart(maxWordId, dict);
+    long entryQty = rowStart[maxWordId + 1];
+
+    LongBuffer  offsets[] = new LongBuffer[segmQty(maxWordId + 2, LONG_SHIFT)];
+    IntBuffer   ids[] = new IntBuffer[segmQty(entryQty, INT_SHIFT)];
+    FloatBuffer vals[] = new FloatBuffer[ids.length];
+
+    for (int k = 0; k < offsets.length; ++k) {
+      int qty = (int) Math.min(1L << LONG_SHIFT, maxWordId + 2 - ((long)k << LONG_SHIFT));
+      offsets[k] = LongBuffer.wrap(new long[qty]);
+    }
+    for (int k = 0; k < ids.length; ++k) {
+      int qty = (int) Math.min(1L << INT_SHIFT, entryQty - ((long)k << INT_SHIFT));
+      ids[k] = IntBuffer.wrap(new int[qty]);
+      vals[k] = FloatBuffer.wrap(new float[qty]);
+    }
+
+    SparseEmbeddingDict res = new SparseEmbeddingDict(maxWordId, entryQty, offsets, ids, vals, null, false);
+
+    for (int wordId = 0; wordId <= maxWordId + 1; ++wordId) {
+      offsets[(int)(wordId >>> LONG_SHIFT)].put((int)(wordId & LONG_MASK), rowStart[wordId]);
+    }
+    for (int wordId = 0; wordId <= maxWordId; ++wordId) {
+      SparseFloatVector v = dict.get(wordId);
+      if (v == null) continue;
+      long pos = rowStart[wordId];
+      for (int i = 0; i < v.size(); ++i, ++pos) {
+        ids[(int)(pos >>> INT_SHIFT)].put((int)(pos & INT_MASK), v.mIds[i]);
+        vals[(int)(pos >>> INT_SHIFT)].put((int)(pos & INT_MASK), v.mVals[i]);
+      }
+    }
+
+    return res;
+  }
+
+  /**
+   * Saves validated vectors (e.g., the output of
+   * {@link SparseEmbeddingReaderAndRecorder#nextOrderDict(HashIntObjMap, int, float, edu.cmu.lti.oaqa.knn4qa.giza.GizaTranTableReaderAndRecoder, int)})
+   * in the binary format.
+   *
+   * @param fieldIndex  in-memory forward index, which was used to compute vectors.
+   * @param fileName    an output file name.
+   * @param dict        a mapping wordId => embedding.
+   * @param quantize    if true, values are quantized to 16 bits.
+   * @throws Exception
+   */
+  public static void saveBinary(InMemForwardIndex                 fieldIndex,
+                                String                            fileName,
+                                HashIntObjMap<SparseFloatVector>  dict,
+                                boolean                           quantize) throws Exception {
+    saveBinary(fileName, getVocabulary(fieldIndex), dict, quantize);
+  }
+
+  /**
+   * Saves vectors in the binary format.
+   *
+   * @param fileName    an output file name.
+   * @param vocabulary  words of the forward index (indexed by word IDs, can contain nulls).
+   * @param dict        a mapping wordId => embedding.
+   * @param quantize    if true, values are quantized to 16 bits.
+   * @throws Exception
+   */
+  static void saveBinary(String                            fileName,
+                         String                            vocabulary[],
+                         HashIntObjMap<SparseFloatVector>  dict,
+                         boolean                           quantize) throws Exception {
+    int maxWordId = vocabulary.length - 1;
+    long rowStart[] = getRowStart(maxWordId, dict);
+    long entryQty = rowStart[maxWordId + 1];
+
+    BinaryFileWriter out = new BinaryFileWriter(fileName);
+
+    out.writeInt(BINARY_MAGIC);
+    out.writeInt(BINARY_VERSION);
+    out.writeInt(quantize ? VAL_TYPE_BFLOAT16 : VAL_TYPE_FLOAT);
+    out.writeInt(maxWordId);
+    out.writeLong(entryQty);
+
+    out.writeLongs(rowStart, 0, rowStart.length);
+    for (int wordId = 0; wordId <= maxWordId; ++wordId) {
+      SparseFloatVector v = dict.get(wordId);
+      if (v != null) out.writeInts(v.mIds, 0, v.size());
+    }
+    for (int wordId = 0; wordId <= maxWordId; ++wordId) {
+      SparseFloatVector v = dict.get(wordId);
+      if (v == null) continue;
+      if (quantize) {
+        for (float val : v.mVals) out.writeShort(quantize(val));
+      } else {
+        out.writeFloats(v.mVals, 0, v.size());
+      }
+    }
+    for (String word : vocabulary) {
+      out.writeString(word == null ? "" : word);
+    }
+
+    out.close();
+
+    logger.info(String.format("Saved %d entries (%s values) to the binary dictionary '%s'",
+                              entryQty, quantize ? "16-bit" : "32-bit", fileName));
+  }
+
+  /**
+   * Memory-maps a binary dictionary.
+   *
+   * @param fileName    the name of the binary file.
+   * @param vocabulary  words of the forward index (indexed by word IDs, can contain nulls).
+   * @return a dictionary or null, if it was created for a different vocabulary.
+   * @throws Exception
+   */
+  static SparseEmbeddingDict openBinary(String fileName, String vocabulary[]) throws Exception {
+    long startTime = System.currentTimeMillis();
+
+    boolean quantized;
+    int     maxWordId;
+    long    entryQty, offsetsPos;
+
+    BinaryFileReader inp = new BinaryFileReader(fileName);
+
+    try {
+      if (inp.readInt() != BINARY_MAGIC)
+        throw new Exception(String.format("File '%s' is not a binary sparse dictionary", fileName));
+      int ver = inp.readInt();
+      if (ver != BINARY_VERSION)
+        throw new Exception(String.format("Unsupported version %d of the binary sparse dictionary '%s'", ver, fileName));
+      int valType = inp.readInt();
+      if (valType != VAL_TYPE_FLOAT && valType != VAL_TYPE_BFLOAT16)
+        throw new Exception(String.format("Unsupported value type %d in the binary sparse dictionary '%s'", valType, fileName));
+      quantized = valType == VAL_TYPE_BFLOAT16;
+      maxWordId = inp.readInt();
+      entryQty = inp.readLong();
+
+      if (maxWordId != vocabulary.length - 1) {
+        logger.warn(String.format(
+            "Binary dictionary '%s' was created for a different vocabulary, max. word ID %d, but expected %d",
+            fileName, maxWordId, vocabulary.length - 1));
+        return null;
+      }
+
+      offsetsPos = inp.getPosition();
+      long vocPos = offsetsPos + 8L * (maxWordId + 2) + (quantized ? 6 : 8) * entryQty;
+      if (entryQty < 0 || vocPos > inp.getSize()) {
+        throw new Exception(String.format("Corrupt binary sparse dictionary '%s': the file is too short", fileName));
+      }
+
+      inp.seek(vocPos);
+      for (int wordId = 0; wordId <= maxWordId; ++wordId) {
+        String word = inp.readString();
+        String expWord = vocabulary[wordId] == null ? "" : vocabulary[wordId];
+        if (!word.equals(expWord)) {
+          logger.warn(String.format(
+              "Binary dictionary '%s' was created for a different vocabulary, word ID %d is '%s', but expected '%s'",
+              fileName, wordId, word, expWord));
+          return null;
+        }
+      }
+
+      // Rows remain in the file, but offsets are checked anyway
+      inp.seek(offsetsPos);
+      long offsets[] = new long[Math.min(maxWordId + 2, 1 << 16)];
+      long prevOffset = 0;
+      for (int wordId = 0; wordId <= maxWordId + 1; wordId += offsets.length) {
+        int qty = Math.min(offsets.length, maxWordId + 2 - wordId);
+        inp.readLongs(offsets, 0, qty);
+        for (int k = 0; k < qty; ++k) {
+          if (offsets[k] > entryQty || offsets[k] < prevOffset || (wordId + k == 0 && offsets[k] != 0))
+            throw new Exception(String.format("Corrupt row offsets in '%s', word ID %d", fileName, wordId + k));
+          prevOffset = offsets[k];
+        }
+      }
+      if (prevOffset != entryQty)
+        throw new Exception(String.format("Corrupt row offsets in '%s'", fileName));
+    } finally {
+      inp.close();
+    }
+
+    RandomAccessFile file = new RandomAccessFile(fileName, "r");
+    SparseEmbeddingDict res = null;
+    try {
+      FileChannel channel = file.getChannel();
+
+      long idsPos = offsetsPos + 8L * (maxWordId + 2);
+      long valsPos = idsPos + 4 * entryQty;
+
+      ByteBuffer offsetSegms[] = mapRegion(channel, offsetsPos, 8L * (maxWordId + 2));
+      ByteBuffer idSegms[] = mapRegion(channel, idsPos, 4 * entryQty);
+      ByteBuffer valSegms[] = mapRegion(channel, valsPos, (quantized ? 2 : 4) * entryQty);
+
+      LongBuffer  offsets[] = new LongBuffer[offsetSegms.length];
+      IntBuffer   ids[] = new IntBuffer[idSegms.length];
+      FloatBuffer vals[] = quantized ? null : new FloatBuffer[valSegms.length];
+      ShortBuffer quantVals[] = quantized ? new ShortBuffer[valSegms.length] : null;
+
+      for (int k = 0; k < offsets.length; ++k) offsets[k] = offsetSegms[k].asLongBuffer();
+      for (int k = 0; k < ids.length; ++k) ids[k] = idSegms[k].asIntBuffer();
+      for (int k = 0; k < valSegms.length; ++k) {
+        if (quantized) quantVals[k] = valSegms[k].asShortBuffer();
+        else vals[k] = valSegms[k].asFloatBuffer();
+      }
+
+      res = new SparseEmbeddingDict(maxWordId, entryQty, offsets, ids, vals, quantVals, true);
+    } finally {
+      // Mappings remain valid after the file is closed
+      file.close();
+    }
+
+    logger.info(String.format("Mapped %d entries (%s values) of the binary dictionary '%s' in %.1f sec",
+                              res.getEntryQty(), res.isQuantized() ? "16-bit" : "32-bit",
+                              fileName, (System.currentTimeMillis() - startTime) / 1000.0));
+    return res;
+  }
+
+  /**
+   * Retrieves a row.
+   *
+   * @param wordId  a word ID.
+   * @param row     a view that is set to reference the row.
+   * @return false if the row is empty (including the case when the word ID is out of range).
+   */
+  public boolean getRow(int wordId, RowView row) {
+    row.mDict = this;
+    if (wordId < 0 || wordId > mMaxWordId) {
+      row.mStart = 0;
+      row.mQty = 0;
+      return false;
+    }
+    row.mStart = getOffset(wordId);
+    row.mQty = (int)(getOffset(wordId + 1) - row.mStart);
+    return row.mQty > 0;
+  }
+
+  /**
+   * @return the number of non-zero elements in a row (0 if the word ID is out of range).
+   */
+  public int getRowSize(int wordId) {
+    if (wordId < 0 || wordId > mMaxWordId) return 0;
+    return (int)(getOffset(wordId + 1) - getOffset(wordId));
+  }
+
+  /**
+   * @return the maximum word ID.
+   */
+  public int getMaxWordId() { return mMaxWordId; }
+
+  /**
+   * @return the total number of non-zero elements.
+   */
+  public long getEntryQty() { return mEntryQty; }
+
+  /**
+   * @return true if rows are memory-mapped.
+   */
+  public boolean isMapped() { return mMapped; }
+
+  /**
+   * @return true if values are quantized to 16 bits.
+   */
+  public boolean isQuantized() { return mQuantVals != null; }
+
+  /**
+   * Quantizes a float to bfloat16 (rounding to the nearest, ties to even).
+   */
+  static short quantize(float v) {
+    int bits = Float.floatToRawIntBits(v);
+    return (short)((bits + 0x7FFF + ((bits >>> 16) & 1)) >>> 16);
+  }
+
+  static float dequantize(short q) {
+    return Float.intBitsToFloat((q & 0xFFFF) << 16);
+  }
+
+  private SparseEmbeddingDict(int maxWordId, long entryQty,
+                              LongBuffer offsets[], IntBuffer ids[],
+                              FloatBuffer vals[], ShortBuffer quantVals[],
+                              boolean mapped) {
+    mMaxWordId = maxWordId;
+    mEntryQty = entryQty;
+    mOffsets = offsets;
+    mIds = ids;
+    mVals = vals;
+    mQuantVals = quantVals;
+    mMapped = mapped;
+  }
+
+  private long getOffset(int wordId) {
+    return mOffsets[wordId >>> LONG_SHIFT].get((int)(wordId & LONG_MASK));
+  }
+
+  private int getId(long pos) {
+    return mIds[(int)(pos >>> INT_SHIFT)].get((int)(pos & INT_MASK));
+  }
+
+  private float getVal(long pos) {
+    if (mQuantVals != null)
+      return dequantize(mQuantVals[(int)(pos >>> SHORT_SHIFT)].get((int)(pos & SHORT_MASK)));
+    return mVals[(int)(pos >>> INT_SHIFT)].get((int)(pos & INT_MASK));
+  }
+
+  /**
+   * Computes row offsets and checks that all IDs are in the range.
+   */
+  private static long[] getRowStart(int maxWordId, HashIntObjMap<SparseFloatVector> dict) throws Exception {
+    for (int wordId : dict.keySet()) {
+      if (wordId < 0 || wordId > maxWordId)
+        throw new Exception(String.format("Word ID %d is outside the range [0,%d]", wordId, maxWordId));
+    }
+    long rowStart[] = new long[maxWordId + 2];
+    for (int wordId = 0; wordId <= maxWordId; ++wordId) {
+      SparseFloatVector v = dict.get(wordId);
+      int qty = 0;
+      if (v != null) {
+        qty = v.size();
+        if (qty > 0 && (v.mIds[0] < 0 || v.mIds[qty - 1] > maxWordId))
+          throw new Exception(String.format("Invalid vector for word ID %d: IDs should be in the range [0,%d]",
+                                            wordId, maxWordId));
+      }
+      rowStart[wordId + 1] = rowStart[wordId] + qty;
+    }
+    return rowStart;
+  }
+
+  private static String[] getVocabulary(InMemForwardIndex fieldIndex) {
+    String res[] = new String[fieldIndex.getMaxWordId() + 1];
+    for (int wordId = 0; wordId < res.length; ++wordId) {
+      res[wordId] = fieldIndex.getWord(wordId);
+    }
+    return res;
+  }
+
+  private static int segmQty(long elemQty, int shift) {
+    return (int)((elemQty + (1L << shift) - 1) >>> shift);
+  }
+
+  private static ByteBuffer[] mapRegion(FileChannel channel, long pos, long byteQty) throws Exception {
+    int qty = segmQty(byteQty, SEGMENT_SHIFT_BYTES);
+    ByteBuffer res[] = new ByteBuffer[qty];
+    for (int k = 0; k < qty; ++k) {
+      long start = (long)k << SEGMENT_SHIFT_BYTES;
+      res[k] = channel.map(FileChannel.MapMode.READ_ONLY, pos + start,
+                           Math.min(1L << SEGMENT_SHIFT_BYTES, byteQty - start));
+      res[k].order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return res;
+  }
+
+  private final int           mMaxWordId;
+  private final long          mEntryQty;
+  private final LongBuffer    mOffsets[];
+  private final IntBuffer     mIds[];
+  private final FloatBuffer   mVals[];
+  private final ShortBuffer   mQuantVals[];
+  private final boolean       mMapped;
+}
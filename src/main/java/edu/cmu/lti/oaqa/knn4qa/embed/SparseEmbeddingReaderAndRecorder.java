@@ -27,11 +27,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Formatter;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.tools.ant.taskdefs.ManifestTask.Mode;
 
-import no.uib.cipr.matrix.VectorEntry;
-import no.uib.cipr.matrix.Vector.Norm;
 import no.uib.cipr.matrix.sparse.SparseVector;
 import net.openhft.koloboke.collect.map.hash.HashIntObjMap;
 import net.openhft.koloboke.collect.map.hash.HashIntObjMaps;
@@ -42,6 +41,7 @@ import edu.cmu.lti.oaqa.knn4qa.memdb.FrequentIndexWordFilterAndRecoder;
 import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndex;
 import edu.cmu.lti.oaqa.knn4qa.memdb.WordEntry;
 import edu.cmu.lti.oaqa.knn4qa.simil.QueryDocSimilarity;
+import edu.cmu.lti.oaqa.knn4qa.simil.SparseFloatVector;
 import edu.cmu.lti.oaqa.knn4qa.utils.CompressUtils;
 import edu.cmu.lti.oaqa.knn4qa.utils.VocabularyFilterAndRecoder;
 
@@ -59,6 +59,121 @@ class WordIdProb implements Comparable<WordIdProb> {
   }  
 };
 
+/**
+ * A worker computing rows of the next-order model (see 
+ * {@link SparseEmbeddingReaderAndRecorder#nextOrderDict(HashIntObjMap, int, float, GizaTranTableReaderAndRecoder, int)}).
+ * Rows are processed in blocks, the next block is obtained using a shared counter.
+ */
+class NextOrderDictThread extends Thread {
+  static final int BLOCK_SIZE = 256;
+  
+  NextOrderDictThread(SparseFloatVector rows[], int srcWordIds[], SparseFloatVector resRows[],
+                      AtomicInteger nextBlock, float minProb, GizaTranTableReaderAndRecoder answToQuestTran) {
+    mRows = rows;
+    mSrcWordIds = srcWordIds;
+    mResRows = resRows;
+    mNextBlock = nextBlock;
+    mMinProb = minProb;
+    mAnswToQuestTran = answToQuestTran;
+  }
+  
+  @Override
+  public void run() {
+    try {
+      // A dense accumulator plus the list of its non-zero elements
+      double  accum[] = new double[mRows.length];
+      boolean used[]  = new boolean[accum.length];
+      int     usedIds[] = new int[accum.length];
+      
+      int   tranDstIds[] = mAnswToQuestTran.getTranDstIdArray();
+      float tranProbs[] = mAnswToQuestTran.getTranProbArray();
+      
+      while (true) {
+        int blockStart = mNextBlock.getAndIncrement() * BLOCK_SIZE;
+        if (blockStart >= mSrcWordIds.length) break;
+        int blockEnd = Math.min(blockStart + BLOCK_SIZE, mSrcWordIds.length);
+        
+        for (int r = blockStart; r < blockEnd; ++r) {
+          int srcWordId = mSrcWordIds[r];
+          int usedQty = 0;
+          
+          int   rowDstIds[] = tranDstIds;
+          float rowProbs[] = tranProbs;
+          int   start = mAnswToQuestTran.getTranRowStart(srcWordId);
+          int   end = mAnswToQuestTran.getTranRowEnd(srcWordId);
+          if (mAnswToQuestTran.isDiskResident()) {
+            GizaOneWordTranRecs tranRecs = mAnswToQuestTran.getTranRowShared(srcWordId);
+            start = end = 0;
+            if (tranRecs != null) {
+              rowDstIds = tranRecs.mDstIds;
+              rowProbs = tranRecs.mProbs;
+              end = rowDstIds.length;
+            }
+          }
+          
+          for (int k = start; k < end; ++k) {
+            int     dstWordId = rowDstIds[k];
+            double  prob      = rowProbs[k];
+            SparseFloatVector v = dstWordId < mRows.length ? mRows[dstWordId] : null;
+            if (v != null) {
+              int   ids[] = v.mIds;
+              float vals[] = v.mVals;
+              for (int i = 0; i < ids.length; ++i) {
+                int wordId = ids[i];
+                if (!used[wordId]) {
+                  used[wordId] = true;
+                  usedIds[usedQty++] = wordId;
+                }
+                accum[wordId] += prob * vals[i];
+              }
+            }
+          }
+          Arrays.sort(usedIds, 0, usedQty);
+          
+          double norm = 0;
+          for (int i = 0; i < usedQty; ++i) norm += Math.abs(accum[usedIds[i]]);
+          double invNorm = norm > 0 ? 1.0/norm : 0;
+          // Get rid of small values: usedIds is compacted in place
+          int qty = 0;
+          for (int i = 0; i < usedQty; ++i) {
+            int wordId = usedIds[i];
+            double val = accum[wordId] * invNorm;
+            if (val >= mMinProb) {
+              usedIds[qty] = wordId;
+              // accum[] entries of kept words are reset below
+              accum[wordId] = val;
+              ++qty;
+            } else {
+              accum[wordId] = 0;
+            }
+            used[wordId] = false;
+          }
+          
+          int   ids[]  = new int[qty];
+          float vals[] = new float[qty];
+          for (int i = 0; i < qty; ++i) {
+            int wordId = usedIds[i];
+            ids[i] = wordId;
+            vals[i] = (float) accum[wordId];
+            accum[wordId] = 0;
+          }
+          mResRows[r] = new SparseFloatVector(ids, vals);
+        }
+      }
+    } catch (Exception e) {
+      mException = e;
+    }
+  }
+  
+  final SparseFloatVector             mRows[];
+  final int                           mSrcWordIds[];
+  final SparseFloatVector             mResRows[];
+  final AtomicInteger                 mNextBlock;
+  final float                         mMinProb;
+  final GizaTranTableReaderAndRecoder mAnswToQuestTran;
+  Exception                           mException;
+}
+
 class WordIdVals implements Comparable<WordIdVals> {
   public final int    mWordId;
   public final double mVal;
@@ -91,20 +206,21 @@ public class SparseEmbeddingReaderAndRecorder {
    *          the maximum # of digits to print
    * @throws IOException
    */
-  public static void saveDict(InMemForwardIndex           fieldIndex,
-                              String                      fileName, 
-                              HashIntObjMap<SparseVector> dict,
-                              int                         maxDigit) throws IOException {
+  public static void saveDict(InMemForwardIndex                 fieldIndex,
+                              String                            fileName, 
+                              HashIntObjMap<SparseFloatVector>  dict,
+                              int                               maxDigit) throws IOException {
     BufferedWriter out = new BufferedWriter(
                               new OutputStreamWriter(CompressUtils.createOutputStream(fileName)));
     
     String outFormat= " %d:%." + maxDigit + "e";
     
-    for (Entry<Integer, SparseVector> e: dict.entrySet()) {
+    for (Entry<Integer, SparseFloatVector> e: dict.entrySet()) {
       out.write(fieldIndex.getWord(e.getKey()));
-      for (VectorEntry ve : e.getValue()) {
+      SparseFloatVector v = e.getValue();
+      for (int i = 0; i < v.size(); ++i) {
         Formatter f = new Formatter();
-        f.format(outFormat, ve.index(), ve.get());
+        f.format(outFormat, v.mIds[i], v.mVals[i]);
         out.write(f.toString());
         f.close();
       }
@@ -114,12 +230,24 @@ public class SparseEmbeddingReaderAndRecorder {
     out.close();    
   }
   
-  public static HashIntObjMap<SparseVector> readDict(InMemForwardIndex    fieldIndex,
-                                                     String               fileName) throws Exception {
+  /**
+   * Reads sparse word embeddings saved by {@link #saveDict(InMemForwardIndex, String, HashIntObjMap, int)}.
+   * Vectors are validated here (IDs should be sorted, values should be non-negative),
+   * so that functions computing distances don't have to do it.
+   * 
+   * @param fieldIndex
+   *          in-memory forward index
+   * @param fileName
+   *          input file name
+   * @return a mapping wordId => embedding
+   * @throws Exception
+   */
+  public static HashIntObjMap<SparseFloatVector> readDict(InMemForwardIndex    fieldIndex,
+                                                          String               fileName) throws Exception {
     BufferedReader in = new BufferedReader(
                                 new InputStreamReader(CompressUtils.createInputStream(fileName)));
     
-    HashIntObjMap<SparseVector> res = HashIntObjMaps.<SparseVector>newMutableMap(fieldIndex.getMaxWordId() + 1);
+    HashIntObjMap<SparseFloatVector> res = HashIntObjMaps.<SparseFloatVector>newMutableMap(fieldIndex.getMaxWordId() + 1);
     
     String line;
     int lineNum = 0;
@@ -138,7 +266,7 @@ public class SparseEmbeddingReaderAndRecorder {
                             "' :" + lineNum + " file: '" + fileName + "'");
       }
       int     index[] = new int[parts.length-1];
-      double  data [] = new double[parts.length-1];
+      float   data [] = new float[parts.length-1];
       for (int i = 1; i < parts.length; ++i) {
         String tmp[] = parts[i].split(":");
         if (tmp.length != 2) {
@@ -147,17 +275,23 @@ public class SparseEmbeddingReaderAndRecorder {
         index[i-1]=Integer.parseInt(tmp[0]);
         data [i-1]=Float.parseFloat(tmp[1]);
       }
-      res.put(e.mWordId, new SparseVector(fieldIndex.getMaxWordId() + 1, index, data, false));
+      try {
+        SparseFloatVector.checkValues(index, data, fieldIndex.getMaxWordId());
+      } catch (Exception ex) {
+        throw new Exception("Invalid vector in line: " + lineNum + " file: '" + fileName + "' : " + ex.getMessage());
+      }
+      res.put(e.mWordId, new SparseFloatVector(index, data));
     }
+    in.close();
     
     return res;
   }
   
-  public static HashIntObjMap<SparseVector> createTranVecDict(InMemForwardIndex                 fieldIndex,
-                                                              FrequentIndexWordFilterAndRecoder filter, 
-                                                              float                             minProb, 
-                                                              GizaTranTableReaderAndRecoder     answToQuestTran) throws Exception {
-    HashIntObjMap<SparseVector> res = HashIntObjMaps.<SparseVector>newMutableMap(fieldIndex.getMaxWordId() + 1);
+  public static HashIntObjMap<SparseFloatVector> createTranVecDict(InMemForwardIndex                 fieldIndex,
+                                                                   FrequentIndexWordFilterAndRecoder filter, 
+                                                                   float                             minProb, 
+                                                                   GizaTranTableReaderAndRecoder     answToQuestTran) throws Exception {
+    HashIntObjMap<SparseFloatVector> res = HashIntObjMaps.<SparseFloatVector>newMutableMap(fieldIndex.getMaxWordId() + 1);
     
     for (int srcWordId : fieldIndex.getAllWordIds()) 
     if (filter.checkWordId(srcWordId)) {
@@ -169,36 +303,69 @@ public class SparseEmbeddingReaderAndRecorder {
   
   // TODO his would certainly work for a symmetric computation of translation tables
   // but otherwise I am not sure if source/target are used here correctly. 
-  public static HashIntObjMap<SparseVector> nextOrderDict(HashIntObjMap<SparseVector>   dict, 
-                                                          InMemForwardIndex             fieldIndex,
-                                                          float                         minProb, 
-                                                          GizaTranTableReaderAndRecoder answToQuestTran) throws Exception {
-    HashIntObjMap<SparseVector> res = HashIntObjMaps.<SparseVector>newMutableMap(fieldIndex.getMaxWordId() + 1);
+  public static HashIntObjMap<SparseFloatVector> nextOrderDict(HashIntObjMap<SparseFloatVector>  dict, 
+                                                               InMemForwardIndex                 fieldIndex,
+                                                               float                             minProb, 
+                                                               GizaTranTableReaderAndRecoder     answToQuestTran) throws Exception {
+    return nextOrderDict(dict, fieldIndex.getMaxWordId(), minProb, answToQuestTran, 
+                         Runtime.getRuntime().availableProcessors());
+  }
+  
+  /**
+   * Computes the next-order model, which is essentially a product of the translation
+   * table and the current model (rows of the product are L1-normalized and 
+   * values smaller than minProb are discarded).
+   * 
+   * <p>The product is computed row by row (Gustavson's algorithm): the translation
+   * row of a source word selects rows of the current model, which are summed up
+   * in a dense accumulator. Only touched elements of the accumulator are
+   * visited afterwards, normalized, pruned, and reset. Rows are processed
+   * in parallel: threads grab blocks of rows and each thread has its own accumulator.</p>
+   * 
+   * @param dict              the current model.
+   * @param maxWordId         the maximum word ID.
+   * @param minProb           a minimum value of the (normalized) next-order model. 
+   * @param answToQuestTran   a translation table.
+   * @param threadQty         the number of threads.
+   * @return the next-order model.
+   * @throws Exception
+   */
+  public static HashIntObjMap<SparseFloatVector> nextOrderDict(HashIntObjMap<SparseFloatVector>  dict, 
+                                                               int                               maxWordId,
+                                                               float                             minProb, 
+                                                               GizaTranTableReaderAndRecoder     answToQuestTran,
+                                                               int                               threadQty) throws Exception {
+    // Rows of the current model are accessed by word IDs directly rather than via the hash map
+    SparseFloatVector rows[] = new SparseFloatVector[maxWordId + 1];
+    int srcWordIds[] = new int[dict.size()];
+    int srcQty = 0;
+    for (Entry<Integer, SparseFloatVector> e : dict.entrySet()) {
+      int wordId = e.getKey();
+      if (wordId < 0 || wordId > maxWordId) 
+        throw new Exception(String.format("Invalid word ID %d, should be from 0 to %d", wordId, maxWordId));
+      rows[wordId] = e.getValue();
+      srcWordIds[srcQty++] = wordId;
+    }
     
-    for (int srcWordId : dict.keySet()) {
-      SparseVector    newVal = new SparseVector(fieldIndex.getMaxWordId() + 1); 
-      GizaOneWordTranRecs tranRecs = answToQuestTran.getTranProbs(srcWordId);                 
-      if (null != tranRecs) {                
-        for (int k = 0; k < tranRecs.mDstIds.length; ++k) {
-          int     dstWordId = tranRecs.mDstIds[k];
-          double  prob      = tranRecs.mProbs[k];
-          SparseVector v = dict.get(dstWordId).copy();
-          if (v != null) {
-            newVal.add(prob, v);
-          }
-        }
-      }
-      double norm = newVal.norm(Norm.One);
-      if (norm > 0) newVal.scale(1.0/norm);
-      // Get rid of small values
-      double[] data = newVal.getData();
-      for (int i = 0; i < newVal.getUsed(); ++i) {
-        if (data[i] < minProb) {
-          data[i]=0.0;
-        }
-      }
-      newVal.compact();
-      res.put(srcWordId, newVal);
+    SparseFloatVector resRows[] = new SparseFloatVector[srcQty];
+    AtomicInteger nextBlock = new AtomicInteger();
+    
+    threadQty = Math.max(1, threadQty);
+    NextOrderDictThread threads[] = new NextOrderDictThread[threadQty];
+    for (int t = 0; t < threadQty; ++t) {
+      threads[t] = new NextOrderDictThread(rows, srcWordIds, resRows, nextBlock, minProb, answToQuestTran);
+      threads[t].start();
+    }
+    for (int t = 0; t < threadQty; ++t) {
+      threads[t].join();
+    }
+    for (int t = 0; t < threadQty; ++t) {
+      if (threads[t].mException != null) throw threads[t].mException;
+    }
+    
+    HashIntObjMap<SparseFloatVector> res = HashIntObjMaps.<SparseFloatVector>newMutableMap(maxWordId + 1);
+    for (int i = 0; i < srcQty; ++i) {
+      res.put(srcWordIds[i], resRows[i]);
     }
     
     return res;
@@ -219,7 +386,7 @@ public class SparseEmbeddingReaderAndRecorder {
    *            
    * @throws Exception
    */
-  public static SparseVector createOneTranVector(InMemForwardIndex             fieldIndex,
+  public static SparseFloatVector createOneTranVector(InMemForwardIndex             fieldIndex,
                                                  float                         minProb, 
                                                  GizaTranTableReaderAndRecoder answToQuestTran,
                                                  int srcWordId) throws Exception {
@@ -243,7 +410,7 @@ public class SparseEmbeddingReaderAndRecorder {
     Arrays.sort(dataArr);
     
     int     wordIds[] = new int[data.size()];
-    double  vals[] = new double[data.size()];
+    float   vals[] = new float[data.size()];
 
     int indx = -1;
     int prevWordId = -1;
@@ -256,7 +423,7 @@ public class SparseEmbeddingReaderAndRecorder {
       prevWordId = e.mWordId;
     }
     
-    return new SparseVector(fieldIndex.getMaxWordId()+1, wordIds, vals, false);
+    return new SparseFloatVector(wordIds, vals);
   }
   
   /**
@@ -415,56 +582,68 @@ public class SparseEmbeddingReaderAndRecorder {
    * This function "composes" an L1-normalized word embedding by summing up individual
    * sparse word vectors.
    * 
+   * <p>To avoid creating an object per element, (ID, value) pairs are packed 
+   * into long integers: the ID goes into the higher 32 bits and the bits
+   * of the (non-negative) float value go into the lower 32 bits. Sorting such long
+   * integers sorts pairs by IDs.
+   * </p>
+   * 
    * @param fieldIndex      an in-memory forward index.
-   * @param model           a mapping from words to embeddings
+   * @param model           a dictionary of word embeddings.
    * @param entry           a document/query entry.
-   * @return
+   * @return an L1-normalized probability vector (see {@link SparseFloatVector#createProbVector(int[], float[])}).
    */
-  public static SparseVector createCompositeWordEmbed(InMemForwardIndex             fieldIndex,
-                                                      HashIntObjMap<SparseVector>   model, 
-                                                      DocEntry                      entry) {
-
-    ArrayList<WordIdProb>   data = new ArrayList<WordIdProb>();
-        
-    for (int i = 0; i < entry.mWordIds.length; ++i) {
-      int srcWordId = entry.mWordIds[i];
-      
-      if (srcWordId < 0) continue; // ignore OOV words
-      
-      SparseVector vec = model.get(srcWordId);
-      
-      if (null != vec) {
-        for (VectorEntry e: vec) {
-          data.add(new WordIdProb(e.index(), e.get()));
-        }
-      }        
+  public static SparseFloatVector createCompositeWordEmbed(InMemForwardIndex                 fieldIndex,
+                                                           SparseEmbeddingDict               model, 
+                                                           DocEntry                          entry) {
+    int totalQty = 0;
+    
+    for (int srcWordId : entry.mWordIds) {
+      // OOV words (negative IDs) have empty rows
+      totalQty += model.getRowSize(srcWordId);
     }
     
-    WordIdProb dataArr[] = new WordIdProb[data.size()];
-    dataArr = data.toArray(dataArr);
-    Arrays.sort(dataArr);
+    long packed[] = new long[totalQty];
+    int k = 0;
+    SparseEmbeddingDict.RowView row = new SparseEmbeddingDict.RowView();
+    for (int srcWordId : entry.mWordIds) 
+    if (model.getRow(srcWordId, row)) {
+      for (int i = 0; i < row.size(); ++i) {
+        packed[k++] = (((long)row.getId(i)) << 32) | (Float.floatToRawIntBits(row.getVal(i)) & 0xFFFFFFFFL);
+      }
+    }
+    Arrays.sort(packed);
+    
     int uniqQty = 0;
     int prevWordId = -1;
-    for (WordIdProb e: dataArr) {
-      if (e.mWordId != prevWordId) uniqQty++;
-      prevWordId = e.mWordId;
+    for (long e : packed) {
+      int wordId = (int)(e >>> 32);
+      if (wordId != prevWordId) uniqQty++;
+      prevWordId = wordId;
     }
     int     wordIds[] = new int[uniqQty];
-    double  vals[] = new double[uniqQty];
+    double  sums[] = new double[uniqQty];
+    double  norm = 0;
 
     int indx = -1;
     prevWordId = -1;
-    for (WordIdProb e: dataArr) {
-      if (e.mWordId != prevWordId) indx++;
-      wordIds[indx] = e.mWordId;
-      vals[indx] += e.mProb;
-      prevWordId = e.mWordId;
+    for (long e : packed) {
+      int   wordId = (int)(e >>> 32);
+      float val    = Float.intBitsToFloat((int) e);
+      if (wordId != prevWordId) indx++;
+      wordIds[indx] = wordId;
+      sums[indx] += val;
+      norm += val;
+      prevWordId = wordId;
     }
     
-    SparseVector res = new SparseVector(fieldIndex.getMaxWordId()+1, wordIds, vals, false);
-    double norm = res.norm(Norm.One);
-    if (norm > 0) res.scale(1.0/norm);
-    return res;
+    float vals[] = new float[uniqQty];
+    if (norm > 0) {
+      double invNorm = 1.0 / norm;
+      for (int i = 0; i < uniqQty; ++i) vals[i] = (float)(sums[i] * invNorm);
+    }
+    
+    return SparseFloatVector.createProbVector(wordIds, vals);
   }
   
   
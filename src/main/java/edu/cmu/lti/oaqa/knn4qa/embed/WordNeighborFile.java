@@ -0,0 +1,297 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.embed;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import edu.cmu.lti.oaqa.knn4qa.simil.VectorSearchEntry;
+
+/**
+ * A compact binary file with k nearest neighbors of every word, which is
+ * memory-mapped (i.e., it is not loaded into the Java heap).
+ *
+ * <p>The file is written in the little-endian order. It consists of:</p>
+ * <ul>
+ * <li>A header: the magic number, the format version, the number of words, and k (all are 4-byte integers);
+ * <li>wordQty fixed-size rows, each row has k neighbor IDs followed by k
+ *     (float) distances, neighbors are sorted in the order of increasing distances.
+ *     If a word has fewer than k neighbors, the remaining IDs are -1
+ *     (and distances are positive infinity);
+ * <li>A trailer: the distance name followed by wordQty words
+ *     (each string is represented by the 4-byte length and UTF-8 bytes).
+ *     A word ID is the position of the word in this list.
+ * </ul>
+ *
+ * <p>Because the rows have a fixed size, a neighbor list of any word
+ * can be accessed directly.</p>
+ */
+public class WordNeighborFile {
+  public static final int MAGIC = 0x314e4e57; // WNN1 in the little-endian order
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 16;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * @return the size of the row in bytes.
+   */
+  public static long getRowSize(int k) {
+    return 8L * k;
+  }
+
+  /**
+   * Writes the file header to the beginning of the file.
+   *
+   * @param out       an output channel.
+   * @param wordQty   the number of words.
+   * @param k         the (maximum) number of neighbors.
+   * @throws Exception
+   */
+  public static void writeHeader(FileChannel out, int wordQty, int k) throws Exception {
+    ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    buf.putInt(MAGIC);
+    buf.putInt(VERSION);
+    buf.putInt(wordQty);
+    buf.putInt(k);
+    buf.flip();
+    writeFully(out, buf, 0);
+  }
+
+  /**
+   * Appends one row to the buffer.
+   *
+   * @param buf     a little-endian buffer.
+   * @param k       the (maximum) number of neighbors.
+   * @param ids     neighbor IDs.
+   * @param dists   neighbor distances.
+   * @param qty     the actual number of neighbors (&lt;= k).
+   */
+  public static void putRow(ByteBuffer buf, int k, int ids[], float dists[], int qty) {
+    for (int i = 0; i < k; ++i) buf.putInt(i < qty ? ids[i] : -1);
+    for (int i = 0; i < k; ++i) buf.putFloat(i < qty ? dists[i] : Float.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Writes rows starting from the given row number.
+   *
+   * @param out       an output channel.
+   * @param k         the (maximum) number of neighbors.
+   * @param startRow  the number of the first row.
+   * @param buf       a buffer with rows (created using {@link #putRow(ByteBuffer, int, int[], float[], int)}).
+   * @throws Exception
+   */
+  public static void writeRows(FileChannel out, int k, int startRow, ByteBuffer buf) throws Exception {
+    buf.flip();
+    writeFully(out, buf, HEADER_SIZE + startRow * getRowSize(k));
+  }
+
+  /**
+   * Writes the trailer, this should be done after all the rows are written.
+   *
+   * @param out       an output channel.
+   * @param k         the (maximum) number of neighbors.
+   * @param distName  a name of the distance.
+   * @param words     the list of words: a position in the list is the word ID.
+   * @throws Exception
+   */
+  public static void writeTrailer(FileChannel out, int k,
+                                  String distName, String words[]) throws Exception {
+    long pos = HEADER_SIZE + words.length * getRowSize(k);
+    ArrayList<String> strs = new ArrayList<String>();
+    strs.add(distName);
+    for (String w : words) strs.add(w);
+
+    ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    for (String s : strs) {
+      byte bytes[] = s.getBytes(UTF8);
+      if (buf.remaining() < 4 + bytes.length) {
+        buf.flip();
+        pos += writeFully(out, buf, pos);
+        buf.clear();
+        if (buf.remaining() < 4 + bytes.length)
+          buf = ByteBuffer.allocate(4 + bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+      }
+      buf.putInt(bytes.length);
+      buf.put(bytes);
+    }
+    buf.flip();
+    writeFully(out, buf, pos);
+  }
+
+  private static int writeFully(FileChannel out, ByteBuffer buf, long pos) throws Exception {
+    int qty = 0;
+    while (buf.hasRemaining()) {
+      qty += out.write(buf, pos + qty);
+    }
+    return qty;
+  }
+
+  /**
+   * Constructor: memory-maps the file.
+   *
+   * @param fileName  an input file.
+   * @throws Exception
+   */
+  public WordNeighborFile(String fileName) throws Exception {
+    RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+    try {
+      FileChannel ch = raf.getChannel();
+      long fileSize = ch.size();
+
+      if (fileSize < HEADER_SIZE)
+        throw new Exception(String.format("File '%s' is too short", fileName));
+      ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      if (header.getInt() != MAGIC)
+        throw new Exception(String.format("File '%s' is not a word neighbor file", fileName));
+      int ver = header.getInt();
+      if (ver != VERSION)
+        throw new Exception(String.format("Unsupported version %d in file '%s'", ver, fileName));
+      mWordQty = header.getInt();
+      mK = header.getInt();
+      if (mWordQty < 0 || mK < 0)
+        throw new Exception(String.format("Corrupt header in file '%s'", fileName));
+
+      mRowSize = getRowSize(mK);
+      long trailerPos = HEADER_SIZE + mWordQty * mRowSize;
+      if (fileSize < trailerPos)
+        throw new Exception(String.format("File '%s' is truncated", fileName));
+
+      /*
+       * A single mapped buffer can't be larger than 2GB,
+       * hence, for large files we need several buffers.
+       */
+      mRowsPerBuf = (int)Math.max(1, Math.min(Integer.MAX_VALUE / Math.max(1, mRowSize), Math.max(1, mWordQty)));
+      int bufQty = mWordQty == 0 ? 0 : (mWordQty + mRowsPerBuf - 1) / mRowsPerBuf;
+      mRowBufs = new MappedByteBuffer[bufQty];
+      for (int i = 0; i < bufQty; ++i) {
+        long startRow = (long)i * mRowsPerBuf;
+        long rowQty = Math.min(mRowsPerBuf, mWordQty - startRow);
+        mRowBufs[i] = ch.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + startRow * mRowSize, rowQty * mRowSize);
+        mRowBufs[i].order(ByteOrder.LITTLE_ENDIAN);
+      }
+
+      ByteBuffer trailer = ch.map(FileChannel.MapMode.READ_ONLY, trailerPos, fileSize - trailerPos).order(ByteOrder.LITTLE_ENDIAN);
+      mDistName = readString(trailer, fileName);
+      mWords = new String[mWordQty];
+      mhWord2Id = new HashMap<String, Integer>(mWordQty);
+      for (int i = 0; i < mWordQty; ++i) {
+        mWords[i] = readString(trailer, fileName);
+        mhWord2Id.put(mWords[i], i);
+      }
+    } finally {
+      raf.close(); // mapped buffers remain valid
+    }
+  }
+
+  private static String readString(ByteBuffer buf, String fileName) throws Exception {
+    if (buf.remaining() < 4)
+      throw new Exception(String.format("File '%s' is truncated", fileName));
+    int len = buf.getInt();
+    if (len < 0 || len > buf.remaining())
+      throw new Exception(String.format("Corrupt string entry in file '%s'", fileName));
+    byte bytes[] = new byte[len];
+    buf.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * @return the number of words.
+   */
+  public int getWordQty() { return mWordQty; }
+
+  /**
+   * @return the (maximum) number of neighbors per word.
+   */
+  public int getK() { return mK; }
+
+  /**
+   * @return the name of the distance used to compute neighbors.
+   */
+  public String getDistName() { return mDistName; }
+
+  /**
+   * @return a word for a given ID.
+   */
+  public String getWord(int wordId) { return mWords[wordId]; }
+
+  /**
+   * @return a word ID or -1, if the word is not found.
+   */
+  public int getWordId(String word) {
+    Integer id = mhWord2Id.get(word);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * @return the ID of the i-th neighbor, or -1, if the word has fewer than i+1 neighbors.
+   */
+  public int getNeighborId(int wordId, int i) {
+    return mRowBufs[wordId / mRowsPerBuf].getInt(rowOffset(wordId) + 4 * i);
+  }
+
+  /**
+   * @return the distance to the i-th neighbor.
+   */
+  public float getNeighborDist(int wordId, int i) {
+    return mRowBufs[wordId / mRowsPerBuf].getFloat(rowOffset(wordId) + 4 * (mK + i));
+  }
+
+  /**
+   * @return the number of neighbors of a given word.
+   */
+  public int getNeighborQty(int wordId) {
+    int qty = 0;
+    while (qty < mK && getNeighborId(wordId, qty) >= 0) ++qty;
+    return qty;
+  }
+
+  /**
+   * Retrieves neighbors of a given word.
+   *
+   * @param word  a word.
+   * @return an array of neighbors sorted in the order of increasing distances,
+   *         which is empty if the word is not found.
+   */
+  public VectorSearchEntry[] getNeighbors(String word) {
+    int wordId = getWordId(word);
+    if (wordId < 0) return new VectorSearchEntry[0];
+    int qty = getNeighborQty(wordId);
+    VectorSearchEntry res[] = new VectorSearchEntry[qty];
+    for (int i = 0; i < qty; ++i)
+      res[i] = new VectorSearchEntry(mWords[getNeighborId(wordId, i)], getNeighborDist(wordId, i));
+    return res;
+  }
+
+  private int rowOffset(int wordId) {
+    return (int)((wordId % mRowsPerBuf) * mRowSize);
+  }
+
+  private final int                       mWordQty;
+  private final int                       mK;
+  private final long                      mRowSize;
+  private final int                       mRowsPerBuf;
+  private final MappedByteBuffer          mRowBufs[];
+  private final String                    mDistName;
+  private final String                    mWords[];
+  private final HashMap<String, Integer>  mhWord2Id;
+}
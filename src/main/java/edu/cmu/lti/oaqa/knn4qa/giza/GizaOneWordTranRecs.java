@@ -25,6 +25,17 @@ public class GizaOneWordTranRecs {
     }
   }
   
+  /**
+   * Constructor: the arrays are not copied.
+   * 
+   * @param dstIds  destination word IDs in the ascending order.
+   * @param probs   respective translation probabilities.
+   */
+  public GizaOneWordTranRecs(int dstIds[], float probs[]) {
+    mDstIds = dstIds;
+    mProbs = probs;
+  }
+  
   final public float [] mProbs;
   final public int   [] mDstIds;
 }
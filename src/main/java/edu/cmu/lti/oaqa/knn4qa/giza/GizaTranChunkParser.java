@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.giza;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import edu.cmu.lti.oaqa.knn4qa.utils.LineChunkParser;
+
+/**
+ * Parses a chunk of the GIZA translation table: each non-empty line has
+ * a source ID, a target ID, and a translation probability. By default, entries 
+ * are kept in primitive arrays in the order of lines, but a subclass can process 
+ * them differently by overriding {@link #addEntry(int, int, float)}.
+ */
+public class GizaTranChunkParser extends LineChunkParser {
+  static final Factory<GizaTranChunkParser> FACTORY = new Factory<GizaTranChunkParser>() {
+    @Override
+    public GizaTranChunkParser create() {
+      return new GizaTranChunkParser();
+    }
+  };
+
+  /**
+   * Wraps entries that are already in memory into a single (already parsed) chunk.
+   */
+  static ArrayList<GizaTranChunkParser> wrap(int srcIds[], int dstIds[], float probs[], int qty) {
+    GizaTranChunkParser chunk = new GizaTranChunkParser();
+    chunk.mSrcIds = srcIds;
+    chunk.mDstIds = dstIds;
+    chunk.mProbs = probs;
+    chunk.mQty = qty;
+    
+    ArrayList<GizaTranChunkParser> res = new ArrayList<GizaTranChunkParser>();
+    res.add(chunk);
+    return res;
+  }
+
+  @Override
+  protected void parseLine() throws Exception {
+    if (!nextToken()) return; // Skip empty lines
+
+    int srcId, dstId;
+    float prob;
+
+    try {
+      srcId = getTokenInt();
+      if (!nextToken()) throw new NumberFormatException();
+      dstId = getTokenInt();
+      if (!nextToken()) throw new NumberFormatException();
+      prob = getTokenFloat();
+      if (nextToken()) throw new NumberFormatException();
+    } catch (NumberFormatException e) {
+      // Let the regular parser produce a proper error message (or parse an unusual format)
+      GizaTranRec rec = new GizaTranRec(getLine());
+      srcId = rec.mSrcId;
+      dstId = rec.mDstId;
+      prob = rec.mProb;
+    }
+
+    addEntry(srcId, dstId, prob);
+  }
+
+  /**
+   * Processes a parsed entry.
+   */
+  protected void addEntry(int srcId, int dstId, float prob) throws Exception {
+    if (mQty == mSrcIds.length) {
+      int newSize = 2 * mQty;
+      mSrcIds = Arrays.copyOf(mSrcIds, newSize);
+      mDstIds = Arrays.copyOf(mDstIds, newSize);
+      mProbs = Arrays.copyOf(mProbs, newSize);
+    }
+    mSrcIds[mQty] = srcId;
+    mDstIds[mQty] = dstId;
+    mProbs[mQty] = prob;
+    ++mQty;
+  }
+
+  /**
+   * @return the number of entries kept by {@link #addEntry(int, int, float)}.
+   */
+  public int getQty() { return mQty; }
+  /**
+   * @return source IDs of kept entries (the array can be longer than {@link #getQty()}).
+   */
+  public int[] getSrcIds() { return mSrcIds; }
+  /**
+   * @return target IDs of kept entries (the array can be longer than {@link #getQty()}).
+   */
+  public int[] getDstIds() { return mDstIds; }
+  /**
+   * @return probabilities of kept entries (the array can be longer than {@link #getQty()}).
+   */
+  public float[] getProbs() { return mProbs; }
+
+  int     mSrcIds[] = new int[1024];
+  int     mDstIds[] = new int[1024];
+  float   mProbs[] = new float[1024];
+  int     mQty = 0;
+}
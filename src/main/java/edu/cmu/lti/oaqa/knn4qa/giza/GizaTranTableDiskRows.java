@@ -0,0 +1,315 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.giza;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rows of a binary translation table (see {@link GizaTranTableReaderAndRecoder#saveBinary(String, int)})
+ * that are accessed directly in a memory-mapped file rather than being loaded on heap.
+ *
+ * <p>Rows that were read recently are kept in a small on-heap cache with the LRU
+ * eviction. To reduce contention among threads, the cache is split into
+ * several independently locked stripes (a row goes to the stripe
+ * determined by its word ID). Optionally, a background thread reads through the
+ * file in the order of rows, so that the operating system loads it
+ * into the page cache before rows are actually requested.</p>
+ */
+class GizaTranTableDiskRows {
+  private static final Logger logger = LoggerFactory.getLogger(GizaTranTableDiskRows.class);
+
+  // Segment boundaries are multiples of 8 (as well as positions of longs in the file), so no value spans two segments
+  private static final int SEGMENT_SHIFT = 30;
+  private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+  private static final int STRIPE_QTY = 16;
+  private static final int PAGE_SIZE = 4096;
+  // A cached row costs roughly this number of entries even if it is empty
+  private static final int ROW_OVERHEAD_QTY = 8;
+  // Cache statistics are logged after this number of misses (in one stripe)
+  private static final long REPORT_INTERVAL_QTY = 1000000;
+
+  private static final GizaOneWordTranRecs EMPTY_ROW = new GizaOneWordTranRecs(new int[0], new float[0]);
+
+  /**
+   * An LRU cache for a subset of rows.
+   */
+  private static class Stripe extends LinkedHashMap<Integer, GizaOneWordTranRecs> {
+    private static final long serialVersionUID = 1L;
+
+    Stripe(long maxEntryQty) {
+      super(16, 0.75f, true /* access order */);
+      mMaxEntryQty = maxEntryQty;
+    }
+
+    void add(int wordId, GizaOneWordTranRecs row) {
+      if (null != put(wordId, row)) return; // Another thread read the same row
+      mEntryQty += cost(row);
+      // In the access order, the least recently used rows come first
+      Iterator<Map.Entry<Integer, GizaOneWordTranRecs>> it = entrySet().iterator();
+      while (mEntryQty > mMaxEntryQty && it.hasNext()) {
+        GizaOneWordTranRecs evicted = it.next().getValue();
+        if (evicted == row) break;
+        mEntryQty -= cost(evicted);
+        it.remove();
+      }
+    }
+
+    static long cost(GizaOneWordTranRecs row) {
+      return row.mDstIds.length + ROW_OVERHEAD_QTY;
+    }
+
+    final long  mMaxEntryQty;
+    long        mEntryQty = 0;
+    long        mHitQty = 0;
+    long        mMissQty = 0;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param fileName      the name of the binary file.
+   * @param offsetsPos    the position of the row offset array.
+   * @param dstIdsPos     the position of the destination word ID array.
+   * @param probsPos      the position of the translation probability array.
+   * @param maxWordId     the maximum word ID.
+   * @param cacheEntryQty the maximum number of translation entries kept in the cache.
+   * @param prefetch      if true, the file is prefetched in the background.
+   * @throws IOException
+   */
+  GizaTranTableDiskRows(String fileName,
+                        long offsetsPos, long dstIdsPos, long probsPos,
+                        int maxWordId,
+                        long cacheEntryQty,
+                        boolean prefetch) throws IOException {
+    mFileName = fileName;
+    mOffsetsPos = offsetsPos;
+    mDstIdsPos = dstIdsPos;
+    mProbsPos = probsPos;
+    mMaxWordId = maxWordId;
+
+    RandomAccessFile file = new RandomAccessFile(fileName, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      long size = channel.size();
+      int segmQty = (int)((size + SEGMENT_SIZE - 1) >> SEGMENT_SHIFT);
+      mSegments = new MappedByteBuffer[segmQty];
+      for (int i = 0; i < segmQty; ++i) {
+        long start = (long)i << SEGMENT_SHIFT;
+        mSegments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+        mSegments[i].order(ByteOrder.LITTLE_ENDIAN);
+      }
+    } finally {
+      // Mappings remain valid after the file is closed
+      file.close();
+    }
+
+    mStripes = new Stripe[STRIPE_QTY];
+    for (int i = 0; i < STRIPE_QTY; ++i) {
+      mStripes[i] = new Stripe(Math.max(1, cacheEntryQty / STRIPE_QTY));
+    }
+
+    if (prefetch) {
+      Thread prefetchThread = new PrefetchThread();
+      // The prefetching thread shouldn't prevent the application from exiting
+      prefetchThread.setDaemon(true);
+      prefetchThread.start();
+    }
+  }
+
+  /**
+   * Obtains a row from the cache or reads it from the file.
+   *
+   * @param wordId  a source word ID.
+   * @return the row (shared with the cache, it must not be modified) or null if the row is empty.
+   */
+  GizaOneWordTranRecs getRow(int wordId) {
+    if (wordId < 0 || wordId > mMaxWordId) return null;
+
+    Stripe stripe = mStripes[wordId % STRIPE_QTY];
+    GizaOneWordTranRecs row;
+
+    boolean report = false;
+    synchronized (stripe) {
+      row = stripe.get(wordId);
+      if (row != null) {
+        stripe.mHitQty++;
+      } else {
+        stripe.mMissQty++;
+        report = stripe.mMissQty % REPORT_INTERVAL_QTY == 0;
+      }
+    }
+    if (report) {
+      long hitQty = getHitQty(), missQty = getMissQty();
+      logger.info(String.format("Translation table '%s' cache: %d hits %d misses, hit rate %.3f", 
+                                mFileName, hitQty, missQty, (double)hitQty / (hitQty + missQty)));
+    }
+    // The row is read without holding the lock
+    if (row == null) {
+      row = readRow(wordId);
+      synchronized (stripe) {
+        stripe.add(wordId, row);
+      }
+    }
+    return row == EMPTY_ROW ? null : row;
+  }
+
+  /**
+   * Reads a row into the cache, unless the cache is full.
+   *
+   * @return false if the cache is full.
+   */
+  boolean preloadRow(int wordId) {
+    if (wordId < 0 || wordId > mMaxWordId) return true;
+    Stripe stripe = mStripes[wordId % STRIPE_QTY];
+    GizaOneWordTranRecs row = readRow(wordId);
+    synchronized (stripe) {
+      if (stripe.mEntryQty + Stripe.cost(row) > stripe.mMaxEntryQty) return false;
+      stripe.add(wordId, row);
+    }
+    return true;
+  }
+
+  /**
+   * @return the number of row requests served from the cache.
+   */
+  long getHitQty() {
+    long res = 0;
+    for (Stripe stripe : mStripes) {
+      synchronized (stripe) {
+        res += stripe.mHitQty;
+      }
+    }
+    return res;
+  }
+
+  /**
+   * @return the number of row requests that required reading the file.
+   */
+  long getMissQty() {
+    long res = 0;
+    for (Stripe stripe : mStripes) {
+      synchronized (stripe) {
+        res += stripe.mMissQty;
+      }
+    }
+    return res;
+  }
+
+  /**
+   * @return the number of translation entries in the cache.
+   */
+  long getCachedEntryQty() {
+    long res = 0;
+    for (Stripe stripe : mStripes) {
+      synchronized (stripe) {
+        res += stripe.mEntryQty;
+      }
+    }
+    return res;
+  }
+
+  private GizaOneWordTranRecs readRow(int wordId) {
+    long start = getLong(mOffsetsPos + 8L * wordId);
+    long end = getLong(mOffsetsPos + 8L * (wordId + 1));
+    int qty = (int)(end - start);
+    if (qty == 0) return EMPTY_ROW;
+
+    int   dstIds[] = new int[qty];
+    float probs[] = new float[qty];
+
+    int done = 0;
+    while (done < qty) {
+      ByteBuffer buf = getBuffer(mDstIdsPos + 4L * (start + done));
+      int n = Math.min(qty - done, buf.remaining() / 4);
+      buf.asIntBuffer().get(dstIds, done, n);
+      done += n;
+    }
+    done = 0;
+    while (done < qty) {
+      ByteBuffer buf = getBuffer(mProbsPos + 4L * (start + done));
+      int n = Math.min(qty - done, buf.remaining() / 4);
+      buf.asFloatBuffer().get(probs, done, n);
+      done += n;
+    }
+
+    return new GizaOneWordTranRecs(dstIds, probs);
+  }
+
+  private int getInt(long pos) {
+    return mSegments[(int)(pos >> SEGMENT_SHIFT)].getInt((int)(pos & (SEGMENT_SIZE - 1)));
+  }
+
+  private long getLong(long pos) {
+    return mSegments[(int)(pos >> SEGMENT_SHIFT)].getLong((int)(pos & (SEGMENT_SIZE - 1)));
+  }
+
+  /**
+   * @return a buffer (that can be used by one thread only) starting at a given position.
+   */
+  private ByteBuffer getBuffer(long pos) {
+    ByteBuffer buf = mSegments[(int)(pos >> SEGMENT_SHIFT)].duplicate();
+    // A duplicate doesn't inherit the byte order
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+    buf.position((int)(pos & (SEGMENT_SIZE - 1)));
+    return buf;
+  }
+
+  /**
+   * Touches pages of the file in the order of rows: destination IDs and
+   * probabilities of the same rows are read together.
+   */
+  private class PrefetchThread extends Thread {
+    @Override
+    public void run() {
+      long startTime = System.currentTimeMillis();
+      long entryQty = (mProbsPos - mDstIdsPos) / 4;
+      long sum = 0;
+
+      for (long pos = 0; pos < 8L * (mMaxWordId + 2); pos += PAGE_SIZE) {
+        sum += getLong(mOffsetsPos + pos);
+      }
+      for (long pos = 0; pos < 4 * entryQty; pos += PAGE_SIZE) {
+        sum += getInt(mDstIdsPos + pos);
+        sum += getInt(mProbsPos + pos);
+      }
+
+      mPrefetchSum = sum;
+      logger.info(String.format("Prefetched translation table '%s' in %.1f sec",
+                                mFileName, (System.currentTimeMillis() - startTime) / 1000.0));
+    }
+  }
+
+  private final String              mFileName;
+  private final long                mOffsetsPos;
+  private final long                mDstIdsPos;
+  private final long                mProbsPos;
+  private final int                 mMaxWordId;
+  private final MappedByteBuffer    mSegments[];
+  private final Stripe              mStripes[];
+  // Prevents the prefetching loop from being optimized away
+  private volatile long             mPrefetchSum;
+}
@@ -16,14 +16,15 @@
 package edu.cmu.lti.oaqa.knn4qa.giza;
 
 import java.util.*;
-import java.util.Map.Entry;
 import java.io.*;
+import java.lang.ref.WeakReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import net.openhft.koloboke.collect.map.hash.*;
-import edu.cmu.lti.oaqa.knn4qa.utils.CompressUtils;
+import edu.cmu.lti.oaqa.knn4qa.utils.BinaryFileReader;
+import edu.cmu.lti.oaqa.knn4qa.utils.BinaryFileWriter;
+import edu.cmu.lti.oaqa.knn4qa.utils.LineChunkParser;
 import edu.cmu.lti.oaqa.knn4qa.utils.VocabularyFilterAndRecoder;
 
 /**
@@ -46,10 +47,54 @@ import edu.cmu.lti.oaqa.knn4qa.utils.VocabularyFilterAndRecoder;
  *      because they represent probabilities of 
  *      a spurious insertion. It's therefore expected that all word IDs in the
  *      filtering-and-recoding dictionary start with 1 (or a larger number).</li>
- * <li>We use Koloboke for better performance and smaller memory footprint.</li>
+ * <li>Because recoded word IDs are dense, the table is kept in the CSR format:
+ *     a row-offset array indexed directly by the word ID, plus global arrays
+ *     of destination IDs and translation probabilities. Word probabilities
+ *     are kept in dense arrays as well.</li>
  * 
  * <p>To instantiate this class, one needs to read both the source and the target vocabulary 
  * files.</p>
+ * 
+ * <p>Parsing a large text table takes a lot of time. Thus, an already
+ * recoded (and possibly flipped) table can be saved in a binary format
+ * (see {@link #saveBinary(String, int)}) and loaded using 
+ * {@link #loadBinaryShared(String, VocabularyFilterAndRecoder, boolean, float, float, int)}. 
+ * The binary file keeps data in the CSR format: 
+ * </p>
+ * <ul>
+ * <li>A header: the magic number, the version, the flip flag, the self-translation probability,
+ * the translation probability threshold, the maximum word ID, and the number of entries;
+ * <li>An array of maxWordId + 2 row offsets (as 8-byte integers): entries of the row
+ * (i.e., the source word) with ID i start at offset[i] and end before offset[i+1];
+ * <li>An array of destination word IDs and an array of translation probabilities;
+ * <li>Two arrays (of maxWordId+1 elements each) with source and target word probabilities;
+ * <li>Two arrays (of maxWordId+1 elements each) used to slice the table (see {@link #getThresholdSlice(float)}):
+ * original (not rescaled) self-translation probabilities and, for each word, the maximum 
+ * original probability of translating into this word (in the not flipped table).
+ * Self-translation probabilities are negative, if the table can't be sliced. 
+ * These arrays are absent in the version 1 files.
+ * </ul>
+ * <p>All values are stored in the little-endian order.</p>
+ * 
+ * <p>Feature extractors often use several thresholds for the same table. 
+ * Instead of loading near-duplicate tables, one can load the table
+ * using the smallest threshold and obtain tables for larger thresholds
+ * using {@link #getThresholdSlice(float)} (which is done automatically
+ * by {@link #loadTextShared(boolean, String, VocabularyFilterAndRecoder, GizaVocabularyReader, GizaVocabularyReader, float, float, int)}
+ * and by {@link #loadBinaryShared(String, VocabularyFilterAndRecoder, boolean, float, float, int)}).
+ * In addition, {@link #getMinProbView(float)} produces a table that doesn't
+ * have entries whose (rescaled) probabilities are below a given value, so that consumers
+ * don't need to iterate over entries they would discard anyway. All such views
+ * share one copy of the table, where each row is sorted by descending probability:
+ * a row of a view is a prefix of the respective row in this copy, so a view
+ * keeps only the end of each row.</p>
+ * 
+ * <p>A binary table that doesn't fit into memory can be disk-resident
+ * (see {@link #loadBinaryShared(String, VocabularyFilterAndRecoder, boolean, float, float, int, long)}): 
+ * rows are read on demand from the memory-mapped file and the most recently used rows 
+ * are cached on heap (see {@link GizaTranTableDiskRows}). Such a table has the same 
+ * {@link #getTranProb(int, int)} and {@link #getTranProbs(int)}, but 
+ * its rows can't be accessed using the CSR arrays.</p>
  */
 public class GizaTranTableReaderAndRecoder {
   private static final Logger logger = LoggerFactory.getLogger(GizaTranTableReaderAndRecoder.class);
@@ -57,6 +102,18 @@ public class GizaTranTableReaderAndRecoder {
   private static final int  REPORT_INTERVAL_QTY = 100000;
 
   private static final int INIT_SIZE = 2 * 1024* 1024; // Most dictionaries will have < than this number of entries 
+  private static final int INIT_WORD_QTY = 64 * 1024;
+  
+  /**
+   * A suffix of the binary translation table file (it is appended to the name of the text file).
+   */
+  public static final String BINARY_SUFFIX = ".bin";
+  
+  private static final int BINARY_MAGIC = 0x47545442; // BTTG in the little-endian order
+  private static final int BINARY_VERSION = 2;
+  
+  // Preloading rows of a disk-resident table stops after this number of rows didn't fit into the cache
+  private static final int PRELOAD_MAX_FAIL_QTY = 64;
 
   /**
    * Constructor
@@ -87,17 +144,130 @@ public class GizaTranTableReaderAndRecoder {
                              GizaVocabularyReader vocDst,
                              float probSelfTran,
                              float tranProbThreshold) throws Exception {
-    mFilterAndRecoder = filterAndRecoder;
-    
-    mProbSelfTran = probSelfTran;
-    if (probSelfTran >= 1 || probSelfTran < 0)
-      throw 
-      new Exception(
-          String.format("Illegal self-translation probability %f", probSelfTran));
-    BufferedReader fr = new BufferedReader(new InputStreamReader(
-                                CompressUtils.createInputStream(fileName)));
+    this(flipTable, fileName, filterAndRecoder, vocSrc, vocDst, probSelfTran, tranProbThreshold,
+         Runtime.getRuntime().availableProcessors(), null);
+  }
+  
+  /**
+   * Constructor
+   * 
+   * @param flipTable
+   *          reverse source/target translation tables as well as source/target word probabilities.
+   * @param fileName
+   *          input file name
+   * @param filterAndRecoder
+   *          used for filtering and recoding of string IDs.
+   * @param vocSrc
+   *          processed source vocabulary
+   * @param vocDst
+   *          processed target vocabulary
+   * @param probSelfTran
+   *          for rescaling purposes: a probability of translating a word into
+   *          itself.
+   * @param tranProbThreshold
+   *          a threshold for the translation probability: records with values
+   *          below the threshold are discarded. 
+   * @param threadQty
+   *          the number of threads used to parse and flip the table.
+   * @param flipTmpDir
+   *          if not null, the table is flipped out of core: entries are first
+   *          written to temporary files in this directory, which roughly halves 
+   *          the peak memory usage. 
+   * @throws Exception 
+   */
+  public GizaTranTableReaderAndRecoder(
+                             boolean flipTable,
+                             String fileName, 
+                             VocabularyFilterAndRecoder filterAndRecoder,
+                             GizaVocabularyReader vocSrc,
+                             GizaVocabularyReader vocDst,
+                             float probSelfTran,
+                             float tranProbThreshold,
+                             int threadQty,
+                             String flipTmpDir) throws Exception {
+    /*
+     * Chunks of the file are parsed in parallel. Then, entries are processed
+     * sequentially in the order of lines, i.e., exactly as if the file were read
+     * line by line.
+     */
+    this(flipTable, fileName, 
+         LineChunkParser.parseFile(fileName, threadQty, GizaTranChunkParser.FACTORY),
+         filterAndRecoder, vocSrc, vocDst, probSelfTran, tranProbThreshold, threadQty, flipTmpDir);
+  }
+  
+  /**
+   * Constructor that creates a table from (not yet recoded) entries that are already
+   * in memory, e.g., entries produced by a filtering application. The entries are
+   * processed exactly as if they were read from a GIZA translation file.
+   * 
+   * @param flipTable
+   *          reverse source/target translation tables as well as source/target word probabilities.
+   * @param tableName
+   *          a table name (used only in messages).
+   * @param srcIds
+   *          source word IDs (sorted).
+   * @param dstIds
+   *          target word IDs.
+   * @param probs
+   *          translation probabilities.
+   * @param qty
+   *          the number of entries.
+   * @param filterAndRecoder
+   *          used for filtering and recoding of string IDs.
+   * @param vocSrc
+   *          processed source vocabulary
+   * @param vocDst
+   *          processed target vocabulary
+   * @param probSelfTran
+   *          for rescaling purposes: a probability of translating a word into
+   *          itself.
+   * @param tranProbThreshold
+   *          a threshold for the translation probability: records with values
+   *          below the threshold are discarded. 
+   * @param threadQty
+   *          the number of threads used to flip the table.
+   * @param flipTmpDir
+   *          if not null, the table is flipped out of core.
+   * @throws Exception 
+   */
+  public GizaTranTableReaderAndRecoder(
+                             boolean flipTable,
+                             String tableName,
+                             int srcIds[], int dstIds[], float probs[], int qty,
+                             VocabularyFilterAndRecoder filterAndRecoder,
+                             GizaVocabularyReader vocSrc,
+                             GizaVocabularyReader vocDst,
+                             float probSelfTran,
+                             float tranProbThreshold,
+                             int threadQty,
+                             String flipTmpDir) throws Exception {
+    this(flipTable, tableName, 
+         GizaTranChunkParser.wrap(srcIds, dstIds, probs, qty),
+         filterAndRecoder, vocSrc, vocDst, probSelfTran, tranProbThreshold, threadQty, flipTmpDir);
+  }
+  
+  private GizaTranTableReaderAndRecoder(
+                             boolean flipTable,
+                             String fileName,
+                             ArrayList<GizaTranChunkParser> chunks,
+                             VocabularyFilterAndRecoder filterAndRecoder,
+                             GizaVocabularyReader vocSrc,
+                             GizaVocabularyReader vocDst,
+                             float probSelfTran,
+                             float tranProbThreshold,
+                             int threadQty,
+                             String flipTmpDir) throws Exception {
+    this(filterAndRecoder, probSelfTran);
+    mTranProbThreshold = tranProbThreshold;
     
-    String line = null;
+    mSrcWordProb = new float[INIT_WORD_QTY];
+    mDstWordProb = new float[INIT_WORD_QTY];
+    mSelfRawProb = new float[INIT_WORD_QTY];
+    mDstMaxRawProb = new float[INIT_WORD_QTY];
+    mLoadRowIds = new int[INIT_WORD_QTY];
+    mLoadRowStart = new int[INIT_WORD_QTY + 1];
+    mDstIds = new int[INIT_SIZE];
+    mProbs = new float[INIT_SIZE];
     
     int prevSrcId = -1;
     int recodedSrcId = -1;
@@ -109,65 +279,73 @@ public class GizaTranTableReaderAndRecoder {
     int addedQty = 0;
     int totalQty = 0;
   
-    for (totalQty = 0; (line = fr.readLine()) != null; ) {
-      ++totalQty;
-      // Skip empty lines
-      line = line.trim(); if (line.isEmpty()) continue;
+    for (int chunkId = 0; chunkId < chunks.size(); ++chunkId) {
+      GizaTranChunkParser chunk = chunks.get(chunkId);
+      chunks.set(chunkId, null); // Entries of processed chunks aren't needed any more
+    
+      for (int recId = 0; recId < chunk.mQty; ++recId) {
+        ++totalQty;
       
-      GizaTranRec rec = new GizaTranRec(line);
+        int   srcId = chunk.mSrcIds[recId];
+        int   dstId = chunk.mDstIds[recId];
+        float prob  = chunk.mProbs[recId];
 
-      if (rec.mSrcId != prevSrcId) {
-        if (rec.mSrcId < prevSrcId) {
-          throw new Exception(
-              String.format(
-                  "Input file '%s' isn't sorted, encountered ID %d after %d ",
-                   fileName, rec.mSrcId, prevSrcId));   
-        }
+        if (srcId != prevSrcId) {
+          if (srcId < prevSrcId) {
+            throw new Exception(
+                String.format(
+                    "Input file '%s' isn't sorted, encountered ID %d after %d ",
+                     fileName, srcId, prevSrcId));   
+          }
         
-        if (recodedSrcId > 0) { 
-          procOneWord(recodedSrcId, tranRecs);
-        }
+          if (recodedSrcId > 0) { 
+            procOneWord(recodedSrcId, tranRecs);
+          }
         
-        tranRecs.clear();
-        ++wordQty;
-      }
+          tranRecs.clear();
+          ++wordQty;
+        }
       
-      if (totalQty % REPORT_INTERVAL_QTY == 0) {
-        logger.info(String.format("Processed %d lines (%d source word entries) from '%s'", 
-                                    totalQty, wordQty, fileName));
-      }
+        if (totalQty % REPORT_INTERVAL_QTY == 0) {
+          logger.info(String.format("Processed %d lines (%d source word entries) from '%s'", 
+                                      totalQty, wordQty, fileName));
+        }
 
-      if (rec.mSrcId != prevSrcId) {
-        recodedSrcId = -1;
-        if (0 == rec.mSrcId) {
-          recodedSrcId = 0;
-        } else {        
-          String wordSrc = vocSrc.getWord(rec.mSrcId);
-          // wordSrc can be null, if vocSrc was also "filtered"
-          if (wordSrc != null) {
-            Integer tmpId = mFilterAndRecoder.getWordId(wordSrc);
-            if (tmpId != null) {
-              recodedSrcId = tmpId;
-              float probSrc = (float)vocSrc.getWordProb(wordSrc);
-              mSrcWordProb.put(recodedSrcId, probSrc);
+        if (srcId != prevSrcId) {
+          recodedSrcId = -1;
+          if (0 == srcId) {
+            recodedSrcId = 0;
+          } else {        
+            String wordSrc = vocSrc.getWord(srcId);
+            // wordSrc can be null, if vocSrc was also "filtered"
+            if (wordSrc != null) {
+              Integer tmpId = mFilterAndRecoder.getWordId(wordSrc);
+              if (tmpId != null) {
+                recodedSrcId = tmpId;
+                float probSrc = (float)vocSrc.getWordProb(wordSrc);
+                mSrcWordProb = setWordProb(mSrcWordProb, recodedSrcId, probSrc);
+              }
             }
           }
-        }
-      }      
-      prevSrcId = rec.mSrcId;
+        }      
+        prevSrcId = srcId;
 
-      if (recodedSrcId >=0 && 
-          rec.mProb >= tranProbThreshold) {
-        String wordDst = vocDst.getWord(rec.mDstId);
-        // wordDst can be null, if vocDst was "filtered"
-        if (wordDst != null) {
-          Integer recodedDstId = mFilterAndRecoder.getWordId(wordDst);
-          if (recodedDstId != null) {
-            tranRecs.add(new TranRecNoSrcId(recodedDstId, rec.mProb));
-            addedQty++;
-            if (!mDstWordProb.containsKey((int)recodedDstId)) {
-              float probDst = (float)vocDst.getWordProb(wordDst);
-              mDstWordProb.put((int)recodedDstId, probDst);
+        if (recodedSrcId >=0 && 
+            prob >= tranProbThreshold) {
+          String wordDst = vocDst.getWord(dstId);
+          // wordDst can be null, if vocDst was "filtered"
+          if (wordDst != null) {
+            Integer recodedDstId = mFilterAndRecoder.getWordId(wordDst);
+            if (recodedDstId != null) {
+              tranRecs.add(new TranRecNoSrcId(recodedDstId, prob));
+              addedQty++;
+              if (recodedDstId >= mDstWordProb.length || mDstWordProb[recodedDstId] == 0) {
+                float probDst = (float)vocDst.getWordProb(wordDst);
+                mDstWordProb = setWordProb(mDstWordProb, recodedDstId, probDst);
+              }
+              if (recodedDstId >= mDstMaxRawProb.length || mDstMaxRawProb[recodedDstId] < prob) {
+                mDstMaxRawProb = setWordProb(mDstMaxRawProb, recodedDstId, prob);
+              }
             }
           }
         }
@@ -184,9 +362,416 @@ public class GizaTranTableReaderAndRecoder {
                                wordQty, fileName));
     logger.info(String.format("Loaded translation table from '%s' %d records out of %d", 
                                fileName, addedQty, totalQty));
+    
+    buildRows();
 
     if (flipTable) {
-      flipTranTable();
+      flipTranTable(threadQty, flipTmpDir);
+    }
+  }
+  
+  /**
+   * Creates an empty table that shares parameters with another one: the arrays
+   * are to be filled by the caller.
+   */
+  private GizaTranTableReaderAndRecoder(GizaTranTableReaderAndRecoder base, float tranProbThreshold) {
+    mBase = base;
+    mFilterAndRecoder = base.mFilterAndRecoder;
+    mProbSelfTran = base.mProbSelfTran;
+    mFlipped = base.mFlipped;
+    mSelfRawProb = base.mSelfRawProb;
+    mDstMaxRawProb = base.mDstMaxRawProb;
+    mTranProbThreshold = tranProbThreshold;
+  }
+  
+  private GizaTranTableReaderAndRecoder(VocabularyFilterAndRecoder filterAndRecoder,
+                                        float probSelfTran) throws Exception {
+    mFilterAndRecoder = filterAndRecoder;
+    
+    mProbSelfTran = probSelfTran;
+    if (probSelfTran >= 1 || probSelfTran < 0)
+      throw 
+      new Exception(
+          String.format("Illegal self-translation probability %f", probSelfTran));    
+  }
+  
+  /**
+   * @param textFileName  the name of a text translation table file.
+   * @return the name of the respective binary file.
+   */
+  public static String binaryFileName(String textFileName) {
+    return textFileName + BINARY_SUFFIX;
+  }
+  
+  /**
+   * Saves the (already recoded and possibly flipped) translation table in the binary format.
+   * 
+   * @param fileName    an output file name.
+   * @param maxWordId   the maximum (recoded) word ID, e.g., the maximum word ID of the
+   *                    in-memory forward index used to recode words.
+   * @throws Exception
+   */
+  public void saveBinary(String fileName, int maxWordId) throws Exception {
+    if (mDiskRows != null) 
+      throw new Exception("A disk-resident translation table can't be saved, it is already in the binary format");
+    if (mRowEnd != null)
+      throw new Exception("A minimum-probability view of the translation table can't be saved");
+    int rowQty = mRowStart.length - 1;
+    for (int id = maxWordId + 1; id < rowQty; ++id) {
+      if (mSrcWordProb[id] != 0 || mDstWordProb[id] != 0 || getTranRowEnd(id) > getTranRowStart(id)) 
+        throw new Exception(String.format("Word ID %d is outside the range [0,%d]", id, maxWordId));
+    }
+    int entryQty = mRowStart[rowQty];
+    for (int i = 0; i < entryQty; ++i) {
+      if (mDstIds[i] < 0 || mDstIds[i] > maxWordId) 
+        throw new Exception(String.format("Word ID %d is outside the range [0,%d]", mDstIds[i], maxWordId));
+    }
+    
+    BinaryFileWriter out = new BinaryFileWriter(fileName);
+    
+    out.writeInt(BINARY_MAGIC);
+    out.writeInt(BINARY_VERSION);
+    out.writeInt(mFlipped ? 1 : 0);
+    out.writeFloat(mProbSelfTran);
+    out.writeFloat(mTranProbThreshold);
+    out.writeInt(maxWordId);
+    out.writeLong(entryQty);
+    
+    // Row offsets
+    for (int id = 0; id <= maxWordId + 1; ++id) {
+      out.writeLong(mRowStart[Math.min(id, rowQty)]);
+    }
+    out.writeInts(mDstIds, 0, entryQty);
+    out.writeFloats(mProbs, 0, entryQty);
+    // Word probabilities
+    for (int id = 0; id <= maxWordId; ++id) out.writeFloat(getSourceWordProb(id));
+    for (int id = 0; id <= maxWordId; ++id) out.writeFloat(getTargetWordProb(id));
+    // Original probabilities used for slicing
+    boolean canSlice = mSelfRawProb != null;
+    for (int id = 0; id <= maxWordId; ++id) 
+      out.writeFloat(canSlice && id < mSelfRawProb.length ? mSelfRawProb[id] : -1);
+    for (int id = 0; id <= maxWordId; ++id) 
+      out.writeFloat(canSlice && id < mDstMaxRawProb.length ? mDstMaxRawProb[id] : 0);
+    
+    out.close();
+    
+    logger.info(String.format("Saved %d translation entries to the binary file '%s'", entryQty, fileName));
+  }
+  
+  /**
+   * Loads a binary translation table (see {@link #saveBinary(String, int)}), 
+   * or reuses an already loaded one: there will be only one copy of the table 
+   * per JVM, which is shared among feature extractors and candidate providers.
+   * 
+   * <p>The table is reused/loaded only if it was created using the same
+   * flip flag and the self-translation probability, as well as using a 
+   * threshold that doesn't exceed the requested one. In the latter case,
+   * the function returns a slice of the table (see {@link #getThresholdSlice(float)}).
+   * Otherwise, the function returns null, so that the caller 
+   * can fall back to reading the text table. Tables are not shared among callers
+   * that use different recoding dictionaries (i.e., a different maximum word ID or 
+   * a different {@link VocabularyFilterAndRecoder#getRecodingSource()}).</p> 
+   * 
+   * @param fileName          the name of the binary file.
+   * @param filterAndRecoder  used for filtering and recoding of string IDs, it
+   *                          should be the same as the one used to create the binary file.
+   * @param flipTable         true if the table should be flipped.
+   * @param probSelfTran      a probability of translating a word into itself.
+   * @param tranProbThreshold a threshold for the translation probability.
+   * @param maxWordId         the maximum word ID in the recoding dictionary.
+   * @return a translation table or null, if it was created with different parameters.
+   * @throws Exception
+   */
+  public static GizaTranTableReaderAndRecoder loadBinaryShared(
+                                      String fileName,
+                                      VocabularyFilterAndRecoder filterAndRecoder,
+                                      boolean flipTable,
+                                      float probSelfTran,
+                                      float tranProbThreshold,
+                                      int maxWordId) throws Exception {
+    return loadBinaryShared(fileName, filterAndRecoder, flipTable, probSelfTran, tranProbThreshold, maxWordId, 0);
+  }
+  
+  /**
+   * Opens a binary translation table (see {@link #saveBinary(String, int)}), 
+   * possibly keeping it on disk, or reuses an already opened one. This function is
+   * the same as {@link #loadBinaryShared(String, VocabularyFilterAndRecoder, boolean, float, float, int)},
+   * except that for a positive diskCacheEntryQty the table is disk-resident: rows
+   * are accessed in the memory-mapped file and recently used rows are cached on heap 
+   * (the file is also prefetched in the background). A disk-resident table 
+   * can't be sliced, so it is reused only if it was created using 
+   * exactly the same threshold.
+   * 
+   * @param diskCacheEntryQty the maximum number of translation entries kept in the cache of 
+   *                          a disk-resident table, or zero, if the table should be loaded into memory.
+   * @return a translation table or null, if it was created with different parameters.
+   * @throws Exception
+   */
+  public static GizaTranTableReaderAndRecoder loadBinaryShared(
+                                      String fileName,
+                                      VocabularyFilterAndRecoder filterAndRecoder,
+                                      boolean flipTable,
+                                      float probSelfTran,
+                                      float tranProbThreshold,
+                                      int maxWordId,
+                                      long diskCacheEntryQty) throws Exception {
+    String key = getSharedTableKey(fileName, filterAndRecoder, maxWordId);
+    // Disk-resident and in-memory tables are not interchangeable
+    if (diskCacheEntryQty > 0) key += " disk";
+    SharedTableRef ref = getSharedTableRef(key);
+    
+    synchronized (ref) {
+      GizaTranTableReaderAndRecoder res = ref.get();
+      
+      if (res == null) {
+        res = new GizaTranTableReaderAndRecoder(filterAndRecoder, probSelfTran);
+        if (!res.readBinary(fileName, maxWordId, diskCacheEntryQty, true)) return null;
+        ref.set(res);
+      } else {
+        checkSharedRecoder(res, filterAndRecoder, fileName);
+        logger.info(String.format("Reusing an already loaded translation table from '%s'", fileName));
+      }
+      
+      GizaTranTableReaderAndRecoder slice = null;
+      
+      if (res.mFlipped == flipTable && res.mProbSelfTran == probSelfTran) {
+        slice = res.getThresholdSlice(tranProbThreshold);
+      }
+      
+      if (slice == null) {
+        logger.warn(String.format(
+            "Binary translation table '%s' was created using different parameters: " + 
+            "flip=%b probSelfTran=%f tranProbThreshold=%g, but expected flip=%b probSelfTran=%f tranProbThreshold=%g",
+            fileName, 
+            res.mFlipped, res.mProbSelfTran, res.mTranProbThreshold,
+            flipTable, probSelfTran, tranProbThreshold));
+      }
+      
+      return slice;
+    }
+  }
+  
+  /**
+   * Loads a text translation table (the parameters are the same as those of the
+   * constructor), or reuses an already loaded one. If the table was loaded with 
+   * the same flip flag and the self-translation probability, but using a smaller threshold, 
+   * the function returns its slice (see {@link #getThresholdSlice(float)}). 
+   * The table loaded with the smallest threshold is remembered, so that 
+   * tables for different thresholds can share memory.
+   * 
+   * @param maxWordId         the maximum word ID in the recoding dictionary: tables 
+   *                          recoded using different dictionaries (or recoders with different 
+   *                          sources) are not shared.
+   * @return a translation table.
+   * @throws Exception
+   */
+  public static GizaTranTableReaderAndRecoder loadTextShared(
+                                      boolean flipTable,
+                                      String fileName,
+                                      VocabularyFilterAndRecoder filterAndRecoder,
+                                      GizaVocabularyReader vocSrc,
+                                      GizaVocabularyReader vocDst,
+                                      float probSelfTran,
+                                      float tranProbThreshold,
+                                      int maxWordId) throws Exception {
+    String key = String.format("%s flip=%b probSelfTran=%s",
+                               getSharedTableKey(fileName, filterAndRecoder, maxWordId), flipTable, 
+                               Float.toString(probSelfTran));
+    SharedTableRef ref = getSharedTableRef(key);
+    
+    synchronized (ref) {
+      GizaTranTableReaderAndRecoder res = ref.get();
+      
+      if (res != null) {
+        checkSharedRecoder(res, filterAndRecoder, fileName);
+        GizaTranTableReaderAndRecoder slice = res.getThresholdSlice(tranProbThreshold);
+        if (slice != null) {
+          logger.info(String.format("Reusing an already loaded translation table from '%s' (threshold %g, requested %g)", 
+                                    fileName, res.mTranProbThreshold, tranProbThreshold));
+          return slice;
+        }
+      }
+      
+      GizaTranTableReaderAndRecoder table = 
+          new GizaTranTableReaderAndRecoder(flipTable, fileName, filterAndRecoder, 
+                                            vocSrc, vocDst, probSelfTran, tranProbThreshold);
+      if (res == null || tranProbThreshold < res.mTranProbThreshold) ref.set(table);
+      
+      return table;
+    }
+  }
+  
+  /**
+   * Tables recoded using different dictionaries (or recoders) can't be shared:
+   * the key includes the maximum word ID and the identity of the recoding source
+   * (see {@link VocabularyFilterAndRecoder#getRecodingSource()}).
+   */
+  private static String getSharedTableKey(String fileName, 
+                                          VocabularyFilterAndRecoder filterAndRecoder, 
+                                          int maxWordId) throws IOException {
+    return String.format("%s maxWordId=%d recoder=%x", 
+                         new File(fileName).getCanonicalPath(), maxWordId, 
+                         System.identityHashCode(filterAndRecoder.getRecodingSource()));
+  }
+  
+  /**
+   * Identity hash codes can collide, so a reused table is checked to be 
+   * recoded using the same source.
+   */
+  private static void checkSharedRecoder(GizaTranTableReaderAndRecoder table,
+                                         VocabularyFilterAndRecoder filterAndRecoder, 
+                                         String fileName) throws Exception {
+    if (table.mFilterAndRecoder.getRecodingSource() != filterAndRecoder.getRecodingSource()) {
+      throw new Exception(String.format(
+          "Bug: a shared translation table '%s' was recoded using a different vocabulary recoder", fileName));
+    }
+  }
+  
+  private static synchronized SharedTableRef getSharedTableRef(String key) {
+    SharedTableRef ref = mSharedTables.get(key);
+    if (ref == null) {
+      ref = new SharedTableRef();
+      mSharedTables.put(key, ref);
+    }
+    return ref;
+  }
+  
+  /**
+   * Reads the binary table.
+   * 
+   * @return false if the maximum word ID doesn't match
+   */
+  private boolean readBinary(String fileName, int maxWordId, 
+                             long diskCacheEntryQty, boolean prefetch) throws Exception {
+    long startTime = System.currentTimeMillis();
+    
+    BinaryFileReader inp = new BinaryFileReader(fileName);
+    
+    try {
+      if (inp.readInt() != BINARY_MAGIC)
+        throw new Exception(String.format("File '%s' is not a binary translation table", fileName));
+      int ver = inp.readInt();
+      if (ver < 1 || ver > BINARY_VERSION)
+        throw new Exception(String.format("Unsupported version %d of the binary translation table '%s'", ver, fileName));
+      mFlipped = inp.readInt() != 0;
+      mProbSelfTran = inp.readFloat();
+      mTranProbThreshold = inp.readFloat();
+      int fileMaxWordId = inp.readInt();
+      long entryQty = inp.readLong();
+      
+      if (fileMaxWordId != maxWordId) {
+        logger.warn(String.format(
+            "Binary translation table '%s' was created for a different vocabulary, max. word ID %d, but expected %d",
+            fileName, fileMaxWordId, maxWordId));
+        return false;
+      }
+      long offsetsPos = inp.getPosition();
+      long dstIdsPos = offsetsPos + 8L * (maxWordId + 2);
+      long probsPos = dstIdsPos + 4 * entryQty;
+      long wordProbPos = probsPos + 4 * entryQty;
+      if (entryQty < 0 || wordProbPos + 8L * (maxWordId + 1) > inp.getSize()) {
+        throw new Exception(String.format("Corrupt binary translation table '%s': the file is too short", fileName));
+      }
+      
+      if (diskCacheEntryQty > 0) {
+        // Rows remain on disk, but offsets are checked anyway
+        long offsets[] = new long[Math.min(maxWordId + 2, 1 << 16)];
+        long prevOffset = 0;
+        for (int id = 0; id <= maxWordId + 1; id += offsets.length) {
+          int qty = Math.min(offsets.length, maxWordId + 2 - id);
+          inp.readLongs(offsets, 0, qty);
+          for (int k = 0; k < qty; ++k) {
+            if (offsets[k] > entryQty || offsets[k] < prevOffset || (id + k == 0 && offsets[k] != 0))
+              throw new Exception(String.format("Corrupt row offsets in '%s', word ID %d", fileName, id + k));
+            prevOffset = offsets[k];
+          }
+        }
+        if (prevOffset != entryQty)
+          throw new Exception(String.format("Corrupt row offsets in '%s'", fileName));
+        
+        inp.seek(wordProbPos);
+        mSrcWordProb = new float[maxWordId + 1];
+        inp.readFloats(mSrcWordProb, 0, maxWordId + 1);
+        mDstWordProb = new float[maxWordId + 1];
+        inp.readFloats(mDstWordProb, 0, maxWordId + 1);
+        // Disk-resident tables can't be sliced
+        mSelfRawProb = null;
+        mDstMaxRawProb = null;
+        
+        mDiskRows = new GizaTranTableDiskRows(fileName, offsetsPos, dstIdsPos, probsPos, 
+                                              maxWordId, diskCacheEntryQty, prefetch);
+        preloadFrequentRows();
+        
+        logger.info(String.format("Opened %d disk-resident translation entries in the binary file '%s' in %.1f sec, " + 
+                                  "%d entries are preloaded into the cache", 
+                                  entryQty, fileName, (System.currentTimeMillis() - startTime) / 1000.0,
+                                  mDiskRows.getCachedEntryQty()));
+        return true;
+      }
+      
+      if (entryQty > Integer.MAX_VALUE - 8) {
+        throw new Exception(String.format("Too many entries (%d) in '%s', consider using a disk-resident table", 
+                                          entryQty, fileName));
+      }
+      
+      long offsets[] = new long[maxWordId + 2];
+      inp.readLongs(offsets, 0, maxWordId + 2);
+      mRowStart = new int[maxWordId + 2];
+      for (int id = 0; id <= maxWordId + 1; ++id) {
+        if (offsets[id] > entryQty || (id > 0 && offsets[id] < offsets[id - 1]))
+          throw new Exception(String.format("Corrupt row offsets in '%s', word ID %d", fileName, id));
+        mRowStart[id] = (int)offsets[id];
+      }
+      if (mRowStart[0] != 0 || mRowStart[maxWordId + 1] != entryQty)
+        throw new Exception(String.format("Corrupt row offsets in '%s'", fileName));
+      
+      mDstIds = new int[(int)entryQty];
+      inp.readInts(mDstIds, 0, mDstIds.length);
+      mProbs = new float[(int)entryQty];
+      inp.readFloats(mProbs, 0, mProbs.length);
+      
+      mSrcWordProb = new float[maxWordId + 1];
+      inp.readFloats(mSrcWordProb, 0, maxWordId + 1);
+      mDstWordProb = new float[maxWordId + 1];
+      inp.readFloats(mDstWordProb, 0, maxWordId + 1);
+      mSelfRawProb = null;
+      mDstMaxRawProb = null;
+      if (ver >= 2) {
+        mSelfRawProb = new float[maxWordId + 1];
+        inp.readFloats(mSelfRawProb, 0, maxWordId + 1);
+        mDstMaxRawProb = new float[maxWordId + 1];
+        inp.readFloats(mDstMaxRawProb, 0, maxWordId + 1);
+        // A negative value means that the table was saved without data necessary for slicing
+        if (maxWordId >= 0 && mSelfRawProb[0] < 0) {
+          mSelfRawProb = null;
+          mDstMaxRawProb = null;
+        }
+      }
+      
+      logger.info(String.format("Loaded %d translation entries from the binary file '%s' in %.1f sec", 
+                                entryQty, fileName, (System.currentTimeMillis() - startTime) / 1000.0));
+    } finally {
+      inp.close();
+    }
+    
+    return true;
+  }
+  
+  /**
+   * Fills the cache of a disk-resident table with rows of the most frequent source words.
+   */
+  private void preloadFrequentRows() {
+    final int WORD_QTY = mSrcWordProb.length;
+    // Word IDs are packed together with (non-negative) probabilities, which are ordered as their bits
+    long keys[] = new long[WORD_QTY];
+    for (int id = 0; id < WORD_QTY; ++id) {
+      keys[id] = ((long)Float.floatToIntBits(mSrcWordProb[id]) << 32) | id;
+    }
+    Arrays.sort(keys);
+    
+    int failQty = 0;
+    for (int i = WORD_QTY - 1; i >= 0 && failQty < PRELOAD_MAX_FAIL_QTY; --i) {
+      if (!mDiskRows.preloadRow((int)keys[i])) ++failQty;
     }
   }
   
@@ -214,6 +799,8 @@ public class GizaTranTableReaderAndRecoder {
     if (indx < 0) {
       tranRecs.add(-1-indx, key);
     }
+    // Remember the original self-translation probability: it is needed to slice the table
+    mSelfRawProb = setWordProb(mSelfRawProb, prevSrcId, indx >= 0 ? tranRecs.get(indx).mProb : 0);
     
     // Don't adjust in the case of spurious insertions (i.e., the source word ID is zero)
     float adjustMult = prevSrcId > 0 ? (1.0f - mProbSelfTran) : 1.0f;
@@ -224,7 +811,75 @@ public class GizaTranTableReaderAndRecoder {
       if (rec.mDstId == prevSrcId) rec.mProb += mProbSelfTran;
     }
     
-    mTranProb.put(prevSrcId, new GizaOneWordTranRecs(tranRecs));
+    int qty = tranRecs.size();
+    int rowNum = mLoadRowQty++;
+    if (rowNum + 1 >= mLoadRowIds.length) {
+      mLoadRowIds = Arrays.copyOf(mLoadRowIds, 2 * mLoadRowIds.length);
+      mLoadRowStart = Arrays.copyOf(mLoadRowStart, 2 * mLoadRowStart.length);
+    }
+    int start = mLoadRowStart[rowNum];
+    if (start + qty > mDstIds.length) {
+      int newSize = Math.max(start + qty, 2 * mDstIds.length);
+      mDstIds = Arrays.copyOf(mDstIds, newSize);
+      mProbs = Arrays.copyOf(mProbs, newSize);
+    }
+    for (int i = 0; i < qty; ++i) {
+      TranRecNoSrcId rec = tranRecs.get(i);
+      mDstIds[start + i] = rec.mDstId;
+      mProbs[start + i] = rec.mProb;
+    }
+    mLoadRowIds[rowNum] = prevSrcId;
+    mLoadRowStart[rowNum + 1] = start + qty;
+  }
+  
+  /**
+   * Converts rows (in the order they were read from a file) to the CSR 
+   * format, where a row can be accessed directly using the word ID.
+   * If several rows have the same ID, the last one is used.
+   */
+  private void buildRows() {
+    int maxId = Math.max(mSrcWordProb.length, mDstWordProb.length) - 1;
+    int entryQty = mLoadRowStart[mLoadRowQty];
+    for (int i = 0; i < mLoadRowQty; ++i) maxId = Math.max(maxId, mLoadRowIds[i]);
+    for (int i = 0; i < entryQty; ++i) maxId = Math.max(maxId, mDstIds[i]);
+    
+    int rowPos[] = new int[maxId + 1];
+    Arrays.fill(rowPos, -1);
+    for (int i = 0; i < mLoadRowQty; ++i) rowPos[mLoadRowIds[i]] = i;
+    
+    mRowStart = new int[maxId + 2];
+    for (int id = 0; id <= maxId; ++id) {
+      int i = rowPos[id];
+      mRowStart[id + 1] = mRowStart[id] + (i >= 0 ? mLoadRowStart[i + 1] - mLoadRowStart[i] : 0);
+    }
+    
+    int dstIds[] = new int[mRowStart[maxId + 1]];
+    float probs[] = new float[mRowStart[maxId + 1]];
+    for (int id = 0; id <= maxId; ++id) {
+      int i = rowPos[id];
+      if (i >= 0) {
+        int qty = mLoadRowStart[i + 1] - mLoadRowStart[i];
+        System.arraycopy(mDstIds, mLoadRowStart[i], dstIds, mRowStart[id], qty);
+        System.arraycopy(mProbs, mLoadRowStart[i], probs, mRowStart[id], qty);
+      }
+    }
+    mDstIds = dstIds;
+    mProbs = probs;
+    mSrcWordProb = Arrays.copyOf(mSrcWordProb, maxId + 1);
+    mDstWordProb = Arrays.copyOf(mDstWordProb, maxId + 1);
+    mSelfRawProb = Arrays.copyOf(mSelfRawProb, maxId + 1);
+    mDstMaxRawProb = Arrays.copyOf(mDstMaxRawProb, maxId + 1);
+    
+    mLoadRowIds = null;
+    mLoadRowStart = null;
+    mLoadRowQty = 0;
+  }
+  
+  private static float[] setWordProb(float probs[], int wordId, float prob) {
+    if (wordId >= probs.length) 
+      probs = Arrays.copyOf(probs, Math.max(wordId + 1, 2 * probs.length));
+    probs[wordId] = prob;
+    return probs;
   }
   
   /** 
@@ -234,7 +889,7 @@ public class GizaTranTableReaderAndRecoder {
    * @return              a probability of occurrences, or zero, if the word isn't found
    */
   public float getSourceWordProb(int recodedWordId) {
-    return mSrcWordProb.get(recodedWordId);
+    return recodedWordId >= 0 && recodedWordId < mSrcWordProb.length ? mSrcWordProb[recodedWordId] : 0;
   }
   
   /** 
@@ -246,7 +901,7 @@ public class GizaTranTableReaderAndRecoder {
   public float getSourceWordProb(String word) {
     Integer recodedWordId = mFilterAndRecoder.getWordId(word);
     if (null == recodedWordId)  return 0;
-    return mSrcWordProb.get((int)recodedWordId);
+    return getSourceWordProb((int)recodedWordId);
   }  
 
   /** 
@@ -256,7 +911,7 @@ public class GizaTranTableReaderAndRecoder {
    * @return              a probability of occurrences, or zero, if the word isn't found
    */
   public float getTargetWordProb(int recodedWordId) {
-    return mDstWordProb.get(recodedWordId);
+    return recodedWordId >= 0 && recodedWordId < mDstWordProb.length ? mDstWordProb[recodedWordId] : 0;
   }
   
   /** 
@@ -268,7 +923,7 @@ public class GizaTranTableReaderAndRecoder {
   public float getTargetWordProb(String word) {
     Integer recodedWordId = mFilterAndRecoder.getWordId(word);
     if (null == recodedWordId)  return 0;
-    return mDstWordProb.get((int)recodedWordId);
+    return getTargetWordProb((int)recodedWordId);
   }  
   
   
@@ -284,12 +939,24 @@ public class GizaTranTableReaderAndRecoder {
    */
    public float getTranProb(int id1, int id2) {
      float minProb = id1 == id2 ? mProbSelfTran : 0;
-     GizaOneWordTranRecs recs = mTranProb.get(id1);
      
-     if (null != recs) {
-       int indx = Arrays.binarySearch(recs.mDstIds, id2);
-       if (indx >= 0) {
-         return Math.max(minProb, recs.mProbs[indx]);
+     if (mDiskRows != null) {
+       GizaOneWordTranRecs row = mDiskRows.getRow(id1);
+       if (row != null) {
+         int indx = Arrays.binarySearch(row.mDstIds, id2);
+         if (indx >= 0) {
+           return Math.max(minProb, row.mProbs[indx]);
+         }
+       }
+       return minProb;
+     }
+     
+     // Rows of a view aren't sorted by IDs, but the view has the same entries as the base table 
+     GizaTranTableReaderAndRecoder table = mRowEnd != null ? mBase : this;
+     if (id1 >= 0 && id1 < table.mRowStart.length - 1) {
+       int indx = Arrays.binarySearch(table.mDstIds, table.mRowStart[id1], table.mRowStart[id1 + 1], id2);
+       if (indx >= 0 && table.mProbs[indx] >= mViewMinProb) {
+         return Math.max(minProb, table.mProbs[indx]);
        }
      }
      
@@ -317,62 +984,483 @@ public class GizaTranTableReaderAndRecoder {
    
    /**
     * Obtains all translation probabilities for a given source word.
+    * The row is copied from the CSR arrays: performance-critical 
+    * code should access the row directly (see {@link #getTranRowStart(int)}). 
     * 
-    * @return a reference to the object holding probabilities with respective IDs or null,
+    * @return an object holding probabilities with respective IDs or null,
     *         if no record for a given wordId is found.
     */
    public GizaOneWordTranRecs getTranProbs(int wordId) {
-     return mTranProb.get(wordId);
+     if (mDiskRows != null) {
+       GizaOneWordTranRecs row = mDiskRows.getRow(wordId);
+       if (row == null) return null;
+       return new GizaOneWordTranRecs(row.mDstIds.clone(), row.mProbs.clone());
+     }
+     if (mRowEnd != null) {
+       // Entries of the view are selected from the base row, which is sorted by IDs
+       GizaOneWordTranRecs row = mBase.getTranProbs(wordId);
+       if (row == null) return null;
+       int qty = 0;
+       for (int i = 0; i < row.mDstIds.length; ++i) {
+         if (row.mProbs[i] >= mViewMinProb) {
+           row.mDstIds[qty] = row.mDstIds[i];
+           row.mProbs[qty] = row.mProbs[i];
+           ++qty;
+         }
+       }
+       if (qty == 0) return null;
+       return new GizaOneWordTranRecs(Arrays.copyOf(row.mDstIds, qty), Arrays.copyOf(row.mProbs, qty));
+     }
+     int start = getTranRowStart(wordId), end = getTranRowEnd(wordId);
+     if (start == end) return null;
+     return new GizaOneWordTranRecs(Arrays.copyOfRange(mDstIds, start, end),
+                                    Arrays.copyOfRange(mProbs, start, end));
+   }
+   
+   /**
+    * Obtains all translation probabilities for a given source word without 
+    * copying: the returned object must not be modified. It is intended for 
+    * disk-resident tables (see {@link #isDiskResident()}), which can't 
+    * be accessed via {@link #getTranDstIdArray()}. For an in-memory table, 
+    * the row is copied. 
+    * 
+    * @return an object holding probabilities with respective IDs or null,
+    *         if no record for a given wordId is found.
+    */
+   public GizaOneWordTranRecs getTranRowShared(int wordId) {
+     if (mDiskRows != null) return mDiskRows.getRow(wordId);
+     return getTranProbs(wordId);
+   }
+   
+   /**
+    * @return true if rows of the table are kept on disk (see 
+    *         {@link #loadBinaryShared(String, VocabularyFilterAndRecoder, boolean, float, float, int, long)}).
+    *         Then, the CSR arrays are not available and rows should be accessed using
+    *         {@link #getTranRowShared(int)}.
+    */
+   public boolean isDiskResident() {
+     return mDiskRows != null;
+   }
+   
+   /**
+    * @return the number of row requests served from the cache of a disk-resident table.
+    */
+   public long getCacheHitQty() {
+     return mDiskRows != null ? mDiskRows.getHitQty() : 0;
+   }
+   
+   /**
+    * @return the number of row requests that were not served from the cache of a disk-resident table.
+    */
+   public long getCacheMissQty() {
+     return mDiskRows != null ? mDiskRows.getMissQty() : 0;
+   }
+   
+   /**
+    * @return the fraction of row requests served from the cache of a disk-resident table
+    *         (1 for an in-memory table). 
+    */
+   public float getCacheHitRate() {
+     long hitQty = getCacheHitQty();
+     long totalQty = hitQty + getCacheMissQty();
+     return totalQty > 0 ? (float)hitQty / totalQty : 1;
+   }
+   
+   /**
+    * @return the start of the row (an index in arrays returned by
+    *         {@link #getTranDstIdArray()} and {@link #getTranProbArray()}) 
+    *         for a given source word; for a disk-resident table, all rows are empty.
+    */
+   public int getTranRowStart(int wordId) {
+     return wordId >= 0 && wordId < mRowStart.length - 1 ? mRowStart[wordId] : 0;
+   }
+   
+   /**
+    * @return the end of the row (the index after its last entry) for
+    *         a given source word, it is equal to the start of the row, if there are no entries.
+    */
+   public int getTranRowEnd(int wordId) {
+     if (wordId < 0 || wordId >= mRowStart.length - 1) return 0;
+     return mRowEnd != null ? mRowEnd[wordId] : mRowStart[wordId + 1];
+   }
+   
+   /**
+    * @return destination word IDs of all rows, IDs within a row are sorted, 
+    *         except for a minimum-probability view (see {@link #getMinProbView(float)}), 
+    *         whose rows are sorted by descending probability;
+    *         the array must not be modified. It is null for a disk-resident table.
+    */
+   public int[] getTranDstIdArray() {
+     return mDiskRows != null ? null : mDstIds;
+   }
+   
+   /**
+    * @return translation probabilities of all rows; the array must not be modified. 
+    *         It is null for a disk-resident table.
+    */
+   public float[] getTranProbArray() {
+     return mDiskRows != null ? null : mProbs;
+   }
+   
+   /**
+    * @return the threshold for the (original) translation probability used to create the table.
+    */
+   public float getTranProbThreshold() {
+     return mTranProbThreshold;
+   }
+   
+   /**
+    * Obtains a table that is exactly the same as the table created with a larger
+    * translation probability threshold (the source files and the remaining parameters
+    * being equal). The slice is created only once and is cached. Rows remain
+    * sorted by word IDs and word probabilities that are not affected by the threshold
+    * are shared with this table.
+    * 
+    * <p>Because the threshold is applied to original rather than rescaled probabilities, 
+    * the function relies on the fact that rescaling is monotonic. However,
+    * in rare cases, two different original probabilities can be rescaled to the same
+    * value exactly at the threshold boundary. Then, the exact slice can't be obtained.</p>
+    * 
+    * @param tranProbThreshold  a new threshold for the translation probability.
+    * @return the slice, this table (if the threshold is the same), or null if the threshold 
+    *         is smaller than the threshold of this table, or the exact slice can't be obtained. 
+    */
+   public synchronized GizaTranTableReaderAndRecoder getThresholdSlice(float tranProbThreshold) {
+     if (tranProbThreshold == mTranProbThreshold) return this;
+     if (tranProbThreshold < mTranProbThreshold || mSelfRawProb == null) return null;
+     
+     if (!mThresholdSlices.containsKey(tranProbThreshold)) {
+       GizaTranTableReaderAndRecoder res = createThresholdSlice(tranProbThreshold);
+       if (res == null) {
+         logger.warn(String.format("Cannot obtain an exact slice of the translation table for threshold %g", 
+                                   tranProbThreshold));
+       }
+       // Failures are remembered as well
+       mThresholdSlices.put(tranProbThreshold, res);
+     }
+     return mThresholdSlices.get(tranProbThreshold);
+   }
+   
+   private GizaTranTableReaderAndRecoder createThresholdSlice(float tranProbThreshold) {
+     /*
+      * Original probabilities of non-self-translation entries were multiplied 
+      * by 1 - mProbSelfTran (except for the zero source ID). Thus, p >= tranProbThreshold
+      * if the rescaled value is larger than tranProbThreshold * (1 - mProbSelfTran), and
+      * p < tranProbThreshold if the rescaled value is smaller than this boundary.
+      * If the rescaled value is equal to the boundary, it is still possible to
+      * decide, unless the largest float below the threshold is rescaled to the same value.
+      * 
+      * Self-translation entries are always present, so we need to know the original
+      * probability to decide if the entry should be rescaled as if it were missing. 
+      */
+     float adjustMult = 1.0f - mProbSelfTran;
+     float minProb = tranProbThreshold * adjustMult;
+     boolean isMinProbExact = Math.nextAfter(tranProbThreshold, Double.NEGATIVE_INFINITY) * adjustMult < minProb;
+     
+     /*
+      * Original target (i.e., not flipped) word probabilities are set only 
+      * for words that are targets of entries passing the threshold.
+      */
+     float origDstWordProb[] = mFlipped ? mSrcWordProb : mDstWordProb;
+     float newOrigDstWordProb[] = new float[origDstWordProb.length];
+     for (int id = 0; id < origDstWordProb.length; ++id) {
+       if (id < mDstMaxRawProb.length && mDstMaxRawProb[id] >= tranProbThreshold) 
+         newOrigDstWordProb[id] = origDstWordProb[id];
+     }
+     
+     int rowQty = mRowStart.length - 1;
+     int newRowStart[] = new int[rowQty + 1];
+     int newDstIds[] = new int[mRowStart[rowQty]];
+     float newProbs[] = new float[mRowStart[rowQty]];
+     int qty = 0;
+     
+     for (int id = 0; id < rowQty; ++id) {
+       newRowStart[id] = qty;
+       for (int i = mRowStart[id]; i < mRowStart[id + 1]; ++i) {
+         int   dstId = mDstIds[i];
+         float prob = mProbs[i];
+         int   origSrcId = mFlipped ? dstId : id;
+         
+         if (dstId == id) {
+           // Self-translation entries are kept, but can be rescaled differently
+           if (mSelfRawProb[origSrcId] < tranProbThreshold) prob = mProbSelfTran;
+         } else if (origSrcId == 0) {
+           if (prob < tranProbThreshold) continue;
+         } else {
+           if (prob < minProb) continue;
+           if (prob == minProb && !isMinProbExact) return null;
+         }
+         
+         newDstIds[qty] = dstId;
+         newProbs[qty] = prob;
+         ++qty;
+       }
+     }
+     newRowStart[rowQty] = qty;
+     
+     GizaTranTableReaderAndRecoder res = new GizaTranTableReaderAndRecoder(this, tranProbThreshold);
+     res.mRowStart = newRowStart;
+     res.mDstIds = Arrays.copyOf(newDstIds, qty);
+     res.mProbs = Arrays.copyOf(newProbs, qty);
+     res.mSrcWordProb = mFlipped ? newOrigDstWordProb : mSrcWordProb;
+     res.mDstWordProb = mFlipped ? mDstWordProb : newOrigDstWordProb;
+     
+     logger.info(String.format("Sliced the translation table: threshold %g, %d entries, the original table: threshold %g, %d entries", 
+                               tranProbThreshold, qty, mTranProbThreshold, mRowStart[rowQty]));
+     return res;
+   }
+   
+   /**
+    * Obtains a table that keeps only entries whose (rescaled) probability is 
+    * at least minProb. Unlike {@link #getThresholdSlice(float)}, word probabilities
+    * and the threshold remain the same. Thus, a consumer that ignores entries
+    * with smaller probabilities produces the same results using the returned table,
+    * but it doesn't need to iterate over entries that it would ignore.
+    * 
+    * <p>Entries are not copied: all views of the table share arrays, where each row 
+    * is sorted by descending probability (these arrays are created only once). 
+    * Thus, the rows accessed via {@link #getTranDstIdArray()} and {@link #getTranProbArray()} 
+    * are not sorted by IDs, but {@link #getTranProb(int, int)} and {@link #getTranProbs(int)}
+    * work as usual. The view is created only once and is cached.</p> 
+    * 
+    * @param minProb  a minimum (rescaled) translation probability.
+    * @return the table with entries whose probabilities are >= minProb, or 
+    *         this table, if the table is disk-resident. 
+    */
+   public synchronized GizaTranTableReaderAndRecoder getMinProbView(float minProb) {
+     // Rows of a disk-resident table are read on demand, they can't be filtered in advance
+     if (mDiskRows != null) return this;
+     // A view of a view is a view of the base table
+     if (mRowEnd != null) return mBase.getMinProbView(Math.max(minProb, mViewMinProb));
+     
+     GizaTranTableReaderAndRecoder res = mMinProbViews.get(minProb);
+     if (res != null) return res;
+     
+     if (mProbOrderDstIds == null) sortRowsByProb();
+     
+     int rowQty = mRowStart.length - 1;
+     res = new GizaTranTableReaderAndRecoder(this, mTranProbThreshold);
+     res.mRowStart = mRowStart;
+     res.mDstIds = mProbOrderDstIds;
+     res.mProbs = mProbOrderProbs;
+     res.mRowEnd = new int[rowQty];
+     res.mViewMinProb = minProb;
+     res.mSrcWordProb = mSrcWordProb;
+     res.mDstWordProb = mDstWordProb;
+     // This is only a view, the table can't be sliced
+     res.mSelfRawProb = null;
+     res.mDstMaxRawProb = null;
+     
+     int qty = 0;
+     for (int id = 0; id < rowQty; ++id) {
+       int end = mRowStart[id];
+       while (end < mRowStart[id + 1] && mProbOrderProbs[end] >= minProb) ++end;
+       res.mRowEnd[id] = end;
+       qty += end - mRowStart[id];
+     }
+     
+     logger.info(String.format("Created a view of the translation table with %d entries out of %d (min. prob. %g)", 
+                               qty, mRowStart[rowQty], minProb));
+     
+     mMinProbViews.put(minProb, res);
+     return res;
+   }
+   
+   /**
+    * Creates a copy of the table entries, where each row is sorted by descending
+    * probability (entries with equal probabilities remain sorted by IDs).
+    */
+   private void sortRowsByProb() {
+     int rowQty = mRowStart.length - 1;
+     int entryQty = mRowStart[rowQty];
+     mProbOrderDstIds = new int[entryQty];
+     mProbOrderProbs = new float[entryQty];
+     
+     long keys[] = new long[0];
+     for (int id = 0; id < rowQty; ++id) {
+       int start = mRowStart[id], qty = mRowStart[id + 1] - start;
+       if (qty > keys.length) keys = new long[qty];
+       /*
+        * Positions are packed together with (non-negative) probabilities, which 
+        * are ordered as their bits: the bits are subtracted to get the descending order.
+        */
+       for (int i = 0; i < qty; ++i) {
+         keys[i] = ((long)(Integer.MAX_VALUE - Float.floatToIntBits(mProbs[start + i])) << 32) | i;
+       }
+       Arrays.sort(keys, 0, qty);
+       for (int i = 0; i < qty; ++i) {
+         int pos = start + (int)keys[i];
+         mProbOrderDstIds[start + i] = mDstIds[pos];
+         mProbOrderProbs[start + i] = mProbs[pos];
+       }
+     }
    }
    
    /**
     * The source becomes target and vice versa. 
     * 
     */
-   private void flipTranTable() {
-     logger.info("Flipping translation table started.");
+   private void flipTranTable(int threadQty, String tmpDir) throws Exception {
+     logger.info(String.format("Flipping translation table started (%d threads, %s).", 
+                               threadQty, tmpDir == null ? "in memory" : "out of core in '" + tmpDir + "'"));
+     long startTime = System.currentTimeMillis();
      
-     HashIntFloatMap   tmp = mSrcWordProb;     
+     mFlipped = !mFlipped;
+     
+     float tmp[] = mSrcWordProb;     
      mSrcWordProb = mDstWordProb;
      mDstWordProb = tmp;
      
-     HashIntObjMap<ArrayList<TranRecNoSrcId>>  newTranProb = 
-         HashIntObjMaps.<ArrayList<TranRecNoSrcId>>newMutableMap(mTranProb.size());
+     /*
+      * A counting transpose. Old rows are split into contiguous ranges,
+      * one per thread. In the first pass, each thread counts entries per
+      * new row in its range. Then, each thread gets its own starting position
+      * in every new row: threads that process smaller old IDs come first.
+      * In the second pass, threads scatter entries. Because each thread scans 
+      * old rows in the order of increasing IDs, entries of every new 
+      * row end up sorted by ID without any sorting.
+      */
+     int rowQty = mRowStart.length - 1;
+     int entryQty = mRowStart[rowQty];
+     // Each thread keeps a counter per row, so the number of threads should be limited for small tables
+     threadQty = (int)Math.max(1, Math.min(threadQty, entryQty / Math.max(1, rowQty)));
      
-     for (Entry<Integer, GizaOneWordTranRecs> e : mTranProb.entrySet()) {
-       GizaOneWordTranRecs oldRec = e.getValue();
-       int oldId = e.getKey();
-       for (int k = 0; k < oldRec.mDstIds.length; ++k) {
-         int newId = oldRec.mDstIds[k];
-         ArrayList<TranRecNoSrcId> newRec = newTranProb.get(newId);
-         
-         if (null == newRec) {
-           newRec = new ArrayList<TranRecNoSrcId>();
-           newTranProb.put(newId, newRec);
-         }
-         newRec.add(new TranRecNoSrcId(oldId, oldRec.mProbs[k]));
+     TranTableFlipThread threads[] = new TranTableFlipThread[threadQty];
+     int rangeStart = 0;
+     for (int t = 0; t < threadQty; ++t) {
+       // Ranges have roughly the same number of entries
+       int rangeEnd = rangeStart;
+       long maxEntry = (long)entryQty * (t + 1) / threadQty;
+       while (rangeEnd < rowQty && (t + 1 == threadQty || mRowStart[rangeEnd + 1] <= maxEntry)) ++rangeEnd;
+       threads[t] = new TranTableFlipThread(mRowStart, mDstIds, mProbs, rangeStart, rangeEnd, new int[rowQty]);
+       rangeStart = rangeEnd;
+     }
+     runFlipThreads(threads, TranTableFlipThread.Mode.COUNT);
+     
+     int newRowStart[] = new int[rowQty + 1];
+     int pos = 0;
+     for (int id = 0; id < rowQty; ++id) {
+       newRowStart[id] = pos;
+       for (int t = 0; t < threadQty; ++t) {
+         int qty = threads[t].mCounts[id];
+         threads[t].mCounts[id] = pos;
+         pos += qty;
+       }
+     }
+     newRowStart[rowQty] = pos;
+     
+     if (tmpDir != null) {
+       for (int t = 0; t < threadQty; ++t) {
+         File tmpFile = File.createTempFile("flip_tran_table", ".tmp", new File(tmpDir));
+         tmpFile.deleteOnExit();
+         threads[t].mTmpFileName = tmpFile.getAbsolutePath();
+       }
+       runFlipThreads(threads, TranTableFlipThread.Mode.WRITE);
+       // Old entries are now in temporary files and can be released before new arrays are allocated 
+       mDstIds = null;
+       mProbs = null;
+       for (int t = 0; t < threadQty; ++t) {
+         threads[t].mDstIds = null;
+         threads[t].mProbs = null;
        }
      }
      
-     mTranProb = HashIntObjMaps.<GizaOneWordTranRecs>newMutableMap(mTranProb.size());
+     int   newDstIds[] = new int[entryQty];
+     float newProbs[] = new float[entryQty];
+     for (int t = 0; t < threadQty; ++t) {
+       threads[t].mNewDstIds = newDstIds;
+       threads[t].mNewProbs = newProbs;
+     }
+     runFlipThreads(threads, tmpDir != null ? TranTableFlipThread.Mode.READ : TranTableFlipThread.Mode.SCATTER);
      
-     for (Entry<Integer, ArrayList<TranRecNoSrcId>> e: newTranProb.entrySet()) {
-       int id = e.getKey();
-       
-       ArrayList<TranRecNoSrcId>  tranRecs = e.getValue();
-       Collections.sort(tranRecs);
-       
-       mTranProb.put(id,  new GizaOneWordTranRecs(tranRecs));
+     if (tmpDir != null) {
+       for (int t = 0; t < threadQty; ++t) new File(threads[t].mTmpFileName).delete();
      }
      
-     logger.info("Flipping translation table finished.");
+     mRowStart = newRowStart;
+     mDstIds = newDstIds;
+     mProbs = newProbs;
+     
+     logger.info(String.format("Flipping translation table finished in %.1f sec.", 
+                               (System.currentTimeMillis() - startTime) / 1000.0));
+   }
+   
+   private static void runFlipThreads(TranTableFlipThread threads[], 
+                                      TranTableFlipThread.Mode mode) throws Exception {
+     for (int t = 0; t < threads.length; ++t) {
+       threads[t].mMode = mode;
+     }
+     if (threads.length == 1) {
+       threads[0].run();
+     } else {
+       Thread workers[] = new Thread[threads.length];
+       for (int t = 0; t < threads.length; ++t) {
+         // Thread objects can't be restarted, hence, each pass uses new ones 
+         workers[t] = new Thread(threads[t]);
+         workers[t].start();
+       }
+       for (int t = 0; t < threads.length; ++t) {
+         workers[t].join();
+       }
+     }
+     for (int t = 0; t < threads.length; ++t) {
+       if (threads[t].mException != null) throw threads[t].mException;
+     }
    }
   
-   private HashIntObjMap<GizaOneWordTranRecs>  mTranProb = 
-                                            HashIntObjMaps.<GizaOneWordTranRecs>newMutableMap(INIT_SIZE);
-   private HashIntFloatMap   mSrcWordProb = HashIntFloatMaps.newMutableMap(INIT_SIZE);
-   private HashIntFloatMap   mDstWordProb = HashIntFloatMaps.newMutableMap(INIT_SIZE);
+   /*
+    * The table in the CSR format: entries of the row (source word) with 
+    * ID i are stored in mDstIds and mProbs starting from mRowStart[i] and ending
+    * before mRowStart[i+1]. All word IDs are smaller than mRowStart.length - 1. 
+    */
+   private int       mRowStart[] = new int[1];
+   private int       mDstIds[] = new int[0];
+   private float     mProbs[] = new float[0];
+   private float     mSrcWordProb[] = new float[0];
+   private float     mDstWordProb[] = new float[0];
    private float mProbSelfTran = 0;
+   private float mTranProbThreshold = 0;
+   private boolean mFlipped = false;
+   
+   // Rows in the order of reading, these are used only while loading a text file
+   private int       mLoadRowIds[];
+   private int       mLoadRowStart[];
+   private int       mLoadRowQty = 0;
+   
+   // Original (not rescaled) self-translation probabilities, null if the table can't be sliced
+   private float     mSelfRawProb[] = null;
+   // Maximum original probabilities of translating into a word (in the not flipped table) 
+   private float     mDstMaxRawProb[] = null;
+   // Non-null for a disk-resident table
+   private GizaTranTableDiskRows mDiskRows = null;
+   // Slices and views share memory with the base table, so the latter should be kept alive
+   private GizaTranTableReaderAndRecoder mBase = null;
+   // A copy of the entries, where rows are sorted by descending probability (it is shared by views) 
+   private int       mProbOrderDstIds[] = null;
+   private float     mProbOrderProbs[] = null;
+   // For a view: a row with ID i ends before mRowEnd[i], entries have probabilities >= mViewMinProb 
+   private int       mRowEnd[] = null;
+   private float     mViewMinProb = Float.NEGATIVE_INFINITY;
+   private HashMap<Float, GizaTranTableReaderAndRecoder> mThresholdSlices = 
+                                       new HashMap<Float, GizaTranTableReaderAndRecoder>();
+   private HashMap<Float, GizaTranTableReaderAndRecoder> mMinProbViews = 
+                                       new HashMap<Float, GizaTranTableReaderAndRecoder>();
+   
+   /**
+    * A reference to a shared table, which also serves as a lock: the same table 
+    * is not loaded twice, but different tables can be loaded concurrently.
+    */
+   private static class SharedTableRef {
+     GizaTranTableReaderAndRecoder get() {
+       return mTable != null ? mTable.get() : null;
+     }
+     void set(GizaTranTableReaderAndRecoder table) {
+       mTable = new WeakReference<GizaTranTableReaderAndRecoder>(table);
+     }
+     private WeakReference<GizaTranTableReaderAndRecoder> mTable = null;
+   }
+   
+   private static HashMap<String, SharedTableRef> mSharedTables = new HashMap<String, SharedTableRef>();
     
    private VocabularyFilterAndRecoder    mFilterAndRecoder;  
 }
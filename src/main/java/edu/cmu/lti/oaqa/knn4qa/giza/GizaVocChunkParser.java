@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.giza;
+
+import java.util.ArrayList;
+
+import edu.cmu.lti.oaqa.knn4qa.utils.LineChunkParser;
+
+/**
+ * Parses a chunk of the GIZA vocabulary file: each non-empty line has
+ * a word ID, a word, and the number of word occurrences.
+ */
+public class GizaVocChunkParser extends LineChunkParser {
+  static final Factory<GizaVocChunkParser> FACTORY = new Factory<GizaVocChunkParser>() {
+    @Override
+    public GizaVocChunkParser create() {
+      return new GizaVocChunkParser();
+    }
+  };
+
+  @Override
+  protected void parseLine() throws Exception {
+    if (!nextToken()) return; // Skip empty lines
+
+    GizaVocRec rec = null;
+
+    try {
+      int id = getTokenInt();
+      if (!nextToken()) throw new NumberFormatException();
+      String word = getToken();
+      if (!nextToken()) throw new NumberFormatException();
+      int qty = getTokenInt();
+      if (nextToken()) throw new NumberFormatException();
+      rec = new GizaVocRec(word, id, qty);
+    } catch (NumberFormatException e) {
+      // Let the regular parser produce a proper error message (or parse an unusual format)
+      rec = new GizaVocRec(getLine());
+    }
+
+    addRec(rec);
+  }
+
+  /**
+   * Processes a parsed record.
+   */
+  protected void addRec(GizaVocRec rec) throws Exception {
+    mRecs.add(rec);
+  }
+
+  final ArrayList<GizaVocRec> mRecs = new ArrayList<GizaVocRec>();
+}
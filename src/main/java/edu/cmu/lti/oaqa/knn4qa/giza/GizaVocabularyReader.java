@@ -16,12 +16,11 @@
 package edu.cmu.lti.oaqa.knn4qa.giza;
 
 import java.util.*;
-import java.io.*;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import edu.cmu.lti.oaqa.knn4qa.utils.CompressUtils;
+import edu.cmu.lti.oaqa.knn4qa.utils.LineChunkParser;
 import edu.cmu.lti.oaqa.knn4qa.utils.VocabularyFilter;
 
 /**
@@ -46,41 +45,41 @@ public class GizaVocabularyReader {
    * @throws    Exception 
    */
   public GizaVocabularyReader(String fileName, VocabularyFilter filter) throws Exception {
+    this(fileName, filter, Runtime.getRuntime().availableProcessors());
+  }
+  
+  /**
+   * A constructor that reads the file name, builds the word-to-ID map,
+   * and computes log probabilities. One can specify a "filter" vocabulary
+   * to load only a subset of all words.
+   * 
+   * @param     fileName    main vocabulary file name.
+   * @param     filter      already loaded filter vocabulary, can be null.
+   * @param     threadQty   a number of threads used to parse the file. 
+   * @throws    Exception 
+   */
+  public GizaVocabularyReader(String fileName, VocabularyFilter filter, int threadQty) throws Exception {
     int         qty = 0;
     double      totOccQty = 0;
+    
+    // Chunks are parsed in parallel, but records are processed in the order of lines
+    ArrayList<GizaVocChunkParser> chunks = LineChunkParser.parseFile(fileName, threadQty, GizaVocChunkParser.FACTORY);
             
-    {
-      // Pass 1: compute the # of records and the total # of occurrences
-      BufferedReader fr = new BufferedReader(new InputStreamReader(CompressUtils.createInputStream(fileName)));
-      
-      String line = null;
-      
-      while ((line = fr.readLine()) != null) {
-        // Skip empty lines
-        line = line.trim(); if (line.isEmpty()) continue;
-        
-        GizaVocRec rec = new GizaVocRec(line);
+    // Pass 1: compute the # of records and the total # of occurrences
+    for (GizaVocChunkParser chunk : chunks) {
+      for (GizaVocRec rec : chunk.mRecs) {
         ++qty; totOccQty += rec.mQty;
       }
-      
-      mProb    = new double[qty];
-      mId      = new int[qty];
-      mWords   = new String[qty];
-      
-      fr.close();
     }
-    
-    {
-      // Pass 2: re-read the file and compute probabilities/
-      BufferedReader fr = new BufferedReader(new InputStreamReader(CompressUtils.createInputStream(fileName)));
-      
-      String line = null;
       
-      for (int pos = 0; (line = fr.readLine()) != null; ) {
-        // Skip empty lines
-        line = line.trim(); if (line.isEmpty()) continue;
-        
-        GizaVocRec rec = new GizaVocRec(line);
+    mProb    = new double[qty];
+    mId      = new int[qty];
+    mWords   = new String[qty];
+    
+    // Pass 2: compute probabilities
+    int pos = 0;
+    for (GizaVocChunkParser chunk : chunks) {
+      for (GizaVocRec rec : chunk.mRecs) {
         if (mWord2InternIdMap.get(rec.mWord) != null) {
           throw new Exception("Repeating word: '" + rec.mWord+ "' in file: '" + fileName + "'");
         }
@@ -98,8 +97,6 @@ public class GizaVocabularyReader {
         }
         ++pos;
       }
-      
-      fr.close();
     }
     
     logger.info("Read the vocabulary from '" + fileName + "'");
@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.giza;
+
+import edu.cmu.lti.oaqa.knn4qa.utils.BinaryFileReader;
+import edu.cmu.lti.oaqa.knn4qa.utils.BinaryFileWriter;
+
+/**
+ * A worker of the multi-threaded translation table flip: it processes
+ * a contiguous range of (old) rows (see {@link GizaTranTableReaderAndRecoder}).
+ */
+class TranTableFlipThread implements Runnable {
+  enum Mode { COUNT, SCATTER, WRITE, READ };
+  
+  TranTableFlipThread(int rowStart[], int dstIds[], float probs[], 
+                      int startRow, int endRow, int counts[]) {
+    mRowStart = rowStart;
+    mDstIds = dstIds;
+    mProbs = probs;
+    mStartRow = startRow;
+    mEndRow = endRow;
+    mCounts = counts;
+  }
+  
+  @Override
+  public void run() {
+    try {
+      switch (mMode) {
+        case COUNT:
+          for (int i = mRowStart[mStartRow]; i < mRowStart[mEndRow]; ++i) {
+            mCounts[mDstIds[i]]++;
+          }
+          break;
+        case SCATTER:
+          for (int oldId = mStartRow; oldId < mEndRow; ++oldId) {
+            for (int i = mRowStart[oldId]; i < mRowStart[oldId + 1]; ++i) {
+              int pos = mCounts[mDstIds[i]]++;
+              mNewDstIds[pos] = oldId;
+              mNewProbs[pos] = mProbs[i];
+            }
+          }
+          break;
+        case WRITE: {
+          // Each entry is written together with its position in the flipped table
+          BinaryFileWriter out = new BinaryFileWriter(mTmpFileName);
+          for (int oldId = mStartRow; oldId < mEndRow; ++oldId) {
+            for (int i = mRowStart[oldId]; i < mRowStart[oldId + 1]; ++i) {
+              out.writeInt(mCounts[mDstIds[i]]++);
+              out.writeInt(oldId);
+              out.writeFloat(mProbs[i]);
+            }
+          }
+          out.close();
+          break;
+        }
+        case READ: {
+          BinaryFileReader inp = new BinaryFileReader(mTmpFileName);
+          for (long qty = inp.getSize() / 12; qty > 0; --qty) {
+            int pos = inp.readInt();
+            mNewDstIds[pos] = inp.readInt();
+            mNewProbs[pos] = inp.readFloat();
+          }
+          inp.close();
+          break;
+        }
+      }
+    } catch (Exception e) {
+      mException = e;
+    }
+  }
+  
+  final int     mRowStart[];
+  final int     mStartRow;
+  final int     mEndRow;
+  // Entry counts per new row in the first pass and the current positions afterwards
+  final int     mCounts[];
+  int           mDstIds[];
+  float         mProbs[];
+  int           mNewDstIds[];
+  float         mNewProbs[];
+  String        mTmpFileName;
+  Mode          mMode;
+  Exception     mException;
+}
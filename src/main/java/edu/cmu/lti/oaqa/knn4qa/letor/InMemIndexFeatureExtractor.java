@@ -15,6 +15,7 @@
  */
 package edu.cmu.lti.oaqa.knn4qa.letor;
 
+import java.io.File;
 import java.util.*;
 
 import javax.annotation.Nullable;
@@ -173,6 +174,11 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
   public float getMinJSDCompositeProb(int fieldId) { return mMinJSDCompositeProbDefault[fieldId]; }
   public float getModel1Lambda(int fieldId) { return mModel1LambdaDefault[fieldId]; }
   public float getProbSelfTran(int fieldId) { return mProbSelfTranDefault[fieldId]; }
+  /**
+   * @return the maximum number of translation entries cached on heap, if the translation 
+   *         table is disk-resident, or zero, if the table is loaded into memory. 
+   */
+  public long getDiskTranCacheEntryQty(int fieldId) { return 0; }
   
   /**
    * @return true, if document ranks and scores (as returned by a candidate provider or
@@ -305,6 +311,26 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
   public EmbeddingReaderAndRecoder getEmbeddingReaderAndRecoder(int fieldId, int k) {
     return mWordEmbeds[fieldId][k];
   }
+  
+  /**
+   * Makes BM25 features use precomputed quantized impacts: this function
+   * should be called before {@link #init(InMemIndexFeatureExtractor...)}.
+   * 
+   * @param bitQty  a number of bits per impact (8 or 16), zero disables impacts.
+   */
+  public void setBM25ImpactBitQty(int bitQty) {
+    mBM25ImpactBitQty = bitQty;
+  }
+  
+  /**
+   * Sets the number of threads used to load resources of different fields
+   * concurrently: this function should be called before {@link #init(InMemIndexFeatureExtractor...)}.
+   * 
+   * @param threadQty  a number of threads, one disables concurrent loading.
+   */
+  public void setInitThreadQty(int threadQty) {
+    mInitThreadQty = threadQty;
+  }
     
   /**
    * Constructor, which doesn't really initialize: a separate function will do the real initialization;
@@ -339,7 +365,7 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
     mEmbedFiles          = embedFiles;
     mHighOrderModelFiles = highOrderModelFiles;
     
-    mHighOrderModels = new ArrayList<ArrayList<HashIntObjMap<SparseVector>>>();
+    mHighOrderModels = new ArrayList<ArrayList<SparseEmbeddingDict>>();
     for (int fieldId = 0; fieldId < mFieldIndex.length; ++fieldId) {
       mHighOrderModels.add(null);
     }
@@ -370,11 +396,12 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
     if (mHighOrderModels.get(fieldId) == null) {
       initFieldIndex(fieldId, donorExtractors);            
       
-      mHighOrderModels.set(fieldId, new ArrayList<HashIntObjMap<SparseVector>>());          
+      mHighOrderModels.set(fieldId, new ArrayList<SparseEmbeddingDict>());          
       
       for (int k = 0; k < mHighOrderModelFiles.length; ++k) {
         String fileName = mHighOrderModelFiles[k];
-        mHighOrderModels.get(fieldId).add(SparseEmbeddingReaderAndRecorder.readDict(mFieldIndex[fieldId], mEmbedDir + "/" + fileName));
+        // A binary dictionary is memory-mapped, if it was created for this field's index
+        mHighOrderModels.get(fieldId).add(SparseEmbeddingDict.load(mFieldIndex[fieldId], mEmbedDir + "/" + fileName));
         logger.info("Read ebmedding file: " + fileName);
       }
     }
@@ -404,19 +431,89 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
   
       maFieldProbTable[fieldId] = mFieldIndex[fieldId].createProbTable(answVoc);
       
+      // A binary table is much faster to load, but we can use it only if it was created with the same parameters
+      String binFileName = GizaTranTableReaderAndRecoder.binaryFileName(getTranTableFileName(fieldId));
+      long diskCacheEntryQty = getDiskTranCacheEntryQty(fieldId);
+      if (new File(binFileName).exists()) {
+        maAnswToQuestTran[fieldId] = GizaTranTableReaderAndRecoder.loadBinaryShared(
+                                        binFileName,
+                                        filterAndRecoder,
+                                        mFlippedTranTableFieldUse[fieldId],
+                                        (float)getProbSelfTran(fieldId),
+                                        getMinTranProb(fieldId),
+                                        mFieldIndex[fieldId].getMaxWordId(),
+                                        diskCacheEntryQty);
+      }
+      
+      if (null == maAnswToQuestTran[fieldId] && diskCacheEntryQty > 0) {
+        // A disk-resident table is used, because the table doesn't fit into memory: no fallback here
+        throw new Exception(String.format(
+            "Cannot open a disk-resident translation table for the field '%s': the binary file '%s' " +
+            "is missing or was created using different parameters (see saveBinaryTranTables)", 
+            FeatureExtractor.mFieldNames[fieldId], binFileName));
+      }
   
-      maAnswToQuestTran[fieldId] = new GizaTranTableReaderAndRecoder(
-                                       mFlippedTranTableFieldUse[fieldId],
-                                       prefix + "/output.t1." + mGizaIterQty,
-                                       filterAndRecoder,
-                                       answVoc, questVoc,
-                                       (float)getProbSelfTran(fieldId), 
-                                       (float)Math.min(getMinModel1Prob(fieldId), 
-                                                       Math.min(getMinSimpleTranProb(fieldId), getMinJSDCompositeProb(fieldId)))
-                                                       );
+      if (null == maAnswToQuestTran[fieldId]) {
+        maAnswToQuestTran[fieldId] = readTextTranTable(fieldId, filterAndRecoder, answVoc, questVoc);
+      }
     }
   }  
   
+  private GizaTranTableReaderAndRecoder readTextTranTable(int fieldId,
+                                                          InMemForwardIndexFilterAndRecoder filterAndRecoder,
+                                                          GizaVocabularyReader answVoc,
+                                                          GizaVocabularyReader questVoc) throws Exception {
+    // Extractors that differ only in thresholds share the table loaded with the smallest one
+    return GizaTranTableReaderAndRecoder.loadTextShared(
+                   mFlippedTranTableFieldUse[fieldId],
+                   getTranTableFileName(fieldId),
+                   filterAndRecoder,
+                   answVoc, questVoc,
+                   (float)getProbSelfTran(fieldId), 
+                   getMinTranProb(fieldId),
+                   mFieldIndex[fieldId].getMaxWordId());
+  }
+  
+  private String getTranTableFileName(int fieldId) {
+    return mDirTranPrefix + "/" + FeatureExtractor.mFieldNames[fieldId] + "/output.t1." + mGizaIterQty;
+  }
+  
+  /**
+   * @return the minimum translation probability over all translation-based features.
+   */
+  private float getMinTranProb(int fieldId) {
+    return (float)Math.min(getMinModel1Prob(fieldId), 
+                           Math.min(getMinSimpleTranProb(fieldId), getMinJSDCompositeProb(fieldId)));
+  }
+  
+  /**
+   * Reads text translation tables for all the fields where translation features are
+   * used and saves them in the binary format. A binary file is placed next to the text one and
+   * it is created using the parameters of this extractor (the flip flag, the self-translation
+   * probability, and the minimum translation probability). Hence, 
+   * {@link #init(InMemIndexFeatureExtractor...)} of an extractor with the same 
+   * parameters will load the binary table instead of parsing the text one.
+   * 
+   * @throws Exception
+   */
+  public void saveBinaryTranTables() throws Exception {
+    for (int fieldId = 0; fieldId < FeatureExtractor.mFieldNames.length; ++fieldId) {
+      if (useTranTable(fieldId)) {
+        initFieldIndex(fieldId);
+        
+        InMemForwardIndexFilterAndRecoder filterAndRecoder = new InMemForwardIndexFilterAndRecoder(mFieldIndex[fieldId]);
+        
+        String prefix = mDirTranPrefix + "/" + FeatureExtractor.mFieldNames[fieldId] + "/";
+        GizaVocabularyReader answVoc  = new GizaVocabularyReader(prefix + "source.vcb", filterAndRecoder);
+        GizaVocabularyReader questVoc = new GizaVocabularyReader(prefix + "target.vcb", filterAndRecoder);
+        
+        GizaTranTableReaderAndRecoder table = readTextTranTable(fieldId, filterAndRecoder, answVoc, questVoc);
+        table.saveBinary(GizaTranTableReaderAndRecoder.binaryFileName(getTranTableFileName(fieldId)),
+                         mFieldIndex[fieldId].getMaxWordId());
+      }
+    }
+  }
+  
   void initWordEmbeds(int fieldId, InMemIndexFeatureExtractor ... donorExtractors) throws Exception {
     // First try to reuse donor's embeddings
     for (int donorId = 0; donorId < donorExtractors.length; donorId++) {
@@ -439,6 +536,131 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
     }
   }  
   
+  /**
+   * @return true if features of the field use a translation table (and the field probability table).
+   */
+  private boolean useTranTable(int fieldId) {
+    return useModel1Feature(fieldId) || useSimpleTranFeature(fieldId) || 
+           useModel1FeatureQueryNorm(fieldId) || useSimpleTranFeatureQueryNorm(fieldId) ||
+           useJSDCompositeFeatures(fieldId);
+  }
+  
+  /**
+   * @return true if features of the field use high-order (sparse) embeddings.
+   */
+  private boolean useHighOrderModels(int fieldId) {
+    return useJSDCompositeFeatures(fieldId);
+  }
+  
+  /**
+   * @return true if features of the field use dense word embeddings.
+   */
+  private boolean useDenseEmbeddings(int fieldId) {
+    return useWMDFeatures(fieldId) || useLCSEmbedFeatures(fieldId) || 
+           useAveragedEmbedFeatures(fieldId) || useAveragedEmbedBM25Features(fieldId);
+  }
+  
+  /**
+   * @return true if features of the field use BM25, TF-IDF, or cosine similarity objects
+   *         (averaged embeddings use IDFs of BM25).
+   */
+  private boolean useFieldSimilarities(int fieldId) {
+    return useBM25Feature(fieldId) || useTFIDFFeature(fieldId) || 
+           useBM25FeatureQueryNorm(fieldId) || useTFIDFFeatureQueryNorm(fieldId) || 
+           useCosineTextFeature(fieldId) || useDenseEmbeddings(fieldId);
+  }
+  
+  /**
+   * @return true if features of the field use the forward index.
+   */
+  private boolean useFieldIndex(int fieldId) {
+    return useFieldSimilarities(fieldId) || useTranTable(fieldId) || 
+           useHighOrderModels(fieldId) ||
+           useLCSFeature(fieldId) || useLCSFeatureQueryNorm(fieldId) ||
+           useOverallMatchFeature(fieldId) || useOverallMatchFeatureQueryNorm(fieldId);
+  }
+  
+  /**
+   * Resources of different fields (forward indices, translation tables, high-order models,
+   * and word embeddings) are independent of each other. Thus, if several initialization
+   * threads are permitted, they are loaded concurrently, each field is processed by one thread. 
+   * 
+   * @throws Exception
+   */
+  private void loadAllFieldResources(InMemIndexFeatureExtractor ... donorExtractors) throws Exception {
+    int threadQty = Math.min(mInitThreadQty, mFieldIndex.length);
+    if (threadQty <= 1) {
+      for (int fieldId = 0; fieldId < mFieldIndex.length; ++fieldId) {
+        loadFieldResources(fieldId, donorExtractors);
+      }
+      return;
+    }
+    
+    long startTime = System.currentTimeMillis();
+    
+    FieldResourceLoader loaders[] = new FieldResourceLoader[threadQty];
+    for (int threadId = 0; threadId < threadQty; ++threadId) {
+      loaders[threadId] = new FieldResourceLoader(threadId, threadQty, donorExtractors);
+      loaders[threadId].start();
+    }
+    for (int threadId = 0; threadId < threadQty; ++threadId) {
+      loaders[threadId].join();
+    }
+    for (int threadId = 0; threadId < threadQty; ++threadId) {
+      if (loaders[threadId].mException != null) throw loaders[threadId].mException;
+    }
+    
+    logger.info(String.format("Loaded field resources using %d threads in %.1f sec", 
+                              threadQty, (System.currentTimeMillis() - startTime) / 1000.0));
+  }
+  
+  /**
+   * Loads resources of one field, which are required by features of this field.
+   */
+  private void loadFieldResources(int fieldId, InMemIndexFeatureExtractor ... donorExtractors) throws Exception {
+    if (useHighOrderModels(fieldId) && !isSomeTextFieldId(fieldId)) {
+      throw new Exception("JSD-composite word embeddings should only be used with a text field");
+    }
+    if (useDenseEmbeddings(fieldId)) {
+      if (!isSomeTextFieldId(fieldId)) {
+        throw new Exception("Dense word embeddings can only be used with text fields (lemmatized and original)!");
+      }
+      if (null == mEmbedFiles)
+        throw new Exception("Expecting a non-null list of embedding files!");
+      if (null == mEmbedDir)
+        throw new Exception("Expecting a non-null embedding directory!");
+    }
+    
+    if (useFieldIndex(fieldId))       initFieldIndex(fieldId, donorExtractors);
+    if (useTranTable(fieldId))        initAnswToQuestTran(fieldId, donorExtractors);
+    if (useHighOrderModels(fieldId))  initHighorderModels(fieldId, donorExtractors);
+    if (useDenseEmbeddings(fieldId))  initWordEmbeds(fieldId, donorExtractors);
+  }
+  
+  private class FieldResourceLoader extends Thread {
+    FieldResourceLoader(int threadId, int threadQty, InMemIndexFeatureExtractor ... donorExtractors) {
+      mThreadId = threadId;
+      mThreadQty = threadQty;
+      mDonorExtractors = donorExtractors;
+    }
+    
+    @Override
+    public void run() {
+      try {
+        for (int fieldId = mThreadId; fieldId < mFieldIndex.length; fieldId += mThreadQty) {
+          loadFieldResources(fieldId, mDonorExtractors);
+        }
+      } catch (Exception e) {
+        mException = e;
+      }
+    }
+    
+    private final int                           mThreadId;
+    private final int                           mThreadQty;
+    private final InMemIndexFeatureExtractor[]  mDonorExtractors;
+    Exception                                   mException;
+  }
+  
   /**
    * An actual initialization function, which can "borrow" some the resources (field indices, embeddings,
    * translation tables, etc from another extractor).
@@ -448,6 +670,9 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
   public void init(InMemIndexFeatureExtractor ... donorExtractors) throws Exception {
     logger.info(String.format("(if averaged embeddings are used at all) using non-weighted average embeddings=%b", useNonWghtAvgEmbed()));
     
+    // All the resources are loaded here, the code below only computes the numbers of features
+    loadAllFieldResources(donorExtractors);
+    
     {            
             
   		int qty = 0;
@@ -456,16 +681,12 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
 	          mFieldNames[fieldId],
 	          useBM25Feature(fieldId), useTFIDFFeature(fieldId), useBM25FeatureQueryNorm(fieldId), useTFIDFFeatureQueryNorm(fieldId), useCosineTextFeature(fieldId)));
 	      
-		    if (useBM25Feature(fieldId) || useTFIDFFeature(fieldId) || useBM25FeatureQueryNorm(fieldId) || useTFIDFFeatureQueryNorm(fieldId) || useCosineTextFeature(fieldId) ||
-		       // Word embedding based features will be used only for text-fields
-		       (
-		        (useWMDFeatures(fieldId) || useLCSEmbedFeatures(fieldId) || useAveragedEmbedFeatures(fieldId) || useAveragedEmbedBM25Features(fieldId)) 
-		        && isSomeTextFieldId(fieldId)
-		        ) 
-		       ) {
-		      initFieldIndex(fieldId, donorExtractors);
-		        
+		    if (useFieldSimilarities(fieldId)) {
 	        mBM25Similarity[fieldId]        = new BM25SimilarityLucene(BM25_K1, BM25_B, mFieldIndex[fieldId]);
+	        if (mBM25ImpactBitQty > 0) {
+	          mBM25Similarity[fieldId].precomputeImpacts(mBM25ImpactBitQty);
+	          logger.info(String.format("field=%s uses %d-bit BM25 impacts", mFieldNames[fieldId], mBM25ImpactBitQty));
+	        }
 	        mDefaultSimilarity[fieldId]     = new DefaultSimilarityLucene(mFieldIndex[fieldId]);
           mBM25SimilarityNorm[fieldId]    = new BM25SimilarityLuceneNorm(BM25_K1, BM25_B, mFieldIndex[fieldId]);
           mDefaultSimilarityNorm[fieldId] = new DefaultSimilarityLuceneNorm(mFieldIndex[fieldId]);
@@ -487,9 +708,6 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
   	  for (int fieldId = 0; fieldId < mFieldNames.length; ++fieldId) { 
   	    logger.info(String.format("field=%s useLCSFeature=%b useLCSFeatureQueryNorm=%b",
             mFieldNames[fieldId], useLCSFeature(fieldId), useLCSFeatureQueryNorm(fieldId)));
-  	    if (useLCSFeature(fieldId) || useLCSFeatureQueryNorm(fieldId)) {
-  	      initFieldIndex(fieldId, donorExtractors);
-  	    }
   	    if (useLCSFeature(fieldId))          qty += LCS_FIELD_FEATURE_QTY; 
   	    if (useLCSFeatureQueryNorm(fieldId)) qty += LCS_FIELD_FEATURE_QUERY_NORM_QTY;
   	  }
@@ -502,9 +720,6 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
   	    logger.info(String.format("field=%s useOverallMatchFeature=%b useOverallMatchFeatureQueryNorm=%b",
             mFieldNames[fieldId], useOverallMatchFeature(fieldId), useOverallMatchFeatureQueryNorm(fieldId)));
   	    
-  	    if (useOverallMatchFeature(fieldId) || useOverallMatchFeatureQueryNorm(fieldId)) {
-  	      initFieldIndex(fieldId, donorExtractors);
-  	    }  	    
   	    if (useOverallMatchFeature(fieldId))          qty += OVERAL_MATCH_FIELD_FEATURE_QTY;
   	    if (useOverallMatchFeatureQueryNorm(fieldId)) qty += OVERAL_MATCH_FIELD_FEATURE_QUERY_NORM_QTY;  	    
   	  }
@@ -535,12 +750,6 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
         
   			
         if (useJSDComp) { 
-          if (!isSomeTextFieldId(fieldId)) {
-            throw new Exception("JSD-composite word embeddings should only be used with a text field");
-          }
-          
-          initHighorderModels(fieldId, donorExtractors);            
-
           qty_jsd_comp += JSD_COMPOSITE_FEATURE_QTY * mHighOrderModelFiles.length;
           
             
@@ -551,10 +760,6 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
           if (useModel1Norm)       qty_model1_tran += MODEL1_FIELD_FEATURE_QUERY_NORM_QTY;
           if (useSimpleTran)       qty_simple_tran += SIMPLE_TRAN_FIELD_FEATURE_QTY;
           if (useSimpleTranNorm)   qty_simple_tran += SIMPLE_TRAN_FIELD_FEATURE_QUERY_NORM_QTY;
-
-          
-          initFieldIndex(fieldId, donorExtractors);
-          initAnswToQuestTran(fieldId, donorExtractors);                                       
   			}
       }
            
@@ -570,20 +775,7 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
         logger.info(String.format("field=%s useWMDFeatures=%b useLCSEmbedFeatures=%b useAveragedEmbedFeatures=%b useAveragedEmbedBM25Features",
             mFieldNames[fieldId], useWMDFeatures(fieldId), useLCSEmbedFeatures(fieldId), useAveragedEmbedFeatures(fieldId), useAveragedEmbedBM25Features(fieldId)));
         
-        if ((useWMDFeatures(fieldId) || useLCSEmbedFeatures(fieldId) || useAveragedEmbedFeatures(fieldId) || useAveragedEmbedBM25Features(fieldId))) {
-          if (!isSomeTextFieldId(fieldId)) {
-            throw new Exception("Dense word embeddings can only be used with text fields (lemmatized and original)!");
-          }
-          
-          initFieldIndex(fieldId, donorExtractors);                   
-    
-          if (null == mEmbedFiles)
-            throw new Exception("Expecting a non-null list of embedding files!");
-          if (null == mEmbedDir)
-            throw new Exception("Expecting a non-null embedding directory!");
-          
-          initWordEmbeds(fieldId, donorExtractors);
-          
+        if (useDenseEmbeddings(fieldId)) {
           int embedQty = mEmbedFiles.length;
           
           if (useAveragedEmbedFeatures(fieldId)) qty_averaged_embed += (1 + (useNonWghtAvgEmbed() ? 1 : 0)) * embedQty;
@@ -674,6 +866,10 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
       if (useModel1 || useSimpleTran || useModel1Norm || useSimpleTranNorm) {
   	  
         if (useModel1 || useSimpleTran || useModel1Norm || useSimpleTranNorm) {
+          // Entries ignored by both Model1 and simple tran. features are not even iterated over
+          GizaTranTableReaderAndRecoder answToQuestTran = 
+              maAnswToQuestTran[fieldId].getMinProbView(Math.min(getMinModel1Prob(fieldId), 
+                                                                 getMinSimpleTranProb(fieldId)));
   				if (mFlippedTranTableFieldUse[fieldId]) {
   				  getFieldAllTranScoresFlipped(
   				      mFieldIndex[fieldId],
@@ -684,7 +880,7 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
   				      getMinModel1Prob(fieldId), 
   				      getMinSimpleTranProb(fieldId),
   				      id, query, 
-  				      maAnswToQuestTran[fieldId],
+  				      answToQuestTran,
   				      getModel1Lambda(fieldId), OOV_PROB,
   				      res);
   				} else {
@@ -697,7 +893,7 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
   				      getMinModel1Prob(fieldId), 
   				      getMinSimpleTranProb(fieldId),
   				      id, query, 
-  				      maAnswToQuestTran[fieldId],
+  				      answToQuestTran,
   				      getModel1Lambda(fieldId), OOV_PROB,
   				      res);
   				}
@@ -724,7 +920,7 @@ public abstract class InMemIndexFeatureExtractor extends FeatureExtractor {
               fieldName,
               getMinJSDCompositeProb(fieldId),
               id, query, 
-              maAnswToQuestTran[fieldId],              
+              maAnswToQuestTran[fieldId].getMinProbView(getMinJSDCompositeProb(fieldId)),              
               res);
           id += mHighOrderModels.get(fieldId).size() * JSD_COMPOSITE_FEATURE_QTY;          
       }			
@@ -1068,46 +1264,54 @@ private void getFieldAllTranScoresDirect(InMemForwardIndex fieldIndex,
       }
     } else {
       float [] totTranProb = new float[queryEntry.mWordIds.length];
+      int   [] tranDstIds = answToQuestTran.getTranDstIdArray();
+      float [] tranProbs = answToQuestTran.getTranProbArray();
 
       for (int iaOuterLoop = 0; iaOuterLoop < docEntry.mWordIds.length; ++iaOuterLoop) {
         int answRepQty = docEntry.mQtys[iaOuterLoop];
         int answWordIdOuterLoop = docEntry.mWordIds[iaOuterLoop];
       
-        GizaOneWordTranRecs tranRecs = answToQuestTran.getTranProbs(answWordIdOuterLoop);
+        int tranRowEnd = answToQuestTran.getTranRowEnd(answWordIdOuterLoop);
         
-        if (null != tranRecs) {
-          int iq = 0;
-          int ia = 0;
+        int ia = answToQuestTran.getTranRowStart(answWordIdOuterLoop);
+        
+        int   [] rowDstIds = tranDstIds;
+        float [] rowProbs = tranProbs;
+        if (answToQuestTran.isDiskResident()) {
+          // Rows of a disk-resident table are obtained one by one
+          GizaOneWordTranRecs row = answToQuestTran.getTranRowShared(answWordIdOuterLoop);
+          if (row == null) continue;
+          rowDstIds = row.mDstIds;
+          rowProbs = row.mProbs;
+          ia = 0;
+          tranRowEnd = rowDstIds.length;
+        }
+        
+        /*
+         * Rows of a minimum-probability view are sorted by probabilities rather
+         * than by IDs, so query words are found using the binary search.
+         */
+        for (; ia < tranRowEnd; ++ia) {
+          int answTranWordId = rowDstIds[ia];
+          int iq = Arrays.binarySearch(queryEntry.mWordIds, answTranWordId);
           
-          while (iq < queryEntry.mWordIds.length && ia < tranRecs.mDstIds.length) {
+          if (iq >= 0 && answTranWordId >= 0) { // ignore out-of voc words
             int queryWordId = queryEntry.mWordIds[iq];
             int queryRepQty = queryEntry.mQtys[iq];
-            int answTranWordId = tranRecs.mDstIds[ia];
+            float oneTranProb = rowProbs[ia];
             
-            if (queryWordId < answTranWordId)
-              iq++;
-            else if (queryWordId > answTranWordId)
-              ia++;
-            else {              
-              if (answTranWordId >= 0) { // ignore out-of voc words
-                float oneTranProb = tranRecs.mProbs[ia];
-                
-                if (answWordIdOuterLoop == queryWordId && PROB_SELF_TRAN - oneTranProb > Float.MIN_NORMAL) {
-                  System.err.println(
-                      String.format("No self-tran probability for: id=%d tran prob=%g", 
-                        answTranWordId, oneTranProb));
-                  System.exit(1);
-                }                
-                if (oneTranProb >= minModel1Prob) {
-                  totTranProb[iq] += oneTranProb  * aSourceWordProb[iaOuterLoop];
-                }
-                if (oneTranProb >= minSimpleTranProb) {
-                  shareTranPairQty += answRepQty * queryRepQty;
-                }              
-              }
-              ia++;
-              iq++;
+            if (answWordIdOuterLoop == queryWordId && PROB_SELF_TRAN - oneTranProb > Float.MIN_NORMAL) {
+              System.err.println(
+                  String.format("No self-tran probability for: id=%d tran prob=%g", 
+                    answTranWordId, oneTranProb));
+              System.exit(1);
+            }                
+            if (oneTranProb >= minModel1Prob) {
+              totTranProb[iq] += oneTranProb  * aSourceWordProb[iaOuterLoop];
             }
+            if (oneTranProb >= minSimpleTranProb) {
+              shareTranPairQty += answRepQty * queryRepQty;
+            }              
           }
         }
       }
@@ -1225,7 +1429,11 @@ private void getFieldAllTranScoresFlipped(InMemForwardIndex fieldIndex,
   if (PRINT_SCORES)
     System.out.println("InMemIndex Field: '" + fieldName + "' (getFieldAllTranScoresFlipped))");
   
-  GizaOneWordTranRecs   queryTranRecs[] = new GizaOneWordTranRecs[queryWordQty];
+  int   queryTranRowStart[] = new int[queryWordQty];
+  int   queryTranRowEnd[] = new int[queryWordQty];
+  // Rows of a disk-resident table are kept separately, otherwise all rows share the same arrays
+  int   queryTranWordIds[][] = new int[queryWordQty][];
+  float queryTranProbs[][] = new float[queryWordQty][];
   
   /*
    * We will read translation tables only one time per query.
@@ -1233,7 +1441,6 @@ private void getFieldAllTranScoresFlipped(InMemForwardIndex fieldIndex,
   for (int iq = 0; iq < queryWordQty; ++iq) {
     int queryWordId = queryEntry.mWordIds[iq];
     if (queryWordId < 0) continue; // out-of-vocab query words are ignored
-    GizaOneWordTranRecs tranRecs = answToQuestTran.getTranProbs(queryWordId);
     /*
     if (null == tranRecs) continue;
     
@@ -1257,7 +1464,19 @@ private void getFieldAllTranScoresFlipped(InMemForwardIndex fieldIndex,
     }
     */
     
-    queryTranRecs[iq] = tranRecs;    
+    if (answToQuestTran.isDiskResident()) {
+      GizaOneWordTranRecs row = answToQuestTran.getTranRowShared(queryWordId);
+      if (row == null) continue;
+      queryTranWordIds[iq] = row.mDstIds;
+      queryTranProbs[iq] = row.mProbs;
+      queryTranRowStart[iq] = 0;
+      queryTranRowEnd[iq] = row.mDstIds.length;
+    } else {
+      queryTranWordIds[iq] = answToQuestTran.getTranDstIdArray();
+      queryTranProbs[iq] = answToQuestTran.getTranProbArray();
+      queryTranRowStart[iq] = answToQuestTran.getTranRowStart(queryWordId);
+      queryTranRowEnd[iq] = answToQuestTran.getTranRowEnd(queryWordId);
+    }
   }
   
   for (String docId : arrDocIds) {
@@ -1287,22 +1506,31 @@ private void getFieldAllTranScoresFlipped(InMemForwardIndex fieldIndex,
       aSourceWordProb[ia] = docEntry.mQtys[ia] * invSum;
     }
 
+    // Translation probabilities of answer words (for one query word), -1 if there's no entry
+    float [] answTranProbs = new float[answerQty];
+
     for (int iqOuterLoop=0; iqOuterLoop < queryEntry.mWordIds.length;++iqOuterLoop) {
       float totTranProb = 0;
 
       int queryWordId = queryEntry.mWordIds[iqOuterLoop];
       int queryRepQty    = queryEntry.mQtys[iqOuterLoop];
-      GizaOneWordTranRecs tranRecs = queryWordId >= 0 ? queryTranRecs[iqOuterLoop] : null;
             
-      if (queryWordId >= 0 && tranRecs != null) {
-        int[] tranWordIds = tranRecs.mDstIds;
-        int tranRecsQty = tranRecs.mDstIds.length;
-        int startIndex = 0;
+      if (queryWordId >= 0 && queryTranRowEnd[iqOuterLoop] > queryTranRowStart[iqOuterLoop]) {
+        int   tranWordIds[] = queryTranWordIds[iqOuterLoop];
+        float tranProbs[] = queryTranProbs[iqOuterLoop];
+        /*
+         * Rows of a minimum-probability view are sorted by probabilities rather
+         * than by IDs, so answer words are found using the binary search. Probabilities
+         * are summed up in the order of answer words.
+         */
+        Arrays.fill(answTranProbs, -1);
+        for (int i = queryTranRowStart[iqOuterLoop]; i < queryTranRowEnd[iqOuterLoop]; ++i) {
+          int ia = Arrays.binarySearch(docEntry.mWordIds, tranWordIds[i]);
+          if (ia >= 0) answTranProbs[ia] = tranProbs[i];
+        }
         for (int ia = 0; ia < answerQty; ++ia) {
-          int answWordId = docEntry.mWordIds[ia];
-          int iq = Arrays.binarySearch(tranWordIds, startIndex, tranRecsQty, answWordId);
-          if (iq >= 0) {
-            float oneTranProb = tranRecs.mProbs[iq];
+          float oneTranProb = answTranProbs[ia];
+          if (oneTranProb >= 0) {
             int answRepQty = docEntry.mQtys[ia];
 
             if (oneTranProb >= minModel1Prob) {
@@ -1311,13 +1539,6 @@ private void getFieldAllTranScoresFlipped(InMemForwardIndex fieldIndex,
             if (oneTranProb >= minSimpleTranProb) {
               shareTranPairQty += answRepQty * queryRepQty;
             }
-          } else {
-            // Because all the following answer word IDs are going to be even larger than
-            // the current answWordId (and the array tranWordIds is also sorted),
-            // we got the next entry point
-            startIndex = -1 - iq;
-            if (startIndex >= tranRecsQty)
-              break;
           }
         }
       }
@@ -1641,9 +1862,9 @@ private void getFieldAllTranScoresFlipped(InMemForwardIndex fieldIndex,
     
     DocEntry queryEntry = fieldIndex.createDocEntry(query.split("\\s+"));
 
-    SparseVector[] queryEmbedVectorsL1Norm = new SparseVector[mHighOrderModels.size()];
+    SparseFloatVector[] queryEmbedVectorsL1Norm = new SparseFloatVector[mHighOrderModels.size()];
 
-    ArrayList<HashIntObjMap<SparseVector>> highOrderFieldModels = mHighOrderModels.get(fieldId);
+    ArrayList<SparseEmbeddingDict> highOrderFieldModels = mHighOrderModels.get(fieldId);
     
     if (highOrderFieldModels == null)
       throw new Exception("Bug: not high-order models for field=" + mFieldNames[fieldId] + " fieldId=" + fieldId);
@@ -1674,7 +1895,7 @@ private void getFieldAllTranScoresFlipped(InMemForwardIndex fieldIndex,
       int fid = startFeatureId;      
 
       for (int k = 0; k < highOrderFieldModels.size(); ++k) {
-        SparseVector docEmbedL1Norm = SparseEmbeddingReaderAndRecorder.
+        SparseFloatVector docEmbedL1Norm = SparseEmbeddingReaderAndRecorder.
                                           createCompositeWordEmbed(fieldIndex, highOrderFieldModels.get(k), docEntry);             
         
         // Let's take the negative value, then the larger score2, the closer are documents
@@ -1746,7 +1967,7 @@ private void getFieldAllTranScoresFlipped(InMemForwardIndex fieldIndex,
     SparseVector res = mTranWordEmbedCache.get(wordId);
     if (res != null) return res;
     
-    GizaOneWordTranRecs tranRecs = answToQuestTran.getTranProbs(wordId);
+    GizaOneWordTranRecs tranRecs = answToQuestTran.getTranRowShared(wordId);
     
     if (tranRecs != null) {
       int qty = 0;
@@ -1855,7 +2076,7 @@ private void getFieldAllTranScoresFlipped(InMemForwardIndex fieldIndex,
   
   GizaTranTableReaderAndRecoder   [] maAnswToQuestTran = new GizaTranTableReaderAndRecoder[mFieldNames.length];
 
-  protected ArrayList<ArrayList<HashIntObjMap<SparseVector>>> mHighOrderModels = null;
+  protected ArrayList<ArrayList<SparseEmbeddingDict>> mHighOrderModels = null;
 
   private final String    mDirTranPrefix;
   private final int       mGizaIterQty;
@@ -1863,6 +2084,8 @@ private void getFieldAllTranScoresFlipped(InMemForwardIndex fieldIndex,
   private final String    mEmbedDir;
   private final String[]  mEmbedFiles;
   private final String[]  mHighOrderModelFiles;  
+  private int             mBM25ImpactBitQty = 0;
+  private int             mInitThreadQty = Runtime.getRuntime().availableProcessors();
 
   private int mFieldScoreFeatQty  = 0;
   private int mModel1FeatQty = 0;
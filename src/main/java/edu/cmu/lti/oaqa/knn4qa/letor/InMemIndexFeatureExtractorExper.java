@@ -36,6 +36,10 @@ import edu.cmu.lti.oaqa.knn4qa.utils.StringUtilsLeo;
  * <field-name> : <value>. For example, <i>minProbModel1=text:0.001,text_unlemm=0.002</i> sets
  * a minimum Model1 probability for the field <i>text</i> equal to 0.001 and a minimum Model 1
  * probability for the field <i>text_unlemm</i> equal to 0.002.
+ * <li>Translation tables that don't fit into memory can be kept on disk: for example, 
+ * <i>diskTranCacheEntryQty=bigram:2000000</i> makes the table for the field <i>bigram</i> 
+ * disk-resident and caches up to two million translation entries on heap. Such a table
+ * should be saved in the binary format in advance.
  * <li>For the list of properties see {@link #getPropertyFieldArrayByName(String)) method.}</li>
  * </ul>
  * 
@@ -57,6 +61,8 @@ public class InMemIndexFeatureExtractorExper extends InMemIndexFeatureExtractor
   public float getModel1Lambda(int fieldId) { return mModel1Lambda[fieldId]; }
   @Override
   public float getProbSelfTran(int fieldId) { return mProbSelfTran[fieldId]; }
+  @Override
+  public long getDiskTranCacheEntryQty(int fieldId) { return (long)mDiskTranCacheEntryQty[fieldId]; }
 
   
   public InMemIndexFeatureExtractorExper(
@@ -161,6 +167,7 @@ public class InMemIndexFeatureExtractorExper extends InMemIndexFeatureExtractor
     if (key.equalsIgnoreCase("minProbJSDComposite"))    return mMinJSDCompositeProb;
     if (key.equalsIgnoreCase("model1Lambda"))           return mModel1Lambda;
     if (key.equalsIgnoreCase("probSelfTran"))           return mProbSelfTran;
+    if (key.equalsIgnoreCase("diskTranCacheEntryQty"))  return mDiskTranCacheEntryQty;
     return null;
   }
 
@@ -183,6 +190,8 @@ public class InMemIndexFeatureExtractorExper extends InMemIndexFeatureExtractor
   private float [] mMinSimpleTranProb   = new float[mFieldNames.length];
   private float [] mModel1Lambda        = new float[mFieldNames.length];
   private float [] mProbSelfTran        = new float[mFieldNames.length];
+  // A positive value makes the translation table of the field disk-resident
+  private float [] mDiskTranCacheEntryQty = new float[mFieldNames.length];
   
   private boolean mUseNonWghtAvgEmbed = true;
   
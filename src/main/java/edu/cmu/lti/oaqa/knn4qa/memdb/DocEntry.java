@@ -48,7 +48,66 @@ public class DocEntry {
     }
   }
 
+  /**
+   * Memorizes quantized 8-bit per-posting impacts (e.g., pre-multiplied BM25 term weights).
+   * The impact of the i-th unique word is equal to 
+   * {@code (impacts[i] & 0xFF) * scale}.
+   * 
+   * @param impacts   quantized impacts, aligned with {@link #mWordIds}
+   * @param scale     a de-quantization multiplier
+   * @throws Exception
+   */
+  public void setImpacts(byte impacts[], float scale) throws Exception {
+    checkImpactQty(impacts.length);
+    mImpacts8    = impacts;
+    mImpacts16   = null;
+    mImpactScale = scale;
+  }
+  
+  /**
+   * Memorizes quantized 16-bit per-posting impacts (e.g., pre-multiplied BM25 term weights).
+   * The impact of the i-th unique word is equal to 
+   * {@code (impacts[i] & 0xFFFF) * scale}.
+   * 
+   * @param impacts   quantized impacts, aligned with {@link #mWordIds}
+   * @param scale     a de-quantization multiplier
+   * @throws Exception
+   */
+  public void setImpacts(short impacts[], float scale) throws Exception {
+    checkImpactQty(impacts.length);
+    mImpacts8    = null;
+    mImpacts16   = impacts;
+    mImpactScale = scale;
+  }
+  
+  /**
+   * @return true if the entry has quantized impacts.
+   */
+  public boolean hasImpacts() {
+    return mImpacts8 != null || mImpacts16 != null;
+  }
+  
+  /**
+   * @param i an index of the unique word.
+   * @return  the de-quantized impact of the i-th unique word, this
+   *          function should be called only if {@link #hasImpacts()} returns true.
+   */
+  public float getImpact(int i) {
+    return mImpactScale * (mImpacts16 != null ? (mImpacts16[i] & 0xFFFF) : (mImpacts8[i] & 0xFF));
+  }
+  
+  private void checkImpactQty(int qty) throws Exception {
+    if (qty != mWordIds.length) {
+      throw new Exception(String.format("Bug: the number of impacts (%d) is not equal to the number of word IDs (%d).",
+                                        qty, mWordIds.length));
+    }
+  }
+
   public final int mWordIds[]; // unique word ids
   public final int mQtys[];    // # of word occurrences corresponding to memorized ids
   public final int mWordIdSeq[]; // a sequence of word IDs (can contain repeats)
+  
+  public byte  mImpacts8[]  = null; // optional 8-bit quantized impacts (aligned with mWordIds), treated as unsigned
+  public short mImpacts16[] = null; // optional 16-bit quantized impacts (aligned with mWordIds), treated as unsigned
+  public float mImpactScale = 0;    // a multiplier that converts quantized impacts to real values
 }
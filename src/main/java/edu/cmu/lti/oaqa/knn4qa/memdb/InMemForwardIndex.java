@@ -454,6 +454,24 @@ public class InMemForwardIndex {
     }
   }
   
+  /**
+   * @return a description of the similarity used to compute per-posting impacts 
+   *         of the document entries, or null if impacts were not computed.
+   */
+  public synchronized String getImpactDesc() {
+    return mImpactDesc;
+  }
+  
+  /**
+   * Memorizes a description of the similarity that was used to compute 
+   * per-posting impacts (see {@link DocEntry#setImpacts(short[], float)}).
+   * 
+   * @param impactDesc  a description of the similarity.
+   */
+  public synchronized void setImpactDesc(String impactDesc) {
+    mImpactDesc = impactDesc;
+  }
+  
   /**
    * Retrieves an existing document entry.
    * 
@@ -593,4 +611,6 @@ public class InMemForwardIndex {
   int   mMaxWordId = 0;
   long  mTotalWordQty = 0;
   float mAvgDocLen = 0;
+  
+  String mImpactDesc = null;
 }
@@ -39,4 +39,11 @@ public class InMemForwardIndexFilterAndRecoder extends
     return null;
   }
   
+  /**
+   * Recoders of the same index are interchangeable.
+   */
+  @Override
+  public Object getRecodingSource() {
+    return mIndex;
+  }
 }
@@ -26,6 +26,12 @@ package edu.cmu.lti.oaqa.knn4qa.simil;
 public abstract class AbstractDistance {
   public abstract float compute(float [] vec1, float [] vec2);
   
+  /**
+   * Computes the distance between two vectors stored at given offsets of 
+   * (possibly larger) arrays, e.g., rows of an embedding matrix, without copying them.
+   */
+  public abstract float compute(float [] block1, int off1, float [] block2, int off2, int dim);
+  
   /**
    * @return  human-readable distance name.
    */
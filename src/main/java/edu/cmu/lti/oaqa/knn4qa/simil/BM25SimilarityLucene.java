@@ -16,6 +16,7 @@
 package edu.cmu.lti.oaqa.knn4qa.simil;
 
 import edu.cmu.lti.oaqa.knn4qa.memdb.DocEntry;
+import edu.cmu.lti.oaqa.knn4qa.memdb.DocEntryExt;
 import edu.cmu.lti.oaqa.knn4qa.memdb.InMemForwardIndex;
 import edu.cmu.lti.oaqa.knn4qa.memdb.WordEntry;
 
@@ -31,6 +32,14 @@ import edu.cmu.lti.oaqa.knn4qa.memdb.WordEntry;
  * Note that IDF values are cached (without evicting from the cache).  
  * </p>
  * 
+ * <p>Optionally, one can call {@link #precomputeImpacts(int)}: it 
+ * computes document-side BM25 weights (IDF times the normalized TF)
+ * for every posting of the forward index and stores them (quantized to 8 or 16 bits) 
+ * in respective {@link DocEntry} objects.
+ * Then, the BM25 similarity becomes a simple sparse dot product between
+ * query term frequencies and precomputed impacts.
+ * </p>
+ * 
  * @author Leonid Boytsov
  *
  */
@@ -55,6 +64,108 @@ public class BM25SimilarityLucene extends QueryDocSimilarity {
   final float mInvAvgDl;
   final InMemForwardIndex mFieldIndex;
   
+  volatile boolean mUseImpacts = false;
+  
+  /**
+   * Pre-computes quantized BM25 impacts for all documents of the field index.
+   * If the index already contains impacts produced with the same parameters,
+   * they are reused.
+   * 
+   * @param bitQty    a number of bits per impact: 8 or 16.
+   * @throws Exception
+   */
+  public void precomputeImpacts(int bitQty) throws Exception {
+    checkImpactBitQty(bitQty);
+    String impactDesc = String.format("%s k1=%f b=%f bits=%d", getName(), mBM25_k1, mBM25_b, bitQty);
+    
+    synchronized (mFieldIndex) {
+      String prevDesc = mFieldIndex.getImpactDesc();
+      if (!impactDesc.equals(prevDesc)) {
+        if (prevDesc != null) {
+          throw new Exception(String.format("The index already contains different impacts: '%s', cannot add impacts: '%s'",
+                                            prevDesc, impactDesc));
+        }
+        for (DocEntryExt e : mFieldIndex.getDocEntries()) {
+          DocEntry doc = e.mDocEntry;
+          int      qty = doc.mWordIds.length;
+          float    docLen = doc.mWordIdSeq.length;
+          
+          float impacts[] = new float[qty];
+          for (int i = 0; i < qty; ++i) {
+            impacts[i] = getIDF(mFieldIndex, doc.mWordIds[i]) * normTF(doc.mQtys[i], docLen);
+          }
+          
+          setQuantizedImpacts(doc, impacts, bitQty);
+        }
+        
+        mFieldIndex.setImpactDesc(impactDesc);
+      }
+    }
+    
+    mUseImpacts = true;
+  }
+  
+  /**
+   * Checks that impacts can be quantized using a given number of bits.
+   * 
+   * @param bitQty    a number of bits per impact.
+   * @throws Exception if the number of bits is neither 8 nor 16.
+   */
+  public static void checkImpactBitQty(int bitQty) throws Exception {
+    if (bitQty != 8 && bitQty != 16) {
+      throw new Exception(String.format("Unsupported number of bits per impact: %d, should be 8 or 16", bitQty));
+    }
+  }
+  
+  /**
+   * Quantizes non-negative impacts of a document and memorizes them in the document entry.
+   * The largest impact is mapped to the largest quantized value, so that 
+   * the de-quantization error doesn't exceed a half of the quantization step, 
+   * i.e., maxImpact / (2^bitQty - 1) / 2.
+   * 
+   * @param doc       a document entry.
+   * @param impacts   impacts aligned with word IDs of the entry.
+   * @param bitQty    a number of bits per impact: 8 or 16.
+   * @throws Exception
+   */
+  public static void setQuantizedImpacts(DocEntry doc, float impacts[], int bitQty) throws Exception {
+    checkImpactBitQty(bitQty);
+    
+    float maxQuant = bitQty == 8 ? 0xFF : 0xFFFF;
+    int   qty = impacts.length;
+    
+    float maxImpact = 0;
+    for (int i = 0; i < qty; ++i) {
+      maxImpact = Math.max(maxImpact, impacts[i]);
+    }
+    
+    float scale = maxImpact / maxQuant;
+    float invScale = maxImpact > 0 ? 1.0f / scale : 0;
+    
+    if (bitQty == 8) {
+      byte quant[] = new byte[qty];
+      for (int i = 0; i < qty; ++i) 
+        quant[i] = (byte) Math.min(maxQuant, Math.round(impacts[i] * invScale));
+      doc.setImpacts(quant, scale);
+    } else {
+      short quant[] = new short[qty];
+      for (int i = 0; i < qty; ++i) 
+        quant[i] = (short) Math.min(maxQuant, Math.round(impacts[i] * invScale));
+      doc.setImpacts(quant, scale);            
+    }
+  }
+  
+  /**
+   * @return true if the similarity is computed using precomputed impacts.
+   */
+  public boolean usesImpacts() {
+    return mUseImpacts;
+  }
+  
+  private float normTF(float tf, float docLen) {
+    return (tf * (mBM25_k1 + 1)) / ( tf + mBM25_k1 * (1 - mBM25_b + mBM25_b * docLen * mInvAvgDl));
+  }
+  
   /**
    * Computes the similarity between the query (represented by
    * a DocEntry object) and the document (also represented by a DocEntry object)
@@ -65,36 +176,86 @@ public class BM25SimilarityLucene extends QueryDocSimilarity {
    */
   @Override
   public float compute(DocEntry query, DocEntry doc) {
+    if (mUseImpacts) {
+      if (doc.mImpacts16 != null) return computeImpact16(query, doc);
+      if (doc.mImpacts8 != null)  return computeImpact8(query, doc);
+    }
+    
     float score = 0;
     
     int   docTermQty = doc.mWordIds.length;
     int   queryTermQty = query.mWordIds.length;
     
-    int   iQuery = 0, iDoc = 0;
+    SparseIntersection.Buffers posBuf = SparseIntersection.getBuffers(queryTermQty, docTermQty);
+    int   queryPos[] = posBuf.mPos1;
+    int   docPos[]   = posBuf.mPos2;
+    int   matchQty   = SparseIntersection.intersect(query.mWordIds, queryTermQty, 
+                                                    doc.mWordIds, docTermQty, 
+                                                    queryPos, docPos);
     
     float docLen = doc.mWordIdSeq.length;
     
-    while (iQuery < queryTermQty && iDoc < docTermQty) {
-      final int queryWordId = query.mWordIds[iQuery];
-      final int docWordId   = doc.mWordIds[iDoc];
+    for (int k = 0; k < matchQty; ++k) {
+      final int iQuery = queryPos[k], iDoc = docPos[k];
       
-      if (queryWordId < docWordId) ++iQuery;
-      else if (queryWordId > docWordId) ++iDoc;
-      else {
-        float tf = doc.mQtys[iDoc];
+      float tf = doc.mQtys[iDoc];
         
-        float normTf = (tf * (mBM25_k1 + 1)) / ( tf + mBM25_k1 * (1 - mBM25_b + mBM25_b * docLen * mInvAvgDl));
+      float normTf = normTF(tf, docLen);
         
-        score += getIDF(mFieldIndex, query.mWordIds[iQuery]) * // IDF 
-                  query.mQtys[iQuery] *           // query frequency
-                  normTf;                         // Normalized term frequency        
-        ++iQuery; ++iDoc;
-      }
+      score += getIDF(mFieldIndex, query.mWordIds[iQuery]) * // IDF 
+                query.mQtys[iQuery] *           // query frequency
+                normTf;                         // Normalized term frequency        
     }
     
     return score;
   }
   
+  /*
+   * In the two functions below, the sum of products of query term frequencies
+   * and quantized impacts is accumulated as an integer. It's converted
+   * to a float score only once (using a per-document scale).
+   */
+  
+  private float computeImpact16(DocEntry query, DocEntry doc) {
+    long score = 0;
+    
+    int   docTermQty = doc.mWordIds.length;
+    int   queryTermQty = query.mWordIds.length;
+    
+    SparseIntersection.Buffers posBuf = SparseIntersection.getBuffers(queryTermQty, docTermQty);
+    int   queryPos[] = posBuf.mPos1;
+    int   docPos[]   = posBuf.mPos2;
+    int   matchQty   = SparseIntersection.intersect(query.mWordIds, queryTermQty, 
+                                                    doc.mWordIds, docTermQty, 
+                                                    queryPos, docPos);
+    
+    for (int k = 0; k < matchQty; ++k) {
+      score += query.mQtys[queryPos[k]] * (doc.mImpacts16[docPos[k]] & 0xFFFF);
+    }
+    
+    return score * doc.mImpactScale;
+  }
+  
+  private float computeImpact8(DocEntry query, DocEntry doc) {
+    long score = 0;
+    
+    int   docTermQty = doc.mWordIds.length;
+    int   queryTermQty = query.mWordIds.length;
+    
+    SparseIntersection.Buffers posBuf = SparseIntersection.getBuffers(queryTermQty, docTermQty);
+    int   queryPos[] = posBuf.mPos1;
+    int   docPos[]   = posBuf.mPos2;
+    int   matchQty   = SparseIntersection.intersect(query.mWordIds, queryTermQty, 
+                                                    doc.mWordIds, docTermQty, 
+                                                    queryPos, docPos);
+    
+    for (int k = 0; k < matchQty; ++k) {
+      score += query.mQtys[queryPos[k]] * (doc.mImpacts8[docPos[k]] & 0xFF);
+    }
+    
+    return score * doc.mImpactScale;
+  }
+  
   
   
   @Override
@@ -140,8 +301,8 @@ public class BM25SimilarityLucene extends QueryDocSimilarity {
         }
       }
 
-      float normTF1 = (docTF1 * (mBM25_k1 + 1)) / ( docTF1 + mBM25_k1 * (1 - mBM25_b + mBM25_b * docLen * mInvAvgDl));
-      float normTF2 = (docTF2 * (mBM25_k1 + 1)) / ( docTF2 + mBM25_k1 * (1 - mBM25_b + mBM25_b * docLen * mInvAvgDl));
+      float normTF1 = normTF(docTF1, docLen);
+      float normTF2 = normTF(docTF2, docLen);
 
       float queryTF = query.mQtys[iq];
 
@@ -163,6 +324,8 @@ public class BM25SimilarityLucene extends QueryDocSimilarity {
    * 
    * <p>These vectors are designed so that a dot product of a query and
    * a document vectors is equal to the value of the respective BM25 similarity.
+   * If impacts are precomputed, document vectors contain (de-quantized) impacts, while
+   * query vectors contain only term frequencies.
    * </p>
    * 
    * @param e         a query/document entry
@@ -182,14 +345,16 @@ public class BM25SimilarityLucene extends QueryDocSimilarity {
       if (wordId < 0) continue;
       
       
-      float IDF = getIDF(mFieldIndex, wordId);
       float tf = e.mQtys[i];
       
       res.mIDs[id] = wordId;
-      res.mVals[id]=  (float) Math.sqrt(IDF) *(
-                        isQuery ? tf : 
-                          (tf * (mBM25_k1 + 1)) / ( tf + mBM25_k1 * (1 - mBM25_b + mBM25_b * docLen * mInvAvgDl))
-                                       );
+      if (mUseImpacts) {
+        res.mVals[id] = isQuery ? tf : 
+                          (e.hasImpacts() ? e.getImpact(i) : getIDF(mFieldIndex, wordId) * normTF(tf, docLen));
+      } else {
+        float IDF = getIDF(mFieldIndex, wordId);
+        res.mVals[id]=  (float) Math.sqrt(IDF) * (isQuery ? tf : normTF(tf, docLen));
+      }
       id++;
     }
     
@@ -67,27 +67,26 @@ public class BM25SimilarityLuceneNorm extends QueryDocSimilarity {
       }
     }
     
-    int   iQuery = 0, iDoc = 0;
+    SparseIntersection.Buffers posBuf = SparseIntersection.getBuffers(queryTermQty, docTermQty);
+    int   queryPos[] = posBuf.mPos1;
+    int   docPos[]   = posBuf.mPos2;
+    int   matchQty   = SparseIntersection.intersect(query.mWordIds, queryTermQty, 
+                                                    doc.mWordIds, docTermQty, 
+                                                    queryPos, docPos);
     
     float docLen = doc.mWordIdSeq.length;
     
-    while (iQuery < queryTermQty && iDoc < docTermQty) {
-      final int queryWordId = query.mWordIds[iQuery];
-      final int docWordId   = doc.mWordIds[iDoc];
+    for (int k = 0; k < matchQty; ++k) {
+      final int iQuery = queryPos[k], iDoc = docPos[k];
       
-      if (queryWordId < docWordId) ++iQuery;
-      else if (queryWordId > docWordId) ++iDoc;
-      else {
-        float tf = doc.mQtys[iDoc];
+      float tf = doc.mQtys[iDoc];
         
-        float normTf = (tf * (mBM25_k1 + 1)) / ( tf + mBM25_k1 * (1 - mBM25_b + mBM25_b * docLen * mInvAvgDl));
+      float normTf = (tf * (mBM25_k1 + 1)) / ( tf + mBM25_k1 * (1 - mBM25_b + mBM25_b * docLen * mInvAvgDl));
         
-        float idf = getIDF(mFieldIndex, query.mWordIds[iQuery]);
-        score +=  idf * // IDF 
-                  query.mQtys[iQuery] *           // query frequency
-                  normTf;                         // Normalized term frequency        
-        ++iQuery; ++iDoc;
-      }
+      float idf = getIDF(mFieldIndex, query.mWordIds[iQuery]);
+      score +=  idf * // IDF 
+                query.mQtys[iQuery] *           // query frequency
+                normTf;                         // Normalized term frequency        
     }
 
     if (normIDF > 0) score /= normIDF;
@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.simil;
+
+import java.util.Arrays;
+
+/**
+ * An unbounded binary min-heap of (distance, integer ID) pairs, which
+ * graph-based searches use as a queue of nodes to explore: the closest
+ * candidate is extracted first. Distances and IDs are stored in primitive arrays,
+ * which grow on demand, but are not shrunk by {@link #clear()}. Hence,
+ * a queue reused by many searches doesn't allocate memory.
+ *
+ * <p>The class is not thread-safe, each search thread should have its own queue
+ * (see also {@link KNNHeap}, which keeps the k closest entries found).</p>
+ */
+public class CandidateQueue {
+  /**
+   * @return true if the queue has no entries.
+   */
+  public boolean isEmpty() { return mQty == 0; }
+
+  /**
+   * @return the number of entries in the queue.
+   */
+  public int size() { return mQty; }
+
+  /**
+   * Removes all the entries.
+   */
+  public void clear() { mQty = 0; }
+
+  /**
+   * @return the smallest distance in the queue, the queue must not be empty.
+   */
+  public float getTopDist() { return mDists[0]; }
+
+  /**
+   * Adds an entry.
+   *
+   * @param dist    a distance
+   * @param id      an entry ID
+   */
+  public void push(float dist, int id) {
+    if (mQty == mDists.length) {
+      mDists = Arrays.copyOf(mDists, 2 * mQty);
+      mIds = Arrays.copyOf(mIds, 2 * mQty);
+    }
+    // Sift up
+    int pos = mQty++;
+    while (pos > 0) {
+      int parent = (pos - 1) >>> 1;
+      if (mDists[parent] <= dist) break;
+      mDists[pos] = mDists[parent];
+      mIds[pos] = mIds[parent];
+      pos = parent;
+    }
+    mDists[pos] = dist;
+    mIds[pos] = id;
+  }
+
+  /**
+   * Removes the entry with the smallest distance, the queue must not be empty.
+   *
+   * @return the ID of the removed entry.
+   */
+  public int pop() {
+    int res = mIds[0];
+    // Move the last element to the top and sift it down
+    --mQty;
+    float dist = mDists[mQty];
+    int   id = mIds[mQty];
+    int pos = 0;
+    while (true) {
+      int child = 2 * pos + 1;
+      if (child >= mQty) break;
+      if (child + 1 < mQty && mDists[child + 1] < mDists[child]) ++child;
+      if (mDists[child] >= dist) break;
+      mDists[pos] = mDists[child];
+      mIds[pos] = mIds[child];
+      pos = child;
+    }
+    if (mQty > 0) {
+      mDists[pos] = dist;
+      mIds[pos] = id;
+    }
+    return res;
+  }
+
+  private float mDists[] = new float[256];
+  private int   mIds[] = new int[256];
+  private int   mQty = 0;
+}
@@ -22,6 +22,11 @@ public class CosineDistance extends AbstractDistance {
     return DistanceFunctions.compCosine(vec1, vec2);
   }
 
+  @Override
+  public float compute(float[] block1, int off1, float[] block2, int off2, int dim) {
+    return DistanceFunctions.compCosine(block1, off1, block2, off2, dim);
+  }
+
   @Override
   public String getName() {
     return "cosine";
@@ -59,21 +59,18 @@ public class CosineTextSimilarity extends QueryDocSimilarity {
       normDoc += w * w;
     }
     
-    int   iQuery = 0, iDoc = 0;
+    SparseIntersection.Buffers posBuf = SparseIntersection.getBuffers(queryTermQty, docTermQty);
+    int   queryPos[] = posBuf.mPos1;
+    int   docPos[]   = posBuf.mPos2;
+    int   matchQty   = SparseIntersection.intersect(query.mWordIds, queryTermQty, 
+                                                    doc.mWordIds, docTermQty, 
+                                                    queryPos, docPos);
     
-    while (iQuery < queryTermQty && iDoc < docTermQty) {
-      final int queryWordId = query.mWordIds[iQuery];
-      final int docWordId   = doc.mWordIds[iDoc];
+    for (int k = 0; k < matchQty; ++k) {
+      final int iQuery = queryPos[k], iDoc = docPos[k];
       
-      if (queryWordId < docWordId) ++iQuery;
-      else if (queryWordId > docWordId) ++iDoc;
-      else { 
-        // Here queryWordId == docWordId
-        float idf = getIDF(mFieldIndex, docWordId);
-        score +=  query.mQtys[iQuery] * idf * doc.mQtys[iDoc] * idf;
-        
-        ++iQuery; ++iDoc;
-      }
+      float idf = getIDF(mFieldIndex, doc.mWordIds[iDoc]);
+      score +=  query.mQtys[iQuery] * idf * doc.mQtys[iDoc] * idf;
     }
     
     return score /= Math.sqrt(Math.max(1e-6, normQuery * normDoc));
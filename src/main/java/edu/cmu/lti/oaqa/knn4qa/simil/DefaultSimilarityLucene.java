@@ -45,36 +45,34 @@ public class DefaultSimilarityLucene extends QueryDocSimilarity {
     int   docTermQty = doc.mWordIds.length;
     int   queryTermQty = query.mWordIds.length;
     
-    int   iQuery = 0, iDoc = 0;
+    SparseIntersection.Buffers posBuf = SparseIntersection.getBuffers(queryTermQty, docTermQty);
+    int   queryPos[] = posBuf.mPos1;
+    int   docPos[]   = posBuf.mPos2;
+    int   matchQty   = SparseIntersection.intersect(query.mWordIds, queryTermQty, 
+                                                    doc.mWordIds, docTermQty, 
+                                                    queryPos, docPos);
     
     float docLen = doc.mWordIdSeq.length;
     
 //    float queryNorm = 0;
     float lengthNorm = docLen > 0 ? ((float) (1.0 / Math.sqrt(docLen))) : 0;
     
-    while (iQuery < queryTermQty && iDoc < docTermQty) {
-      final int queryWordId = query.mWordIds[iQuery];
-      final int docWordId   = doc.mWordIds[iDoc];
+    for (int k = 0; k < matchQty; ++k) {
+      final int iQuery = queryPos[k], iDoc = docPos[k];
       
-      if (queryWordId < docWordId) ++iQuery;
-      else if (queryWordId > docWordId) ++iDoc;
-      else {
-        float tf = (float)Math.sqrt(doc.mQtys[iDoc]);
+      float tf = (float)Math.sqrt(doc.mQtys[iDoc]);
         
-        float idf = getIDF(mFieldIndex, query.mWordIds[iQuery]);
-        float idfSquared = idf * idf;
+      float idf = getIDF(mFieldIndex, query.mWordIds[iQuery]);
+      float idfSquared = idf * idf;
         
-//        System.out.println(String.format("## Word %s sqrt(tf)=%f idf=%f", 
-//                                        mFieldIndex.getWord(query.mWordIds[iQuery]), tf, idf));
+//      System.out.println(String.format("## Word %s sqrt(tf)=%f idf=%f", 
+//                                      mFieldIndex.getWord(query.mWordIds[iQuery]), tf, idf));
         
 // Contrary to what docs say: It looks like Lucene actually doesn't use this query normalizer        
-//        queryNorm += idfSquared;
+//      queryNorm += idfSquared;
         
-        score +=  query.mQtys[iQuery] *           // query frequency
-                  tf * idfSquared;
-        
-        ++iQuery; ++iDoc;
-      }
+      score +=  query.mQtys[iQuery] *           // query frequency
+                tf * idfSquared;
     }
     
 //    queryNorm = (float)Math.sqrt(queryNorm);
@@ -44,8 +44,6 @@ public class DistanceFunctions {
    * @return        normalized scalar product
    */
   public static float compEuclidean(float[] vec1, float[] vec2)  {    
-    float sum = 0;
-    
     int N = vec1.length;
     if (N != vec2.length) 
       throw new RuntimeException(String.format("Bug: different vector lengths: %d vs %d",
@@ -53,8 +51,25 @@ public class DistanceFunctions {
     if (N == 0)
       throw new RuntimeException("Bug: zero-length vectors are not acceptable!");
 
-    for (int i = 0; i < N; i++) {
-      float d = vec1[i] - vec2[i];
+    return compEuclidean(vec1, 0, vec2, 0, N);
+  }
+  
+  /**
+   * Computes the Euclidean distance between two vectors stored at
+   * given offsets of (possibly larger) arrays, e.g., rows of an embedding matrix.
+   * 
+   * @param block1  an array keeping the first vector
+   * @param off1    an offset of the first vector
+   * @param block2  an array keeping the second vector
+   * @param off2    an offset of the second vector
+   * @param dim     the number of vector elements (it should be positive)
+   * @return        the Euclidean distance
+   */
+  public static float compEuclidean(float[] block1, int off1, float[] block2, int off2, int dim)  {    
+    float sum = 0;
+    
+    for (int i = 0; i < dim; i++) {
+      float d = block1[off1 + i] - block2[off2 + i];
       sum += d * d;
     }
 
@@ -73,6 +88,16 @@ public class DistanceFunctions {
     return 1 - compNormScalar(vec1, vec2);
   }
   
+  /**
+   * Computes the cosine distance between two vectors stored at
+   * given offsets of (possibly larger) arrays.
+   * 
+   * @see #compEuclidean(float[], int, float[], int, int)
+   */
+  public static float compCosine(float[] block1, int off1, float[] block2, int off2, int dim)  {
+    return 1 - compNormScalar(block1, off1, block2, off2, dim);
+  }
+  
   /**
    * Computes a normalized scalar product, i.e., a cosine value
    * of the angle between vectors. 
@@ -83,10 +108,6 @@ public class DistanceFunctions {
    * @return        normalized scalar product
    */
   public static float compNormScalar(float[] vec1, float[] vec2)  {    
-    float sum = 0;
-    float norm1 = 0;
-    float norm2 = 0;
-    
     int N = vec1.length;
     if (N != vec2.length) 
       throw new RuntimeException(String.format("Bug: different vector lengths: %d vs %d",
@@ -94,10 +115,25 @@ public class DistanceFunctions {
     if (N == 0)
       throw new RuntimeException("Bug: zero-length vectors are not acceptable!");
 
-    for (int i = 0; i < N; i++) {
-      norm1 += vec1[i] * vec1[i];
-      norm2 += vec2[i] * vec2[i];
-      sum += vec1[i] * vec2[i];
+    return compNormScalar(vec1, 0, vec2, 0, N);
+  }
+  
+  /**
+   * Computes a normalized scalar product of two vectors stored at
+   * given offsets of (possibly larger) arrays.
+   * 
+   * @see #compEuclidean(float[], int, float[], int, int)
+   */
+  public static float compNormScalar(float[] block1, int off1, float[] block2, int off2, int dim)  {    
+    float sum = 0;
+    float norm1 = 0;
+    float norm2 = 0;
+    
+    for (int i = 0; i < dim; i++) {
+      float v1 = block1[off1 + i], v2 = block2[off2 + i];
+      norm1 += v1 * v1;
+      norm2 += v2 * v2;
+      sum += v1 * v2;
     }
 
     /* 
@@ -191,19 +227,15 @@ public class DistanceFunctions {
     int   docTermQty = doc.mWordIds.length;
     int   queryTermQty = query.mWordIds.length;
     
-    int   iQuery = 0, iDoc = 0;       
+    SparseIntersection.Buffers posBuf = SparseIntersection.getBuffers(queryTermQty, docTermQty);
+    int   queryPos[] = posBuf.mPos1;
+    int   docPos[]   = posBuf.mPos2;
+    int   matchQty   = SparseIntersection.intersect(query.mWordIds, queryTermQty, 
+                                                    doc.mWordIds, docTermQty, 
+                                                    queryPos, docPos);
     
-    while (iQuery < queryTermQty && iDoc < docTermQty) {
-      final int queryWordId = query.mWordIds[iQuery];
-      final int docWordId   = doc.mWordIds[iDoc];
-      
-      if (queryWordId < docWordId) ++iQuery;
-      else if (queryWordId > docWordId) ++iDoc;
-      else {
-        score +=  query.mQtys[iQuery];
-        
-        ++iQuery; ++iDoc;
-      }
+    for (int k = 0; k < matchQty; ++k) {
+      score +=  query.mQtys[queryPos[k]];
     }
     
     return score;
@@ -352,18 +384,18 @@ public class DistanceFunctions {
                                DocEntry e2,
                                EmbeddingReaderAndRecoder embed) {
     int qty1 = e1.mWordIds.length;
-    float vecs1 [][] = new float[qty1][];    
+    int rows1 [] = new int[qty1];    
     for (int i = 0; i < qty1; ++i) {
-      vecs1[i] = embed.getVector(e1.mWordIds[i]);
+      rows1[i] = embed.getRow(e1.mWordIds[i]);
     }
     
     int qty2 = e2.mWordIds.length;
-    float vecs2 [][] = new float[qty2][];    
+    int rows2 [] = new int[qty2];    
     for (int i = 0; i < qty2; ++i) {
-      vecs2[i] = embed.getVector(e2.mWordIds[i]);
+      rows2[i] = embed.getRow(e2.mWordIds[i]);
     }   
     
-    return compDistMatrix(distType, vecs1, vecs2);
+    return compDistMatrix(distType, rows1, rows2, embed);
   }
 
   /**
@@ -383,20 +415,55 @@ public class DistanceFunctions {
                                String   words2[],
                                EmbeddingReaderAndRecoder embed) {
     int qty1 = words1.length;
-    float vecs1 [][] = new float[qty1][];    
+    int rows1 [] = new int[qty1];    
     for (int i = 0; i < qty1; ++i) {
-      vecs1[i] = embed.getVector(words1[i]);
+      rows1[i] = embed.getRow(words1[i]);
     }
     
     int qty2 = words2.length;
-    float vecs2 [][] = new float[qty2][];    
+    int rows2 [] = new int[qty2];    
     for (int i = 0; i < qty2; ++i) {
-      vecs2[i] = embed.getVector(words2[i]);
+      rows2[i] = embed.getRow(words2[i]);
     }   
     
-    return compDistMatrix(distType, vecs1, vecs2);
+    return compDistMatrix(distType, rows1, rows2, embed);
   }  
   
+  /**
+   * Creates the distance matrix for given rows of the embedding matrix:
+   * the rows are read in place (without copying).
+   * 
+   * @return the distance matrix: entries corresponding to missing (negative) rows
+   *         are filled with Float.POSITIVE_INFINITY
+   */
+  private static float [][]  compDistMatrix(AbstractDistance distType,
+                                            int rows1[], int rows2[],
+                                            EmbeddingReaderAndRecoder embed) {
+    final int dim = embed.getDim();
+    int qty1 = rows1.length, qty2 = rows2.length;
+
+    float distMatr[][] = new float[qty1][];
+    
+    for (int i = 0; i < qty1; ++i) {
+      distMatr[i] = new float[qty2];
+      
+      if (rows1[i] < 0) {
+        Arrays.fill(distMatr[i], Float.POSITIVE_INFINITY);
+        continue;
+      }
+      float block1[] = embed.getBlock(rows1[i]);
+      int   off1 = embed.getOffset(rows1[i]);
+      
+      for (int k = 0; k < qty2; ++k)
+        distMatr[i][k] = rows2[k] >= 0 ? 
+                            distType.compute(block1, off1, 
+                                             embed.getBlock(rows2[k]), embed.getOffset(rows2[k]), dim) : 
+                            Float.POSITIVE_INFINITY;
+    }
+    
+    return distMatr;
+  }
+  
   /**
    * Computes similarity scores related Word-Moving-Distance between two document entries based.
    * 
@@ -466,6 +533,11 @@ public class DistanceFunctions {
   /**
    * Computes a Jensen-Shannon Divergence between two sparse probability vectors.
    * 
+   * <p>An element that is present only in one vector, contributes val*log(2).
+   * Thus, we need to compute logarithms only for elements present in both vectors,
+   * which are found using {@link SparseIntersection}.
+   * </p>
+   * 
    * @param vec1 the first vector
    * @param vec2 the second value
    * @return the value of Jensen-Shannon Divergence.
@@ -476,32 +548,38 @@ public class DistanceFunctions {
     
     float res = 0;
     
-    int i1 = 0, i2 = 0;
-    
     int    ids1[]  = vec1.getIndex();
     double vals1[] = vec1.getData();
     
     int    ids2[]  = vec2.getIndex();
     double vals2[] = vec2.getData();
     
-    while (i1 < qty1 && i2 < qty2) {
-      double val1 = 0, val2 = 0;
-      if (ids1[i1] < ids2[i2]) {
-        val1 = vals1[i1];
-        if (val1 < 0 || val1 > 1) 
-          throw new Exception(String.format("Illegal probability value %f", val1));
-        i1++;
-      } else if (ids1[i1] > ids2[i2]) {
-        val2 = vals2[i2];
-        if (val2 < 0 || val2 > 1) 
-          throw new Exception(String.format("Illegal probability value %f", val2));        
-        i2++;
-      } else {
-        val1 = vals1[i1];
-        val2 = vals2[i2];
-        i1++;
-        i2++;
-      }
+    double rest1 = 0, rest2 = 0; // the mass of elements that are present only in one vector 
+    
+    for (int i1 = 0; i1 < qty1; ++i1) {
+      double val1 = vals1[i1];
+      if (val1 < 0 || val1 > 1) 
+        throw new Exception(String.format("Illegal probability value %f", val1));
+      rest1 += val1;
+    }
+    for (int i2 = 0; i2 < qty2; ++i2) {
+      double val2 = vals2[i2];
+      if (val2 < 0 || val2 > 1) 
+        throw new Exception(String.format("Illegal probability value %f", val2));
+      rest2 += val2;
+    }
+    
+    SparseIntersection.Buffers posBuf = SparseIntersection.getBuffers(qty1, qty2);
+    int pos1[] = posBuf.mPos1;
+    int pos2[] = posBuf.mPos2;
+    int matchQty = SparseIntersection.intersect(ids1, qty1, ids2, qty2, pos1, pos2);
+    
+    for (int k = 0; k < matchQty; ++k) {
+      double val1 = vals1[pos1[k]];
+      double val2 = vals2[pos2[k]];
+      rest1 -= val1;
+      rest2 -= val2;
+      
       double valM = 0.5 * (val1+val2);
       if (Math.min(val1, valM) > Double.MIN_VALUE) {
         res += val1*Math.log(val1/valM);
@@ -510,26 +588,56 @@ public class DistanceFunctions {
         res += val2*Math.log(val2/valM);
       }      
     }
-    while (i1 < qty1) {
-      double val1 = vals1[i1];
-      double valM = 0.5* val1;
-      if (Math.min(val1, valM) > Double.MIN_VALUE) {
-        res += val1*Math.log(val1/valM);
-      }
-      i1++;
+    
+    res += Math.max(0, rest1 + rest2) * LOG2;
+    
+    return res / 2;
+  }
+  
+  /**
+   * Computes a Jensen-Shannon Divergence between two sparse probability vectors,
+   * which were created by {@link SparseFloatVector#createProbVector(int[], float[])}.
+   * The values are supposed to be validated at creation time.
+   * 
+   * <p>Because x*log(x) are precomputed, the contribution 
+   * of an element present in both vectors is equal to 
+   * x*log(x) + y*log(y) - (x+y)*log(x+y) + (x+y)*log(2), i.e.,
+   * it requires only one logarithm. Elements present in only one vector contribute x*log(2). 
+   * </p>
+   * 
+   * @param vec1 the first vector
+   * @param vec2 the second value
+   * @return the value of Jensen-Shannon Divergence.
+   */
+  public static double computeJSDiv(SparseFloatVector vec1, SparseFloatVector vec2) {
+    if (!vec1.isProbVector() || !vec2.isProbVector()) {
+      throw new RuntimeException("Bug: JSD can be computed only for vectors created by SparseFloatVector.createProbVector");
     }
-    while (i2 < qty2) {
-      double val2 = vals2[i2];
-      double valM = 0.5* val2;
-      if (Math.min(val2, valM) > Double.MIN_VALUE) {
-        res += val2*Math.log(val2/valM);
+    int qty1 = vec1.size();
+    int qty2 = vec2.size();
+    
+    double res = (vec1.mSum + vec2.mSum) * LOG2;
+    
+    SparseIntersection.Buffers posBuf = SparseIntersection.getBuffers(qty1, qty2);
+    int pos1[] = posBuf.mPos1;
+    int pos2[] = posBuf.mPos2;
+    int matchQty = SparseIntersection.intersect(vec1.mIds, qty1, vec2.mIds, qty2, pos1, pos2);
+    
+    for (int k = 0; k < matchQty; ++k) {
+      int i1 = pos1[k], i2 = pos2[k];
+      double valSum = (double)vec1.mVals[i1] + vec2.mVals[i2];
+      if (valSum > Double.MIN_VALUE) {
+        // (x+y)*log(2) is already accounted for
+        res += vec1.mXLogX[i1] + vec2.mXLogX[i2] - valSum * Math.log(valSum);
       }
-      i2++;
-    }    
+    }
     
-    return res / 2;
+    // Due to rounding errors, the result can be slightly negative
+    return Math.max(0, res / 2);
   }
   
+  private static final double LOG2 = Math.log(2);
+  
   public static void main(String[] arg) throws Exception {
     EmbeddingReaderAndRecoder wr = new EmbeddingReaderAndRecoder(arg[0], null);
     
@@ -20,6 +20,11 @@ public class EuclideanDistance extends AbstractDistance {
   public float compute(float[] vec1, float[] vec2) {
     return DistanceFunctions.compEuclidean(vec1, vec2);
   }
+
+  @Override
+  public float compute(float[] block1, int off1, float[] block2, int off2, int dim) {
+    return DistanceFunctions.compEuclidean(block1, off1, block2, off2, dim);
+  }
   
   @Override
   public String getName() {
@@ -0,0 +1,180 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.simil;
+
+/**
+ * A fixed-size binary max-heap of (distance, integer ID) pairs, which
+ * keeps k entries with the smallest distances. Distances and IDs are
+ * stored in primitive arrays, so adding an entry doesn't allocate memory.
+ *
+ * <p>The top of the heap is the <b>worst</b> (i.e., the farthest)
+ * of the k entries: as long as the heap is full,
+ * its distance is an upper bound for the distance of new candidates
+ * (see {@link #getBound()}).</p>
+ *
+ * <p>The class is not thread-safe, each search thread should have its own heap.</p>
+ */
+public class KNNHeap {
+  /**
+   * Constructor.
+   *
+   * @param k   the maximum number of entries to keep.
+   */
+  public KNNHeap(int k) {
+    if (k < 0) throw new RuntimeException("Bug: negative heap size: " + k);
+    mMaxQty = k;
+    mDists = new float[k];
+    mIds = new int[k];
+  }
+
+  /**
+   * @return the number of entries in the heap.
+   */
+  public int size() { return mQty; }
+
+  /**
+   * @return the maximum number of entries.
+   */
+  public int getMaxQty() { return mMaxQty; }
+
+  /**
+   * @return true if the heap has k entries.
+   */
+  public boolean isFull() { return mQty == mMaxQty; }
+
+  /**
+   * Removes all the entries.
+   */
+  public void clear() { mQty = 0; }
+
+  /**
+   * Removes all the entries and changes the maximum number of entries.
+   * Arrays are re-allocated only if they are too small, so a heap can be
+   * reused by searches with different k.
+   *
+   * @param k   the maximum number of entries to keep.
+   */
+  public void reset(int k) {
+    if (k < 0) throw new RuntimeException("Bug: negative heap size: " + k);
+    if (k > mDists.length) {
+      mDists = new float[k];
+      mIds = new int[k];
+    }
+    mMaxQty = k;
+    mQty = 0;
+  }
+
+  /**
+   * Returns the distance that a new entry needs to beat to get into the heap:
+   * this is the largest distance in the heap, if it is full, or
+   * the positive infinity otherwise.
+   *
+   * @return an upper bound for the distance of new entries.
+   */
+  public float getBound() {
+    return mQty == mMaxQty && mMaxQty > 0 ? mDists[0] : Float.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Adds an entry if the heap is not full or if the distance is
+   * smaller than the largest distance in the heap (which is then evicted).
+   *
+   * @param dist    a distance
+   * @param id      an entry ID
+   * @return true if the entry was added.
+   */
+  public boolean offer(float dist, int id) {
+    if (mQty < mMaxQty) {
+      // Sift up
+      int pos = mQty++;
+      while (pos > 0) {
+        int parent = (pos - 1) >>> 1;
+        if (mDists[parent] >= dist) break;
+        mDists[pos] = mDists[parent];
+        mIds[pos] = mIds[parent];
+        pos = parent;
+      }
+      mDists[pos] = dist;
+      mIds[pos] = id;
+      return true;
+    }
+    if (mMaxQty == 0 || !(dist < mDists[0])) return false;
+    // Replace the top and sift down
+    int pos = 0;
+    while (true) {
+      int child = 2 * pos + 1;
+      if (child >= mQty) break;
+      if (child + 1 < mQty && mDists[child + 1] > mDists[child]) ++child;
+      if (mDists[child] <= dist) break;
+      mDists[pos] = mDists[child];
+      mIds[pos] = mIds[child];
+      pos = child;
+    }
+    mDists[pos] = dist;
+    mIds[pos] = id;
+    return true;
+  }
+
+  /**
+   * Adds all entries of another heap.
+   *
+   * @param other   another heap.
+   */
+  public void merge(KNNHeap other) {
+    for (int i = 0; i < other.mQty; ++i)
+      offer(other.mDists[i], other.mIds[i]);
+  }
+
+  /**
+   * Extracts all the entries sorted in the order of increasing distances,
+   * the heap becomes empty.
+   *
+   * @param ids     an output array of IDs, must have at least {@link #size()} elements.
+   * @param dists   an output array of distances, must have at least {@link #size()} elements.
+   * @return the number of extracted entries.
+   */
+  public int extractSorted(int ids[], float dists[]) {
+    int qty = mQty;
+    for (int i = qty - 1; i >= 0; --i) {
+      ids[i] = mIds[0];
+      dists[i] = mDists[0];
+      // Move the last element to the top and sift it down
+      --mQty;
+      float dist = mDists[mQty];
+      int   id = mIds[mQty];
+      int pos = 0;
+      while (true) {
+        int child = 2 * pos + 1;
+        if (child >= mQty) break;
+        if (child + 1 < mQty && mDists[child + 1] > mDists[child]) ++child;
+        if (mDists[child] <= dist) break;
+        mDists[pos] = mDists[child];
+        mIds[pos] = mIds[child];
+        pos = child;
+      }
+      if (mQty > 0) {
+        mDists[pos] = dist;
+        mIds[pos] = id;
+      }
+    }
+    return qty;
+  }
+
+  private int           mMaxQty;
+  private float         mDists[];
+  private int           mIds[];
+  private int           mQty = 0;
+}
@@ -0,0 +1,132 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.simil;
+
+/**
+ * A compact immutable sparse vector: a sorted array of unique IDs plus
+ * an array of respective float values. The arrays are
+ * exposed for efficiency, but they <b>must not</b> be modified.
+ *
+ * <p>A vector representing a probability distribution can be created
+ * using {@link #createProbVector(int[], float[])}: such a vector additionally
+ * keeps precomputed values x*log(x) and the sum of all elements, which makes
+ * the computation of the Jensen-Shannon divergence cheaper
+ * (see {@link DistanceFunctions#computeJSDiv(SparseFloatVector, SparseFloatVector)}).
+ * Values are supposed to be validated (using {@link #checkValues(int[], float[], int)})
+ * when vectors are loaded or created, not when distances are computed.
+ * </p>
+ */
+public class SparseFloatVector {
+  public final int    mIds[];
+  public final float  mVals[];
+
+  /**
+   * Constructor: the arrays are not copied!
+   *
+   * @param ids   a sorted array of unique IDs.
+   * @param vals  an array of values.
+   */
+  public SparseFloatVector(int ids[], float vals[]) {
+    this(ids, vals, null, 0);
+  }
+
+  private SparseFloatVector(int ids[], float vals[], double xLogX[], double sum) {
+    mIds  = ids;
+    mVals = vals;
+    mXLogX = xLogX;
+    mSum = sum;
+  }
+
+  /**
+   * Creates a vector representing a probability distribution (arrays are not copied).
+   * All the values must be non-negative.
+   *
+   * @param ids   a sorted array of unique IDs.
+   * @param vals  an array of values.
+   * @return a vector with precomputed x*log(x) values.
+   */
+  public static SparseFloatVector createProbVector(int ids[], float vals[]) {
+    double xLogX[] = new double[vals.length];
+    double sum = 0;
+    for (int i = 0; i < vals.length; ++i) {
+      double x = vals[i];
+      sum += x;
+      xLogX[i] = x > Double.MIN_VALUE ? x * Math.log(x) : 0;
+    }
+    return new SparseFloatVector(ids, vals, xLogX, sum);
+  }
+
+  /**
+   * Checks that IDs are sorted and unique, while values are finite and non-negative.
+   *
+   * @param ids     an array of IDs.
+   * @param vals    an array of values.
+   * @param maxId   the maximum possible ID.
+   * @throws Exception
+   */
+  public static void checkValues(int ids[], float vals[], int maxId) throws Exception {
+    if (ids.length != vals.length) {
+      throw new Exception(String.format("The number of IDs (%d) is different from the number of values (%d)",
+                                        ids.length, vals.length));
+    }
+    for (int i = 0; i < ids.length; ++i) {
+      if (ids[i] < 0 || ids[i] > maxId) {
+        throw new Exception(String.format("Invalid ID %d, should be from 0 to %d", ids[i], maxId));
+      }
+      if (i > 0 && ids[i] <= ids[i-1]) {
+        throw new Exception(String.format("IDs are not sorted or not unique: %d follows %d", ids[i], ids[i-1]));
+      }
+      float v = vals[i];
+      if (v < 0 || Float.isNaN(v) || Float.isInfinite(v)) {
+        throw new Exception(String.format("Illegal value %f for ID %d", v, ids[i]));
+      }
+    }
+  }
+
+  /**
+   * @return the number of non-zero elements.
+   */
+  public int size() {
+    return mIds.length;
+  }
+
+  /**
+   * @return true if the vector was created by {@link #createProbVector(int[], float[])}.
+   */
+  public boolean isProbVector() {
+    return mXLogX != null;
+  }
+
+  /**
+   * Creates an L1-normalized copy of the vector, which is also a
+   * probability vector (see {@link #createProbVector(int[], float[])}).
+   *
+   * @return an L1-normalized vector.
+   */
+  public SparseFloatVector normalizeL1() {
+    double norm = 0;
+    for (float v : mVals) norm += Math.abs(v);
+    float vals[] = new float[mVals.length];
+    if (norm > 0) {
+      double invNorm = 1.0 / norm;
+      for (int i = 0; i < vals.length; ++i) vals[i] = (float)(mVals[i] * invNorm);
+    }
+    return createProbVector(mIds, vals);
+  }
+
+  final double mXLogX[];
+  final double mSum;
+}
@@ -0,0 +1,245 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.simil;
+
+/**
+ * Intersection kernels for sorted arrays of unique IDs, which are used
+ * to compute similarities between sparse vectors (and document entries).
+ *
+ * <p>If the arrays have comparable lengths, we use a classic two-pointer merge.
+ * If one array is much longer than the other one (e.g., a 5-term query
+ * is compared against a 2000-term document), it's cheaper to iterate
+ * over the shorter array and look up respective elements in the
+ * longer array. For very short arrays, each element is found via
+ * a binary search in the remaining part of the longer array; otherwise we use
+ * galloping (an exponential search followed by a binary search).
+ * The crossover points are established using the SparseIntersectionBenchmark
+ * micro-benchmark (in the test source tree).
+ * </p>
+ *
+ * <p>Intersection functions return the number of matching elements and
+ * memorize their positions in both arrays. The output arrays should
+ * have at least min(qty1, qty2) elements (see {@link #maxMatchQty(int, int)}).
+ * Matching positions are stored in the increasing order.
+ * Scoring kernels should obtain the output arrays from {@link #getBuffers(int, int)},
+ * rather than allocate them for each pair of vectors.
+ * </p>
+ */
+public class SparseIntersection {
+  /**
+   * If the longer array is at least that many times longer than the shorter one,
+   * we use galloping instead of merging.
+   */
+  public static final int GALLOP_RATIO = 8;
+  /**
+   * If the shorter array has at most that many elements (and galloping is
+   * used) each element is looked up by a binary search.
+   */
+  public static final int PROBE_MAX_QTY = 2;
+
+  /**
+   * @return the size of the output arrays sufficient to keep all matching positions.
+   */
+  public static int maxMatchQty(int qty1, int qty2) {
+    return Math.min(qty1, qty2);
+  }
+
+  /**
+   * Output arrays of intersection functions.
+   */
+  public static final class Buffers {
+    public int mPos1[] = new int[0];
+    public int mPos2[] = new int[0];
+  }
+
+  private static final ThreadLocal<Buffers> THREAD_BUFFERS = new ThreadLocal<Buffers>() {
+    @Override
+    protected Buffers initialValue() {
+      return new Buffers();
+    }
+  };
+
+  /**
+   * Returns per-thread output arrays that are large enough to intersect
+   * arrays with qty1 and qty2 elements. The arrays are re-used by subsequent
+   * calls in the same thread: matching positions must be consumed before
+   * the next call.
+   *
+   * @param qty1    the number of elements in the first array
+   * @param qty2    the number of elements in the second array
+   *
+   * @return per-thread buffers with at least {@link #maxMatchQty(int, int)} elements.
+   */
+  public static Buffers getBuffers(int qty1, int qty2) {
+    Buffers buf = THREAD_BUFFERS.get();
+    int     qty = maxMatchQty(qty1, qty2);
+    if (buf.mPos1.length < qty) {
+      int newQty = Math.max(qty, 2 * buf.mPos1.length);
+      buf.mPos1 = new int[newQty];
+      buf.mPos2 = new int[newQty];
+    }
+    return buf;
+  }
+
+  /**
+   * Intersects two sorted arrays of unique IDs selecting the most appropriate
+   * algorithm.
+   *
+   * @param ids1    the first sorted array
+   * @param qty1    the number of elements to use in the first array
+   * @param ids2    the second sorted array
+   * @param qty2    the number of elements to use in the second array
+   * @param pos1    positions of matching elements in the first array (output)
+   * @param pos2    positions of matching elements in the second array (output)
+   *
+   * @return the number of matching elements.
+   */
+  public static int intersect(int ids1[], int qty1,
+                              int ids2[], int qty2,
+                              int pos1[], int pos2[]) {
+    if (qty1 == 0 || qty2 == 0) return 0;
+
+    if (qty2 >= GALLOP_RATIO * qty1) {
+      return qty1 <= PROBE_MAX_QTY ?
+                intersectProbe(ids1, qty1, ids2, qty2, pos1, pos2) :
+                intersectGallop(ids1, qty1, ids2, qty2, pos1, pos2);
+    }
+    if (qty1 >= GALLOP_RATIO * qty2) {
+      return qty2 <= PROBE_MAX_QTY ?
+                intersectProbe(ids2, qty2, ids1, qty1, pos2, pos1) :
+                intersectGallop(ids2, qty2, ids1, qty1, pos2, pos1);
+    }
+
+    return intersectMerge(ids1, qty1, ids2, qty2, pos1, pos2);
+  }
+
+  /**
+   * A classic two-pointer merge, parameters are the same as in
+   * {@link #intersect(int[], int, int[], int, int[], int[])}.
+   */
+  public static int intersectMerge(int ids1[], int qty1,
+                                   int ids2[], int qty2,
+                                   int pos1[], int pos2[]) {
+    int i1 = 0, i2 = 0, matchQty = 0;
+
+    while (i1 < qty1 && i2 < qty2) {
+      final int id1 = ids1[i1];
+      final int id2 = ids2[i2];
+
+      if (id1 < id2) ++i1;
+      else if (id1 > id2) ++i2;
+      else {
+        pos1[matchQty] = i1;
+        pos2[matchQty] = i2;
+        ++matchQty;
+        ++i1; ++i2;
+      }
+    }
+
+    return matchQty;
+  }
+
+  /**
+   * A galloping intersection: it iterates over the elements of the
+   * <b>first</b> array, which should be the shorter one.
+   * Parameters are the same as in
+   * {@link #intersect(int[], int, int[], int, int[], int[])}.
+   */
+  public static int intersectGallop(int shortIds[], int shortQty,
+                                    int longIds[], int longQty,
+                                    int shortPos[], int longPos[]) {
+    int iLong = 0, matchQty = 0;
+
+    for (int iShort = 0; iShort < shortQty && iLong < longQty; ++iShort) {
+      final int key = shortIds[iShort];
+
+      iLong = gallop(longIds, iLong, longQty, key);
+      if (iLong < longQty && longIds[iLong] == key) {
+        shortPos[matchQty] = iShort;
+        longPos[matchQty] = iLong;
+        ++matchQty;
+        ++iLong;
+      }
+    }
+
+    return matchQty;
+  }
+
+  /**
+   * An intersection that looks up each element of the <b>first</b> (very short)
+   * array in the remaining part of the second array using a binary search.
+   * Parameters are the same as in
+   * {@link #intersect(int[], int, int[], int, int[], int[])}.
+   */
+  public static int intersectProbe(int shortIds[], int shortQty,
+                                   int longIds[], int longQty,
+                                   int shortPos[], int longPos[]) {
+    int iLong = 0, matchQty = 0;
+
+    for (int iShort = 0; iShort < shortQty && iLong < longQty; ++iShort) {
+      final int key = shortIds[iShort];
+
+      iLong = lowerBound(longIds, iLong, longQty, key);
+      if (iLong < longQty && longIds[iLong] == key) {
+        shortPos[matchQty] = iShort;
+        longPos[matchQty] = iLong;
+        ++matchQty;
+        ++iLong;
+      }
+    }
+
+    return matchQty;
+  }
+
+  /**
+   * Finds the first element that is &gt;= key in the range [start, end)
+   * using an exponential search followed by a binary search.
+   *
+   * @return the position of the found element or end, if all elements are smaller than the key.
+   */
+  public static int gallop(int ids[], int start, int end, int key) {
+    if (start >= end || ids[start] >= key) return start;
+    // Here ids[start] < key
+    int prev = start, step = 1;
+    int curr = start + step;
+
+    while (curr < end && ids[curr] < key) {
+      prev = curr;
+      step <<= 1;
+      curr = start + step;
+    }
+    // Here ids[prev] < key and either curr >= end or ids[curr] >= key
+    return lowerBound(ids, prev + 1, Math.min(curr + 1, end), key);
+  }
+
+  /**
+   * Finds the first element that is &gt;= key in the range [start, end)
+   * using a binary search.
+   *
+   * @return the position of the found element or end, if all elements are smaller than the key.
+   */
+  public static int lowerBound(int ids[], int start, int end, int key) {
+    int lo = start, hi = end;
+
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (ids[mid] < key) lo = mid + 1;
+      else hi = mid;
+    }
+
+    return lo;
+  }
+}
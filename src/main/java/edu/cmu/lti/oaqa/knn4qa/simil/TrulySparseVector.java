@@ -32,20 +32,15 @@ public class TrulySparseVector {
     int qty1 = v1.mIDs.length;
     int qty2 = v2.mIDs.length;
     
-    int i1 = 0, i2 = 0;
+    SparseIntersection.Buffers posBuf = SparseIntersection.getBuffers(qty1, qty2);
+    int pos1[] = posBuf.mPos1;
+    int pos2[] = posBuf.mPos2;
+    int matchQty = SparseIntersection.intersect(v1.mIDs, qty1, v2.mIDs, qty2, pos1, pos2);
     
-    while(i1 < qty1 && i2 < qty2) {
-      int wordId1 = v1.mIDs[i1];
-      int wordId2 = v2.mIDs[i2];
-      if (wordId1 < wordId2) {
-        i1++;
-      } else if (wordId1 > wordId2) {
-        i2++;
-      } else {
-        if (wordId1 >=0) { // ignore OOV words if they slip through the cracks
-          res += v1.mVals[i1] * v2.mVals[i2];
-        }
-        i1++; i2++;
+    for (int k = 0; k < matchQty; ++k) {
+      int i1 = pos1[k], i2 = pos2[k];
+      if (v1.mIDs[i1] >=0) { // ignore OOV words if they slip through the cracks
+        res += v1.mVals[i1] * v2.mVals[i2];
       }
     }
     
@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * An output stream that writes data to another stream using a background thread.
+ * Data is accumulated in large blocks, which are passed to the background thread
+ * through a bounded queue. If the underlying stream compresses data, compression
+ * is carried out in parallel with the code that produces data.
+ *
+ * <p>An exception thrown by the underlying stream is re-thrown by one of the
+ * subsequent calls to write() or close().</p>
+ */
+public class BackgroundOutputStream extends OutputStream {
+  private static final int  BLOCK_SIZE = 1 << 20;
+  private static final int  QUEUE_SIZE = 16;
+  private static final byte EOF[] = new byte[0];
+
+  /**
+   * Constructor.
+   *
+   * @param out   the underlying stream, it is closed when this stream is closed.
+   */
+  public BackgroundOutputStream(OutputStream out) {
+    mOut = out;
+    mWriter = new WriterThread();
+    mWriter.start();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (mBlockLen == mBlock.length) sendBlock();
+    mBlock[mBlockLen++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte buf[], int off, int len) throws IOException {
+    while (len > 0) {
+      if (mBlockLen == mBlock.length) sendBlock();
+      int qty = Math.min(len, mBlock.length - mBlockLen);
+      System.arraycopy(buf, off, mBlock, mBlockLen, qty);
+      mBlockLen += qty;
+      off += qty;
+      len -= qty;
+    }
+  }
+
+  /**
+   * Passes buffered data to the background thread, but doesn't wait
+   * until the data is written.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (mBlockLen > 0) sendBlock();
+  }
+
+  /**
+   * Writes all the remaining data, closes the underlying stream, and
+   * waits until the background thread finishes.
+   */
+  @Override
+  public void close() throws IOException {
+    if (mClosed) return;
+    mClosed = true;
+    flush();
+    put(EOF);
+    try {
+      mWriter.join();
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+    checkException();
+  }
+
+  private void sendBlock() throws IOException {
+    put(mBlockLen == mBlock.length ? mBlock : Arrays.copyOf(mBlock, mBlockLen));
+    mBlock = new byte[BLOCK_SIZE];
+    mBlockLen = 0;
+  }
+
+  private void put(byte block[]) throws IOException {
+    checkException();
+    try {
+      mQueue.put(block);
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void checkException() throws IOException {
+    if (mException != null) throw mException;
+  }
+
+  private class WriterThread extends Thread {
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          byte block[] = mQueue.take();
+          if (block == EOF) break;
+          // After a failure, blocks are only discarded, so that the producer doesn't get stuck
+          if (mException == null) {
+            try {
+              mOut.write(block);
+            } catch (IOException e) {
+              mException = e;
+            }
+          }
+        }
+        mOut.close();
+      } catch (IOException e) {
+        if (mException == null) mException = e;
+      } catch (InterruptedException e) {
+        if (mException == null) mException = new IOException(e);
+      }
+    }
+  }
+
+  private final OutputStream                  mOut;
+  private final WriterThread                  mWriter;
+  private final ArrayBlockingQueue<byte[]>    mQueue = new ArrayBlockingQueue<byte[]>(QUEUE_SIZE);
+  private volatile IOException                mException = null;
+  private byte                                mBlock[] = new byte[BLOCK_SIZE];
+  private int                                 mBlockLen = 0;
+  private boolean                             mClosed = false;
+}
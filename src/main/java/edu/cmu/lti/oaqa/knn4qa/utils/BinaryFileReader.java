@@ -0,0 +1,160 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A sequential reader of little-endian binary files (see {@link BinaryFileWriter}),
+ * which memory-maps the file. Because a single mapping can't
+ * exceed 2GB, the file is mapped using windows of limited size.
+ * Arrays are read in bulk, i.e., without converting elements one by one.
+ */
+public class BinaryFileReader {
+  private static final int WINDOW_SIZE = 1 << 30;
+
+  public BinaryFileReader(String fileName) throws IOException {
+    mFileName = fileName;
+    mFile = new RandomAccessFile(fileName, "r");
+    mChannel = mFile.getChannel();
+    mSize = mChannel.size();
+    map(0);
+  }
+
+  /**
+   * @return the file size.
+   */
+  public long getSize() { return mSize; }
+
+  /**
+   * @return the current position in the file.
+   */
+  public long getPosition() { return mWinStart + mWin.position(); }
+
+  /**
+   * Moves to a given position in the file.
+   */
+  public void seek(long pos) throws IOException {
+    if (pos < 0 || pos > mSize)
+      throw new IOException(String.format("Position %d is outside of file '%s'", pos, mFileName));
+    if (pos >= mWinStart && pos <= mWinStart + mWin.limit()) {
+      mWin.position((int)(pos - mWinStart));
+    } else {
+      map(pos);
+    }
+  }
+
+  public int readInt() throws IOException {
+    ensure(4); return mWin.getInt();
+  }
+
+  public long readLong() throws IOException {
+    ensure(8); return mWin.getLong();
+  }
+
+  public float readFloat() throws IOException {
+    ensure(4); return mWin.getFloat();
+  }
+
+  public void readInts(int arr[], int off, int qty) throws IOException {
+    while (qty > 0) {
+      ensure(4);
+      int n = Math.min(qty, mWin.remaining() / 4);
+      mWin.asIntBuffer().get(arr, off, n);
+      mWin.position(mWin.position() + 4 * n);
+      off += n; qty -= n;
+    }
+  }
+
+  public void readLongs(long arr[], int off, int qty) throws IOException {
+    while (qty > 0) {
+      ensure(8);
+      int n = Math.min(qty, mWin.remaining() / 8);
+      mWin.asLongBuffer().get(arr, off, n);
+      mWin.position(mWin.position() + 8 * n);
+      off += n; qty -= n;
+    }
+  }
+
+  public void readFloats(float arr[], int off, int qty) throws IOException {
+    while (qty > 0) {
+      ensure(4);
+      int n = Math.min(qty, mWin.remaining() / 4);
+      mWin.asFloatBuffer().get(arr, off, n);
+      mWin.position(mWin.position() + 4 * n);
+      off += n; qty -= n;
+    }
+  }
+
+  public void readBytes(byte arr[], int off, int qty) throws IOException {
+    while (qty > 0) {
+      ensure(1);
+      int n = Math.min(qty, mWin.remaining());
+      mWin.get(arr, off, n);
+      off += n; qty -= n;
+    }
+  }
+
+  /**
+   * Reads a string saved by {@link BinaryFileWriter#writeString(String)}.
+   */
+  public String readString() throws IOException {
+    int len = readInt();
+    if (len < 0 || len > mSize - getPosition())
+      throw new IOException(String.format("Corrupt string entry in file '%s'", mFileName));
+    byte bytes[] = new byte[len];
+    int off = 0;
+    while (off < len) {
+      ensure(1);
+      int n = Math.min(len - off, mWin.remaining());
+      mWin.get(bytes, off, n);
+      off += n;
+    }
+    return new String(bytes, "UTF-8");
+  }
+
+  /**
+   * Closes the file, the data which was already read remains valid.
+   */
+  public void close() throws IOException {
+    mFile.close();
+  }
+
+  private void ensure(int qty) throws IOException {
+    if (mWin.remaining() >= qty) return;
+    long pos = getPosition();
+    if (pos + qty > mSize)
+      throw new IOException(String.format("Unexpected end of file '%s'", mFileName));
+    map(pos);
+  }
+
+  private void map(long pos) throws IOException {
+    mWinStart = pos;
+    mWin = mChannel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(WINDOW_SIZE, mSize - pos));
+    mWin.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private final String            mFileName;
+  private final RandomAccessFile  mFile;
+  private final FileChannel       mChannel;
+  private final long              mSize;
+  private long                    mWinStart;
+  private MappedByteBuffer        mWin;
+}
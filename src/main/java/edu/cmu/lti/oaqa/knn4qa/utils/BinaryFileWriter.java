@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.utils;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A buffered writer of binary files in the little-endian order: such files
+ * can be memory-mapped and read using {@link BinaryFileReader}.
+ */
+public class BinaryFileWriter {
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  public BinaryFileWriter(String fileName) throws IOException {
+    mStream = new FileOutputStream(fileName);
+    mChannel = mStream.getChannel();
+    mBuf = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public void writeInt(int v) throws IOException {
+    ensure(4); mBuf.putInt(v);
+  }
+
+  public void writeLong(long v) throws IOException {
+    ensure(8); mBuf.putLong(v);
+  }
+
+  public void writeFloat(float v) throws IOException {
+    ensure(4); mBuf.putFloat(v);
+  }
+
+  public void writeByte(byte v) throws IOException {
+    ensure(1); mBuf.put(v);
+  }
+
+  public void writeShort(short v) throws IOException {
+    ensure(2); mBuf.putShort(v);
+  }
+
+  public void writeInts(int arr[], int off, int qty) throws IOException {
+    for (int i = 0; i < qty; ++i) { ensure(4); mBuf.putInt(arr[off + i]); }
+  }
+
+  public void writeLongs(long arr[], int off, int qty) throws IOException {
+    for (int i = 0; i < qty; ++i) { ensure(8); mBuf.putLong(arr[off + i]); }
+  }
+
+  public void writeFloats(float arr[], int off, int qty) throws IOException {
+    for (int i = 0; i < qty; ++i) { ensure(4); mBuf.putFloat(arr[off + i]); }
+  }
+
+  public void writeBytes(byte arr[], int off, int qty) throws IOException {
+    while (qty > 0) {
+      ensure(1);
+      int n = Math.min(mBuf.remaining(), qty);
+      mBuf.put(arr, off, n);
+      off += n; qty -= n;
+    }
+  }
+
+  /**
+   * Writes a string as the 4-byte length followed by UTF-8 bytes.
+   */
+  public void writeString(String s) throws IOException {
+    byte bytes[] = s.getBytes("UTF-8");
+    writeInt(bytes.length);
+    int off = 0;
+    while (off < bytes.length) {
+      ensure(1);
+      int qty = Math.min(mBuf.remaining(), bytes.length - off);
+      mBuf.put(bytes, off, qty);
+      off += qty;
+    }
+  }
+
+  /**
+   * @return the number of bytes written so far.
+   */
+  public long getPosition() {
+    return mFlushedQty + mBuf.position();
+  }
+
+  public void close() throws IOException {
+    flush();
+    mStream.close();
+  }
+
+  private void ensure(int qty) throws IOException {
+    if (mBuf.remaining() < qty) flush();
+  }
+
+  private void flush() throws IOException {
+    mBuf.flip();
+    while (mBuf.hasRemaining()) {
+      mFlushedQty += mChannel.write(mBuf);
+    }
+    mBuf.clear();
+  }
+
+  private final FileOutputStream  mStream;
+  private final FileChannel       mChannel;
+  private final ByteBuffer        mBuf;
+  private long                    mFlushedQty = 0;
+}
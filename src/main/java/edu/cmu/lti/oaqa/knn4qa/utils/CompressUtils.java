@@ -72,6 +72,29 @@ public class CompressUtils {
     return foutp;
   }
   
+  /**
+   * Creates an output stream to write to a regular or compressed file,
+   * data is compressed and written by a background thread
+   * (see {@link BackgroundOutputStream}).
+   * 
+   * @param fileName    a file name with an extension .gz or without it;
+   *                    if the user specifies an extension .gz, we assume
+   *                    that the output file should be compressed.
+   * @return an output stream to write to a file.
+   * @throws IOException
+   */
+  public static OutputStream createBackgroundOutputStream(String fileName) throws IOException {
+    OutputStream foutp = new FileOutputStream(fileName);
+    if (fileName.endsWith(".gz")) return new BackgroundOutputStream(new GZIPOutputStream(foutp, GZIP_BUFFER_SIZE));
+    if (fileName.endsWith(".bz2")) {
+      foutp.close();
+      throw new IOException("bz2 is not supported for writing");      
+    }
+    return new BackgroundOutputStream(foutp);
+  }
+  
+  private static final int GZIP_BUFFER_SIZE = 1 << 16;
+  
   private static final String SUFF_ARRAY[] = {"", ".gz", ".bz2"};
 
   /**
@@ -0,0 +1,408 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.utils;
+
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A base class to parse large text files in parallel. A file is split
+ * into chunks on line boundaries, each chunk is parsed by its own parser object
+ * (using one of several worker threads). The caller then merges results
+ * of all parsers in the order of chunks, i.e., in the order of file lines.
+ *
+ * <p>An uncompressed file is memory-mapped and split on line boundaries
+ * into (roughly) equal byte ranges. A compressed file can be read only 
+ * sequentially: it is read in large blocks, which are then parsed in parallel.
+ * Chunks are parsed in waves of (at most) as many chunks as there are threads, 
+ * so a file can be also processed in a streaming fashion (see 
+ * {@link #parseFile(String, int, Factory, Handler)}): only a few
+ * chunks are kept in memory at any given time.</p>
+ *
+ * <p>The class also provides a simple tokenizer and hand-written number
+ * parsers, which do not create intermediate strings. If a number is in an
+ * unusual format, the parser falls back to standard Java functions.</p>
+ */
+public abstract class LineChunkParser {
+  /**
+   * Creates a parser for one chunk.
+   */
+  public interface Factory<T extends LineChunkParser> {
+    T create();
+  }
+
+  /**
+   * Processes parsed chunks.
+   */
+  public interface Handler<T extends LineChunkParser> {
+    /**
+     * Processes a parsed chunk: chunks are processed sequentially
+     * (by the thread that called parseFile) in the order of file lines.
+     */
+    void process(T parser) throws Exception;
+  }
+
+  private static final int MAX_CHUNK_SIZE = 1 << 26;
+  private static final int MAX_FAST_DIGIT_QTY = 15;
+  private static final double POW10[] = new double[23];
+
+  static {
+    POW10[0] = 1;
+    for (int i = 1; i < POW10.length; ++i) POW10[i] = POW10[i - 1] * 10;
+  }
+
+  /**
+   * Parses a file.
+   *
+   * @param fileName    a file name: files with extensions .gz and .bz2 are
+   *                    assumed to be compressed.
+   * @param threadQty   a number of threads.
+   * @param factory     creates chunk parsers.
+   * @return parsers (with parsed data) in the order of chunks.
+   * @throws Exception
+   */
+  public static <T extends LineChunkParser> ArrayList<T> parseFile(String fileName,
+                                                                   int threadQty,
+                                                                   Factory<T> factory) throws Exception {
+    final ArrayList<T> res = new ArrayList<T>();
+    
+    parseFile(fileName, threadQty, factory, new Handler<T>() {
+      @Override
+      public void process(T parser) {
+        res.add(parser);
+      }
+    });
+
+    return res;
+  }
+
+  /**
+   * Parses a file and passes parsed chunks to a handler, which can
+   * discard them afterwards: hence, the whole file doesn't have to be 
+   * kept in memory.
+   *
+   * @param fileName    a file name: files with extensions .gz and .bz2 are
+   *                    assumed to be compressed.
+   * @param threadQty   a number of threads.
+   * @param factory     creates chunk parsers.
+   * @param handler     processes parsed chunks in the order of chunks.
+   * @throws Exception
+   */
+  public static <T extends LineChunkParser> void parseFile(String fileName,
+                                                           int threadQty,
+                                                           Factory<T> factory,
+                                                           Handler<T> handler) throws Exception {
+    threadQty = Math.max(1, threadQty);
+    ArrayList<T> wave = new ArrayList<T>();
+
+    if (fileName.endsWith(".gz") || fileName.endsWith(".bz2")) {
+      InputStream inp = CompressUtils.createInputStream(fileName);
+      try {
+        byte carry[] = new byte[0];
+        boolean eof = false;
+
+        while (!eof) {
+          byte block[] = Arrays.copyOf(carry, carry.length + MAX_CHUNK_SIZE);
+          int len = carry.length;
+          while (len < block.length) {
+            int qty = inp.read(block, len, block.length - len);
+            if (qty < 0) { eof = true; break; }
+            len += qty;
+          }
+          int chunkLen = len;
+          if (!eof) {
+            while (chunkLen > 0 && block[chunkLen - 1] != '\n') --chunkLen;
+            if (chunkLen == 0) { // A very long line, need a larger block
+              carry = Arrays.copyOf(block, len);
+              continue;
+            }
+          }
+          carry = Arrays.copyOfRange(block, chunkLen, len);
+          if (chunkLen > 0) {
+            T parser = factory.create();
+            ((LineChunkParser)parser).mBuf = ByteBuffer.wrap(block, 0, chunkLen);
+            wave.add(parser);
+          }
+          if (wave.size() == threadQty || eof) {
+            // Parse blocks read so far, so that we keep only a few of them in memory
+            runWave(wave, threadQty, handler);
+          }
+        }
+      } finally {
+        inp.close();
+      }
+    } else {
+      RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+      try {
+        FileChannel ch = raf.getChannel();
+        long size = ch.size();
+        int chunkQty = (int)Math.max(threadQty, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+
+        long start = 0;
+        for (int i = 1; i <= chunkQty && start < size; ++i) {
+          long end = i == chunkQty ? size : findLineStart(raf, size, Math.max(start, size * i / chunkQty));
+          if (end > start) {
+            T parser = factory.create();
+            ((LineChunkParser)parser).mBuf = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            wave.add(parser);
+          }
+          start = end;
+          if (wave.size() == threadQty || start >= size) {
+            runWave(wave, threadQty, handler);
+          }
+        }
+      } finally {
+        raf.close();
+      }
+    }
+  }
+
+  /**
+   * Parses a wave of chunks in parallel, passes them to the handler, and clears the wave.
+   */
+  private static <T extends LineChunkParser> void runWave(ArrayList<T> wave, 
+                                                          int threadQty,
+                                                          Handler<T> handler) throws Exception {
+    if (wave.isEmpty()) return;
+    run(wave, threadQty);
+    for (T parser : wave) handler.process(parser);
+    wave.clear();
+  }
+
+  /**
+   * @return the first position after the end of line that contains the byte at position pos.
+   */
+  private static long findLineStart(RandomAccessFile raf, long size, long pos) throws Exception {
+    if (pos == 0) return 0;
+    byte buf[] = new byte[4096];
+    --pos; // a boundary is already OK if the previous byte is the end of line
+    while (pos < size) {
+      raf.seek(pos);
+      int qty = raf.read(buf, 0, (int)Math.min(buf.length, size - pos));
+      for (int i = 0; i < qty; ++i) {
+        if (buf[i] == '\n') return pos + i + 1;
+      }
+      pos += qty;
+    }
+    return size;
+  }
+
+  private static void run(ArrayList<? extends LineChunkParser> parsers, int threadQty) throws Exception {
+    threadQty = Math.max(1, Math.min(threadQty, parsers.size()));
+
+    ParserThread threads[] = new ParserThread[threadQty];
+    for (int threadId = 0; threadId < threadQty; ++threadId) {
+      threads[threadId] = new ParserThread(parsers, threadId, threadQty);
+      threads[threadId].start();
+    }
+    for (int threadId = 0; threadId < threadQty; ++threadId) {
+      threads[threadId].join();
+    }
+    for (LineChunkParser parser : parsers) {
+      if (parser.mException != null) throw parser.mException;
+    }
+  }
+
+  private static class ParserThread extends Thread {
+    ParserThread(ArrayList<? extends LineChunkParser> parsers, int threadId, int threadQty) {
+      mParsers = parsers;
+      mThreadId = threadId;
+      mThreadQty = threadQty;
+    }
+
+    @Override
+    public void run() {
+      for (int i = mThreadId; i < mParsers.size(); i += mThreadQty) {
+        ((LineChunkParser)mParsers.get(i)).parseChunk();
+      }
+    }
+
+    private final ArrayList<? extends LineChunkParser> mParsers;
+    private final int mThreadId;
+    private final int mThreadQty;
+  }
+
+  private void parseChunk() {
+    try {
+      int end = mBuf.limit();
+      int pos = mBuf.position();
+      while (pos < end) {
+        int lineEnd = pos;
+        while (lineEnd < end && mBuf.get(lineEnd) != '\n') ++lineEnd;
+        mPos = pos;
+        mLineStart = pos;
+        mLineEnd = lineEnd;
+        parseLine();
+        pos = lineEnd + 1;
+      }
+    } catch (Exception e) {
+      mException = e;
+    }
+    mBuf = null; // Parsed chunk data isn't needed any more
+  }
+
+  /**
+   * Parses the current line: a subclass calls {@link #nextToken()} to
+   * iterate over white-space separated tokens.
+   *
+   * @throws Exception
+   */
+  protected abstract void parseLine() throws Exception;
+
+  /**
+   * Finds the next token in the current line.
+   *
+   * @return false if there are no more tokens.
+   */
+  protected boolean nextToken() {
+    int pos = mPos;
+    while (pos < mLineEnd && isSpace(mBuf.get(pos))) ++pos;
+    mTokStart = pos;
+    while (pos < mLineEnd && !isSpace(mBuf.get(pos))) ++pos;
+    mTokEnd = pos;
+    mPos = pos;
+    return mTokEnd > mTokStart;
+  }
+
+  private static boolean isSpace(byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+  }
+
+  /**
+   * @return the current line as a string (e.g., to report an error).
+   */
+  protected String getLine() throws Exception {
+    return decode(mLineStart, mLineEnd);
+  }
+
+  /**
+   * @return the current token as a (UTF-8 decoded) string.
+   */
+  protected String getToken() throws Exception {
+    return decode(mTokStart, mTokEnd);
+  }
+
+  private String decode(int start, int end) throws Exception {
+    byte bytes[] = new byte[end - start];
+    for (int i = start; i < end; ++i) bytes[i - start] = mBuf.get(i);
+    return new String(bytes, "UTF-8");
+  }
+
+  /**
+   * Parses the current token as an integer.
+   *
+   * @throws NumberFormatException
+   */
+  protected int getTokenInt() throws Exception {
+    int pos = mTokStart;
+    boolean neg = pos < mTokEnd && mBuf.get(pos) == '-';
+    if (neg) ++pos;
+    if (pos == mTokEnd || mTokEnd - pos > 10) return Integer.parseInt(getToken());
+    long res = 0;
+    for (; pos < mTokEnd; ++pos) {
+      int d = mBuf.get(pos) - '0';
+      if (d < 0 || d > 9) return Integer.parseInt(getToken());
+      res = res * 10 + d;
+    }
+    if (neg) res = -res;
+    if (res < Integer.MIN_VALUE || res > Integer.MAX_VALUE) return Integer.parseInt(getToken());
+    return (int)res;
+  }
+
+  /**
+   * Parses the current token as a float. The result is exactly the same as
+   * that of Float.parseFloat: numbers that can't be parsed quickly without
+   * loss of precision are parsed by Float.parseFloat.
+   *
+   * @throws NumberFormatException
+   */
+  protected float getTokenFloat() throws Exception {
+    int pos = mTokStart;
+    boolean neg = pos < mTokEnd && mBuf.get(pos) == '-';
+    if (neg) ++pos;
+
+    long mant = 0;
+    int digitQty = 0, exp = 0;
+    boolean seenDigit = false, seenDot = false;
+    for (; pos < mTokEnd; ++pos) {
+      byte b = mBuf.get(pos);
+      if (b >= '0' && b <= '9') {
+        seenDigit = true;
+        if (mant == 0 && b == '0') {
+          // Leading zeros are not significant
+          if (seenDot) --exp;
+          continue;
+        }
+        if (++digitQty > MAX_FAST_DIGIT_QTY) return Float.parseFloat(getToken());
+        mant = mant * 10 + (b - '0');
+        if (seenDot) --exp;
+      } else if (b == '.' && !seenDot) {
+        seenDot = true;
+      } else {
+        break;
+      }
+    }
+    if (!seenDigit) return Float.parseFloat(getToken());
+    if (pos < mTokEnd) {
+      byte b = mBuf.get(pos);
+      if (b != 'e' && b != 'E') return Float.parseFloat(getToken());
+      ++pos;
+      boolean expNeg = pos < mTokEnd && mBuf.get(pos) == '-';
+      if (pos < mTokEnd && (mBuf.get(pos) == '-' || mBuf.get(pos) == '+')) ++pos;
+      if (pos == mTokEnd || mTokEnd - pos > 3) return Float.parseFloat(getToken());
+      int e = 0;
+      for (; pos < mTokEnd; ++pos) {
+        int d = mBuf.get(pos) - '0';
+        if (d < 0 || d > 9) return Float.parseFloat(getToken());
+        e = e * 10 + d;
+      }
+      exp += expNeg ? -e : e;
+    }
+
+    double res;
+    if (mant == 0) {
+      res = 0;
+    } else if (exp >= 0 && exp < POW10.length) {
+      res = mant * POW10[exp];
+    } else if (exp < 0 && -exp < POW10.length) {
+      res = mant / POW10[-exp];
+    } else {
+      return Float.parseFloat(getToken());
+    }
+    /*
+     * Both the mantissa and the power of ten are exact doubles, so the double
+     * result is correctly rounded. Rounding it to float gives the correctly
+     * rounded float unless the double is exactly in the middle between two floats.
+     */
+    if (res != 0 && (res < Float.MIN_NORMAL || res > Float.MAX_VALUE ||
+                     (Double.doubleToRawLongBits(res) & 0x1FFFFFFFL) == 0x10000000L)) {
+      return Float.parseFloat(getToken());
+    }
+    return (float)(neg ? -res : res);
+  }
+
+  private ByteBuffer  mBuf;
+  private int         mPos;
+  private int         mLineStart;
+  private int         mLineEnd;
+  private int         mTokStart;
+  private int         mTokEnd;
+  private Exception   mException;
+}
@@ -23,4 +23,12 @@ public abstract class VocabularyFilterAndRecoder extends VocabularyFilter {
    * @return        a "recoded" word identifier, or NULL, if the identifier can't be found
    */
   public abstract Integer getWordId(String word);
+  /**
+   * @return an object that defines the recoding: recoders with the same
+   *         source assign the same identifiers to words. By default, 
+   *         it is the recoder itself.
+   */
+  public Object getRecodingSource() {
+    return this;
+  }
 }
@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.apps;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cmu.lti.oaqa.knn4qa.embed.EmbeddingReaderAndRecoder;
+import edu.cmu.lti.oaqa.knn4qa.embed.WordNeighborFile;
+import edu.cmu.lti.oaqa.knn4qa.simil.AbstractDistance;
+
+/**
+ * Compares neighbors computed by the tiled multi-threaded code against
+ * a naive scan that computes every distance using {@link AbstractDistance#compute(float[], float[])}.
+ * The number of words isn't a multiple of tile sizes, partitions of different
+ * sizes are used, and the output shouldn't depend on partitioning or on the number
+ * of threads.
+ */
+public class BuildWordNeighborsTest {
+  static final int   WORD_QTY = 2 * WordNeighborThread.DATA_TILE_QTY + 3 * WordNeighborThread.QUERY_TILE_QTY + 7;
+  static final int   DIM = 19;
+  static final int   K = 10;
+  static final float EPS = 1e-4f;
+
+  static final int   PART_QTYS[] = {37, WordNeighborThread.QUERY_TILE_QTY, WORD_QTY, 10 * WORD_QTY};
+  static final int   THREAD_QTYS[] = {1, 3};
+
+  EmbeddingReaderAndRecoder createEmbeddings() throws Exception {
+    File tmpFile = File.createTempFile("embed", ".txt");
+    tmpFile.deleteOnExit();
+
+    Random rnd = new Random(0);
+    BufferedWriter out = new BufferedWriter(new FileWriter(tmpFile));
+    for (int i = 0; i < WORD_QTY; ++i) {
+      StringBuilder sb = new StringBuilder("w" + i);
+      for (int k = 0; k < DIM; ++k) {
+        float v = (float)rnd.nextGaussian();
+        if (i == 7) v = 0;         // w7 is a zero vector
+        if (i == 11) v = k;        // w11 and w12 are identical
+        if (i == 12) v = k;
+        sb.append(' ').append(v);
+      }
+      out.write(sb.toString());
+      out.newLine();
+    }
+    out.close();
+
+    return new EmbeddingReaderAndRecoder(tmpFile.getAbsolutePath(), null);
+  }
+
+  /**
+   * Checks one row of the output against all distances computed in full:
+   * neighbors are sorted, distances are equal (up to rounding errors)
+   * to the distances of the true k nearest neighbors, and each neighbor is
+   * a distinct word (different from the query word) returned with its true distance.
+   */
+  void checkRow(EmbeddingReaderAndRecoder embed, String words[], AbstractDistance dist,
+                int k, WordNeighborFile res, int wordId) {
+    float query[] = embed.getVector(words[wordId]);
+    float allDists[] = new float[words.length];
+    float sortedDists[] = new float[words.length - 1];
+    int qty = 0;
+    for (int i = 0; i < words.length; ++i) {
+      allDists[i] = dist.compute(query, embed.getVector(words[i]));
+      if (i != wordId) sortedDists[qty++] = allDists[i];
+    }
+    Arrays.sort(sortedDists);
+
+    int expQty = Math.min(k, words.length - 1);
+    assertEquals(expQty, res.getNeighborQty(wordId));
+    HashSet<Integer> seen = new HashSet<Integer>();
+    for (int i = 0; i < expQty; ++i) {
+      int   neighborId = res.getNeighborId(wordId, i);
+      float neighborDist = res.getNeighborDist(wordId, i);
+      assertTrue(neighborId != wordId);
+      assertTrue(seen.add(neighborId));
+      if (i > 0) assertTrue(res.getNeighborDist(wordId, i - 1) <= neighborDist);
+      assertEquals(sortedDists[i], neighborDist, EPS);
+      assertEquals(allDists[neighborId], neighborDist, EPS);
+    }
+  }
+
+  void compareFiles(WordNeighborFile exp, WordNeighborFile res) {
+    assertEquals(exp.getWordQty(), res.getWordQty());
+    assertEquals(exp.getK(), res.getK());
+    assertEquals(exp.getDistName(), res.getDistName());
+    for (int wordId = 0; wordId < exp.getWordQty(); ++wordId) {
+      assertEquals(exp.getWord(wordId), res.getWord(wordId));
+      for (int i = 0; i < exp.getK(); ++i) {
+        assertEquals(exp.getNeighborId(wordId, i), res.getNeighborId(wordId, i));
+        assertEquals(exp.getNeighborDist(wordId, i), res.getNeighborDist(wordId, i), 0);
+      }
+    }
+  }
+
+  void testDist(String distName) throws Exception {
+    EmbeddingReaderAndRecoder embed = createEmbeddings();
+    AbstractDistance dist = AbstractDistance.create(distName);
+    String words[] = embed.getWords();
+
+    for (int k : new int[]{K, WORD_QTY + 5}) {
+      WordNeighborFile first = null;
+      for (int partQty : PART_QTYS)
+      for (int threadQty : THREAD_QTYS) {
+        File outFile = File.createTempFile("neighbors", ".bin");
+        outFile.deleteOnExit();
+        BuildWordNeighbors.compute(embed, words, dist, k, partQty, threadQty, outFile.getAbsolutePath());
+        WordNeighborFile res = new WordNeighborFile(outFile.getAbsolutePath());
+
+        if (first == null) {
+          first = res;
+          assertEquals(dist.getName(), res.getDistName());
+          for (int wordId = 0; wordId < words.length; ++wordId) {
+            assertEquals(words[wordId], res.getWord(wordId));
+            checkRow(embed, words, dist, k, res, wordId);
+          }
+        } else {
+          // Results are computed in the same way regardless of partitioning and the number of threads
+          compareFiles(first, res);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testL2() throws Exception {
+    testDist("l2");
+  }
+
+  @Test
+  public void testCosine() throws Exception {
+    testDist("cosine");
+  }
+}
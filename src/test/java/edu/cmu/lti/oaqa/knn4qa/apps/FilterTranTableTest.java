@@ -0,0 +1,219 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.apps;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cmu.lti.oaqa.knn4qa.giza.GizaTranRec;
+import edu.cmu.lti.oaqa.knn4qa.giza.GizaVocabularyReader;
+import edu.cmu.lti.oaqa.knn4qa.utils.CompressUtils;
+import edu.cmu.lti.oaqa.knn4qa.utils.LineChunkParser;
+import edu.cmu.lti.oaqa.knn4qa.utils.VocabularyFilterAndRecoder;
+
+/**
+ * Compares the chunked filtering of a translation table against a naive
+ * filter that reads the table line by line. The table is split into
+ * different numbers of chunks, so that entries of the same source word
+ * end up in two or more chunks. Output lines, kept entries, and counters
+ * should be exactly the same as those produced by the naive filter.
+ */
+public class FilterTranTableTest {
+  static final int   WORD_QTY = 200;
+  static final int   LONG_WORD_ID = 100;
+  static final int   THREAD_QTYS[] = {1, 2, 3, 8, 33};
+  static final float MIN_PROBS[] = {0, 0.05f};
+  static final String NL = System.getProperty("line.separator");
+
+  /**
+   * Filters out every word whose ID is a multiple of 7.
+   */
+  static class TestFilter extends VocabularyFilterAndRecoder {
+    @Override
+    public boolean checkWord(String word) {
+      return getWordId(word) != null;
+    }
+
+    @Override
+    public Integer getWordId(String word) {
+      int id = Integer.parseInt(word.substring(1));
+      return id % 7 == 0 ? null : id;
+    }
+  }
+
+  /**
+   * A vocabulary that misses some words.
+   */
+  static GizaVocabularyReader createVocabulary(Random rnd) throws Exception {
+    File tmpFile = File.createTempFile("voc", ".vcb");
+    tmpFile.deleteOnExit();
+    PrintWriter out = new PrintWriter(tmpFile);
+    for (int id = 1; id <= WORD_QTY; ++id) {
+      if (rnd.nextInt(10) != 0) out.println(id + " w" + id + " " + (1 + rnd.nextInt(100)));
+    }
+    out.close();
+    return new GizaVocabularyReader(tmpFile.getAbsolutePath(), null, 1);
+  }
+
+  /**
+   * Creates a translation table, where one source word has many more entries
+   * than the others, and some lines are empty.
+   */
+  static String createTable(Random rnd, String suffix) throws Exception {
+    File tmpFile = File.createTempFile("tran_table", suffix);
+    tmpFile.deleteOnExit();
+    PrintWriter out = new PrintWriter(CompressUtils.createOutputStream(tmpFile.getAbsolutePath()));
+    for (int srcId = 0; srcId <= WORD_QTY; ++srcId) {
+      int qty = srcId == LONG_WORD_ID ? 5000 : rnd.nextInt(200);
+      for (int i = 0; i < qty; ++i) {
+        if (rnd.nextInt(50) == 0) out.println();
+        int dstId = 1 + rnd.nextInt(WORD_QTY + 10);
+        out.println(srcId + " " + dstId + " " + rnd.nextFloat() * 0.1f);
+      }
+    }
+    out.close();
+    return tmpFile.getAbsolutePath();
+  }
+
+  /**
+   * Keeps the results of the naive filtering.
+   */
+  static class NaiveResult {
+    StringBuilder      mOut = new StringBuilder();
+    long               mTotalQty = 0;
+    long               mAddedQty = 0;
+    long               mWordQty = 0;
+    ArrayList<Integer> mKeptSrcIds = new ArrayList<Integer>();
+    ArrayList<Integer> mKeptDstIds = new ArrayList<Integer>();
+    ArrayList<Float>   mKeptProbs = new ArrayList<Float>();
+  }
+
+  static NaiveResult filterNaive(String fileName, GizaVocabularyReader srcVoc, GizaVocabularyReader dstVoc,
+                                 VocabularyFilterAndRecoder filter, float minProb) throws Exception {
+    NaiveResult res = new NaiveResult();
+    BufferedReader inp = new BufferedReader(new FileReader(fileName));
+    String  line;
+    int     prevSrcId = -1;
+    boolean isNotFiltered = false;
+
+    while ((line = inp.readLine()) != null) {
+      ++res.mTotalQty;
+      line = line.trim();
+      if (line.isEmpty()) continue;
+
+      GizaTranRec rec = new GizaTranRec(line);
+      if (rec.mSrcId != prevSrcId) {
+        ++res.mWordQty;
+        if (rec.mSrcId == 0) isNotFiltered = true;
+        else {
+          String wordSrc = srcVoc.getWord(rec.mSrcId);
+          isNotFiltered = filter == null || (wordSrc != null && filter.checkWord(wordSrc));
+        }
+      }
+      prevSrcId = rec.mSrcId;
+
+      if (rec.mProb >= minProb && isNotFiltered) {
+        String wordDst = dstVoc.getWord(rec.mDstId);
+        if (filter == null || (wordDst != null && filter.checkWord(wordDst))) {
+          res.mOut.append(rec.mSrcId + " " + rec.mDstId + " " + rec.mProb).append(NL);
+          ++res.mAddedQty;
+          res.mKeptSrcIds.add(rec.mSrcId);
+          res.mKeptDstIds.add(rec.mDstId);
+          res.mKeptProbs.add(rec.mProb);
+        }
+      }
+    }
+    inp.close();
+    return res;
+  }
+
+  static void check(NaiveResult exp, String outText, FilterTranTable.FilterResultHandler res) {
+    assertEquals(exp.mOut.toString(), outText);
+    assertEquals(exp.mTotalQty, res.mTotalQty);
+    assertEquals(exp.mAddedQty, res.mAddedQty);
+    assertEquals(exp.mWordQty, res.mWordQty);
+    assertEquals(exp.mKeptSrcIds.size(), res.mKeptQty);
+    for (int i = 0; i < res.mKeptQty; ++i) {
+      assertEquals((int)exp.mKeptSrcIds.get(i), res.mKeptSrcIds[i]);
+      assertEquals((int)exp.mKeptDstIds.get(i), res.mKeptDstIds[i]);
+      assertEquals(exp.mKeptProbs.get(i), res.mKeptProbs[i], 0);
+    }
+  }
+
+  static FilterTranTable.FilterResultHandler filterChunked(String fileName, int threadQty,
+                              final GizaVocabularyReader srcVoc, final GizaVocabularyReader dstVoc,
+                              final VocabularyFilterAndRecoder filter, final float minProb,
+                              ByteArrayOutputStream out) throws Exception {
+    FilterTranTable.FilterResultHandler res = new FilterTranTable.FilterResultHandler(out, fileName, true);
+    LineChunkParser.parseFile(fileName, threadQty,
+        new LineChunkParser.Factory<FilterTranTable.FilterChunkParser>() {
+          @Override
+          public FilterTranTable.FilterChunkParser create() {
+            return new FilterTranTable.FilterChunkParser(srcVoc, dstVoc, filter, minProb, true);
+          }
+        },
+        res);
+    return res;
+  }
+
+  @Test
+  public void testFilter() throws Exception {
+    Random rnd = new Random(0);
+    GizaVocabularyReader srcVoc = createVocabulary(rnd);
+    GizaVocabularyReader dstVoc = createVocabulary(rnd);
+    String fileName = createTable(rnd, ".txt");
+
+    for (VocabularyFilterAndRecoder filter : new VocabularyFilterAndRecoder[]{null, new TestFilter()})
+    for (float minProb : MIN_PROBS) {
+      NaiveResult exp = filterNaive(fileName, srcVoc, dstVoc, filter, minProb);
+      assertTrue(exp.mAddedQty > 0);
+      for (int threadQty : THREAD_QTYS) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FilterTranTable.FilterResultHandler res = 
+            filterChunked(fileName, threadQty, srcVoc, dstVoc, filter, minProb, out);
+        check(exp, out.toString("UTF-8"), res);
+      }
+    }
+  }
+
+  @Test
+  public void testCompressedInput() throws Exception {
+    Random rnd = new Random(1);
+    GizaVocabularyReader srcVoc = createVocabulary(rnd);
+    GizaVocabularyReader dstVoc = createVocabulary(rnd);
+    // The naive filter reads an uncompressed copy of the same table
+    String plainFileName = createTable(new Random(2), ".txt");
+    String fileName = createTable(new Random(2), ".gz");
+
+    TestFilter filter = new TestFilter();
+    NaiveResult exp = filterNaive(plainFileName, srcVoc, dstVoc, filter, MIN_PROBS[1]);
+    for (int threadQty : THREAD_QTYS) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      FilterTranTable.FilterResultHandler res = 
+          filterChunked(fileName, threadQty, srcVoc, dstVoc, filter, MIN_PROBS[1], out);
+      check(exp, out.toString("UTF-8"), res);
+    }
+  }
+}
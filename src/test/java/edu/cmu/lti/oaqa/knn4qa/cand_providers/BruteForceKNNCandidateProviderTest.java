@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Compares the multi-threaded brute-force search against a single-threaded
+ * exact scan. Scores take only a few distinct values, so there are many ties,
+ * and the number of documents isn't a multiple of the block size.
+ */
+public class BruteForceKNNCandidateProviderTest {
+  static final int DOC_QTY = 3 * BruteForceKNNCandidateProvider.BLOCK_DOC_QTY + 100;
+  static final int QUERY_QTY = 20;
+  static final int MAX_QTYS[] = {0, 1, 10, 1000, DOC_QTY, DOC_QTY + 50};
+
+  /**
+   * A query text is an integer, the score of a document takes one of
+   * 20 values, which depend on the query and the document.
+   */
+  static class TieScorer implements KNNScorer {
+    @Override
+    public int getDocQty() { return DOC_QTY; }
+
+    @Override
+    public String getDocId(int doc) { return "doc" + doc; }
+
+    @Override
+    public String getDesc() { return "ties"; }
+
+    @Override
+    public Map<String, String> createDocQuery(int doc) {
+      return createQuery(doc);
+    }
+
+    @Override
+    public void score(Map<String, String> queryData, int[] docs, int qty, float[] scores) {
+      int query = Integer.parseInt(queryData.get(CandidateProvider.TEXT_FIELD_NAME));
+      for (int i = 0; i < qty; ++i) scores[i] = score(query, docs[i]);
+    }
+
+    static float score(int query, int doc) {
+      return ((doc * 31 + query * 17) % 20) * 0.25f;
+    }
+
+    static Map<String, String> createQuery(int query) {
+      HashMap<String, String> res = new HashMap<String, String>();
+      res.put(CandidateProvider.ID_FIELD_NAME, "query" + query);
+      res.put(CandidateProvider.TEXT_FIELD_NAME, Integer.toString(query));
+      return res;
+    }
+  }
+
+  /**
+   * Checks the results of a query against an exact scan: because of ties,
+   * different (but equally good) documents can be returned, so
+   * we compare the scores and check that documents are distinct and
+   * are returned with their real scores.
+   */
+  static void check(int query, int maxQty, CandidateEntry res[]) {
+    float allScores[] = new float[DOC_QTY];
+    for (int doc = 0; doc < DOC_QTY; ++doc) allScores[doc] = TieScorer.score(query, doc);
+    Arrays.sort(allScores);
+
+    assertEquals(Math.min(maxQty, DOC_QTY), res.length);
+    HashSet<String> seen = new HashSet<String>();
+    for (int i = 0; i < res.length; ++i) {
+      assertEquals(allScores[DOC_QTY - 1 - i], res[i].mScore, 0);
+      int doc = Integer.parseInt(res[i].mDocId.substring(3));
+      assertEquals(TieScorer.score(query, doc), res[i].mScore, 0);
+      assertTrue(seen.add(res[i].mDocId));
+    }
+  }
+
+  @Test
+  public void testSearch() throws Exception {
+    for (int threadQty : new int[]{1, 3, 8}) {
+      BruteForceKNNCandidateProvider provider = new BruteForceKNNCandidateProvider(new TieScorer(), threadQty);
+      // The same thread reuses its buffers for queries with different k
+      for (int query = 0; query < QUERY_QTY; ++query)
+      for (int maxQty : MAX_QTYS) {
+        check(query, maxQty, provider.getCandidates(query, TieScorer.createQuery(query), maxQty).mEntries);
+      }
+      provider.close();
+    }
+  }
+
+  @Test
+  public void testConcurrentQueries() throws Exception {
+    final BruteForceKNNCandidateProvider provider = new BruteForceKNNCandidateProvider(new TieScorer(), 3);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    final Thread threads[] = new Thread[4];
+    for (int t = 0; t < threads.length; ++t) {
+      final int threadId = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int query = threadId; query < QUERY_QTY * 4; query += threads.length) {
+              int maxQty = MAX_QTYS[query % MAX_QTYS.length];
+              check(query, maxQty, provider.getCandidates(query, TieScorer.createQuery(query), maxQty).mEntries);
+            }
+          } catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      };
+    }
+    for (Thread t : threads) t.start();
+    for (Thread t : threads) t.join();
+    if (error.get() != null) throw new Exception(error.get());
+
+    // The provider can't be used after it is closed
+    provider.close();
+    boolean failed = false;
+    try {
+      provider.getCandidates(0, TieScorer.createQuery(0), 10);
+    } catch (Exception e) {
+      failed = true;
+    }
+    assertTrue(failed);
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Checks that the candidate cache returns copies of stored lists,
+ * respects the size limit, and that its disk store survives re-opening
+ * (including the case of a truncated last record). Also checks that
+ * keys depend on all query fields.
+ */
+public class CandidateCacheTest {
+  static CandidateInfo createInfo(int queryNum, int qty) {
+    CandidateEntry entries[] = new CandidateEntry[qty];
+    for (int i = 0; i < qty; ++i) {
+      entries[i] = new CandidateEntry("doc" + (queryNum * 1000 + i), qty - i + 0.5f * queryNum);
+    }
+    return new CandidateInfo(10 * qty, entries);
+  }
+
+  static void compare(CandidateInfo exp, CandidateInfo res) {
+    assertNotNull(res);
+    assertEquals(exp.mNumFound, res.mNumFound);
+    assertEquals(exp.mEntries.length, res.mEntries.length);
+    for (int i = 0; i < exp.mEntries.length; ++i) {
+      assertEquals(exp.mEntries[i].mDocId, res.mEntries[i].mDocId);
+      assertEquals(exp.mEntries[i].mOrigScore, res.mEntries[i].mScore, 0);
+    }
+  }
+
+  static Map<String, String> createQuery(int queryNum) {
+    HashMap<String, String> res = new HashMap<String, String>();
+    res.put(CandidateProvider.ID_FIELD_NAME, "q" + queryNum);
+    res.put(CandidateProvider.TEXT_FIELD_NAME, "some query text " + queryNum);
+    return res;
+  }
+
+  static String key(int queryNum) {
+    return CandidateCache.createKey("lucene@index", "q" + queryNum, createQuery(queryNum), 100);
+  }
+
+  @Test
+  public void testKey() throws Exception {
+    Map<String, String> query = createQuery(1);
+    String key = key(1);
+    assertFalse(key.equals(CandidateCache.createKey("lucene@index", "q1", query, 10)));
+    assertFalse(key.equals(CandidateCache.createKey("nmslib@localhost:10000", "q1", query, 100)));
+
+    // Fields other than the text (e.g., used by NMSLIB queries) are a part of the key
+    query.put("text_unlemm", "some query texts");
+    String keyExtra = CandidateCache.createKey("lucene@index", "q1", query, 100);
+    assertFalse(key.equals(keyExtra));
+    query.put("text_unlemm", "other query texts");
+    assertFalse(keyExtra.equals(CandidateCache.createKey("lucene@index", "q1", query, 100)));
+
+    // The order of fields doesn't matter
+    LinkedHashMap<String, String> reordered = new LinkedHashMap<String, String>();
+    reordered.put("text_unlemm", "other query texts");
+    reordered.put(CandidateProvider.TEXT_FIELD_NAME, "some query text 1");
+    reordered.put(CandidateProvider.ID_FIELD_NAME, "q1");
+    assertEquals(CandidateCache.createKey("lucene@index", "q1", query, 100),
+                 CandidateCache.createKey("lucene@index", "q1", reordered, 100));
+  }
+
+  @Test
+  public void testMemory() throws Exception {
+    CandidateCache cache = new CandidateCache(32, null);
+
+    CandidateInfo info = createInfo(1, 5);
+    cache.put(key(1), info);
+    // Modifying results (as re-rankers do) shouldn't affect the cache
+    info.mEntries[0].mScore = -1;
+    CandidateInfo res = cache.get(key(1));
+    compare(createInfo(1, 5), res);
+    res.mEntries[1].mScore = -1;
+    compare(createInfo(1, 5), cache.get(key(1)));
+
+    assertNull(cache.get(CandidateCache.createKey("lucene@index", "q1", createQuery(1), 10)));
+    assertEquals(2, cache.getMemHitQty());
+    assertEquals(1, cache.getMissQty());
+
+    for (int i = 0; i < 1000; ++i) cache.put(key(i), createInfo(i, 3));
+    int foundQty = 0;
+    for (int i = 0; i < 1000; ++i) {
+      if (cache.get(key(i)) != null) ++foundQty;
+    }
+    assertTrue("found: " + foundQty, foundQty > 0 && foundQty <= 32);
+  }
+
+  @Test
+  public void testDisk() throws Exception {
+    File f = File.createTempFile("cand_cache", ".bin");
+    f.deleteOnExit();
+    f.delete();
+
+    final int QTY = 100;
+    CandidateCache cache = new CandidateCache(10, f.getAbsolutePath());
+    for (int i = 0; i < QTY; ++i) cache.put(key(i), createInfo(i, i % 7));
+    // Evicted from memory, but kept on disk
+    for (int i = 0; i < QTY; ++i) compare(createInfo(i, i % 7), cache.get(key(i)));
+    assertTrue(cache.getDiskHitQty() > 0);
+    cache.close();
+
+    cache = new CandidateCache(10, f.getAbsolutePath());
+    for (int i = 0; i < QTY; ++i) compare(createInfo(i, i % 7), cache.get(key(i)));
+    assertEquals(QTY, cache.getDiskHitQty());
+    cache.put(key(QTY), createInfo(QTY, 20));
+    cache.close();
+
+    // Cut the last record in the middle: only this record is lost
+    RandomAccessFile file = new RandomAccessFile(f, "rw");
+    file.setLength(file.length() - 3);
+    file.close();
+
+    cache = new CandidateCache(10, f.getAbsolutePath());
+    for (int i = 0; i < QTY; ++i) compare(createInfo(i, i % 7), cache.get(key(i)));
+    assertNull(cache.get(key(QTY)));
+    cache.put(key(QTY), createInfo(QTY, 20));
+    cache.close();
+
+    cache = new CandidateCache(0, f.getAbsolutePath());
+    compare(createInfo(QTY, 20), cache.get(key(QTY)));
+    cache.close();
+    f.delete();
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import edu.cmu.lti.oaqa.knn4qa.letor.FeatureExtractor;
+
+/**
+ * Checks that Lucene queries are built from tokens directly (repeated tokens
+ * are merged into boosted clauses and long queries are nested rather than
+ * rejected), and that document IDs are resolved identically from DocValues
+ * and from stored fields.
+ */
+public class LuceneCandidateProviderTest {
+  static final String TEXT_FIELD = CandidateProvider.TEXT_FIELD_NAME;
+  static final String ID_FIELD = CandidateProvider.ID_FIELD_NAME;
+
+  static final String DOC_TEXTS[] = {
+    "a b c", "a a d", "b c c e", "d e f", "a f f f", "c", "e e b a", "b d"
+  };
+
+  /**
+   * Creates an index with two segments: documents of the first one have the DocValues
+   * ID field (as created by LuceneIndexer), documents of the second one have only
+   * the stored ID field (as in older indices). One document in each segment is deleted.
+   */
+  static RAMDirectory createIndex() throws Exception {
+    RAMDirectory dir = new RAMDirectory();
+    Analyzer analyzer = new WhitespaceAnalyzer();
+    IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(analyzer.getVersion(), analyzer));
+
+    for (int i = 0; i < DOC_TEXTS.length; ++i) {
+      String id = "doc" + i;
+      Document doc = new Document();
+      doc.add(new StringField(ID_FIELD, id, Field.Store.YES));
+      if (i < DOC_TEXTS.length / 2)
+        doc.add(new SortedDocValuesField(ID_FIELD, new BytesRef(id)));
+      doc.add(new TextField(TEXT_FIELD, DOC_TEXTS[i], Field.Store.NO));
+      writer.addDocument(doc);
+      // The commit starts a new segment
+      if (i + 1 == DOC_TEXTS.length / 2) writer.commit();
+    }
+    writer.deleteDocuments(new Term(ID_FIELD, "doc1"));
+    writer.deleteDocuments(new Term(ID_FIELD, "doc6"));
+    writer.close();
+
+    return dir;
+  }
+
+  static void collectTermQueries(Query q, ArrayList<TermQuery> res) {
+    if (q instanceof TermQuery) {
+      res.add((TermQuery) q);
+      return;
+    }
+    BooleanQuery bq = (BooleanQuery) q;
+    assertTrue(bq.clauses().size() <= BooleanQuery.getMaxClauseCount());
+    for (BooleanClause c : bq.clauses()) {
+      assertEquals(BooleanClause.Occur.SHOULD, c.getOccur());
+      collectTermQueries(c.getQuery(), res);
+    }
+  }
+
+  static HashMap<String, Float> search(IndexSearcher searcher, LuceneDocIds docIds, Query q) throws Exception {
+    HashMap<String, Float> res = new HashMap<String, Float>();
+    TopDocs hits = searcher.search(q, 100);
+    for (ScoreDoc oneHit : hits.scoreDocs) {
+      res.put(docIds.get(oneHit.doc), oneHit.score);
+    }
+    return res;
+  }
+
+  @Test
+  public void testDuplicateTokens() throws Exception {
+    assertNull(LuceneCandidateProvider.createQuery(" \t\n "));
+
+    // Tokens are separated by any whitespace, including tabs and new lines
+    Query q = LuceneCandidateProvider.createQuery(" a b\ta\n\na  c ");
+    ArrayList<TermQuery> tqs = new ArrayList<TermQuery>();
+    collectTermQueries(q, tqs);
+
+    assertEquals(3, tqs.size());
+    String expToks[] = {"a", "b", "c"};
+    float  expBoosts[] = {3, 1, 1};
+    for (int i = 0; i < tqs.size(); ++i) {
+      Term t = tqs.get(i).getTerm();
+      assertEquals(TEXT_FIELD, t.field());
+      assertEquals(expToks[i], t.text());
+      assertEquals(expBoosts[i], tqs.get(i).getBoost(), 0);
+    }
+
+    // Boosting a single clause produces the same scores as repeating it
+    RAMDirectory dir = createIndex();
+    DirectoryReader reader = DirectoryReader.open(dir);
+    try {
+      IndexSearcher searcher = new IndexSearcher(reader);
+      searcher.setSimilarity(new BM25Similarity(FeatureExtractor.BM25_K1, FeatureExtractor.BM25_B));
+      LuceneDocIds docIds = new LuceneDocIds(reader);
+
+      BooleanQuery repQuery = new BooleanQuery();
+      for (String tok : new String[]{"a", "b", "a", "a", "c"})
+        repQuery.add(new TermQuery(new Term(TEXT_FIELD, tok)), BooleanClause.Occur.SHOULD);
+
+      HashMap<String, Float> exp = search(searcher, docIds, repQuery);
+      HashMap<String, Float> res = search(searcher, docIds, q);
+      assertEquals(exp.keySet(), res.keySet());
+      for (String id : exp.keySet()) {
+        assertEquals(exp.get(id), res.get(id), 1e-5f * exp.get(id));
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testLongQuery() throws Exception {
+    final int maxClauseQty = BooleanQuery.getMaxClauseCount();
+    final int tokQty = 2 * maxClauseQty + 3;
+
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < tokQty; ++i) sb.append("w" + i + " ");
+    // Terms that are present in the index
+    sb.append("a b d");
+
+    Query q = LuceneCandidateProvider.createQuery(sb.toString());
+    assertTrue(q instanceof BooleanQuery);
+    assertTrue(((BooleanQuery)q).clauses().size() <= maxClauseQty);
+
+    ArrayList<TermQuery> tqs = new ArrayList<TermQuery>();
+    collectTermQueries(q, tqs);
+    assertEquals(tokQty + 3, tqs.size());
+    for (int i = 0; i < tokQty; ++i)
+      assertEquals("w" + i, tqs.get(i).getTerm().text());
+    // The limit isn't changed
+    assertEquals(maxClauseQty, BooleanQuery.getMaxClauseCount());
+
+    // The nested query is accepted by the searcher and scores as a flat one
+    RAMDirectory dir = createIndex();
+    DirectoryReader reader = DirectoryReader.open(dir);
+    try {
+      IndexSearcher searcher = new IndexSearcher(reader);
+      searcher.setSimilarity(new BM25Similarity(FeatureExtractor.BM25_K1, FeatureExtractor.BM25_B));
+      LuceneDocIds docIds = new LuceneDocIds(reader);
+
+      HashMap<String, Float> res = search(searcher, docIds, q);
+      HashMap<String, Float> exp = search(searcher, docIds, LuceneCandidateProvider.createQuery("a b d"));
+      assertFalse(exp.isEmpty());
+      assertEquals(exp.keySet(), res.keySet());
+      for (String id : exp.keySet()) {
+        assertEquals(exp.get(id), res.get(id), 1e-5f * exp.get(id));
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testDocIds() throws Exception {
+    RAMDirectory dir = createIndex();
+    DirectoryReader reader = DirectoryReader.open(dir);
+    try {
+      // Both the DocValues and the stored-field code paths should be used
+      assertEquals(2, reader.leaves().size());
+
+      LuceneDocIds docIds = new LuceneDocIds(reader);
+      Bits         liveDocs = MultiFields.getLiveDocs(reader);
+      assertNotNull(liveDocs);
+      int liveQty = 0;
+      for (int doc = 0; doc < reader.maxDoc(); ++doc) {
+        String id = docIds.get(doc);
+        if (!liveDocs.get(doc)) {
+          assertNull(id);
+          continue;
+        }
+        ++liveQty;
+        assertEquals(reader.document(doc).get(ID_FIELD), id);
+      }
+      assertEquals(DOC_TEXTS.length - 2, liveQty);
+    } finally {
+      reader.close();
+    }
+  }
+}
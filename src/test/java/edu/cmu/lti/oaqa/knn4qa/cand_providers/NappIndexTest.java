@@ -0,0 +1,131 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cmu.lti.oaqa.knn4qa.cand_providers.SWGraphIndexTest.VectorScorer;
+import edu.cmu.lti.oaqa.knn4qa.simil.KNNHeap;
+
+/**
+ * Compares the NAPP search against the brute-force search (using
+ * the synthetic similarity of {@link SWGraphIndexTest}) and checks that
+ * a saved index produces the same results.
+ */
+public class NappIndexTest {
+  static final int   DOC_QTY = SWGraphIndexTest.DOC_QTY;
+  static final int   K = 10;
+  static final int   PIVOT_QTY = 300;
+  static final int   PIVOT_INDEX_QTY = 16;
+  static final int   PIVOT_SEARCH_QTY = 16;
+  static final int   MIN_TIMES = 2;
+  static final int   QUERY_QTY = 100;
+  static final float MIN_RECALL = 0.9f;
+
+  @Test
+  public void testSearch() throws Exception {
+    VectorScorer scorer = new VectorScorer(0);
+    Random rand = new Random(1);
+    Map<?, ?> queries[] = new Map<?, ?>[QUERY_QTY];
+    for (int i = 0; i < QUERY_QTY; ++i) {
+      queries[i] = VectorScorer.createQuery("query" + i, VectorScorer.randomVector(rand));
+    }
+
+    // Brute-force search
+    int allDocs[] = new int[DOC_QTY];
+    for (int i = 0; i < DOC_QTY; ++i) allDocs[i] = i;
+    float allScores[] = new float[DOC_QTY];
+    int exp[][] = new int[QUERY_QTY][K];
+    for (int i = 0; i < QUERY_QTY; ++i) {
+      @SuppressWarnings("unchecked")
+      Map<String, String> query = (Map<String, String>) queries[i];
+      scorer.score(query, allDocs, DOC_QTY, allScores);
+      KNNHeap heap = new KNNHeap(K);
+      for (int k = 0; k < DOC_QTY; ++k) heap.offer(-allScores[k], k);
+      heap.extractSorted(exp[i], new float[K]);
+    }
+
+    for (int threadQty : new int[]{1, 4}) {
+      NappIndex index = NappIndex.build(scorer, PIVOT_QTY, PIVOT_INDEX_QTY, threadQty);
+      NappIndex.Searcher searcher = index.newSearcher();
+
+      File f = File.createTempFile("napp", ".bin");
+      f.deleteOnExit();
+      index.save(f.getAbsolutePath());
+      NappIndex loaded = NappIndex.load(scorer, f.getAbsolutePath());
+      assertEquals(index.getPivotQty(), loaded.getPivotQty());
+      assertEquals(index.getPivotIndexQty(), loaded.getPivotIndexQty());
+      NappIndex.Searcher loadedSearcher = loaded.newSearcher();
+
+      int foundQty = 0;
+      long candQty = 0;
+      for (int i = 0; i < QUERY_QTY; ++i) {
+        @SuppressWarnings("unchecked")
+        Map<String, String> query = (Map<String, String>) queries[i];
+        int   docs[] = new int[K];
+        float scores[] = new float[K];
+        int qty = searcher.search(query, K, PIVOT_SEARCH_QTY, MIN_TIMES, docs, scores);
+        candQty += searcher.getCandQty();
+
+        HashSet<Integer> expIds = new HashSet<Integer>();
+        for (int doc : exp[i]) expIds.add(doc);
+        for (int k = 0; k < qty; ++k) {
+          if (k > 0) assertTrue(scores[k - 1] >= scores[k]);
+          if (expIds.contains(docs[k])) ++foundQty;
+        }
+
+        int   docs1[] = new int[K];
+        float scores1[] = new float[K];
+        assertEquals(qty, loadedSearcher.search(query, K, PIVOT_SEARCH_QTY, MIN_TIMES, docs1, scores1));
+        assertEquals(searcher.getCandQty(), loadedSearcher.getCandQty());
+        for (int k = 0; k < qty; ++k) {
+          assertEquals(docs[k], docs1[k]);
+          assertEquals(scores[k], scores1[k], 0);
+        }
+      }
+      float recall = (float) foundQty / (QUERY_QTY * K);
+      assertTrue("recall: " + recall, recall >= MIN_RECALL);
+      // Only a fraction of documents should be scored
+      assertTrue("candidates: " + candQty, candQty < (long) QUERY_QTY * DOC_QTY / 2);
+
+      // With minTimes == 1 and all pivots used, every indexed document is a candidate
+      int docs[] = new int[K];
+      searcher.search(VectorScorer.createQuery("q", new float[SWGraphIndexTest.DIM]),
+                      K, PIVOT_QTY, 1, docs, new float[K]);
+      assertEquals(DOC_QTY, searcher.getCandQty());
+
+      // The index can't be used with different documents
+      boolean failed = false;
+      try {
+        NappIndex.load(new VectorScorer(1) {
+          @Override
+          public String getDocId(int doc) { return "other" + doc; }
+        }, f.getAbsolutePath());
+      } catch (Exception e) {
+        failed = true;
+      }
+      assertTrue(failed);
+      f.delete();
+    }
+  }
+}
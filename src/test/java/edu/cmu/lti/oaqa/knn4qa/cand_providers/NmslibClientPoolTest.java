@@ -0,0 +1,234 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import static org.junit.Assert.*;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import edu.cmu.lti.oaqa.similarity.QueryException;
+import edu.cmu.lti.oaqa.similarity.QueryService;
+import edu.cmu.lti.oaqa.similarity.ReplyEntry;
+
+/**
+ * Runs the client pool against a local Thrift server, whose replies can be
+ * delayed (to make client calls time out) or replaced with server errors.
+ * Checks that a call that fails because of a connection error (including
+ * a timeout) is re-tried once using a new connection, that server errors
+ * aren't re-tried, and that closing the pool closes all the connections,
+ * including connections of queries that were in flight.
+ */
+public class NmslibClientPoolTest {
+  static final String HOST = "localhost";
+  static final String ERROR_QUERY = "error";
+  static final int    TIMEOUT_MS = 300;
+  static final int    LONG_DELAY_MS = 3 * TIMEOUT_MS;
+
+  /**
+   * A server that returns k neighbors: a reply is delayed by the next
+   * value in the queue of delays (if the queue is non-empty).
+   */
+  static class TestQueryService implements QueryService.Iface {
+    @Override
+    public void setQueryTimeParams(String queryTimeParams) throws QueryException, TException {}
+
+    @Override
+    public List<ReplyEntry> knnQuery(int k, String queryObj, boolean retExternId, boolean retObj)
+        throws QueryException, TException {
+      mCallQty.incrementAndGet();
+      Integer delay = mDelays.poll();
+      if (delay != null) {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          throw new TException(e);
+        }
+      }
+      if (queryObj.equals(ERROR_QUERY)) throw new QueryException("Bad query");
+      ArrayList<ReplyEntry> res = new ArrayList<ReplyEntry>(k);
+      for (int i = 0; i < k; ++i) {
+        ReplyEntry e = new ReplyEntry(i, i);
+        if (retExternId) e.setExternId(queryObj + i);
+        res.add(e);
+      }
+      return res;
+    }
+
+    @Override
+    public List<ReplyEntry> rangeQuery(double r, String queryObj, boolean retExternId, boolean retObj)
+        throws QueryException, TException {
+      throw new QueryException("Range queries aren't supported");
+    }
+
+    @Override
+    public double getDistance(String obj1, String obj2) throws QueryException, TException {
+      return 0;
+    }
+
+    final AtomicInteger                  mCallQty = new AtomicInteger();
+    final ConcurrentLinkedQueue<Integer> mDelays = new ConcurrentLinkedQueue<Integer>();
+  }
+
+  @Before
+  public void startServer() throws Exception {
+    ServerSocket sock = new ServerSocket(0);
+    mPort = sock.getLocalPort();
+    sock.close();
+
+    mService = new TestQueryService();
+    TThreadedSelectorServer.Args serverArgs =
+        new TThreadedSelectorServer.Args(new TNonblockingServerSocket(mPort));
+    serverArgs.processor(new QueryService.Processor<TestQueryService>(mService));
+    serverArgs.workerThreads(4);
+    mServer = new TThreadedSelectorServer(serverArgs);
+    Thread serverThread = new Thread() {
+      @Override
+      public void run() {
+        mServer.serve();
+      }
+    };
+    serverThread.setDaemon(true);
+    serverThread.start();
+    while (!mServer.isServing()) Thread.sleep(10);
+  }
+
+  @After
+  public void stopServer() {
+    mServer.stop();
+  }
+
+  static void checkReply(String queryObj, int k, List<ReplyEntry> res) {
+    assertEquals(k, res.size());
+    for (int i = 0; i < k; ++i) assertEquals(queryObj + i, res.get(i).getExternId());
+  }
+
+  static boolean fails(ListenableFuture<List<ReplyEntry>> res) {
+    try {
+      CandidateProvider.waitForResult(res);
+    } catch (Exception e) {
+      return true;
+    }
+    return false;
+  }
+
+  @Test
+  public void testQueries() throws Exception {
+    NmslibClientPool pool = new NmslibClientPool(HOST, mPort, 1, TIMEOUT_MS);
+
+    for (int i = 0; i < 10; ++i) checkReply("q" + i, 5, pool.knnQuerySync(5, "q" + i));
+    // The connection is opened only once
+    assertEquals(1, pool.getConnectQty());
+
+    // A server error isn't re-tried and the connection is still used
+    assertTrue(fails(pool.knnQuery(5, ERROR_QUERY)));
+    assertEquals(11, mService.mCallQty.get());
+    checkReply("q", 3, pool.knnQuerySync(3, "q"));
+    assertEquals(1, pool.getConnectQty());
+
+    pool.close();
+    assertEquals(0, pool.getOpenQty());
+  }
+
+  @Test
+  public void testRetry() throws Exception {
+    NmslibClientPool pool = new NmslibClientPool(HOST, mPort, 1, TIMEOUT_MS);
+
+    // The first call times out, it is re-tried using a new connection
+    mService.mDelays.add(LONG_DELAY_MS);
+    checkReply("q", 4, pool.knnQuerySync(4, "q"));
+    assertEquals(2, mService.mCallQty.get());
+    assertEquals(2, pool.getConnectQty());
+    assertEquals(1, pool.getOpenQty());
+
+    pool.close();
+    assertEquals(0, pool.getOpenQty());
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    NmslibClientPool pool = new NmslibClientPool(HOST, mPort, 1, TIMEOUT_MS);
+
+    // Both the call and its retry time out
+    mService.mDelays.add(LONG_DELAY_MS);
+    mService.mDelays.add(LONG_DELAY_MS);
+    long start = System.currentTimeMillis();
+    ListenableFuture<List<ReplyEntry>> res = pool.knnQuery(4, "q");
+
+    // The only connection is busy: waiting for a free connection times out too
+    boolean failed = false;
+    try {
+      pool.knnQuery(4, "q1");
+    } catch (Exception e) {
+      failed = true;
+    }
+    assertTrue(failed);
+
+    assertTrue(fails(res));
+    // The query doesn't wait for server replies
+    assertTrue(System.currentTimeMillis() - start < 2 * LONG_DELAY_MS);
+    assertEquals(2, mService.mCallQty.get());
+
+    // The connection is returned to the pool and is re-opened
+    checkReply("q", 4, pool.knnQuerySync(4, "q"));
+
+    pool.close();
+    assertEquals(0, pool.getOpenQty());
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    NmslibClientPool pool = new NmslibClientPool(HOST, mPort, 2, 2 * LONG_DELAY_MS);
+
+    // A query is in flight, when the pool is closed
+    mService.mDelays.add(LONG_DELAY_MS);
+    ListenableFuture<List<ReplyEntry>> res = pool.knnQuery(4, "q");
+    // The delayed call should be the first one to reach the server
+    while (mService.mCallQty.get() == 0) Thread.sleep(1);
+    checkReply("q1", 2, pool.knnQuerySync(2, "q1"));
+    assertEquals(2, pool.getOpenQty());
+
+    pool.close();
+    // The query in flight is completed and its connection is closed rather than returned to the pool
+    checkReply("q", 4, CandidateProvider.waitForResult(res));
+    assertEquals(0, pool.getOpenQty());
+
+    boolean failed = false;
+    try {
+      pool.knnQuery(4, "q");
+    } catch (Exception e) {
+      failed = true;
+    }
+    assertTrue(failed);
+  }
+
+  private int               mPort;
+  private TestQueryService  mService;
+  private TServer           mServer;
+}
@@ -0,0 +1,187 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.cand_providers;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cmu.lti.oaqa.knn4qa.simil.KNNHeap;
+
+/**
+ * Compares the SW-graph search against the brute-force search (using
+ * a synthetic similarity) and checks that a saved index produces the same results.
+ */
+public class SWGraphIndexTest {
+  static final int   DOC_QTY = 3000;
+  static final int   DIM = 10;
+  static final int   K = 10;
+  static final int   EF_SEARCH = 50;
+  static final int   QUERY_QTY = 100;
+  static final float MIN_RECALL = 0.9f;
+
+  /**
+   * Documents and queries are random vectors, the similarity is
+   * the negative squared Euclidean distance. Like in the case of a feature
+   * extractor, the query is parsed every time documents are scored.
+   */
+  static class VectorScorer implements KNNScorer {
+    VectorScorer(int seed) {
+      Random rand = new Random(seed);
+      mVecs = new float[DOC_QTY][];
+      for (int i = 0; i < DOC_QTY; ++i) mVecs[i] = randomVector(rand);
+    }
+
+    static float[] randomVector(Random rand) {
+      float res[] = new float[DIM];
+      for (int k = 0; k < DIM; ++k) res[k] = (float) rand.nextGaussian();
+      return res;
+    }
+
+    static Map<String, String> createQuery(String id, float vec[]) {
+      StringBuilder sb = new StringBuilder();
+      for (float f : vec) sb.append(f).append(' ');
+      HashMap<String, String> res = new HashMap<String, String>();
+      res.put(CandidateProvider.ID_FIELD_NAME, id);
+      res.put(CandidateProvider.TEXT_FIELD_NAME, sb.toString().trim());
+      return res;
+    }
+
+    @Override
+    public int getDocQty() { return DOC_QTY; }
+
+    @Override
+    public String getDocId(int doc) { return "doc" + doc; }
+
+    @Override
+    public String getDesc() { return "l2sqr"; }
+
+    @Override
+    public Map<String, String> createDocQuery(int doc) {
+      return createQuery(getDocId(doc), mVecs[doc]);
+    }
+
+    @Override
+    public void score(Map<String, String> queryData, int[] docs, int qty, float[] scores) {
+      String parts[] = queryData.get(CandidateProvider.TEXT_FIELD_NAME).split(" ");
+      float query[] = new float[DIM];
+      for (int k = 0; k < DIM; ++k) query[k] = Float.parseFloat(parts[k]);
+      for (int i = 0; i < qty; ++i) {
+        float sum = 0;
+        for (int k = 0; k < DIM; ++k) {
+          float d = query[k] - mVecs[docs[i]][k];
+          sum += d * d;
+        }
+        scores[i] = -sum;
+      }
+    }
+
+    final float mVecs[][];
+  }
+
+  @Test
+  public void testSearch() throws Exception {
+    VectorScorer scorer = new VectorScorer(0);
+    Random rand = new Random(1);
+    Map<?, ?> queries[] = new Map<?, ?>[QUERY_QTY];
+    for (int i = 0; i < QUERY_QTY; ++i) {
+      queries[i] = VectorScorer.createQuery("query" + i, VectorScorer.randomVector(rand));
+    }
+
+    // Brute-force search
+    int allDocs[] = new int[DOC_QTY];
+    for (int i = 0; i < DOC_QTY; ++i) allDocs[i] = i;
+    float allScores[] = new float[DOC_QTY];
+    int exp[][] = new int[QUERY_QTY][K];
+    for (int i = 0; i < QUERY_QTY; ++i) {
+      @SuppressWarnings("unchecked")
+      Map<String, String> query = (Map<String, String>) queries[i];
+      scorer.score(query, allDocs, DOC_QTY, allScores);
+      KNNHeap heap = new KNNHeap(K);
+      for (int k = 0; k < DOC_QTY; ++k) heap.offer(-allScores[k], k);
+      heap.extractSorted(exp[i], new float[K]);
+    }
+
+    // The brute-force provider should return the same documents
+    BruteForceKNNCandidateProvider bruteForce = new BruteForceKNNCandidateProvider(scorer, 4);
+    for (int i = 0; i < QUERY_QTY; ++i) {
+      @SuppressWarnings("unchecked")
+      Map<String, String> query = (Map<String, String>) queries[i];
+      CandidateEntry cands[] = bruteForce.getCandidates(i, query, K).mEntries;
+      assertEquals(K, cands.length);
+      for (int k = 0; k < K; ++k) assertEquals(scorer.getDocId(exp[i][k]), cands[k].mDocId);
+    }
+    bruteForce.close();
+
+    for (int threadQty : new int[]{1, 4}) {
+      SWGraphIndex index = SWGraphIndex.build(scorer, 10, 100, threadQty);
+      SWGraphIndex.Searcher searcher = index.newSearcher(0);
+
+      File f = File.createTempFile("swgraph", ".bin");
+      f.deleteOnExit();
+      index.save(f.getAbsolutePath());
+      SWGraphIndex loaded = SWGraphIndex.load(scorer, f.getAbsolutePath());
+      assertEquals(index.getAvgNeighborQty(), loaded.getAvgNeighborQty(), 0);
+      SWGraphIndex.Searcher loadedSearcher = loaded.newSearcher(0);
+
+      int foundQty = 0;
+      for (int i = 0; i < QUERY_QTY; ++i) {
+        @SuppressWarnings("unchecked")
+        Map<String, String> query = (Map<String, String>) queries[i];
+        int   docs[] = new int[K];
+        float dists[] = new float[K];
+        int qty = searcher.search(query, K, EF_SEARCH, docs, dists);
+        assertEquals(K, qty);
+
+        HashSet<Integer> expIds = new HashSet<Integer>();
+        for (int doc : exp[i]) expIds.add(doc);
+        for (int k = 0; k < qty; ++k) {
+          if (k > 0) assertTrue(dists[k - 1] <= dists[k]);
+          if (expIds.contains(docs[k])) ++foundQty;
+        }
+
+        int   docs1[] = new int[K];
+        float dists1[] = new float[K];
+        assertEquals(qty, loadedSearcher.search(query, K, EF_SEARCH, docs1, dists1));
+        for (int k = 0; k < qty; ++k) {
+          assertEquals(docs[k], docs1[k]);
+          assertEquals(dists[k], dists1[k], 0);
+        }
+      }
+      float recall = (float) foundQty / (QUERY_QTY * K);
+      assertTrue("recall: " + recall, recall >= MIN_RECALL);
+
+      // The index can't be used with different documents
+      boolean failed = false;
+      try {
+        SWGraphIndex.load(new VectorScorer(1) {
+          @Override
+          public String getDocId(int doc) { return "other" + doc; }
+        }, f.getAbsolutePath());
+      } catch (Exception e) {
+        failed = true;
+      }
+      assertTrue(failed);
+      f.delete();
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.embed;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that embeddings stored in different formats (text with and
+ * without the word2vec header, word2vec binary, and native binary)
+ * are loaded identically.
+ */
+public class EmbeddingFormatsTest {
+  static final int WORD_QTY = 3000;
+  static final int DIM = 50;
+
+  File createTempFile(String suffix) throws Exception {
+    File f = File.createTempFile("embed_formats", suffix);
+    f.deleteOnExit();
+    return f;
+  }
+
+  void compare(float vecs[][], EmbeddingReaderAndRecoder embed) {
+    assertEquals(DIM, embed.getDim());
+    for (int i = 0; i < WORD_QTY; ++i) {
+      float exp[] = vecs[i].clone();
+      EmbeddingReaderAndRecoder.normalizeL2(exp);
+      float vec[] = embed.getVector("w" + i + "é");
+      assertNotNull(vec);
+      // The no-copy version writes at the given offset and leaves the rest intact
+      float buf[] = new float[DIM + 2];
+      assertTrue(embed.getVector("w" + i + "é", buf, 1));
+      assertEquals(0, buf[0], 0);
+      assertEquals(0, buf[DIM + 1], 0);
+      for (int k = 0; k < DIM; ++k) {
+        assertEquals(Float.floatToIntBits(exp[k]), Float.floatToIntBits(vec[k]));
+        assertEquals(Float.floatToIntBits(exp[k]), Float.floatToIntBits(buf[k + 1]));
+      }
+    }
+  }
+
+  @Test
+  public void testFormats() throws Exception {
+    Random rand = new Random(0);
+    float vecs[][] = new float[WORD_QTY][DIM];
+    for (int i = 0; i < WORD_QTY; ++i) {
+      for (int k = 0; k < DIM; ++k) vecs[i][k] = (float)rand.nextGaussian();
+    }
+
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < WORD_QTY; ++i) {
+      text.append("w" + i + "é");
+      for (int k = 0; k < DIM; ++k) text.append(' ').append(vecs[i][k]);
+      text.append('\n');
+    }
+
+    File textFile = createTempFile(".txt");
+    OutputStream out = new FileOutputStream(textFile);
+    out.write(text.toString().getBytes("UTF-8"));
+    out.close();
+
+    File headerTextFile = createTempFile(".txt");
+    out = new FileOutputStream(headerTextFile);
+    out.write((WORD_QTY + " " + DIM + "\n" + text).getBytes("UTF-8"));
+    out.close();
+
+    File word2vecFile = createTempFile(".bin");
+    out = new BufferedOutputStream(new FileOutputStream(word2vecFile));
+    out.write((WORD_QTY + " " + DIM + "\n").getBytes("UTF-8"));
+    ByteBuffer buf = ByteBuffer.allocate(4 * DIM).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < WORD_QTY; ++i) {
+      out.write(("w" + i + "é ").getBytes("UTF-8"));
+      buf.clear();
+      for (int k = 0; k < DIM; ++k) buf.putFloat(vecs[i][k]);
+      out.write(buf.array());
+      out.write('\n');
+    }
+    out.close();
+
+    assertEquals(EmbeddingReaderAndRecoder.FORMAT_TEXT,
+                 EmbeddingReaderAndRecoder.detectFormat(textFile.getAbsolutePath()));
+    assertEquals(EmbeddingReaderAndRecoder.FORMAT_TEXT,
+                 EmbeddingReaderAndRecoder.detectFormat(headerTextFile.getAbsolutePath()));
+    assertEquals(EmbeddingReaderAndRecoder.FORMAT_WORD2VEC_BIN,
+                 EmbeddingReaderAndRecoder.detectFormat(word2vecFile.getAbsolutePath()));
+
+    for (int threadQty : new int[]{1, 4}) {
+      compare(vecs, new EmbeddingReaderAndRecoder(textFile.getAbsolutePath(), null, threadQty));
+      EmbeddingReaderAndRecoder embed = new EmbeddingReaderAndRecoder(headerTextFile.getAbsolutePath(), null, threadQty);
+      compare(vecs, embed);
+      assertNull(embed.getVector(Integer.toString(WORD_QTY)));
+      assertFalse(embed.getVector(Integer.toString(WORD_QTY), new float[DIM], 0));
+    }
+    EmbeddingReaderAndRecoder embed = new EmbeddingReaderAndRecoder(word2vecFile.getAbsolutePath(), null);
+    compare(vecs, embed);
+
+    File nativeFile = createTempFile(".bin");
+    embed.saveBinary(nativeFile.getAbsolutePath());
+    assertEquals(EmbeddingReaderAndRecoder.FORMAT_NATIVE,
+                 EmbeddingReaderAndRecoder.detectFormat(nativeFile.getAbsolutePath()));
+    compare(vecs, new EmbeddingReaderAndRecoder(nativeFile.getAbsolutePath(), null));
+
+    textFile.delete();
+    headerTextFile.delete();
+    word2vecFile.delete();
+    nativeFile.delete();
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.embed;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cmu.lti.oaqa.knn4qa.AbstractTest;
+import edu.cmu.lti.oaqa.knn4qa.simil.AbstractDistance;
+import edu.cmu.lti.oaqa.knn4qa.simil.KNNHeap;
+import edu.cmu.lti.oaqa.knn4qa.simil.VectorSearchEntry;
+
+/**
+ * Compares the early-abandoning k-NN search against a sequential scan
+ * that computes all distances in full.
+ */
+public class EmbeddingKNNSearchTest extends AbstractTest {
+  static final int   WORD_QTY = 2500; // more than two search blocks
+  static final int   DIM = 37;
+  static final int   K = 10;
+  static final float EPS = 1e-4f;
+
+  EmbeddingReaderAndRecoder createEmbeddings() throws Exception {
+    File tmpFile = File.createTempFile("embed", ".txt");
+    tmpFile.deleteOnExit();
+
+    Random rnd = new Random(0);
+    BufferedWriter out = new BufferedWriter(new FileWriter(tmpFile));
+    for (int i = 0; i < WORD_QTY; ++i) {
+      StringBuilder sb = new StringBuilder("w" + i);
+      for (int k = 0; k < DIM; ++k)
+        sb.append(' ').append(i == 7 ? 0 : (float)rnd.nextGaussian()); // w7 is a zero vector
+      out.write(sb.toString());
+      out.newLine();
+    }
+    out.close();
+
+    return new EmbeddingReaderAndRecoder(tmpFile.getAbsolutePath(), null);
+  }
+
+  float[] naiveSearch(EmbeddingReaderAndRecoder embed, String word, AbstractDistance dist) {
+    float query[] = embed.getVector(word);
+    float res[] = new float[WORD_QTY - 1];
+    int qty = 0;
+    for (int i = 0; i < WORD_QTY; ++i) {
+      String w = "w" + i;
+      if (w.equals(word)) continue;
+      res[qty++] = dist.compute(query, embed.getVector(w));
+    }
+    Arrays.sort(res);
+    return Arrays.copyOf(res, K);
+  }
+
+  void compare(float exp[], VectorSearchEntry res[]) {
+    assertEquals(exp.length, res.length);
+    for (int i = 0; i < exp.length; ++i)
+      assertEquals(exp[i], res[i].mDist, EPS);
+  }
+
+  @Test
+  public void testSearch() throws Exception {
+    EmbeddingReaderAndRecoder embed = createEmbeddings();
+
+    String queries[] = new String[50];
+    for (int i = 0; i < queries.length; ++i) queries[i] = "w" + (i * 41);
+    queries[1] = "w7";
+    queries[2] = "unknown";
+
+    for (String distName : new String[]{"l2", "cosine"}) {
+      AbstractDistance dist = AbstractDistance.create(distName);
+
+      VectorSearchEntry batchRes[][] = embed.kNNSearchBatch(queries, dist, true, K, 4);
+      assertEquals(queries.length, batchRes.length);
+
+      for (int i = 0; i < queries.length; ++i) {
+        VectorSearchEntry res[] = embed.kNNSearch(queries[i], dist, true, K);
+        if (embed.getVector(queries[i]) == null) {
+          assertEquals(0, res.length);
+        } else {
+          float exp[] = naiveSearch(embed, queries[i], dist);
+          compare(exp, res);
+          compare(exp, batchRes[i]);
+          for (VectorSearchEntry e : res) assertFalse(e.mID.equals(queries[i]));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testHeap() {
+    Random rnd = new Random(1);
+    for (int k : new int[]{0, 1, 5, 100}) {
+      KNNHeap heap = new KNNHeap(k);
+      float all[] = new float[1000];
+      for (int i = 0; i < all.length; ++i) {
+        all[i] = rnd.nextFloat();
+        heap.offer(all[i], i);
+      }
+      Arrays.sort(all);
+      int ids[] = new int[k];
+      float dists[] = new float[k];
+      assertEquals(Math.min(k, all.length), heap.extractSorted(ids, dists));
+      assertEquals(0, heap.size());
+      for (int i = 0; i < k; ++i)
+        assertEquals(all[i], dists[i], 0);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.embed;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cmu.lti.oaqa.knn4qa.simil.AbstractDistance;
+import edu.cmu.lti.oaqa.knn4qa.simil.VectorSearchEntry;
+
+/**
+ * Compares the HNSW search against the brute-force search and checks
+ * that a saved index produces the same results.
+ */
+public class HNSWIndexTest {
+  static final int   WORD_QTY = 4000;
+  static final int   DIM = 20;
+  static final int   K = 10;
+  static final int   QUERY_QTY = 200;
+  static final float MIN_RECALL = 0.95f;
+  static final float EPS = 1e-4f;
+
+  EmbeddingReaderAndRecoder createEmbeddings(int seed) throws Exception {
+    File tmpFile = File.createTempFile("hnsw_embed", ".txt");
+    tmpFile.deleteOnExit();
+
+    Random rnd = new Random(seed);
+    BufferedWriter out = new BufferedWriter(new FileWriter(tmpFile));
+    for (int i = 0; i < WORD_QTY; ++i) {
+      StringBuilder sb = new StringBuilder("w" + i);
+      for (int k = 0; k < DIM; ++k)
+        sb.append(' ').append(i == 7 ? 0 : (float)rnd.nextGaussian()); // w7 is a zero vector
+      out.write(sb.toString());
+      out.newLine();
+    }
+    out.close();
+
+    EmbeddingReaderAndRecoder res = new EmbeddingReaderAndRecoder(tmpFile.getAbsolutePath(), null);
+    tmpFile.delete();
+    return res;
+  }
+
+  String[] createQueries() {
+    String queries[] = new String[QUERY_QTY];
+    for (int i = 0; i < QUERY_QTY; ++i) queries[i] = "w" + (i * 19);
+    queries[1] = "w7";
+    queries[2] = "unknown";
+    return queries;
+  }
+
+  float compRecall(EmbeddingReaderAndRecoder embed, String queries[],
+                   VectorSearchEntry exp[][], VectorSearchEntry res[][]) {
+    int foundQty = 0, totalQty = 0;
+    for (int i = 0; i < queries.length; ++i) {
+      assertEquals(exp[i].length, res[i].length);
+      HashSet<String> expIds = new HashSet<String>();
+      for (VectorSearchEntry e : exp[i]) expIds.add(e.mID);
+      for (int k = 0; k < res[i].length; ++k) {
+        VectorSearchEntry e = res[i][k];
+        assertFalse(e.mID.equals(queries[i]));
+        if (k > 0) assertTrue(res[i][k - 1].mDist <= e.mDist);
+        if (expIds.contains(e.mID)) {
+          ++foundQty;
+          // The same distance as in the brute-force search
+          for (VectorSearchEntry e1 : exp[i]) {
+            if (e1.mID.equals(e.mID)) assertEquals(e1.mDist, e.mDist, EPS);
+          }
+        }
+      }
+      totalQty += exp[i].length;
+    }
+    return (float) foundQty / totalQty;
+  }
+
+  @Test
+  public void testSearch() throws Exception {
+    EmbeddingReaderAndRecoder embed = createEmbeddings(0);
+    String queries[] = createQueries();
+
+    for (String distName : new String[]{"l2", "cosine"}) {
+      AbstractDistance dist = AbstractDistance.create(distName);
+      VectorSearchEntry exp[][] = embed.kNNSearchBatch(queries, dist, true, K, 2);
+
+      for (int threadQty : new int[]{1, 4}) {
+        HNSWIndex index = HNSWIndex.build(embed, dist, 12, 100, threadQty);
+        index.setEfSearch(50);
+
+        VectorSearchEntry res[][] = index.kNNSearchBatch(queries, true, K, 2);
+        float recall = compRecall(embed, queries, exp, res);
+        assertTrue(distName + " recall: " + recall, recall >= MIN_RECALL);
+
+        File f = File.createTempFile("hnsw", ".bin");
+        f.deleteOnExit();
+        index.save(f.getAbsolutePath());
+        HNSWIndex loaded = HNSWIndex.load(embed, f.getAbsolutePath());
+        assertEquals(distName, loaded.getDistance().getName());
+        loaded.setEfSearch(50);
+        for (int i = 0; i < queries.length; ++i) {
+          VectorSearchEntry res1[] = loaded.kNNSearch(queries[i], true, K);
+          assertEquals(res[i].length, res1.length);
+          for (int k = 0; k < res1.length; ++k) {
+            assertEquals(res[i][k].mID, res1[k].mID);
+            assertEquals(res[i][k].mDist, res1[k].mDist, 0);
+          }
+        }
+
+        // The index can't be used with different embeddings
+        boolean failed = false;
+        try {
+          HNSWIndex.load(createEmbeddings(1), f.getAbsolutePath());
+        } catch (Exception e) {
+          failed = true;
+        }
+        assertTrue(failed);
+        f.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.embed;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import net.openhft.koloboke.collect.map.hash.HashIntObjMap;
+import net.openhft.koloboke.collect.map.hash.HashIntObjMaps;
+
+import org.junit.Test;
+
+import edu.cmu.lti.oaqa.knn4qa.giza.GizaOneWordTranRecs;
+import edu.cmu.lti.oaqa.knn4qa.giza.GizaTranTableReaderAndRecoder;
+import edu.cmu.lti.oaqa.knn4qa.giza.GizaVocabularyReader;
+import edu.cmu.lti.oaqa.knn4qa.simil.SparseFloatVector;
+import edu.cmu.lti.oaqa.knn4qa.utils.VocabularyFilterAndRecoder;
+
+/**
+ * Compares the next-order model computed by the parallel row-wise sparse
+ * multiplication against a naive computation, which accumulates products
+ * in a sorted map and prunes small values at the end. The accumulation order
+ * is the same, so the results should be bit-identical for any number of
+ * threads and for both in-memory and disk-resident translation tables.
+ */
+public class NextOrderDictTest {
+  static final int   MAX_WORD_ID = 3 * NextOrderDictThread.BLOCK_SIZE + 100;
+  static final float PROB_SELF_TRAN = 0.2f;
+  static final int   THREAD_QTYS[] = {1, 2, 5};
+  static final float MIN_PROBS[] = {0, 1e-3f, 0.02f};
+
+  /**
+   * Keeps word IDs, but filters out every word whose ID is a multiple of 13.
+   */
+  static class TestRecoder extends VocabularyFilterAndRecoder {
+    @Override
+    public boolean checkWord(String word) {
+      return getWordId(word) != null;
+    }
+
+    @Override
+    public Integer getWordId(String word) {
+      int id = Integer.parseInt(word.substring(1));
+      return id % 13 == 0 ? null : id;
+    }
+  }
+
+  static GizaTranTableReaderAndRecoder createTable(Random rnd, TestRecoder recoder) throws Exception {
+    File vocFile = File.createTempFile("voc", ".vcb");
+    vocFile.deleteOnExit();
+    PrintWriter out = new PrintWriter(vocFile);
+    for (int id = 1; id <= MAX_WORD_ID; ++id)
+      out.println(id + " w" + id + " " + (1 + rnd.nextInt(100)));
+    out.close();
+    GizaVocabularyReader voc = new GizaVocabularyReader(vocFile.getAbsolutePath(), null, 1);
+
+    int maxQty = (MAX_WORD_ID + 1) * MAX_WORD_ID;
+    int srcIds[] = new int[maxQty], dstIds[] = new int[maxQty];
+    float probs[] = new float[maxQty];
+    int qty = 0;
+    for (int srcId = 0; srcId <= MAX_WORD_ID; ++srcId) {
+      if (rnd.nextInt(10) == 0) continue; // no row
+      for (int dstId = 1 + rnd.nextInt(30); dstId <= MAX_WORD_ID; dstId += 1 + rnd.nextInt(30)) {
+        srcIds[qty] = srcId;
+        dstIds[qty] = dstId;
+        probs[qty] = rnd.nextFloat() * 0.1f;
+        ++qty;
+      }
+    }
+    return new GizaTranTableReaderAndRecoder(false, "test", srcIds, dstIds, probs, qty,
+                                             recoder, voc, voc, PROB_SELF_TRAN, 0.0f, 1, null);
+  }
+
+  static HashIntObjMap<SparseFloatVector> createDict(Random rnd) {
+    HashIntObjMap<SparseFloatVector> res = HashIntObjMaps.<SparseFloatVector>newMutableMap();
+    for (int wordId = 0; wordId <= MAX_WORD_ID; ++wordId) {
+      if (rnd.nextInt(5) == 0) continue; // no row
+      int qty = rnd.nextInt(10) == 0 ? 0 : rnd.nextInt(30);
+      int   ids[] = new int[qty];
+      float vals[] = new float[qty];
+      int id = -1;
+      for (int i = 0; i < qty; ++i) {
+        id += 1 + rnd.nextInt(MAX_WORD_ID / 30);
+        ids[i] = id;
+        vals[i] = rnd.nextInt(20) == 0 ? 0 : rnd.nextFloat();
+      }
+      res.put(wordId, new SparseFloatVector(ids, vals));
+    }
+    return res;
+  }
+
+  /**
+   * Computes the next-order row of a source word: products are summed up in the
+   * order of translation entries, then normalized and pruned.
+   */
+  static SparseFloatVector computeRowNaive(HashIntObjMap<SparseFloatVector> dict, int srcWordId,
+                                           float minProb, GizaTranTableReaderAndRecoder tran) {
+    TreeMap<Integer, Double> accum = new TreeMap<Integer, Double>();
+    GizaOneWordTranRecs tranRecs = tran.getTranProbs(srcWordId);
+    if (tranRecs != null) {
+      for (int k = 0; k < tranRecs.mDstIds.length; ++k) {
+        SparseFloatVector v = dict.get(tranRecs.mDstIds[k]);
+        if (v == null) continue;
+        double prob = tranRecs.mProbs[k];
+        for (int i = 0; i < v.mIds.length; ++i) {
+          Double old = accum.get(v.mIds[i]);
+          accum.put(v.mIds[i], (old == null ? 0 : old) + prob * v.mVals[i]);
+        }
+      }
+    }
+
+    double norm = 0;
+    for (double val : accum.values()) norm += Math.abs(val);
+    double invNorm = norm > 0 ? 1.0/norm : 0;
+
+    TreeMap<Integer, Float> kept = new TreeMap<Integer, Float>();
+    for (Map.Entry<Integer, Double> e : accum.entrySet()) {
+      double val = e.getValue() * invNorm;
+      if (val >= minProb) kept.put(e.getKey(), (float) val);
+    }
+    int   ids[] = new int[kept.size()];
+    float vals[] = new float[kept.size()];
+    int i = 0;
+    for (Map.Entry<Integer, Float> e : kept.entrySet()) {
+      ids[i] = e.getKey();
+      vals[i] = e.getValue();
+      ++i;
+    }
+    return new SparseFloatVector(ids, vals);
+  }
+
+  static HashIntObjMap<SparseFloatVector> nextOrderDictNaive(HashIntObjMap<SparseFloatVector> dict, float minProb,
+                                                             GizaTranTableReaderAndRecoder tran) {
+    HashIntObjMap<SparseFloatVector> res = HashIntObjMaps.<SparseFloatVector>newMutableMap();
+    for (int srcWordId : dict.keySet()) res.put(srcWordId, computeRowNaive(dict, srcWordId, minProb, tran));
+    return res;
+  }
+
+  static void compare(HashIntObjMap<SparseFloatVector> exp, HashIntObjMap<SparseFloatVector> res) {
+    assertEquals(exp.size(), res.size());
+    for (int srcWordId : exp.keySet()) {
+      SparseFloatVector expRow = exp.get(srcWordId);
+      SparseFloatVector row = res.get(srcWordId);
+      assertNotNull(row);
+      assertTrue(Arrays.equals(expRow.mIds, row.mIds));
+      assertTrue(Arrays.equals(expRow.mVals, row.mVals));
+    }
+  }
+
+  @Test
+  public void testNextOrder() throws Exception {
+    Random rnd = new Random(0);
+    TestRecoder recoder = new TestRecoder();
+    GizaTranTableReaderAndRecoder tran = createTable(rnd, recoder);
+    HashIntObjMap<SparseFloatVector> dict = createDict(rnd);
+
+    File binFile = File.createTempFile("tran_table", GizaTranTableReaderAndRecoder.BINARY_SUFFIX);
+    binFile.deleteOnExit();
+    tran.saveBinary(binFile.getAbsolutePath(), MAX_WORD_ID);
+    // A small cache: rows are evicted and re-read
+    GizaTranTableReaderAndRecoder diskTran =
+        GizaTranTableReaderAndRecoder.loadBinaryShared(binFile.getAbsolutePath(), recoder,
+                                                       false, PROB_SELF_TRAN, 0.0f, MAX_WORD_ID, 64);
+    assertNotNull(diskTran);
+    assertTrue(diskTran.isDiskResident());
+
+    for (float minProb : MIN_PROBS) {
+      HashIntObjMap<SparseFloatVector> exp = nextOrderDictNaive(dict, minProb, tran);
+      HashIntObjMap<SparseFloatVector> exp2 = nextOrderDictNaive(exp, minProb, tran);
+      for (int threadQty : THREAD_QTYS) {
+        HashIntObjMap<SparseFloatVector> res =
+            SparseEmbeddingReaderAndRecorder.nextOrderDict(dict, MAX_WORD_ID, minProb, tran, threadQty);
+        compare(exp, res);
+        // The next order is computed from the previous one
+        compare(exp2, SparseEmbeddingReaderAndRecorder.nextOrderDict(res, MAX_WORD_ID, minProb, tran, threadQty));
+
+        compare(exp, SparseEmbeddingReaderAndRecorder.nextOrderDict(dict, MAX_WORD_ID, minProb, diskTran, threadQty));
+      }
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.embed;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Random;
+
+import net.openhft.koloboke.collect.map.hash.HashIntObjMap;
+import net.openhft.koloboke.collect.map.hash.HashIntObjMaps;
+
+import org.junit.Test;
+
+import edu.cmu.lti.oaqa.knn4qa.simil.SparseFloatVector;
+
+/**
+ * Checks that binary sparse dictionaries keep the same rows
+ * as on-heap ones (exactly or approximately, if values are quantized).
+ */
+public class SparseEmbeddingDictTest {
+  static final int   MAX_WORD_ID = 5000;
+  static final float QUANT_REL_ERR = 1.0f / 256;
+
+  HashIntObjMap<SparseFloatVector> createDict(Random rand) {
+    HashIntObjMap<SparseFloatVector> res = HashIntObjMaps.<SparseFloatVector>newMutableMap();
+    for (int wordId = 0; wordId <= MAX_WORD_ID; ++wordId) {
+      if (rand.nextInt(4) == 0) continue; // no embedding
+      int qty = rand.nextInt(10) == 0 ? 0 : rand.nextInt(50);
+      int   ids[] = new int[qty];
+      float vals[] = new float[qty];
+      int id = -1;
+      for (int i = 0; i < qty; ++i) {
+        id += 1 + rand.nextInt(MAX_WORD_ID / 60);
+        ids[i] = id;
+        vals[i] = rand.nextFloat() * (float)Math.pow(10, -rand.nextInt(8));
+      }
+      res.put(wordId, new SparseFloatVector(ids, vals));
+    }
+    return res;
+  }
+
+  String[] createVocabulary() {
+    String res[] = new String[MAX_WORD_ID + 1];
+    for (int wordId = 1; wordId <= MAX_WORD_ID; ++wordId) res[wordId] = "w" + wordId;
+    return res;
+  }
+
+  void compare(HashIntObjMap<SparseFloatVector> exp, SparseEmbeddingDict dict, boolean quantized) {
+    assertEquals(MAX_WORD_ID, dict.getMaxWordId());
+    SparseEmbeddingDict.RowView row = new SparseEmbeddingDict.RowView();
+    for (int wordId = -1; wordId <= MAX_WORD_ID + 1; ++wordId) {
+      SparseFloatVector v = exp.get(wordId);
+      int qty = v == null ? 0 : v.size();
+      assertEquals(qty > 0, dict.getRow(wordId, row));
+      assertEquals(qty, row.size());
+      assertEquals(qty, dict.getRowSize(wordId));
+      for (int i = 0; i < qty; ++i) {
+        assertEquals(v.mIds[i], row.getId(i));
+        if (quantized) {
+          assertEquals(v.mVals[i], row.getVal(i), v.mVals[i] * QUANT_REL_ERR);
+        } else {
+          assertEquals(Float.floatToIntBits(v.mVals[i]), Float.floatToIntBits(row.getVal(i)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBinary() throws Exception {
+    Random rand = new Random(0);
+    HashIntObjMap<SparseFloatVector> exp = createDict(rand);
+    String vocabulary[] = createVocabulary();
+
+    compare(exp, SparseEmbeddingDict.fromMap(MAX_WORD_ID, exp), false);
+
+    for (boolean quantize : new boolean[]{false, true}) {
+      File f = File.createTempFile("sparse_dict", SparseEmbeddingDict.BINARY_SUFFIX);
+      f.deleteOnExit();
+      SparseEmbeddingDict.saveBinary(f.getAbsolutePath(), vocabulary, exp, quantize);
+
+      SparseEmbeddingDict dict = SparseEmbeddingDict.openBinary(f.getAbsolutePath(), vocabulary);
+      assertNotNull(dict);
+      assertTrue(dict.isMapped());
+      assertEquals(quantize, dict.isQuantized());
+      compare(exp, dict, quantize);
+
+      // The binary file can't be used with a different vocabulary
+      String otherVocabulary[] = vocabulary.clone();
+      otherVocabulary[MAX_WORD_ID / 2] = "other";
+      assertNull(SparseEmbeddingDict.openBinary(f.getAbsolutePath(), otherVocabulary));
+
+      f.delete();
+    }
+  }
+}
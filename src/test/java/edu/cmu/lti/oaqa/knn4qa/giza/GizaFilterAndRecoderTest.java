@@ -17,6 +17,9 @@ package edu.cmu.lti.oaqa.knn4qa.giza;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.util.Arrays;
+
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -348,4 +351,258 @@ public class GizaFilterAndRecoderTest extends AbstractTest {
   }  
 
   
+  /**
+   * Testing if a table saved in the binary format is loaded correctly.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testBinaryTable() throws Exception {
+    InMemForwardIndex index = new InMemForwardIndex(FWD_INDEX_NAME);
+    InMemForwardIndexFilterAndRecoder filterAndRecoder = new InMemForwardIndexFilterAndRecoder(index);
+    
+    for (boolean flip : new boolean[]{false, true}) {
+      GizaTranTableReaderAndRecoder textReader = 
+          new GizaTranTableReaderAndRecoder(flip,
+                                 TRAN_TABLE_FILE_NAME, 
+                                 filterAndRecoder,
+                                 new GizaVocabularyReader(VOC_SRC_FILE_NAME, null /* no filter */),
+                                 new GizaVocabularyReader(VOC_TRG_FILE_NAME, null /* no filter */),
+                                 0.5f, 0.0f);
+      
+      File binFile = File.createTempFile("tran_table", GizaTranTableReaderAndRecoder.BINARY_SUFFIX);
+      binFile.deleteOnExit();
+      textReader.saveBinary(binFile.getAbsolutePath(), index.getMaxWordId());
+      
+      // Different parameters
+      assertNull(GizaTranTableReaderAndRecoder.loadBinaryShared(binFile.getAbsolutePath(), filterAndRecoder, 
+                                                                !flip, 0.5f, 0.0f, index.getMaxWordId()));
+      
+      GizaTranTableReaderAndRecoder binReader = 
+          GizaTranTableReaderAndRecoder.loadBinaryShared(binFile.getAbsolutePath(), filterAndRecoder, 
+                                                         flip, 0.5f, 0.0f, index.getMaxWordId());
+      assertNotNull(binReader);
+      // The second call should return the same object
+      assertTrue(binReader == GizaTranTableReaderAndRecoder.loadBinaryShared(binFile.getAbsolutePath(), filterAndRecoder, 
+                                                                             flip, 0.5f, 0.0f, index.getMaxWordId()));
+      // Recoders of the same index share the table, but recoders of another index don't
+      assertTrue(binReader == GizaTranTableReaderAndRecoder.loadBinaryShared(binFile.getAbsolutePath(),
+                                                                             new InMemForwardIndexFilterAndRecoder(index),
+                                                                             flip, 0.5f, 0.0f, index.getMaxWordId()));
+      InMemForwardIndex index2 = new InMemForwardIndex(FWD_INDEX_NAME);
+      GizaTranTableReaderAndRecoder binReader2 =
+          GizaTranTableReaderAndRecoder.loadBinaryShared(binFile.getAbsolutePath(),
+                                                         new InMemForwardIndexFilterAndRecoder(index2),
+                                                         flip, 0.5f, 0.0f, index2.getMaxWordId());
+      assertNotNull(binReader2);
+      assertTrue(binReader != binReader2);
+
+      for (int id = 0; id <= index.getMaxWordId(); ++id) {
+        assertEquals(textReader.getSourceWordProb(id), binReader.getSourceWordProb(id), 0);
+        assertEquals(textReader.getTargetWordProb(id), binReader.getTargetWordProb(id), 0);
+        
+        GizaOneWordTranRecs recs1 = textReader.getTranProbs(id);
+        GizaOneWordTranRecs recs2 = binReader.getTranProbs(id);
+        assertEquals(recs1 == null, recs2 == null);
+        if (recs1 != null) {
+          assertTrue(Arrays.equals(recs1.mDstIds, recs2.mDstIds));
+          assertTrue(Arrays.equals(recs1.mProbs, recs2.mProbs));
+        }
+      }
+    }
+  }
+  
+  /**
+   * Testing if multi-threaded and out-of-core flipping produce
+   * the same table as the single-threaded one.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testFlipVariants() throws Exception {
+    InMemForwardIndex index = new InMemForwardIndex(FWD_INDEX_NAME);
+    InMemForwardIndexFilterAndRecoder filterAndRecoder = new InMemForwardIndexFilterAndRecoder(index);
+    
+    GizaTranTableReaderAndRecoder refReader = 
+        new GizaTranTableReaderAndRecoder(true,
+                               TRAN_TABLE_FILE_NAME, 
+                               filterAndRecoder,
+                               new GizaVocabularyReader(VOC_SRC_FILE_NAME, null /* no filter */),
+                               new GizaVocabularyReader(VOC_TRG_FILE_NAME, null /* no filter */),
+                               0.5f, 0.0f, 1, null);
+    
+    String tmpDir = System.getProperty("java.io.tmpdir");
+    
+    for (String flipTmpDir : new String[]{null, tmpDir}) 
+    for (int threadQty : new int[]{1, 4}) {
+      GizaTranTableReaderAndRecoder reader = 
+          new GizaTranTableReaderAndRecoder(true,
+                                 TRAN_TABLE_FILE_NAME, 
+                                 filterAndRecoder,
+                                 new GizaVocabularyReader(VOC_SRC_FILE_NAME, null /* no filter */),
+                                 new GizaVocabularyReader(VOC_TRG_FILE_NAME, null /* no filter */),
+                                 0.5f, 0.0f, threadQty, flipTmpDir);
+      
+      for (int id = 0; id <= index.getMaxWordId(); ++id) {
+        assertEquals(refReader.getSourceWordProb(id), reader.getSourceWordProb(id), 0);
+        assertEquals(refReader.getTargetWordProb(id), reader.getTargetWordProb(id), 0);
+        
+        GizaOneWordTranRecs recs1 = refReader.getTranProbs(id);
+        GizaOneWordTranRecs recs2 = reader.getTranProbs(id);
+        assertEquals(recs1 == null, recs2 == null);
+        if (recs1 != null) {
+          assertTrue(Arrays.equals(recs1.mDstIds, recs2.mDstIds));
+          assertTrue(Arrays.equals(recs1.mProbs, recs2.mProbs));
+        }
+      }
+    }
+  }
+  
+  /**
+   * Testing if a slice of the table loaded with a small threshold is the same
+   * as the table loaded with a larger threshold, and if a minimum-probability view
+   * keeps only entries with large enough probabilities.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testThresholdSlice() throws Exception {
+    InMemForwardIndex index = new InMemForwardIndex(FWD_INDEX_NAME);
+    InMemForwardIndexFilterAndRecoder filterAndRecoder = new InMemForwardIndexFilterAndRecoder(index);
+    
+    for (boolean flip : new boolean[]{false, true}) {
+      GizaTranTableReaderAndRecoder baseReader = 
+          new GizaTranTableReaderAndRecoder(flip,
+                                 TRAN_TABLE_FILE_NAME, 
+                                 filterAndRecoder,
+                                 new GizaVocabularyReader(VOC_SRC_FILE_NAME, null /* no filter */),
+                                 new GizaVocabularyReader(VOC_TRG_FILE_NAME, null /* no filter */),
+                                 0.5f, 0.0f);
+      assertTrue(baseReader == baseReader.getThresholdSlice(0.0f));
+      
+      for (float threshold : new float[]{1e-3f, 0.01f, 0.1f}) {
+        GizaTranTableReaderAndRecoder reader = 
+            new GizaTranTableReaderAndRecoder(flip,
+                                   TRAN_TABLE_FILE_NAME, 
+                                   filterAndRecoder,
+                                   new GizaVocabularyReader(VOC_SRC_FILE_NAME, null /* no filter */),
+                                   new GizaVocabularyReader(VOC_TRG_FILE_NAME, null /* no filter */),
+                                   0.5f, threshold);
+        GizaTranTableReaderAndRecoder slice = baseReader.getThresholdSlice(threshold);
+        assertNotNull(slice);
+        // A smaller threshold can't be used
+        assertNull(slice.getThresholdSlice(0.0f));
+        
+        GizaTranTableReaderAndRecoder view = baseReader.getMinProbView(threshold);
+        
+        for (int id = 0; id <= index.getMaxWordId(); ++id) {
+          assertEquals(reader.getSourceWordProb(id), slice.getSourceWordProb(id), 0);
+          assertEquals(reader.getTargetWordProb(id), slice.getTargetWordProb(id), 0);
+          assertEquals(baseReader.getSourceWordProb(id), view.getSourceWordProb(id), 0);
+          assertEquals(baseReader.getTargetWordProb(id), view.getTargetWordProb(id), 0);
+          
+          GizaOneWordTranRecs recs1 = reader.getTranProbs(id);
+          GizaOneWordTranRecs recs2 = slice.getTranProbs(id);
+          assertEquals(recs1 == null, recs2 == null);
+          if (recs1 != null) {
+            assertTrue(Arrays.equals(recs1.mDstIds, recs2.mDstIds));
+            assertTrue(Arrays.equals(recs1.mProbs, recs2.mProbs));
+          }
+          
+          GizaOneWordTranRecs baseRecs = baseReader.getTranProbs(id);
+          GizaOneWordTranRecs viewRecs = view.getTranProbs(id);
+          int viewQty = 0;
+          if (baseRecs != null) {
+            for (int i = 0; i < baseRecs.mDstIds.length; ++i) {
+              if (baseRecs.mProbs[i] >= threshold) {
+                assertEquals(baseRecs.mDstIds[i], viewRecs.mDstIds[viewQty]);
+                assertEquals(baseRecs.mProbs[i], viewRecs.mProbs[viewQty], 0);
+                ++viewQty;
+              }
+            }
+          }
+          assertEquals(viewQty, viewRecs == null ? 0 : viewRecs.mDstIds.length);
+          
+          // Rows of the view are sorted by descending probability
+          int start = view.getTranRowStart(id), end = view.getTranRowEnd(id);
+          assertEquals(viewQty, end - start);
+          for (int i = start; i < end; ++i) {
+            int   dstId = view.getTranDstIdArray()[i];
+            float prob = view.getTranProbArray()[i];
+            if (i > start) assertTrue(view.getTranProbArray()[i - 1] >= prob);
+            assertEquals(baseReader.getTranProb(id, dstId), view.getTranProb(id, dstId), 0);
+            assertEquals(Math.max(prob, id == dstId ? 0.5f : 0), view.getTranProb(id, dstId), 0);
+          }
+          if (baseRecs != null) {
+            for (int i = 0; i < baseRecs.mDstIds.length; ++i) {
+              float expProb = baseRecs.mProbs[i] >= threshold ? baseRecs.mProbs[i] : 0;
+              if (id == baseRecs.mDstIds[i]) expProb = Math.max(expProb, 0.5f);
+              assertEquals(expProb, view.getTranProb(id, baseRecs.mDstIds[i]), 0);
+            }
+          }
+        }
+        
+        // Views don't copy entries, they share arrays
+        GizaTranTableReaderAndRecoder largerView = baseReader.getMinProbView(2 * threshold);
+        assertSame(view, baseReader.getMinProbView(threshold));
+        assertSame(view.getTranDstIdArray(), largerView.getTranDstIdArray());
+        assertSame(view.getTranProbArray(), largerView.getTranProbArray());
+        assertSame(largerView, view.getMinProbView(2 * threshold));
+      }
+    }
+  }
+  
+  /**
+   * Testing if a disk-resident table (with a cache that is too small 
+   * to keep all the rows) returns the same probabilities as the in-memory one.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testDiskResidentTable() throws Exception {
+    InMemForwardIndex index = new InMemForwardIndex(FWD_INDEX_NAME);
+    InMemForwardIndexFilterAndRecoder filterAndRecoder = new InMemForwardIndexFilterAndRecoder(index);
+    
+    for (boolean flip : new boolean[]{false, true}) {
+      GizaTranTableReaderAndRecoder textReader = 
+          new GizaTranTableReaderAndRecoder(flip,
+                                 TRAN_TABLE_FILE_NAME, 
+                                 filterAndRecoder,
+                                 new GizaVocabularyReader(VOC_SRC_FILE_NAME, null /* no filter */),
+                                 new GizaVocabularyReader(VOC_TRG_FILE_NAME, null /* no filter */),
+                                 0.5f, 0.0f);
+      
+      File binFile = File.createTempFile("tran_table", GizaTranTableReaderAndRecoder.BINARY_SUFFIX);
+      binFile.deleteOnExit();
+      textReader.saveBinary(binFile.getAbsolutePath(), index.getMaxWordId());
+      
+      GizaTranTableReaderAndRecoder diskReader = 
+          GizaTranTableReaderAndRecoder.loadBinaryShared(binFile.getAbsolutePath(), filterAndRecoder, 
+                                                         flip, 0.5f, 0.0f, index.getMaxWordId(), 16);
+      assertNotNull(diskReader);
+      assertTrue(diskReader.isDiskResident());
+      assertNull(diskReader.getTranDstIdArray());
+      
+      // Two passes: the second one reads rows evicted from the cache  
+      for (int pass = 0; pass < 2; ++pass)
+      for (int id = 0; id <= index.getMaxWordId(); ++id) {
+        assertEquals(textReader.getSourceWordProb(id), diskReader.getSourceWordProb(id), 0);
+        assertEquals(textReader.getTargetWordProb(id), diskReader.getTargetWordProb(id), 0);
+        
+        GizaOneWordTranRecs recs1 = textReader.getTranProbs(id);
+        GizaOneWordTranRecs recs2 = diskReader.getTranProbs(id);
+        assertEquals(recs1 == null, recs2 == null);
+        if (recs1 != null) {
+          assertTrue(Arrays.equals(recs1.mDstIds, recs2.mDstIds));
+          assertTrue(Arrays.equals(recs1.mProbs, recs2.mProbs));
+          for (int dstId : recs1.mDstIds) {
+            assertEquals(textReader.getTranProb(id, dstId), diskReader.getTranProb(id, dstId), 0);
+          }
+        }
+        assertEquals(textReader.getTranProb(id, id), diskReader.getTranProb(id, id), 0);
+      }
+      assertTrue(diskReader.getCacheMissQty() > 0);
+    }
+  }
+  
 }
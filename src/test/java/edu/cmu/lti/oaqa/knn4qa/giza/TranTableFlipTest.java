@@ -0,0 +1,146 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.giza;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cmu.lti.oaqa.knn4qa.utils.VocabularyFilterAndRecoder;
+
+/**
+ * Compares flipped translation tables against a naive transpose of a dense
+ * matrix that holds the table before flipping. Tables are flipped in memory
+ * and out of core (via temporary files) using different numbers of threads.
+ * Some words are filtered out, so some rows and columns are empty. The number
+ * of threads used to flip a table is limited by the average number of entries
+ * per row (and each table has at least 64K rows), so the table is large enough
+ * to be flipped by several threads.
+ */
+public class TranTableFlipTest {
+  static final int   WORD_QTY = 1000;
+  static final float PROB_SELF_TRAN = 0.3f;
+  static final int   THREAD_QTYS[] = {1, 2, 3, 5};
+
+  /**
+   * Keeps word IDs, but filters out every word whose ID is a multiple of 17.
+   */
+  static class TestRecoder extends VocabularyFilterAndRecoder {
+    @Override
+    public boolean checkWord(String word) {
+      return getWordId(word) != null;
+    }
+
+    @Override
+    public Integer getWordId(String word) {
+      int id = Integer.parseInt(word.substring(1));
+      return id % 17 == 0 ? null : id;
+    }
+  }
+
+  static GizaVocabularyReader createVocabulary(Random rnd) throws Exception {
+    File tmpFile = File.createTempFile("voc", ".vcb");
+    tmpFile.deleteOnExit();
+    PrintWriter out = new PrintWriter(tmpFile);
+    for (int id = 1; id <= WORD_QTY; ++id)
+      out.println(id + " w" + id + " " + (1 + rnd.nextInt(100)));
+    out.close();
+    return new GizaVocabularyReader(tmpFile.getAbsolutePath(), null, 1);
+  }
+
+  /**
+   * Copies the table into a dense matrix, absent entries are marked by -1.
+   */
+  static float[][] toDense(GizaTranTableReaderAndRecoder table) {
+    float res[][] = new float[WORD_QTY + 1][WORD_QTY + 1];
+    for (int srcId = 0; srcId <= WORD_QTY; ++srcId) {
+      Arrays.fill(res[srcId], -1);
+      GizaOneWordTranRecs recs = table.getTranProbs(srcId);
+      if (recs == null) continue;
+      for (int i = 0; i < recs.mDstIds.length; ++i) res[srcId][recs.mDstIds[i]] = recs.mProbs[i];
+    }
+    return res;
+  }
+
+  @Test
+  public void testFlip() throws Exception {
+    Random rnd = new Random(0);
+    GizaVocabularyReader vocSrc = createVocabulary(rnd);
+    GizaVocabularyReader vocDst = createVocabulary(rnd);
+    TestRecoder recoder = new TestRecoder();
+
+    int maxQty = (WORD_QTY + 1) * WORD_QTY;
+    int srcIds[] = new int[maxQty], dstIds[] = new int[maxQty];
+    float probs[] = new float[maxQty];
+    int qty = 0;
+    for (int srcId = 0; srcId <= WORD_QTY; ++srcId)
+    for (int dstId = 1; dstId <= WORD_QTY; ++dstId) {
+      if (srcId == dstId || rnd.nextInt(2) == 0) {
+        srcIds[qty] = srcId;
+        dstIds[qty] = dstId;
+        probs[qty] = rnd.nextFloat() * 0.2f;
+        ++qty;
+      }
+    }
+
+    GizaTranTableReaderAndRecoder table =
+        new GizaTranTableReaderAndRecoder(false, "test", srcIds.clone(), dstIds.clone(), probs.clone(), qty,
+                                          recoder, vocSrc, vocDst, PROB_SELF_TRAN, 0.0f, 1, null);
+    float dense[][] = toDense(table);
+
+    String tmpDir = System.getProperty("java.io.tmpdir");
+
+    for (String flipTmpDir : new String[]{null, tmpDir})
+    for (int threadQty : THREAD_QTYS) {
+      GizaTranTableReaderAndRecoder flipped =
+          new GizaTranTableReaderAndRecoder(true, "test", srcIds.clone(), dstIds.clone(), probs.clone(), qty,
+                                            recoder, vocSrc, vocDst, PROB_SELF_TRAN, 0.0f, threadQty, flipTmpDir);
+
+      for (int id = 0; id <= WORD_QTY; ++id) {
+        assertEquals(table.getTargetWordProb(id), flipped.getSourceWordProb(id), 0);
+        assertEquals(table.getSourceWordProb(id), flipped.getTargetWordProb(id), 0);
+
+        // The row of the flipped table is the column of the original one
+        int   expIds[] = new int[WORD_QTY + 1];
+        float expProbs[] = new float[WORD_QTY + 1];
+        int   expQty = 0;
+        for (int srcId = 0; srcId <= WORD_QTY; ++srcId) {
+          if (dense[srcId][id] >= 0) {
+            expIds[expQty] = srcId;
+            expProbs[expQty] = dense[srcId][id];
+            ++expQty;
+          }
+        }
+
+        GizaOneWordTranRecs recs = flipped.getTranProbs(id);
+        assertEquals(expQty == 0, recs == null);
+        if (recs != null) {
+          assertTrue(Arrays.equals(Arrays.copyOf(expIds, expQty), recs.mDstIds));
+          assertTrue(Arrays.equals(Arrays.copyOf(expProbs, expQty), recs.mProbs));
+        }
+        assertEquals(expQty, flipped.getTranRowEnd(id) - flipped.getTranRowStart(id));
+        for (int srcId = 0; srcId <= WORD_QTY; ++srcId) {
+          assertEquals(table.getTranProb(srcId, id), flipped.getTranProb(id, srcId), 0);
+        }
+      }
+    }
+  }
+}
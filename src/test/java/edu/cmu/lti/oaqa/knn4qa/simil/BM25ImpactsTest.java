@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.simil;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cmu.lti.oaqa.knn4qa.AbstractTest;
+import edu.cmu.lti.oaqa.knn4qa.memdb.DocEntry;
+
+/**
+ * Checks that quantized (8- and 16-bit) BM25 impacts are de-quantized
+ * with an error that doesn't exceed a half of the quantization step.
+ */
+public class BM25ImpactsTest extends AbstractTest {
+
+  DocEntry createDocEntry(int qty) throws Exception {
+    ArrayList<Integer> wordIds = new ArrayList<Integer>();
+    ArrayList<Integer> wordQtys = new ArrayList<Integer>();
+    for (int i = 0; i < qty; ++i) {
+      wordIds.add(i);
+      wordQtys.add(1);
+    }
+    return new DocEntry(wordIds, wordQtys, wordIds);
+  }
+
+  void checkRoundTrip(float impacts[], int bitQty) throws Exception {
+    DocEntry doc = createDocEntry(impacts.length);
+    BM25SimilarityLucene.setQuantizedImpacts(doc, impacts, bitQty);
+
+    assertTrue(doc.hasImpacts());
+    assertEquals(bitQty == 8, doc.mImpacts8 != null);
+    assertEquals(bitQty == 16, doc.mImpacts16 != null);
+
+    float maxImpact = 0;
+    for (float v : impacts) maxImpact = Math.max(maxImpact, v);
+    float maxErr = maxImpact / ((1 << bitQty) - 1) / 2;
+
+    for (int i = 0; i < impacts.length; ++i) {
+      float val = doc.getImpact(i);
+      assertTrue(val >= 0);
+      // Half of the quantization step plus a float rounding error
+      assertEquals(impacts[i], val, maxErr + maxImpact * 1e-6f);
+      if (impacts[i] == maxImpact) assertEquals(maxImpact, val, maxImpact * 1e-6f);
+      if (impacts[i] == 0) assertEquals(0, val, 0);
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Random rnd = new Random(0);
+
+    for (int bitQty : new int[]{8, 16}) {
+      for (int rep = 0; rep < 100; ++rep) {
+        float impacts[] = new float[1 + rnd.nextInt(200)];
+        for (int i = 0; i < impacts.length; ++i) {
+          impacts[i] = rnd.nextInt(10) == 0 ? 0 : 20 * rnd.nextFloat();
+        }
+        checkRoundTrip(impacts, bitQty);
+      }
+      // All impacts are zero
+      checkRoundTrip(new float[]{0, 0, 0}, bitQty);
+      // Quantized values exceed the maximum signed value, but should be treated as unsigned
+      checkRoundTrip(new float[]{1, 0.75f, 0.5f, 0.25f}, bitQty);
+    }
+  }
+
+  @Test
+  public void testBitQty() throws Exception {
+    for (int bitQty : new int[]{0, 4, 12, 32}) {
+      boolean failed = false;
+      try {
+        BM25SimilarityLucene.setQuantizedImpacts(createDocEntry(2), new float[]{1, 2}, bitQty);
+      } catch (Exception e) {
+        failed = true;
+      }
+      assertTrue(failed);
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.simil;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A micro-benchmark that compares intersection kernels from {@link SparseIntersection}
+ * for different lengths of the shorter and the longer array. It is used to
+ * find crossover points, i.e., {@link SparseIntersection#GALLOP_RATIO} and
+ * {@link SparseIntersection#PROBE_MAX_QTY}.
+ *
+ * <p>Usage: SparseIntersectionBenchmark [number of repetitions] [maximum word ID]</p>
+ */
+public class SparseIntersectionBenchmark {
+  static final int SHORT_QTY[] = {1, 2, 4, 8, 16, 32, 64};
+  static final int RATIOS[]    = {1, 2, 4, 8, 16, 32, 64, 128};
+  static final int ARRAY_QTY   = 256;
+
+  public static void main(String[] args) {
+    int repQty   = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int maxId    = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+    Random rnd = new Random(0);
+
+    System.out.println("shortQty\tlongQty\tmerge(ns)\tgallop(ns)\tprobe(ns)\tbest\tselected");
+
+    for (int shortQty : SHORT_QTY) {
+      for (int ratio : RATIOS) {
+        int longQty = shortQty * ratio;
+        if (longQty > maxId) continue;
+
+        int shortArr[][] = new int[ARRAY_QTY][];
+        int longArr[][]  = new int[ARRAY_QTY][];
+
+        for (int i = 0; i < ARRAY_QTY; ++i) {
+          shortArr[i] = genSortedUnique(rnd, shortQty, maxId);
+          longArr[i]  = genSortedUnique(rnd, longQty, maxId);
+          // Make sure some of the elements are shared
+          for (int k = 0; k < shortQty; k += 2)
+            shortArr[i][k] = longArr[i][rnd.nextInt(longQty)];
+          shortArr[i] = uniqSorted(shortArr[i]);
+        }
+
+        int pos1[] = new int[shortQty];
+        int pos2[] = new int[shortQty];
+
+        // The first pass is a warm up
+        long timeMerge = 0, timeGallop = 0, timeProbe = 0;
+        long checkSum = 0;
+        for (int pass = 0; pass < 2; ++pass) {
+          timeMerge = timeGallop = timeProbe = 0;
+
+          long t0 = System.nanoTime();
+          for (int r = 0; r < repQty; ++r)
+            for (int i = 0; i < ARRAY_QTY; ++i)
+              checkSum += SparseIntersection.intersectMerge(shortArr[i], shortArr[i].length,
+                                                            longArr[i], longQty, pos1, pos2);
+          long t1 = System.nanoTime();
+          for (int r = 0; r < repQty; ++r)
+            for (int i = 0; i < ARRAY_QTY; ++i)
+              checkSum += SparseIntersection.intersectGallop(shortArr[i], shortArr[i].length,
+                                                             longArr[i], longQty, pos1, pos2);
+          long t2 = System.nanoTime();
+          for (int r = 0; r < repQty; ++r)
+            for (int i = 0; i < ARRAY_QTY; ++i)
+              checkSum += SparseIntersection.intersectProbe(shortArr[i], shortArr[i].length,
+                                                            longArr[i], longQty, pos1, pos2);
+          long t3 = System.nanoTime();
+
+          timeMerge  = t1 - t0;
+          timeGallop = t2 - t1;
+          timeProbe  = t3 - t2;
+        }
+
+        double opQty = repQty * ARRAY_QTY;
+
+        String best = "merge";
+        long bestTime = timeMerge;
+        if (timeGallop < bestTime) { best = "gallop"; bestTime = timeGallop; }
+        if (timeProbe < bestTime)  { best = "probe"; bestTime = timeProbe; }
+
+        String selected = "merge";
+        if (longQty >= SparseIntersection.GALLOP_RATIO * shortQty)
+          selected = shortQty <= SparseIntersection.PROBE_MAX_QTY ? "probe" : "gallop";
+
+        System.out.println(String.format("%d\t%d\t%.1f\t%.1f\t%.1f\t%s\t%s (checksum %d)",
+                            shortQty, longQty,
+                            timeMerge / opQty, timeGallop / opQty, timeProbe / opQty,
+                            best, selected, checkSum));
+      }
+    }
+  }
+
+  private static int[] genSortedUnique(Random rnd, int qty, int maxId) {
+    int res[] = new int[qty];
+    for (int i = 0; i < qty; ++i) res[i] = 1 + rnd.nextInt(maxId);
+    res = uniqSorted(res);
+    // Top up after removing duplicates
+    while (res.length < qty) {
+      int tmp[] = Arrays.copyOf(res, qty);
+      for (int i = res.length; i < qty; ++i) tmp[i] = 1 + rnd.nextInt(maxId);
+      res = uniqSorted(tmp);
+    }
+    return res;
+  }
+
+  private static int[] uniqSorted(int arr[]) {
+    int tmp[] = arr.clone();
+    Arrays.sort(tmp);
+    int qty = 0;
+    for (int i = 0; i < tmp.length; ++i)
+      if (qty == 0 || tmp[qty-1] != tmp[i]) tmp[qty++] = tmp[i];
+    return Arrays.copyOf(tmp, qty);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.simil;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import edu.cmu.lti.oaqa.knn4qa.AbstractTest;
+
+/**
+ * Checks that all intersection kernels produce the same results as a straightforward merge.
+ */
+public class SparseIntersectionTest extends AbstractTest {
+
+  int[] genSortedUnique(Random rnd, int qty, int maxId) {
+    TreeSet<Integer> s = new TreeSet<Integer>();
+    while (s.size() < qty) s.add(rnd.nextInt(maxId) - 1); // -1 can be present too
+    int res[] = new int[qty];
+    int k = 0;
+    for (int v : s) res[k++] = v;
+    return res;
+  }
+
+  void checkOne(int ids1[], int ids2[]) {
+    int qty = SparseIntersection.maxMatchQty(ids1.length, ids2.length);
+
+    int expPos1[] = new int[qty], expPos2[] = new int[qty];
+    int expQty = SparseIntersection.intersectMerge(ids1, ids1.length, ids2, ids2.length, expPos1, expPos2);
+
+    int pos1[] = new int[qty], pos2[] = new int[qty];
+
+    int matchQty = SparseIntersection.intersect(ids1, ids1.length, ids2, ids2.length, pos1, pos2);
+    assertEquals(expQty, matchQty);
+    assertTrue(Arrays.equals(Arrays.copyOf(expPos1, expQty), Arrays.copyOf(pos1, matchQty)));
+    assertTrue(Arrays.equals(Arrays.copyOf(expPos2, expQty), Arrays.copyOf(pos2, matchQty)));
+
+    if (ids1.length <= ids2.length) {
+      matchQty = SparseIntersection.intersectGallop(ids1, ids1.length, ids2, ids2.length, pos1, pos2);
+      assertEquals(expQty, matchQty);
+      assertTrue(Arrays.equals(Arrays.copyOf(expPos1, expQty), Arrays.copyOf(pos1, matchQty)));
+      assertTrue(Arrays.equals(Arrays.copyOf(expPos2, expQty), Arrays.copyOf(pos2, matchQty)));
+
+      matchQty = SparseIntersection.intersectProbe(ids1, ids1.length, ids2, ids2.length, pos1, pos2);
+      assertEquals(expQty, matchQty);
+      assertTrue(Arrays.equals(Arrays.copyOf(expPos1, expQty), Arrays.copyOf(pos1, matchQty)));
+      assertTrue(Arrays.equals(Arrays.copyOf(expPos2, expQty), Arrays.copyOf(pos2, matchQty)));
+    }
+  }
+
+  @Test
+  public void testSimple() {
+    checkOne(new int[]{}, new int[]{1, 2, 3});
+    checkOne(new int[]{1, 2, 3}, new int[]{});
+    checkOne(new int[]{2}, new int[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17});
+    checkOne(new int[]{-1, 5, 17}, new int[]{-1, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17});
+    checkOne(new int[]{18}, new int[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17});
+  }
+
+  @Test
+  public void testRandom() {
+    Random rnd = new Random(0);
+
+    int qtys[] = {1, 2, 3, 5, 8, 16, 50, 200, 1000};
+
+    for (int rep = 0; rep < 20; ++rep) {
+      for (int qty1 : qtys)
+        for (int qty2 : qtys) {
+          int maxId = 2 * Math.max(qty1, qty2) + 10;
+          checkOne(genSortedUnique(rnd, qty1, maxId), genSortedUnique(rnd, qty2, maxId));
+        }
+    }
+  }
+
+  @Test
+  public void testBuffers() {
+    SparseIntersection.Buffers buf1 = SparseIntersection.getBuffers(5, 1000);
+    assertTrue(buf1.mPos1.length >= 5 && buf1.mPos2.length >= 5);
+    // Smaller requests re-use the same arrays
+    SparseIntersection.Buffers buf2 = SparseIntersection.getBuffers(3, 2);
+    assertSame(buf1, buf2);
+    int prevPos1[] = buf2.mPos1;
+    assertSame(prevPos1, SparseIntersection.getBuffers(4, 4).mPos1);
+    // Larger requests grow the arrays
+    SparseIntersection.Buffers buf3 = SparseIntersection.getBuffers(200, 300);
+    assertTrue(buf3.mPos1.length >= 200 && buf3.mPos2.length >= 200);
+
+    int ids1[] = {1, 3, 5}, ids2[] = {2, 3, 4, 5};
+    buf3 = SparseIntersection.getBuffers(ids1.length, ids2.length);
+    int matchQty = SparseIntersection.intersect(ids1, ids1.length, ids2, ids2.length, buf3.mPos1, buf3.mPos2);
+    assertEquals(2, matchQty);
+    assertEquals(1, buf3.mPos1[0]); assertEquals(1, buf3.mPos2[0]);
+    assertEquals(2, buf3.mPos1[1]); assertEquals(3, buf3.mPos2[1]);
+  }
+}
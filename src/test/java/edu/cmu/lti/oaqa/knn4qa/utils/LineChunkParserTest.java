@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2026 Carnegie Mellon University
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package edu.cmu.lti.oaqa.knn4qa.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.io.*;
+
+import org.junit.Test;
+
+/**
+ */
+public class LineChunkParserTest {
+  static class TestParser extends LineChunkParser {
+    static final Factory<TestParser> FACTORY = new Factory<TestParser>() {
+      @Override
+      public TestParser create() {
+        return new TestParser();
+      }
+    };
+
+    @Override
+    protected void parseLine() throws Exception {
+      // The first token is an integer, the others are floats
+      if (!nextToken()) return;
+      mInts.add(getTokenInt());
+      while (nextToken()) mFloats.add(getTokenFloat());
+    }
+
+    ArrayList<Integer> mInts = new ArrayList<Integer>();
+    ArrayList<Float>   mFloats = new ArrayList<Float>();
+  }
+
+  private static String randomFloat(Random rand) {
+    switch (rand.nextInt(6)) {
+      case 0:  return Float.toString(rand.nextFloat());
+      case 1:  return Double.toString(rand.nextDouble() * Math.pow(10, rand.nextInt(60) - 40));
+      case 2:  return String.format("%.6g", rand.nextDouble() * Math.pow(10, rand.nextInt(20) - 15));
+      case 3:  return Float.toString(Float.intBitsToFloat(rand.nextInt() & 0x7fffffff));
+      case 4:  return (rand.nextBoolean() ? "-" : "") + rand.nextInt(100) + "e" + (rand.nextInt(90) - 45);
+      default: return "0.000" + rand.nextInt(100000);
+    }
+  }
+
+  /**
+   * Testing if numbers are parsed exactly as by Integer.parseInt and Float.parseFloat
+   * and if the order of lines is preserved (for different numbers of threads,
+   * uncompressed and compressed files).
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testParse() throws Exception {
+    Random rand = new Random(0);
+
+    ArrayList<Integer> ints = new ArrayList<Integer>();
+    ArrayList<String>  floats = new ArrayList<String>();
+
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 100000; ++i) {
+      int n = rand.nextInt() / (1 + rand.nextInt(1000));
+      ints.add(n);
+      sb.append(rand.nextBoolean() ? " " : "");
+      sb.append(n);
+      for (int k = rand.nextInt(3); k > 0; --k) {
+        String f = randomFloat(rand);
+        floats.add(f);
+        sb.append(rand.nextBoolean() ? " " : "\t");
+        sb.append(f);
+      }
+      // Occasional empty lines and Windows line ends
+      sb.append(rand.nextInt(10) == 0 ? "\r\n\n" : "\n");
+    }
+
+    for (String suffix : new String[]{".txt", ".gz"}) {
+      File f = File.createTempFile("line_chunk_parser", suffix);
+      f.deleteOnExit();
+      OutputStream out = CompressUtils.createBackgroundOutputStream(f.getAbsolutePath());
+      out.write(sb.toString().getBytes("UTF-8"));
+      out.close();
+
+      for (int threadQty : new int[]{1, 3}) {
+        ArrayList<TestParser> chunks = LineChunkParser.parseFile(f.getAbsolutePath(), threadQty, TestParser.FACTORY);
+
+        ArrayList<Integer> parsedInts = new ArrayList<Integer>();
+        ArrayList<Float>   parsedFloats = new ArrayList<Float>();
+        for (TestParser chunk : chunks) {
+          parsedInts.addAll(chunk.mInts);
+          parsedFloats.addAll(chunk.mFloats);
+        }
+
+        assertEquals(ints, parsedInts);
+        assertEquals(floats.size(), parsedFloats.size());
+        for (int i = 0; i < floats.size(); ++i) {
+          assertEquals(floats.get(i),
+                       Float.floatToIntBits(Float.parseFloat(floats.get(i))),
+                       Float.floatToIntBits(parsedFloats.get(i)));
+        }
+      }
+
+      f.delete();
+    }
+  }
+}